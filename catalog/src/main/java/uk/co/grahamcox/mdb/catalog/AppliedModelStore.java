@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2011 graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.grahamcox.mdb.catalog;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import uk.co.grahamcox.mdb.schema.Database;
+import uk.co.grahamcox.mdb.schema.Fingerprint;
+
+/**
+ * Record the fingerprint of the model that was last applied to a database
+ * in a one row table in that database. When the fingerprint of the local
+ * model matches the recorded one the database is already up to date, which
+ * can be confirmed with a single query and no introspection or diff at all.
+ * The fingerprint should only be recorded once the model has been applied
+ * successfully, ideally in the same transaction as the changes, which is
+ * what the migration scheduler does when it is given a store. The table
+ * is left out when the {@link CatalogReader} reads the catalog, so that it
+ * isn't dropped for not being in the model; a store with another table name
+ * must have that name added to the excluded tables of the reader
+ * @author graham
+ */
+public class AppliedModelStore {
+    /** The logger to use */
+    private final Log LOG = LogFactory.getLog(AppliedModelStore.class);
+    /** The ID of the single row in the table */
+    private static final int ROW_ID = 1;
+    /** The name of the table unless another is given */
+    public static final String DEFAULT_TABLE_NAME = "mdb_applied_model";
+
+    /** The schema that the table is in, or null for the default schema */
+    private String schemaName = null;
+    /** The name of the table */
+    private String tableName = DEFAULT_TABLE_NAME;
+
+    /**
+     * Get the schema that the table is in
+     * @return the schema name, or null for the default schema
+     */
+    public String getSchemaName() {
+        return schemaName;
+    }
+
+    /**
+     * Set the schema that the table is in
+     * @param schemaName the schema name, or null for the default schema
+     */
+    public void setSchemaName(String schemaName) {
+        this.schemaName = schemaName;
+    }
+
+    /**
+     * Get the name of the table
+     * @return the table name
+     */
+    public String getTableName() {
+        return tableName;
+    }
+
+    /**
+     * Set the name of the table
+     * @param tableName the table name
+     */
+    public void setTableName(String tableName) {
+        this.tableName = tableName;
+    }
+
+    /**
+     * Check if the given model is the one that was last applied to the
+     * database. This takes a single query. If the connection is in a
+     * transaction on a database that aborts transactions on error, such as
+     * PostgreSQL, then this should be called before the transaction starts,
+     * as the query fails if nothing has been recorded yet
+     * @param connection the connection to the database
+     * @param model the model
+     * @return True if the model was the last one applied. False if not
+     */
+    public boolean isUpToDate(Connection connection, Database model) {
+        Fingerprint applied;
+        try {
+            applied = readFingerprint(connection);
+        }
+        catch (SQLException ex) {
+            LOG.debug("No applied model recorded: " + ex.getMessage());
+            return false;
+        }
+        boolean upToDate = model.getFingerprint().equals(applied);
+        LOG.debug("Applied model " + applied + ", local model " + model.getFingerprint()
+                + (upToDate ? ", database is up to date" : ", database needs updating"));
+        return upToDate;
+    }
+
+    /**
+     * Read the fingerprint of the model that was last applied to the database
+     * @param connection the connection to the database
+     * @return the fingerprint, or null if none has been recorded
+     * @throws SQLException if the table can't be read, including if it
+     * doesn't exist
+     */
+    public Fingerprint readFingerprint(Connection connection) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(
+                "SELECT \"fingerprint\" FROM " + qualifiedTableName() + " WHERE \"id\" = ?");
+        try {
+            statement.setInt(1, ROW_ID);
+            ResultSet results = statement.executeQuery();
+            try {
+                if (!results.next()) {
+                    return null;
+                }
+                return Fingerprint.parse(results.getString(1));
+            }
+            catch (IllegalArgumentException ex) {
+                LOG.warn("Ignoring invalid applied model fingerprint", ex);
+                return null;
+            }
+            finally {
+                results.close();
+            }
+        }
+        finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Record that the given model has been applied to the database, creating
+     * the table if it doesn't exist yet
+     * @param connection the connection to the database
+     * @param model the model that was applied
+     * @throws SQLException if the fingerprint can't be recorded
+     */
+    public void record(Connection connection, Database model) throws SQLException {
+        createTable(connection);
+        String fingerprint = model.getFingerprint().toString();
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        PreparedStatement update = connection.prepareStatement("UPDATE " + qualifiedTableName()
+                + " SET \"fingerprint\" = ?, \"applied_at\" = ? WHERE \"id\" = ?");
+        try {
+            update.setString(1, fingerprint);
+            update.setTimestamp(2, now);
+            update.setInt(3, ROW_ID);
+            if (update.executeUpdate() > 0) {
+                return;
+            }
+        }
+        finally {
+            update.close();
+        }
+
+        PreparedStatement insert = connection.prepareStatement("INSERT INTO " + qualifiedTableName()
+                + " (\"id\", \"fingerprint\", \"applied_at\") VALUES (?, ?, ?)");
+        try {
+            insert.setInt(1, ROW_ID);
+            insert.setString(2, fingerprint);
+            insert.setTimestamp(3, now);
+            insert.executeUpdate();
+        }
+        finally {
+            insert.close();
+        }
+    }
+
+    /**
+     * Create the table if it doesn't exist yet
+     * @param connection the connection to the database
+     * @throws SQLException if the table can't be created
+     */
+    private void createTable(Connection connection) throws SQLException {
+        DatabaseMetaData metaData = connection.getMetaData();
+        String escape = metaData.getSearchStringEscape();
+        String schema = schemaName == null ? currentSchema(connection) : schemaName;
+        ResultSet tables = metaData.getTables(null, escapePattern(schema, escape), escapePattern(tableName, escape),
+                null);
+        try {
+            if (tables.next()) {
+                return;
+            }
+        }
+        finally {
+            tables.close();
+        }
+        LOG.info("Creating table " + qualifiedTableName());
+        Statement statement = connection.createStatement();
+        try {
+            statement.execute("CREATE TABLE " + qualifiedTableName() + " (\"id\" INTEGER NOT NULL PRIMARY KEY,"
+                    + " \"fingerprint\" VARCHAR(32) NOT NULL, \"applied_at\" TIMESTAMP NOT NULL)");
+        }
+        finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Get the schema that unqualified names are in
+     * @param connection the connection to the database
+     * @return the schema name
+     * @throws SQLException if it can't be read
+     */
+    private String currentSchema(Connection connection) throws SQLException {
+        Statement statement = connection.createStatement();
+        try {
+            ResultSet results = statement.executeQuery("VALUES (CURRENT_SCHEMA)");
+            try {
+                results.next();
+                return results.getString(1);
+            }
+            finally {
+                results.close();
+            }
+        }
+        finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Escape a name for use as a metadata search pattern, so that _ and %
+     * only match themselves
+     * @param name the name
+     * @param escape the search string escape of the database
+     * @return the pattern
+     */
+    private static String escapePattern(String name, String escape) {
+        if (escape == null || escape.length() == 0) {
+            return name;
+        }
+        StringBuilder result = new StringBuilder(name.length() + 8);
+        for (int i = 0; i < name.length(); ++i) {
+            char c = name.charAt(i);
+            if (c == '_' || c == '%' || escape.indexOf(c) == 0) {
+                result.append(escape);
+            }
+            result.append(c);
+        }
+        return result.toString();
+    }
+
+    /**
+     * Get the quoted, and if necessary schema qualified, name of the table
+     * @return the table name
+     */
+    private String qualifiedTableName() {
+        String quoted = "\"" + tableName.replace("\"", "\"\"") + "\"";
+        if (schemaName == null) {
+            return quoted;
+        }
+        return "\"" + schemaName.replace("\"", "\"\"") + "\"." + quoted;
+    }
+}
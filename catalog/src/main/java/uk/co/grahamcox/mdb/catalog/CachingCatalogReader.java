@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2011 graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.grahamcox.mdb.catalog;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import uk.co.grahamcox.mdb.loader.LoadException;
+import uk.co.grahamcox.mdb.loader.snapshot.Snapshot;
+import uk.co.grahamcox.mdb.loader.snapshot.SnapshotReader;
+import uk.co.grahamcox.mdb.loader.snapshot.SnapshotWriter;
+import uk.co.grahamcox.mdb.schema.Database;
+import uk.co.grahamcox.mdb.schema.Schema;
+
+/**
+ * Read the catalog of a database, keeping a local copy of what was read
+ * so that the next read only has to fetch the schemas that have changed.
+ * There is one cache file for each database URL and user, written in the
+ * snapshot format with the staleness token of each schema in place of the
+ * source file hashes. The tokens are read before the schemas, so a schema
+ * that changes while it is being read is simply read again next time
+ * @author graham
+ */
+public class CachingCatalogReader {
+    /** The logger to use */
+    private final Log LOG = LogFactory.getLog(CachingCatalogReader.class);
+    /** The reader to read the catalog with */
+    private final CatalogReader reader;
+    /** The directory to keep the cache files in */
+    private final File cacheDirectory;
+
+    /**
+     * Create the caching catalog reader
+     * @param reader the reader to read the catalog with
+     * @param cacheDirectory the directory to keep the cache files in
+     */
+    public CachingCatalogReader(CatalogReader reader, File cacheDirectory) {
+        this.reader = reader;
+        this.cacheDirectory = cacheDirectory;
+    }
+
+    /**
+     * Read the catalog of the database that the connection is to into the
+     * given database model, using the cache for the schemas that haven't
+     * changed since it was written
+     * @param database the database model to read into
+     * @param connection the connection to read from
+     * @return the number of schemas that were read from the database
+     * @throws SQLException if an error occurs reading the catalog
+     */
+    public int read(Database database, Connection connection) throws SQLException {
+        List<String> schemaNames = reader.readSchemaNames(connection);
+        SortedMap<String, String> tokens = reader.readTokens(connection, schemaNames);
+        if (tokens == null) {
+            LOG.debug("No staleness tokens available, reading the whole catalog");
+            reader.read(database, connection, schemaNames);
+            return schemaNames.size();
+        }
+
+        File cacheFile = getCacheFile(connection);
+        Snapshot cached = readCache(cacheFile, database);
+        List<String> staleSchemas = new ArrayList<String>();
+        for (Map.Entry<String, String> token : tokens.entrySet()) {
+            Schema schema = cached == null ? null : cached.getDatabase().getSchema(token.getKey());
+            if (schema != null && token.getValue().equals(cached.getSources().get(token.getKey()))) {
+                database.addSchema(schema);
+            }
+            else {
+                staleSchemas.add(token.getKey());
+            }
+        }
+
+        LOG.debug("Reading " + staleSchemas.size() + " of " + tokens.size() + " schemas from the database");
+        reader.read(database, connection, staleSchemas);
+        if (cached == null || !staleSchemas.isEmpty() || !tokens.equals(cached.getSources())) {
+            writeCache(cacheFile, database, tokens);
+        }
+        return staleSchemas.size();
+    }
+
+    /**
+     * Write the cache file. Only the schemas that have tokens are written,
+     * as the database model may hold other schemas that the caller put there.
+     * The schemas are lent to the snapshot while it is written, and then
+     * handed back to the database model
+     * @param cacheFile the cache file
+     * @param database the database model that was read into
+     * @param tokens the token of each schema that was read
+     */
+    private void writeCache(File cacheFile, Database database, SortedMap<String, String> tokens) {
+        Database snapshot = new Database(database.getNames());
+        for (String schemaName : tokens.keySet()) {
+            Schema schema = database.getSchema(schemaName);
+            if (schema != null) {
+                snapshot.addSchema(schema);
+            }
+        }
+        try {
+            cacheDirectory.mkdirs();
+            new SnapshotWriter().write(new Snapshot(snapshot, tokens), cacheFile);
+        }
+        catch (IOException ex) {
+            LOG.warn("Failed to write catalog cache " + cacheFile, ex);
+        }
+        finally {
+            for (Schema schema : snapshot.getSchemas()) {
+                database.addSchema(schema);
+            }
+        }
+    }
+
+    /**
+     * Get the cache file for the database that the connection is to
+     * @param connection the connection
+     * @return the cache file
+     * @throws SQLException if the details of the connection can't be read
+     */
+    public File getCacheFile(Connection connection) throws SQLException {
+        DatabaseMetaData metaData = connection.getMetaData();
+        String target = metaData.getURL() + "\n" + metaData.getUserName();
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(target.getBytes("UTF-8"));
+            StringBuilder name = new StringBuilder("catalog-");
+            for (byte b : digest) {
+                name.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return new File(cacheDirectory, name.append(".snapshot").toString());
+        }
+        catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("MD5 is not supported", ex);
+        }
+        catch (IOException ex) {
+            throw new IllegalStateException("UTF-8 is not supported", ex);
+        }
+    }
+
+    /**
+     * Read the cache file, if there is a usable one
+     * @param cacheFile the cache file
+     * @param database the database whose name dictionary to use
+     * @return the cached snapshot, or null if there isn't one
+     */
+    private Snapshot readCache(File cacheFile, Database database) {
+        if (!cacheFile.isFile()) {
+            return null;
+        }
+        try {
+            return new SnapshotReader().read(cacheFile, database.getNames());
+        }
+        catch (IOException ex) {
+            LOG.warn("Failed to read catalog cache " + cacheFile, ex);
+        }
+        catch (LoadException ex) {
+            LOG.warn("Ignoring invalid catalog cache " + cacheFile, ex);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright (C) 2011 graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.grahamcox.mdb.catalog;
+
+/**
+ * The SQL that the {@link CatalogReader} uses to read the catalog. Each
+ * query returns every row of its kind for the whole database in one go,
+ * so that reading a catalog takes the same number of queries however many
+ * tables there are. The columns that each query must return, in order, are:
+ * <ul>
+ * <li>Schemas - schema name</li>
+ * <li>Tables - schema name, table name</li>
+ * <li>Columns - schema name, table name, column name, data type name,
+ * character length, numeric precision, numeric scale, datetime precision,
+ * "YES" or "NO" for nullable, default value. Rows must be ordered by schema,
+ * table and column position</li>
+ * <li>Keys - schema name, table name, column name of each primary key
+ * column</li>
+ * <li>Comments - schema name, table name, column name, comment. The table
+ * name is null for a comment on a schema, and the column name is null for a
+ * comment on a table</li>
+ * <li>Tokens - schema name, part of the staleness token. The parts of each
+ * schema are hashed together, in the order they are returned, into a token
+ * that changes whenever anything in the schema changes. A query that can
+ * return one short part per schema should, as it is then much cheaper to
+ * read than the schema itself. Schemas without a row are given an empty
+ * token</li>
+ * </ul>
+ * Every query apart from the one for the schemas should restrict its rows
+ * to the schemas being read, with the marker {schemas} standing in for the
+ * list of schema names, e.g. "TABLE_SCHEMA IN ({schemas})". The marker is
+ * replaced by one bind parameter per schema. A query without the marker
+ * reads every schema, and the rows for other schemas are ignored.
+ * The defaults read the standard INFORMATION_SCHEMA views, which only
+ * differ between databases in how comments are stored
+ * @author graham
+ */
+public class CatalogQueries {
+    /** The marker that is replaced by the names of the schemas being read */
+    public static final String SCHEMAS_MARKER = "{schemas}";
+
+    /** The standard query for the schemas */
+    private static final String SCHEMAS = "SELECT SCHEMA_NAME FROM INFORMATION_SCHEMA.SCHEMATA";
+    /** The standard query for the tables */
+    private static final String TABLES = "SELECT TABLE_SCHEMA, TABLE_NAME FROM INFORMATION_SCHEMA.TABLES"
+            + " WHERE TABLE_TYPE = 'BASE TABLE' AND TABLE_SCHEMA IN (" + SCHEMAS_MARKER + ")";
+    /** The standard query for the columns */
+    private static final String COLUMNS = "SELECT TABLE_SCHEMA, TABLE_NAME, COLUMN_NAME, DATA_TYPE,"
+            + " CHARACTER_MAXIMUM_LENGTH, NUMERIC_PRECISION, NUMERIC_SCALE, DATETIME_PRECISION,"
+            + " IS_NULLABLE, COLUMN_DEFAULT FROM INFORMATION_SCHEMA.COLUMNS"
+            + " WHERE TABLE_SCHEMA IN (" + SCHEMAS_MARKER + ")"
+            + " ORDER BY TABLE_SCHEMA, TABLE_NAME, ORDINAL_POSITION";
+    /** The standard query for the primary key columns */
+    private static final String KEYS = "SELECT k.TABLE_SCHEMA, k.TABLE_NAME, k.COLUMN_NAME"
+            + " FROM INFORMATION_SCHEMA.TABLE_CONSTRAINTS c JOIN INFORMATION_SCHEMA.KEY_COLUMN_USAGE k"
+            + " ON c.CONSTRAINT_SCHEMA = k.CONSTRAINT_SCHEMA AND c.CONSTRAINT_NAME = k.CONSTRAINT_NAME"
+            + " WHERE c.CONSTRAINT_TYPE = 'PRIMARY KEY' AND k.TABLE_SCHEMA IN (" + SCHEMAS_MARKER + ")";
+
+    /** The query for the schemas */
+    private String schemaQuery = SCHEMAS;
+    /** The query for the tables */
+    private String tableQuery = TABLES;
+    /** The query for the columns */
+    private String columnQuery = COLUMNS;
+    /** The query for the primary key columns */
+    private String keyQuery = KEYS;
+    /** The query for the comments, or null if comments are not read */
+    private String commentQuery = null;
+    /** The query for the staleness tokens, or null if there is no cheap way to tell */
+    private String tokenQuery = null;
+    /** Whether the queries can be run on several connections at once */
+    private boolean concurrentSafe = true;
+
+    /**
+     * Get the queries for reading a HSQLDB catalog
+     * @return the queries
+     */
+    public static CatalogQueries forHsqldb() {
+        CatalogQueries queries = new CatalogQueries();
+        // HSQLDB 2.0 builds its INFORMATION_SCHEMA tables in state shared by
+        // every session, so a query run while another session runs one can
+        // see too few rows
+        queries.setConcurrentSafe(false);
+        queries.setCommentQuery("SELECT OBJECT_SCHEMA,"
+                + " CASE WHEN OBJECT_TYPE = 'SCHEMA' THEN NULL ELSE OBJECT_NAME END,"
+                + " COLUMN_NAME, COMMENT FROM INFORMATION_SCHEMA.SYSTEM_COMMENTS"
+                + " WHERE OBJECT_TYPE IN ('SCHEMA', 'TABLE', 'COLUMN')"
+                + " AND OBJECT_SCHEMA IN (" + SCHEMAS_MARKER + ")");
+        // HSQLDB has no record of when its catalog changes, nor a way to
+        // aggregate text, so the parts of the token are the definitions
+        // themselves, one row for each table, column, key column and comment
+        queries.setTokenQuery("SELECT TABLE_SCHEMA, 't:' || TABLE_NAME FROM INFORMATION_SCHEMA.TABLES"
+                + " WHERE TABLE_TYPE = 'BASE TABLE' AND TABLE_SCHEMA IN (" + SCHEMAS_MARKER + ")"
+                + " UNION ALL SELECT TABLE_SCHEMA, 'c:' || TABLE_NAME || '.' || COLUMN_NAME"
+                + " || ':' || CAST(ORDINAL_POSITION AS VARCHAR(20)) || ':' || DATA_TYPE || ':' || IS_NULLABLE"
+                + " || ':' || COALESCE(CAST(CHARACTER_MAXIMUM_LENGTH AS VARCHAR(20)), '')"
+                + " || ':' || COALESCE(CAST(NUMERIC_PRECISION AS VARCHAR(20)), '')"
+                + " || ':' || COALESCE(CAST(NUMERIC_SCALE AS VARCHAR(20)), '')"
+                + " || ':' || COALESCE(CAST(DATETIME_PRECISION AS VARCHAR(20)), '')"
+                + " || ':' || COALESCE(COLUMN_DEFAULT, '')"
+                + " FROM INFORMATION_SCHEMA.COLUMNS WHERE TABLE_SCHEMA IN (" + SCHEMAS_MARKER + ")"
+                + " UNION ALL SELECT k.TABLE_SCHEMA, 'k:' || k.TABLE_NAME || '.' || k.CONSTRAINT_NAME"
+                + " || ':' || k.COLUMN_NAME || ':' || CAST(k.ORDINAL_POSITION AS VARCHAR(20))"
+                + " FROM INFORMATION_SCHEMA.TABLE_CONSTRAINTS c JOIN INFORMATION_SCHEMA.KEY_COLUMN_USAGE k"
+                + " ON c.CONSTRAINT_SCHEMA = k.CONSTRAINT_SCHEMA AND c.CONSTRAINT_NAME = k.CONSTRAINT_NAME"
+                + " WHERE c.CONSTRAINT_TYPE = 'PRIMARY KEY' AND k.TABLE_SCHEMA IN (" + SCHEMAS_MARKER + ")"
+                + " UNION ALL SELECT OBJECT_SCHEMA, 'm:' || OBJECT_TYPE || ':' || OBJECT_NAME"
+                + " || '.' || COALESCE(COLUMN_NAME, '') || ':' || COALESCE(COMMENT, '')"
+                + " FROM INFORMATION_SCHEMA.SYSTEM_COMMENTS WHERE OBJECT_TYPE IN ('SCHEMA', 'TABLE', 'COLUMN')"
+                + " AND OBJECT_SCHEMA IN (" + SCHEMAS_MARKER + ")"
+                + " ORDER BY 1, 2");
+        return queries;
+    }
+
+    /**
+     * Get the queries for reading a PostgreSQL catalog
+     * @return the queries
+     */
+    public static CatalogQueries forPostgresql() {
+        CatalogQueries queries = new CatalogQueries();
+        queries.setSchemaQuery("SELECT nspname FROM pg_catalog.pg_namespace");
+        queries.setCommentQuery("SELECT n.nspname, NULL::name, NULL::name, d.description"
+                + " FROM pg_catalog.pg_description d JOIN pg_catalog.pg_namespace n ON d.objoid = n.oid"
+                + " WHERE d.classoid = 'pg_catalog.pg_namespace'::regclass"
+                + " AND n.nspname IN (" + SCHEMAS_MARKER + ")"
+                + " UNION ALL SELECT n.nspname, c.relname, a.attname, d.description"
+                + " FROM pg_catalog.pg_description d JOIN pg_catalog.pg_class c ON d.objoid = c.oid"
+                + " JOIN pg_catalog.pg_namespace n ON c.relnamespace = n.oid"
+                + " LEFT JOIN pg_catalog.pg_attribute a ON a.attrelid = c.oid AND a.attnum = d.objsubid"
+                + " WHERE d.classoid = 'pg_catalog.pg_class'::regclass AND c.relkind = 'r'"
+                + " AND (d.objsubid = 0 OR a.attname IS NOT NULL)"
+                + " AND n.nspname IN (" + SCHEMAS_MARKER + ")");
+        // Every catalog row that is written gets a new xmin, so the xmins of
+        // the rows describing a schema change whenever the schema does
+        queries.setTokenQuery("SELECT n.nspname, md5(n.xmin::text || string_agg(x.v, ',' ORDER BY x.v))"
+                + " FROM pg_catalog.pg_namespace n LEFT JOIN ("
+                + "SELECT c.relnamespace AS ns, 'c' || c.oid || ':' || c.xmin::text AS v FROM pg_catalog.pg_class c"
+                + " WHERE c.relkind = 'r'"
+                + " UNION ALL SELECT c.relnamespace, 'a' || a.attrelid || '.' || a.attnum || ':' || a.xmin::text"
+                + " FROM pg_catalog.pg_attribute a JOIN pg_catalog.pg_class c ON a.attrelid = c.oid"
+                + " WHERE c.relkind = 'r' AND a.attnum > 0"
+                + " UNION ALL SELECT c.relnamespace, 'd' || d.adrelid || '.' || d.adnum || ':' || d.xmin::text"
+                + " FROM pg_catalog.pg_attrdef d JOIN pg_catalog.pg_class c ON d.adrelid = c.oid"
+                + " UNION ALL SELECT k.connamespace, 'k' || k.oid || ':' || k.xmin::text"
+                + " FROM pg_catalog.pg_constraint k WHERE k.contype = 'p'"
+                + " UNION ALL SELECT c.relnamespace, 'm' || d.objoid || '.' || d.objsubid || ':' || d.xmin::text"
+                + " FROM pg_catalog.pg_description d JOIN pg_catalog.pg_class c ON d.objoid = c.oid"
+                + " WHERE d.classoid = 'pg_catalog.pg_class'::regclass"
+                + " UNION ALL SELECT d.objoid, 's:' || d.xmin::text FROM pg_catalog.pg_description d"
+                + " WHERE d.classoid = 'pg_catalog.pg_namespace'::regclass"
+                + ") x ON x.ns = n.oid WHERE n.nspname IN (" + SCHEMAS_MARKER + ") GROUP BY n.nspname, n.xmin");
+        return queries;
+    }
+
+    /**
+     * Get the query for the schemas
+     * @return the query
+     */
+    public String getSchemaQuery() {
+        return schemaQuery;
+    }
+
+    /**
+     * Set the query for the schemas
+     * @param schemaQuery the query
+     */
+    public void setSchemaQuery(String schemaQuery) {
+        this.schemaQuery = schemaQuery;
+    }
+
+    /**
+     * Get the query for the tables
+     * @return the query
+     */
+    public String getTableQuery() {
+        return tableQuery;
+    }
+
+    /**
+     * Set the query for the tables
+     * @param tableQuery the query
+     */
+    public void setTableQuery(String tableQuery) {
+        this.tableQuery = tableQuery;
+    }
+
+    /**
+     * Get the query for the columns
+     * @return the query
+     */
+    public String getColumnQuery() {
+        return columnQuery;
+    }
+
+    /**
+     * Set the query for the columns
+     * @param columnQuery the query
+     */
+    public void setColumnQuery(String columnQuery) {
+        this.columnQuery = columnQuery;
+    }
+
+    /**
+     * Get the query for the primary key columns
+     * @return the query
+     */
+    public String getKeyQuery() {
+        return keyQuery;
+    }
+
+    /**
+     * Set the query for the primary key columns
+     * @param keyQuery the query
+     */
+    public void setKeyQuery(String keyQuery) {
+        this.keyQuery = keyQuery;
+    }
+
+    /**
+     * Get the query for the comments
+     * @return the query, or null if comments are not read
+     */
+    public String getCommentQuery() {
+        return commentQuery;
+    }
+
+    /**
+     * Set the query for the comments
+     * @param commentQuery the query, or null if comments are not read
+     */
+    public void setCommentQuery(String commentQuery) {
+        this.commentQuery = commentQuery;
+    }
+
+    /**
+     * Get the query for the staleness tokens
+     * @return the query, or null if there is no cheap way to tell
+     */
+    public String getTokenQuery() {
+        return tokenQuery;
+    }
+
+    /**
+     * Set the query for the staleness tokens
+     * @param tokenQuery the query, or null if there is no cheap way to tell
+     */
+    public void setTokenQuery(String tokenQuery) {
+        this.tokenQuery = tokenQuery;
+    }
+
+    /**
+     * Check whether the queries can be run on several connections at once
+     * @return True if they can. False if the catalog must be read on one
+     * connection
+     */
+    public boolean isConcurrentSafe() {
+        return concurrentSafe;
+    }
+
+    /**
+     * Set whether the queries can be run on several connections at once.
+     * Some databases return too few rows when their catalog is read by more
+     * than one session at a time
+     * @param concurrentSafe True if they can. False if the catalog must be
+     * read on one connection
+     */
+    public void setConcurrentSafe(boolean concurrentSafe) {
+        this.concurrentSafe = concurrentSafe;
+    }
+}
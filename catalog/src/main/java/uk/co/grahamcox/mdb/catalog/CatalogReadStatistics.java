@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2011 graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.grahamcox.mdb.catalog;
+
+import java.util.Locale;
+
+/**
+ * Timings of a catalog read, used to report how much faster reading the
+ * schemas in parallel was than reading them one batch after another. The
+ * speedup is only known if the read was timed on one connection as well
+ * @author graham
+ */
+public class CatalogReadStatistics {
+    /** The number of schemas read */
+    private final int schemas;
+    /** The number of batches the schemas were read in */
+    private final int batches;
+    /** The number of connections used */
+    private final int parallelism;
+    /** The time the whole read took, in nanoseconds */
+    private final long elapsedNanos;
+    /** The total time spent reading the batches, in nanoseconds */
+    private final long batchNanos;
+    /** The time reading the schemas on one connection took, in nanoseconds, or -1 if it wasn't measured */
+    private final long baselineNanos;
+
+    /**
+     * Create the statistics
+     * @param schemas the number of schemas read
+     * @param batches the number of batches the schemas were read in
+     * @param parallelism the number of connections used
+     * @param elapsedNanos the time the whole read took, in nanoseconds
+     * @param batchNanos the total time spent reading the batches, in nanoseconds
+     * @param baselineNanos the time reading the schemas on one connection
+     * took, in nanoseconds, or -1 if it wasn't measured
+     */
+    public CatalogReadStatistics(int schemas, int batches, int parallelism, long elapsedNanos, long batchNanos,
+            long baselineNanos) {
+        this.schemas = schemas;
+        this.batches = batches;
+        this.parallelism = parallelism;
+        this.elapsedNanos = elapsedNanos;
+        this.batchNanos = batchNanos;
+        this.baselineNanos = baselineNanos;
+    }
+
+    /**
+     * Get the number of schemas read
+     * @return the number of schemas
+     */
+    public int getSchemas() {
+        return schemas;
+    }
+
+    /**
+     * Get the number of batches the schemas were read in
+     * @return the number of batches
+     */
+    public int getBatches() {
+        return batches;
+    }
+
+    /**
+     * Get the number of connections used
+     * @return the number of connections
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Get the time the whole read took
+     * @return the time, in milliseconds
+     */
+    public long getElapsedMillis() {
+        return elapsedNanos / 1000000L;
+    }
+
+    /**
+     * Get the total time spent reading the batches, summed over every
+     * connection
+     * @return the time, in milliseconds
+     */
+    public long getBatchMillis() {
+        return batchNanos / 1000000L;
+    }
+
+    /**
+     * Get the time reading the schemas on one connection took
+     * @return the time, in milliseconds, or -1 if it wasn't measured
+     */
+    public long getBaselineMillis() {
+        return baselineNanos < 0 ? -1 : baselineNanos / 1000000L;
+    }
+
+    /**
+     * Get how many times faster the read was than reading the schemas on one
+     * connection
+     * @return the speedup, or NaN if the read wasn't timed on one connection
+     */
+    public double getSpeedup() {
+        if (baselineNanos < 0) {
+            return Double.NaN;
+        }
+        return elapsedNanos == 0 ? 1.0 : (double) baselineNanos / elapsedNanos;
+    }
+
+    /**
+     * Get the average number of connections that were busy reading - the
+     * total time spent reading the batches divided by the time the whole
+     * read took. This is not a speedup, as a batch takes longer on a busy
+     * database than it would on its own
+     * @return the average number of busy connections
+     */
+    public double getConcurrency() {
+        return elapsedNanos == 0 ? 1.0 : (double) batchNanos / elapsedNanos;
+    }
+
+    /**
+     * Generate a string for the object
+     * @return the string
+     */
+    @Override
+    public String toString() {
+        return "Read " + schemas + " schemas in " + batches + " batches over " + parallelism
+                + " connections in " + getElapsedMillis() + "ms, " + getBatchMillis() + "ms of work, concurrency "
+                + String.format(Locale.ENGLISH, "%.2f", getConcurrency())
+                + (baselineNanos < 0 ? "" : ", " + getBaselineMillis() + "ms on one connection, speedup "
+                        + String.format(Locale.ENGLISH, "%.2f", getSpeedup()));
+    }
+}
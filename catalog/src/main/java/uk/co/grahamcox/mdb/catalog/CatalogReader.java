@@ -0,0 +1,553 @@
+/*
+ * Copyright (C) 2011 graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.grahamcox.mdb.catalog;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import uk.co.grahamcox.mdb.schema.Column;
+import uk.co.grahamcox.mdb.schema.DataType;
+import uk.co.grahamcox.mdb.schema.Database;
+import uk.co.grahamcox.mdb.schema.NameDictionary;
+import uk.co.grahamcox.mdb.schema.Schema;
+import uk.co.grahamcox.mdb.schema.Table;
+
+/**
+ * Read the schemas, tables and columns of a live database into the model.
+ * The whole catalog is read with a fixed number of queries - one each for
+ * the schemas, tables, primary keys, columns and comments - rather than
+ * one query per table, and each result set is streamed straight into the
+ * model as it is read. A subset of the schemas can be read on its own, which
+ * is how {@link ParallelCatalogReader} splits the work between connections
+ * @author graham
+ */
+public class CatalogReader {
+    /** The logger to use */
+    private final Log LOG = LogFactory.getLog(CatalogReader.class);
+    /** The schemas that are never read, as they belong to the database itself */
+    public static final Set<String> SYSTEM_SCHEMAS = new HashSet<String>(Arrays.asList(
+            "INFORMATION_SCHEMA", "SYSTEM_LOBS", "information_schema", "pg_catalog", "pg_toast"));
+
+    /** The queries to read the catalog with */
+    private final CatalogQueries queries;
+    /** The mapper to get the data types of the columns with */
+    private final DataTypeMapper dataTypeMapper = new DataTypeMapper();
+    /** The schemas that are not read */
+    private Set<String> excludedSchemas = SYSTEM_SCHEMAS;
+    /** The names of the tables that are not read, in whichever schema they are in */
+    private Set<String> excludedTables = new HashSet<String>(Arrays.asList(AppliedModelStore.DEFAULT_TABLE_NAME));
+    /** The number of rows to fetch from the database at a time */
+    private int fetchSize = 1000;
+
+    /**
+     * Create the catalog reader
+     * @param queries the queries to read the catalog with
+     */
+    public CatalogReader(CatalogQueries queries) {
+        this.queries = queries;
+    }
+
+    /**
+     * Get the queries to read the catalog with
+     * @return the queries
+     */
+    public CatalogQueries getQueries() {
+        return queries;
+    }
+
+    /**
+     * Get the schemas that are not read
+     * @return the schema names
+     */
+    public Set<String> getExcludedSchemas() {
+        return excludedSchemas;
+    }
+
+    /**
+     * Set the schemas that are not read
+     * @param excludedSchemas the schema names
+     */
+    public void setExcludedSchemas(Set<String> excludedSchemas) {
+        this.excludedSchemas = excludedSchemas;
+    }
+
+    /**
+     * Get the names of the tables that are not read, in whichever schema
+     * they are in. By default this is the table of the {@link AppliedModelStore}
+     * @return the table names
+     */
+    public Set<String> getExcludedTables() {
+        return excludedTables;
+    }
+
+    /**
+     * Set the names of the tables that are not read, in whichever schema
+     * they are in
+     * @param excludedTables the table names
+     */
+    public void setExcludedTables(Set<String> excludedTables) {
+        this.excludedTables = excludedTables;
+    }
+
+    /**
+     * Get the number of rows to fetch from the database at a time
+     * @return the fetch size
+     */
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    /**
+     * Set the number of rows to fetch from the database at a time
+     * @param fetchSize the fetch size
+     */
+    public void setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+    }
+
+    /**
+     * Read the catalog of the database that the connection is to into the
+     * given database model
+     * @param database the database model to read into
+     * @param connection the connection to read from
+     * @throws SQLException if an error occurs reading the catalog
+     */
+    public void read(Database database, Connection connection) throws SQLException {
+        read(database, connection, readSchemaNames(connection));
+    }
+
+    /**
+     * Read the names of the schemas in the database, leaving out the excluded
+     * schemas
+     * @param connection the connection to read from
+     * @return the schema names, in the order the database returned them
+     * @throws SQLException if an error occurs reading the catalog
+     */
+    public List<String> readSchemaNames(Connection connection) throws SQLException {
+        List<String> schemaNames = new ArrayList<String>();
+        PreparedStatement statement = prepare(connection, queries.getSchemaQuery(), Collections.<String>emptyList());
+        try {
+            ResultSet results = statement.executeQuery();
+            try {
+                while (results.next()) {
+                    String schemaName = results.getString(1);
+                    if (!excludedSchemas.contains(schemaName)) {
+                        schemaNames.add(schemaName);
+                    }
+                }
+            }
+            finally {
+                results.close();
+            }
+        }
+        finally {
+            statement.close();
+        }
+        return schemaNames;
+    }
+
+    /**
+     * Read the staleness token of each of the given schemas. The parts of
+     * the token that the query returns for each schema are hashed together
+     * in the order they are returned
+     * @param connection the connection to read from
+     * @param schemaNames the names of the schemas
+     * @return the token of each schema, keyed and sorted by schema name, or
+     * null if the queries have no way of reading tokens
+     * @throws SQLException if an error occurs reading the catalog
+     */
+    public SortedMap<String, String> readTokens(Connection connection, List<String> schemaNames) throws SQLException {
+        if (queries.getTokenQuery() == null) {
+            return null;
+        }
+        SortedMap<String, String> tokens = new TreeMap<String, String>();
+        for (String schemaName : schemaNames) {
+            tokens.put(schemaName, "");
+        }
+        if (schemaNames.isEmpty()) {
+            return tokens;
+        }
+        Map<String, MessageDigest> digests = new HashMap<String, MessageDigest>();
+        PreparedStatement statement = prepare(connection, queries.getTokenQuery(), schemaNames);
+        try {
+            ResultSet results = statement.executeQuery();
+            try {
+                while (results.next()) {
+                    String schemaName = results.getString(1);
+                    if (tokens.containsKey(schemaName)) {
+                        MessageDigest digest = digests.get(schemaName);
+                        if (digest == null) {
+                            digest = newDigest();
+                            digests.put(schemaName, digest);
+                        }
+                        String part = results.getString(2);
+                        digest.update(toBytes(part == null ? "" : part));
+                        digest.update((byte) 0);
+                    }
+                }
+            }
+            finally {
+                results.close();
+            }
+        }
+        finally {
+            statement.close();
+        }
+        for (Map.Entry<String, MessageDigest> digest : digests.entrySet()) {
+            StringBuilder token = new StringBuilder();
+            for (byte b : digest.getValue().digest()) {
+                token.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            tokens.put(digest.getKey(), token.toString());
+        }
+        return tokens;
+    }
+
+    /**
+     * Create the digest that the parts of the staleness tokens are hashed with
+     * @return the digest
+     */
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        }
+        catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("MD5 is not supported", ex);
+        }
+    }
+
+    /**
+     * Encode part of a staleness token for hashing
+     * @param part the part of the token
+     * @return the UTF-8 bytes of the part
+     */
+    private static byte[] toBytes(String part) {
+        try {
+            return part.getBytes("UTF-8");
+        }
+        catch (UnsupportedEncodingException ex) {
+            throw new IllegalStateException("UTF-8 is not supported", ex);
+        }
+    }
+
+    /**
+     * Read the given schemas of the database that the connection is to into
+     * the given database model
+     * @param database the database model to read into
+     * @param connection the connection to read from
+     * @param schemaNames the names of the schemas to read
+     * @throws SQLException if an error occurs reading the catalog
+     */
+    public void read(Database database, Connection connection, List<String> schemaNames) throws SQLException {
+        NameDictionary names = database.getNames();
+        for (String schemaName : schemaNames) {
+            if (database.getSchema(schemaName) == null) {
+                LOG.debug("Reading schema: " + schemaName);
+                database.addSchema(new Schema(names.intern(schemaName)));
+            }
+        }
+        if (schemaNames.isEmpty()) {
+            return;
+        }
+
+        Map<Table, Set<String>> keys = readTables(database, names, connection, schemaNames);
+        readKeys(database, keys, connection, schemaNames);
+        readColumns(database, names, keys, connection, schemaNames);
+        if (queries.getCommentQuery() != null) {
+            readComments(database, connection, schemaNames);
+        }
+    }
+
+    /**
+     * Prepare one of the catalog queries, replacing each schemas marker in
+     * it with one bind parameter for each schema name
+     * @param connection the connection to read from
+     * @param sql the query
+     * @param schemaNames the names of the schemas being read
+     * @return the statement, ready to execute
+     * @throws SQLException if an error occurs preparing the statement
+     */
+    private PreparedStatement prepare(Connection connection, String sql, List<String> schemaNames) throws SQLException {
+        StringBuilder parameters = new StringBuilder();
+        for (int i = 0; i < schemaNames.size(); ++i) {
+            parameters.append(i == 0 ? "?" : ", ?");
+        }
+        int markers = 0;
+        StringBuilder query = new StringBuilder();
+        int from = 0;
+        for (int at = sql.indexOf(CatalogQueries.SCHEMAS_MARKER); at >= 0;
+                at = sql.indexOf(CatalogQueries.SCHEMAS_MARKER, from)) {
+            query.append(sql, from, at).append(parameters);
+            from = at + CatalogQueries.SCHEMAS_MARKER.length();
+            ++markers;
+        }
+        query.append(sql, from, sql.length());
+
+        PreparedStatement statement = connection.prepareStatement(query.toString(),
+                ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        try {
+            statement.setFetchSize(fetchSize);
+            int index = 1;
+            for (int i = 0; i < markers; ++i) {
+                for (String schemaName : schemaNames) {
+                    statement.setString(index++, schemaName);
+                }
+            }
+        }
+        catch (SQLException ex) {
+            statement.close();
+            throw ex;
+        }
+        return statement;
+    }
+
+    /**
+     * Read the tables. The key columns of each table are gathered in a map
+     * keyed by identity, as the hashcode of a table changes as its columns
+     * are added
+     * @param database the database model to read into
+     * @param names the dictionary to intern the names through
+     * @param connection the connection to read from
+     * @param schemaNames the names of the schemas being read
+     * @return the tables that were read, each with an empty set for its key
+     * @throws SQLException if an error occurs reading the catalog
+     */
+    private Map<Table, Set<String>> readTables(Database database, NameDictionary names, Connection connection,
+            List<String> schemaNames) throws SQLException {
+        Map<Table, Set<String>> tables = new IdentityHashMap<Table, Set<String>>();
+        PreparedStatement statement = prepare(connection, queries.getTableQuery(), schemaNames);
+        try {
+            ResultSet results = statement.executeQuery();
+            try {
+                while (results.next()) {
+                    Schema schema = database.getSchema(results.getString(1));
+                    if (schema != null && !excludedTables.contains(results.getString(2))) {
+                        Table table = new Table(names.intern(results.getString(2)));
+                        schema.addTable(table);
+                        tables.put(table, new HashSet<String>());
+                    }
+                }
+            }
+            finally {
+                results.close();
+            }
+        }
+        finally {
+            statement.close();
+        }
+        return tables;
+    }
+
+    /**
+     * Read the primary keys of the tables
+     * @param database the database model being read into
+     * @param keys the key column names of each table, to fill in
+     * @param connection the connection to read from
+     * @param schemaNames the names of the schemas being read
+     * @throws SQLException if an error occurs reading the catalog
+     */
+    private void readKeys(Database database, Map<Table, Set<String>> keys, Connection connection,
+            List<String> schemaNames) throws SQLException {
+        PreparedStatement statement = prepare(connection, queries.getKeyQuery(), schemaNames);
+        try {
+            ResultSet results = statement.executeQuery();
+            try {
+                while (results.next()) {
+                    Table table = findTable(database, results.getString(1), results.getString(2));
+                    if (table != null && keys.containsKey(table)) {
+                        keys.get(table).add(results.getString(3));
+                    }
+                }
+            }
+            finally {
+                results.close();
+            }
+        }
+        finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Read the columns of the tables. The rows are in table order, so the
+     * table is only looked up when it changes
+     * @param database the database model being read into
+     * @param names the dictionary to intern the names through
+     * @param keys the key column names of each table
+     * @param connection the connection to read from
+     * @param schemaNames the names of the schemas being read
+     * @throws SQLException if an error occurs reading the catalog
+     */
+    private void readColumns(Database database, NameDictionary names, Map<Table, Set<String>> keys,
+            Connection connection, List<String> schemaNames) throws SQLException {
+        PreparedStatement statement = prepare(connection, queries.getColumnQuery(), schemaNames);
+        try {
+            ResultSet results = statement.executeQuery();
+            try {
+                String schemaName = null;
+                String tableName = null;
+                Table table = null;
+                Set<String> keyNames = null;
+                while (results.next()) {
+                    String rowSchema = results.getString(1);
+                    String rowTable = results.getString(2);
+                    if (!rowTable.equals(tableName) || !rowSchema.equals(schemaName)) {
+                        schemaName = rowSchema;
+                        tableName = rowTable;
+                        table = findTable(database, schemaName, tableName);
+                        keyNames = table == null ? null : keys.get(table);
+                    }
+                    if (keyNames == null) {
+                        continue;
+                    }
+                    readColumn(results, table, keyNames, names);
+                }
+            }
+            finally {
+                results.close();
+            }
+        }
+        finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Read a single column from the current row of the column query
+     * @param results the results of the column query
+     * @param table the table the column is in
+     * @param keyNames the names of the key columns of the table
+     * @param names the dictionary to intern the names through
+     * @throws SQLException if an error occurs reading the catalog
+     */
+    private void readColumn(ResultSet results, Table table, Set<String> keyNames, NameDictionary names)
+            throws SQLException {
+        Column column = new Column(names.intern(results.getString(3)));
+        DataType dataType = dataTypeMapper.map(results.getString(4), getInteger(results, 5),
+                getInteger(results, 6), getInteger(results, 7), getInteger(results, 8));
+        if (dataType == null) {
+            LOG.warn("Unsupported data type " + results.getString(4) + " for column "
+                    + column.getName() + " in table " + results.getString(1) + "." + table.getName());
+        }
+        column.setDataType(dataType);
+        column.setNullable(!"NO".equalsIgnoreCase(results.getString(9)));
+        column.setDefaultValue(dataTypeMapper.mapDefault(results.getString(10)));
+        if (keyNames.contains(column.getName())) {
+            table.addKeyColumn(column);
+        }
+        else {
+            table.addColumn(column);
+        }
+    }
+
+    /**
+     * Read the comments on the schemas, tables and columns
+     * @param database the database model being read into
+     * @param connection the connection to read from
+     * @param schemaNames the names of the schemas being read
+     * @throws SQLException if an error occurs reading the catalog
+     */
+    private void readComments(Database database, Connection connection, List<String> schemaNames)
+            throws SQLException {
+        PreparedStatement statement = prepare(connection, queries.getCommentQuery(), schemaNames);
+        try {
+            ResultSet results = statement.executeQuery();
+            try {
+                while (results.next()) {
+                    readComment(database, results.getString(1), results.getString(2),
+                            results.getString(3), results.getString(4));
+                }
+            }
+            finally {
+                results.close();
+            }
+        }
+        finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Set a single comment read from the comment query
+     * @param database the database model being read into
+     * @param schemaName the name of the schema
+     * @param tableName the name of the table, or null for a schema comment
+     * @param columnName the name of the column, or null for a table comment
+     * @param comment the comment
+     */
+    private void readComment(Database database, String schemaName, String tableName, String columnName,
+            String comment) {
+        if (tableName == null) {
+            Schema schema = database.getSchema(schemaName);
+            if (schema != null) {
+                schema.setComment(comment);
+            }
+            return;
+        }
+        Table table = findTable(database, schemaName, tableName);
+        if (table == null) {
+            return;
+        }
+        if (columnName == null) {
+            table.setComment(comment);
+        }
+        else if (table.getColumn(columnName) != null) {
+            table.getColumn(columnName).setComment(comment);
+        }
+    }
+
+    /**
+     * Find a table that has been read
+     * @param database the database model being read into
+     * @param schemaName the name of the schema
+     * @param tableName the name of the table
+     * @return the table, or null if it wasn't read
+     */
+    private Table findTable(Database database, String schemaName, String tableName) {
+        Schema schema = database.getSchema(schemaName);
+        return schema == null ? null : schema.getTable(tableName);
+    }
+
+    /**
+     * Get an integer column that may be null
+     * @param results the result set
+     * @param index the index of the column
+     * @return the value, or null if it is null
+     * @throws SQLException if an error occurs reading the value
+     */
+    private Integer getInteger(ResultSet results, int index) throws SQLException {
+        int value = results.getInt(index);
+        return results.wasNull() ? null : Integer.valueOf(value);
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2011 graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.grahamcox.mdb.catalog;
+
+import java.util.Locale;
+import uk.co.grahamcox.mdb.schema.DataType;
+import uk.co.grahamcox.mdb.schema.DefaultValueNormaliser;
+import uk.co.grahamcox.mdb.schema.datatype.DataTypeRegistry;
+import uk.co.grahamcox.mdb.schema.datatype.TimestampDataType;
+
+/**
+ * Map the data types reported by a database catalog onto the shared
+ * DataType instances of the model, and the column defaults onto the form
+ * they are written in the model
+ * @author graham
+ */
+public class DataTypeMapper {
+    /** The precision used for a SMALLINT */
+    private static final int SMALLINT_PRECISION = 5;
+    /** The precision used for an INTEGER */
+    private static final int INTEGER_PRECISION = 10;
+    /** The precision used for a BIGINT */
+    private static final int BIGINT_PRECISION = 19;
+
+    /** The registry to get the data types from */
+    private final DataTypeRegistry registry = DataTypeRegistry.getInstance();
+    /** The normaliser to put the column defaults into the form used in the model */
+    private final DefaultValueNormaliser defaults = new DefaultValueNormaliser();
+
+    /**
+     * Get the data type for the given catalog type
+     * @param name the name of the type, as in INFORMATION_SCHEMA.COLUMNS.DATA_TYPE
+     * @param length the character length, or null if there isn't one
+     * @param precision the numeric precision, or null if there isn't one
+     * @param scale the numeric scale, or null if there isn't one
+     * @param datetimePrecision the datetime precision, or null if there isn't one
+     * @return the data type, or null if the type can't be represented in the model
+     */
+    public DataType map(String name, Integer length, Integer precision, Integer scale, Integer datetimePrecision) {
+        if (name == null) {
+            return null;
+        }
+        String type = name.trim().toLowerCase(Locale.ENGLISH);
+        try {
+            if ("boolean".equals(type)) {
+                return registry.getBoolean();
+            }
+            else if ("smallint".equals(type)) {
+                return registry.getNumber(SMALLINT_PRECISION, 0);
+            }
+            else if ("integer".equals(type) || "int".equals(type)) {
+                return registry.getNumber(INTEGER_PRECISION, 0);
+            }
+            else if ("bigint".equals(type)) {
+                return registry.getNumber(BIGINT_PRECISION, 0);
+            }
+            else if ("numeric".equals(type) || "decimal".equals(type)) {
+                if (precision == null) {
+                    return registry.getNumber();
+                }
+                return registry.getNumber(precision, scale == null ? 0 : scale);
+            }
+            else if ("character varying".equals(type) || "varchar".equals(type)) {
+                return registry.getString(length, true);
+            }
+            else if ("character".equals(type) || "char".equals(type)) {
+                return registry.getString(length == null ? 1 : length, false);
+            }
+            else if ("text".equals(type)) {
+                return registry.getString();
+            }
+            else if ("date".equals(type)) {
+                return registry.getTimestamp(TimestampDataType.Type.DATE, false, 0);
+            }
+            else if (type.startsWith("timestamp") || type.startsWith("time")) {
+                TimestampDataType.Type kind = type.startsWith("timestamp")
+                        ? TimestampDataType.Type.DATE_AND_TIME : TimestampDataType.Type.TIME;
+                boolean withTimezone = type.endsWith(" with time zone");
+                return registry.getTimestamp(kind, withTimezone,
+                        datetimePrecision == null ? DataTypeRegistry.MAX_TIMESTAMP_PRECISION : datetimePrecision);
+            }
+        }
+        catch (IllegalArgumentException ex) {
+            return null;
+        }
+        return null;
+    }
+
+    /**
+     * Get the default value of a column in the form it is written in the
+     * model. PostgreSQL reports defaults with the casts it added, such as
+     * 'x'::character varying or nextval('user_id_seq'::regclass), so these
+     * are removed as described by {@link DefaultValueNormaliser}
+     * @param value the default as reported by the catalog, or null if there
+     * isn't one
+     * @return the default, or null if there isn't one
+     */
+    public String mapDefault(String value) {
+        return defaults.normalise(value);
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ * Copyright (C) 2011 graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.grahamcox.mdb.catalog;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import javax.sql.DataSource;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import uk.co.grahamcox.mdb.schema.Database;
+import uk.co.grahamcox.mdb.schema.Schema;
+
+/**
+ * Read the catalog of a database over several connections at once. The
+ * schema names are read first, then split into batches which are each read
+ * into their own Database on whichever connection is free, and finally the
+ * schemas of each batch are moved into the one Database. All of the batches
+ * share the name dictionary of that Database. No more connections are opened
+ * than the parallelism allows, and only one is used if the queries can't be
+ * run on several connections at once
+ * @author graham
+ */
+public class ParallelCatalogReader {
+    /** The logger to use */
+    private final Log LOG = LogFactory.getLog(ParallelCatalogReader.class);
+    /** The reader to read each batch of schemas with */
+    private final CatalogReader reader;
+    /** The source of the connections */
+    private final DataSource dataSource;
+    /** The most connections to read with at once */
+    private int parallelism = 4;
+    /** The number of schemas to read in each batch */
+    private int batchSize = 10;
+    /** Whether to read the schemas again on one connection, to measure the speedup */
+    private boolean measureBaseline = false;
+
+    /**
+     * The result of reading a single batch
+     */
+    private static class BatchResult {
+        /** The schemas read */
+        private final Database database;
+        /** The time taken to read them, in nanoseconds */
+        private final long nanos;
+
+        /**
+         * Create the batch result
+         * @param database the schemas read
+         * @param nanos the time taken to read them, in nanoseconds
+         */
+        public BatchResult(Database database, long nanos) {
+            this.database = database;
+            this.nanos = nanos;
+        }
+    }
+
+    /**
+     * Create the parallel catalog reader
+     * @param reader the reader to read each batch of schemas with
+     * @param dataSource the source of the connections
+     */
+    public ParallelCatalogReader(CatalogReader reader, DataSource dataSource) {
+        this.reader = reader;
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * Get the most connections to read with at once
+     * @return the parallelism
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Set the most connections to read with at once
+     * @param parallelism the parallelism
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Get the number of schemas to read in each batch
+     * @return the batch size
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Set the number of schemas to read in each batch
+     * @param batchSize the batch size
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Check whether the schemas are read again on one connection, to measure
+     * the speedup
+     * @return True if they are read again. False if not
+     */
+    public boolean isMeasureBaseline() {
+        return measureBaseline;
+    }
+
+    /**
+     * Set whether the schemas are read again on one connection after being
+     * read in parallel, so that the statistics give the speedup of reading
+     * them in parallel. This doubles the work of a read, so is for choosing
+     * the parallelism rather than for every read
+     * @param measureBaseline True if they are read again. False if not
+     */
+    public void setMeasureBaseline(boolean measureBaseline) {
+        this.measureBaseline = measureBaseline;
+    }
+
+    /**
+     * Read the catalog into the given database model
+     * @param database the database model to read into
+     * @return the timings of the read
+     * @throws SQLException if an error occurs reading the catalog
+     */
+    public CatalogReadStatistics read(Database database) throws SQLException {
+        long start = System.nanoTime();
+        BlockingQueue<Connection> idle = new LinkedBlockingQueue<Connection>();
+        List<Connection> opened = Collections.synchronizedList(new ArrayList<Connection>());
+        try {
+            Connection first = open(opened);
+            List<String> schemaNames = reader.readSchemaNames(first);
+            idle.add(first);
+
+            List<List<String>> batches = new ArrayList<List<String>>();
+            for (int from = 0; from < schemaNames.size(); from += batchSize) {
+                batches.add(schemaNames.subList(from, Math.min(from + batchSize, schemaNames.size())));
+            }
+            int threads = Math.max(1, Math.min(parallelism, batches.size()));
+            if (threads > 1 && !reader.getQueries().isConcurrentSafe()) {
+                LOG.debug("The catalog queries can't be run concurrently, so reading on one connection");
+                threads = 1;
+            }
+
+            long batchNanos = 0;
+            if (threads == 1) {
+                long batchStart = System.nanoTime();
+                reader.read(database, first, schemaNames);
+                batchNanos = System.nanoTime() - batchStart;
+            }
+            else {
+                for (BatchResult result : readBatches(database, batches, threads, idle, opened)) {
+                    batchNanos += result.nanos;
+                    for (Schema schema : new ArrayList<Schema>(result.database.getSchemas())) {
+                        database.addSchema(schema);
+                    }
+                }
+            }
+
+            long elapsedNanos = System.nanoTime() - start;
+
+            long baselineNanos = -1;
+            if (measureBaseline) {
+                long baselineStart = System.nanoTime();
+                reader.read(new Database(database.getNames()), first, reader.readSchemaNames(first));
+                baselineNanos = System.nanoTime() - baselineStart;
+            }
+
+            CatalogReadStatistics statistics = new CatalogReadStatistics(schemaNames.size(), batches.size(),
+                    threads, elapsedNanos, batchNanos, baselineNanos);
+            LOG.info(statistics);
+            return statistics;
+        }
+        finally {
+            closeAll(opened);
+        }
+    }
+
+    /**
+     * Read the batches of schemas in parallel
+     * @param database the database model being read into
+     * @param batches the batches of schema names
+     * @param threads the number of batches to read at once
+     * @param idle the connections that are not in use
+     * @param opened all of the connections that have been opened
+     * @return the result of each batch, in batch order
+     * @throws SQLException if an error occurs reading the catalog
+     */
+    private List<BatchResult> readBatches(final Database database, List<List<String>> batches, int threads,
+            final BlockingQueue<Connection> idle, final List<Connection> opened) throws SQLException {
+        List<Callable<BatchResult>> tasks = new ArrayList<Callable<BatchResult>>();
+        for (final List<String> batch : batches) {
+            tasks.add(new Callable<BatchResult>() {
+                @Override
+                public BatchResult call() throws SQLException {
+                    long batchStart = System.nanoTime();
+                    Connection connection = idle.poll();
+                    if (connection == null) {
+                        connection = open(opened);
+                    }
+                    try {
+                        Database fragment = new Database(database.getNames());
+                        reader.read(fragment, connection, batch);
+                        return new BatchResult(fragment, System.nanoTime() - batchStart);
+                    }
+                    finally {
+                        idle.add(connection);
+                    }
+                }
+            });
+        }
+
+        List<BatchResult> results = new ArrayList<BatchResult>();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (Future<BatchResult> future : executor.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while reading the catalog", ex);
+        }
+        catch (ExecutionException ex) {
+            if (ex.getCause() instanceof SQLException) {
+                throw (SQLException) ex.getCause();
+            }
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new SQLException("Failed to read the catalog", ex.getCause());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+        return results;
+    }
+
+    /**
+     * Open a new connection, remembering it so that it can be closed
+     * @param opened all of the connections that have been opened
+     * @return the connection
+     * @throws SQLException if the connection can not be opened
+     */
+    private Connection open(List<Connection> opened) throws SQLException {
+        Connection connection = dataSource.getConnection();
+        opened.add(connection);
+        return connection;
+    }
+
+    /**
+     * Close all of the connections that were opened
+     * @param opened the connections
+     */
+    private void closeAll(List<Connection> opened) {
+        synchronized (opened) {
+            for (Connection connection : opened) {
+                try {
+                    connection.close();
+                }
+                catch (SQLException ex) {
+                    LOG.warn("Failed to close connection", ex);
+                }
+            }
+        }
+    }
+}
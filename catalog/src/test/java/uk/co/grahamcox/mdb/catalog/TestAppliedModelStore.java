@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2011 graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.grahamcox.mdb.catalog;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import uk.co.grahamcox.mdb.schema.Column;
+import uk.co.grahamcox.mdb.schema.Database;
+import uk.co.grahamcox.mdb.schema.Schema;
+import uk.co.grahamcox.mdb.schema.Table;
+
+/**
+ *
+ * @author graham
+ */
+public class TestAppliedModelStore {
+    private static final AtomicInteger DATABASES = new AtomicInteger();
+    private Connection connection;
+    private AppliedModelStore store;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        connection = DriverManager.getConnection("jdbc:hsqldb:mem:applied" + DATABASES.incrementAndGet(), "SA", "");
+        store = new AppliedModelStore();
+        store.setSchemaName("PUBLIC");
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        connection.createStatement().execute("SHUTDOWN");
+        connection.close();
+    }
+
+    private Database model(String... columns) {
+        Table table = new Table("user");
+        table.addKeyColumn(new Column("id"));
+        for (String column : columns) {
+            table.addColumn(new Column(column));
+        }
+        Schema schema = new Schema("users");
+        schema.addTable(table);
+        Database database = new Database();
+        database.addSchema(schema);
+        return database;
+    }
+
+    @Test
+    public void testNothingRecorded() throws Exception {
+        Assert.assertFalse(store.isUpToDate(connection, model()));
+    }
+
+    @Test
+    public void testRecord() throws Exception {
+        store.record(connection, model("name"));
+        Assert.assertTrue(store.isUpToDate(connection, model("name")));
+        Assert.assertFalse(store.isUpToDate(connection, model("name", "email")));
+        Assert.assertEquals(store.readFingerprint(connection), model("name").getFingerprint());
+
+        store.record(connection, model("name", "email"));
+        Assert.assertTrue(store.isUpToDate(connection, model("name", "email")));
+        Statement statement = connection.createStatement();
+        ResultSet results = statement.executeQuery("SELECT COUNT(*) FROM \"PUBLIC\".\"mdb_applied_model\"");
+        results.next();
+        Assert.assertEquals(results.getInt(1), 1);
+        statement.close();
+    }
+
+    @Test
+    public void testSimilarTableNames() throws Exception {
+        connection.createStatement().execute("CREATE TABLE \"PUBLIC\".\"mdbXapplied_model\" (\"id\" INTEGER)");
+        store.record(connection, model("name"));
+        Assert.assertTrue(store.isUpToDate(connection, model("name")));
+    }
+
+    @Test
+    public void testDefaultSchema() throws Exception {
+        AppliedModelStore other = new AppliedModelStore();
+        other.setSchemaName("other");
+        connection.createStatement().execute("CREATE SCHEMA \"other\"");
+        other.record(connection, model("name"));
+
+        AppliedModelStore unqualified = new AppliedModelStore();
+        unqualified.record(connection, model("email"));
+        Assert.assertTrue(unqualified.isUpToDate(connection, model("email")));
+        Assert.assertTrue(store.isUpToDate(connection, model("email")));
+        Assert.assertTrue(other.isUpToDate(connection, model("name")));
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2011 graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.grahamcox.mdb.catalog;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import uk.co.grahamcox.mdb.loader.snapshot.SnapshotReader;
+import uk.co.grahamcox.mdb.schema.Database;
+import uk.co.grahamcox.mdb.schema.Fingerprint;
+import uk.co.grahamcox.mdb.schema.NameDictionary;
+import uk.co.grahamcox.mdb.schema.Schema;
+
+/**
+ *
+ * @author graham
+ */
+public class TestCachingCatalogReader {
+    private static final AtomicInteger DATABASES = new AtomicInteger();
+    private Connection connection;
+    private File directory;
+    private CachingCatalogReader reader;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        connection = DriverManager.getConnection("jdbc:hsqldb:mem:caching" + DATABASES.incrementAndGet(), "SA", "");
+        for (int s = 0; s < 3; ++s) {
+            execute("CREATE SCHEMA \"schema" + s + "\"",
+                    "CREATE TABLE \"schema" + s + "\".\"table\" (\"id\" INTEGER PRIMARY KEY, \"name\" VARCHAR(10))");
+        }
+        directory = File.createTempFile("catalog", "");
+        directory.delete();
+        directory.deleteOnExit();
+        reader = new CachingCatalogReader(new CatalogReader(CatalogQueries.forHsqldb()), directory);
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        reader.getCacheFile(connection).delete();
+        execute("SHUTDOWN");
+        connection.close();
+    }
+
+    private void execute(String... sql) throws Exception {
+        Statement statement = connection.createStatement();
+        try {
+            for (String s : sql) {
+                statement.execute(s);
+            }
+        }
+        finally {
+            statement.close();
+        }
+    }
+
+    private Database readUncached() throws Exception {
+        Database database = new Database();
+        new CatalogReader(CatalogQueries.forHsqldb()).read(database, connection);
+        return database;
+    }
+
+    @Test
+    public void testUnchangedUsesCache() throws Exception {
+        Database first = new Database();
+        Assert.assertEquals(reader.read(first, connection), 4);
+        Assert.assertTrue(reader.getCacheFile(connection).isFile());
+
+        Database second = new Database();
+        Assert.assertEquals(reader.read(second, connection), 0);
+        Assert.assertEquals(second, first);
+        Assert.assertEquals(second, readUncached());
+    }
+
+    @Test
+    public void testOnlyChangedSchemasRead() throws Exception {
+        reader.read(new Database(), connection);
+        execute("ALTER TABLE \"schema1\".\"table\" ADD COLUMN \"created\" DATE",
+                "CREATE SCHEMA \"schema3\"",
+                "DROP SCHEMA \"schema2\" CASCADE");
+
+        Database database = new Database();
+        Assert.assertEquals(reader.read(database, connection), 2);
+        Assert.assertEquals(database.getSchema("schema1").getTable("table").getColumnCount(), 3);
+        Assert.assertNotNull(database.getSchema("schema3"));
+        Assert.assertNull(database.getSchema("schema2"));
+        Assert.assertEquals(database, readUncached());
+        Assert.assertEquals(reader.read(new Database(), connection), 0);
+    }
+
+    @Test
+    public void testCorruptCacheIgnored() throws Exception {
+        reader.read(new Database(), connection);
+        FileOutputStream output = new FileOutputStream(reader.getCacheFile(connection));
+        output.write(new byte[] {1, 2, 3});
+        output.close();
+        Database database = new Database();
+        Assert.assertEquals(reader.read(database, connection), 4);
+        Assert.assertEquals(database, readUncached());
+    }
+
+    @Test
+    public void testSameLengthChangesRead() throws Exception {
+        reader.read(new Database(), connection);
+        execute("ALTER TABLE \"schema0\".\"table\" ALTER COLUMN \"name\" RENAME TO \"nome\"",
+                "COMMENT ON TABLE \"schema1\".\"table\" IS 'Changed'");
+
+        Database database = new Database();
+        Assert.assertEquals(reader.read(database, connection), 2);
+        Assert.assertNotNull(database.getSchema("schema0").getTable("table").getColumn("nome"));
+        Assert.assertEquals(database.getSchema("schema1").getTable("table").getComment(), "Changed");
+        Assert.assertEquals(database, readUncached());
+    }
+
+    @Test
+    public void testOnlyCatalogSchemasCached() throws Exception {
+        Database first = new Database();
+        Schema extra = new Schema("extra");
+        first.addSchema(extra);
+        reader.read(first, connection);
+        Assert.assertSame(first.getSchema("extra"), extra);
+        Fingerprint fingerprint = first.getFingerprint();
+        Database cached = new SnapshotReader().read(reader.getCacheFile(connection), new NameDictionary()).getDatabase();
+        Assert.assertNull(cached.getSchema("extra"));
+        Assert.assertEquals(cached.getSchemas().size(), 4);
+
+        Database second = new Database();
+        Assert.assertEquals(reader.read(second, connection), 0);
+        Assert.assertNull(second.getSchema("extra"));
+        Assert.assertEquals(second, readUncached());
+
+        first.getSchema("schema0").setComment("Changed");
+        Assert.assertFalse(first.getFingerprint().equals(fingerprint));
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2011 graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.grahamcox.mdb.catalog;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import uk.co.grahamcox.mdb.schema.Column;
+import uk.co.grahamcox.mdb.schema.Database;
+import uk.co.grahamcox.mdb.schema.Table;
+import uk.co.grahamcox.mdb.schema.datatype.DataTypeRegistry;
+import uk.co.grahamcox.mdb.schema.datatype.TimestampDataType;
+
+/**
+ *
+ * @author graham
+ */
+public class TestCatalogReader {
+    private static final AtomicInteger DATABASES = new AtomicInteger();
+    private Connection connection;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        connection = DriverManager.getConnection("jdbc:hsqldb:mem:catalog" + DATABASES.incrementAndGet(), "SA", "");
+        execute("CREATE SCHEMA \"users\"",
+                "CREATE TABLE \"users\".\"user\" (\"id\" INTEGER NOT NULL, \"name\" VARCHAR(100) DEFAULT 'x' NOT NULL,"
+                + " \"balance\" NUMERIC(10,2), \"enabled\" BOOLEAN, \"created\" TIMESTAMP(3),"
+                + " \"born\" DATE, \"code\" CHAR(5), PRIMARY KEY (\"id\"))",
+                "COMMENT ON TABLE \"users\".\"user\" IS 'The users'",
+                "COMMENT ON COLUMN \"users\".\"user\".\"name\" IS 'The name'");
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        execute("SHUTDOWN");
+        connection.close();
+    }
+
+    private void execute(String... sql) throws Exception {
+        Statement statement = connection.createStatement();
+        try {
+            for (String s : sql) {
+                statement.execute(s);
+            }
+        }
+        finally {
+            statement.close();
+        }
+    }
+
+    private Database read(Connection connection) throws Exception {
+        Database database = new Database();
+        new CatalogReader(CatalogQueries.forHsqldb()).read(database, connection);
+        return database;
+    }
+
+    @Test
+    public void testRead() throws Exception {
+        Database database = read(connection);
+        Assert.assertEquals(database.getSchemas().size(), 2);
+        Assert.assertNotNull(database.getSchema("PUBLIC"));
+        Assert.assertNull(database.getSchema("INFORMATION_SCHEMA"));
+
+        Table table = database.getSchema("users").getTable("user");
+        Assert.assertEquals(table.getComment(), "The users");
+        Assert.assertEquals(table.getColumnCount(), 7);
+        Assert.assertEquals(table.getColumn(1).getName(), "name");
+        Assert.assertEquals(table.getKeyColumns().size(), 1);
+        Assert.assertTrue(table.isKeyColumn("id"));
+
+        DataTypeRegistry registry = DataTypeRegistry.getInstance();
+        Column name = table.getColumn("name");
+        Assert.assertSame(name.getDataType(), registry.getString(100, true));
+        Assert.assertFalse(name.isNullable());
+        Assert.assertEquals(name.getDefaultValue(), "'x'");
+        Assert.assertEquals(name.getComment(), "The name");
+        Assert.assertSame(table.getColumn("id").getDataType(), registry.getNumber(10, 0));
+        Assert.assertSame(table.getColumn("balance").getDataType(), registry.getNumber(10, 2));
+        Assert.assertTrue(table.getColumn("balance").isNullable());
+        Assert.assertSame(table.getColumn("enabled").getDataType(), registry.getBoolean());
+        Assert.assertSame(table.getColumn("created").getDataType(),
+                registry.getTimestamp(TimestampDataType.Type.DATE_AND_TIME, false, 3));
+        Assert.assertSame(table.getColumn("born").getDataType(), registry.parse("date"));
+        Assert.assertSame(table.getColumn("code").getDataType(), registry.getString(5, false));
+    }
+
+    @Test
+    public void testQueryCountIndependentOfTables() throws Exception {
+        for (int i = 0; i < 20; ++i) {
+            execute("CREATE TABLE \"users\".\"table" + i + "\" (\"id\" INTEGER PRIMARY KEY, \"value\" VARCHAR(10))");
+        }
+        final AtomicInteger queries = new AtomicInteger();
+        Connection counting = (Connection) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] {Connection.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                final Object result = TestCatalogReader.invoke(connection, method, args);
+                if (!(result instanceof Statement)) {
+                    return result;
+                }
+                return Proxy.newProxyInstance(getClass().getClassLoader(),
+                        new Class<?>[] {method.getReturnType()}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if (method.getName().startsWith("execute")) {
+                            queries.incrementAndGet();
+                        }
+                        return TestCatalogReader.invoke(result, method, args);
+                    }
+                });
+            }
+        });
+
+        Database database = read(counting);
+        Assert.assertEquals(database.getSchema("users").getTables().size(), 21);
+        Assert.assertEquals(database.getSchema("users").getTable("table7").getColumnCount(), 2);
+        Assert.assertEquals(queries.get(), 5);
+    }
+
+    @Test
+    public void testAppliedModelTableExcluded() throws Exception {
+        AppliedModelStore store = new AppliedModelStore();
+        store.setSchemaName("users");
+        store.record(connection, read(connection));
+
+        Database database = read(connection);
+        Assert.assertEquals(database.getSchema("users").getTables().size(), 1);
+        Assert.assertNull(database.getSchema("users").getTable(AppliedModelStore.DEFAULT_TABLE_NAME));
+        Assert.assertTrue(store.isUpToDate(connection, database));
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        }
+        catch (InvocationTargetException ex) {
+            throw ex.getCause();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2011 graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.grahamcox.mdb.catalog;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import uk.co.grahamcox.mdb.schema.datatype.DataTypeRegistry;
+
+/**
+ *
+ * @author graham
+ */
+public class TestDataTypeMapper {
+    private final DataTypeMapper mapper = new DataTypeMapper();
+
+    @Test
+    public void testMap() {
+        DataTypeRegistry registry = DataTypeRegistry.getInstance();
+        Assert.assertSame(mapper.map("INTEGER", null, 32, 0, null), registry.getNumber(10, 0));
+        Assert.assertSame(mapper.map("character varying", 100, null, null, null), registry.getString(100, true));
+        Assert.assertNull(mapper.map("bytea", null, null, null, null));
+    }
+
+    @Test
+    public void testDefaultCastsRemoved() {
+        Assert.assertEquals(mapper.mapDefault("'x'::character varying"), "'x'");
+        Assert.assertEquals(mapper.mapDefault("nextval('user_id_seq'::regclass)"), "nextval('user_id_seq')");
+        Assert.assertEquals(mapper.mapDefault("'2011-01-01 00:00:00'::timestamp(3) without time zone"),
+                "'2011-01-01 00:00:00'");
+        Assert.assertEquals(mapper.mapDefault("'{}'::text[]"), "'{}'");
+        Assert.assertEquals(mapper.mapDefault("'1.5'::numeric(10, 2)"), "'1.5'");
+        Assert.assertEquals(mapper.mapDefault("'a'::\"public\".\"mood\""), "'a'");
+    }
+
+    @Test
+    public void testDefaultLiteralsKept() {
+        Assert.assertEquals(mapper.mapDefault("'it''s::text'::text"), "'it''s::text'");
+        Assert.assertEquals(mapper.mapDefault("'(x)'"), "'(x)'");
+        Assert.assertEquals(mapper.mapDefault("false"), "false");
+        Assert.assertEquals(mapper.mapDefault("CURRENT_TIMESTAMP"), "CURRENT_TIMESTAMP");
+        Assert.assertEquals(mapper.mapDefault("now()"), "now()");
+        Assert.assertEquals(mapper.mapDefault("(1) + (2)"), "(1) + (2)");
+        Assert.assertEquals(mapper.mapDefault("(now())::date"), "(now())::date");
+        Assert.assertEquals(mapper.mapDefault("('1 day'::interval + now())"), "'1 day'::interval + now()");
+        Assert.assertEquals(mapper.mapDefault("('a'::text || 'b'::character varying)"), "'a' || 'b'");
+    }
+
+    @Test
+    public void testDefaultBracketsAndNull() {
+        Assert.assertEquals(mapper.mapDefault("(-1)"), "-1");
+        Assert.assertEquals(mapper.mapDefault("((0)::numeric)"), "0");
+        Assert.assertNull(mapper.mapDefault("NULL::character varying"));
+        Assert.assertNull(mapper.mapDefault(null));
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2011 graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.grahamcox.mdb.catalog;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+import org.hsqldb.jdbc.JDBCDataSource;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import uk.co.grahamcox.mdb.schema.Database;
+
+/**
+ *
+ * @author graham
+ */
+public class TestParallelCatalogReader {
+    private static final AtomicInteger DATABASES = new AtomicInteger();
+    private CountingDataSource dataSource;
+
+    private static class CountingDataSource extends JDBCDataSource {
+        private static final long serialVersionUID = 1L;
+        private final AtomicInteger connections = new AtomicInteger();
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            connections.incrementAndGet();
+            return super.getConnection();
+        }
+
+        public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+            throw new SQLFeatureNotSupportedException();
+        }
+    }
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        dataSource = new CountingDataSource();
+        dataSource.setDatabase("jdbc:hsqldb:mem:parallel" + DATABASES.incrementAndGet());
+        dataSource.setUser("SA");
+        dataSource.setPassword("");
+        Connection connection = dataSource.getConnection();
+        Statement statement = connection.createStatement();
+        try {
+            for (int s = 0; s < 30; ++s) {
+                statement.execute("CREATE SCHEMA \"tenant" + s + "\"");
+                for (int t = 0; t < 5; ++t) {
+                    statement.execute("CREATE TABLE \"tenant" + s + "\".\"table" + t + "\" (\"id\" INTEGER PRIMARY KEY,"
+                            + " \"name\" VARCHAR(100) NOT NULL, \"created\" TIMESTAMP)");
+                }
+            }
+        }
+        finally {
+            statement.close();
+            connection.close();
+        }
+        dataSource.connections.set(0);
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        Connection connection = dataSource.getConnection();
+        connection.createStatement().execute("SHUTDOWN");
+        connection.close();
+    }
+
+    private Database readSerially() throws Exception {
+        Database database = new Database();
+        Connection connection = dataSource.getConnection();
+        try {
+            new CatalogReader(CatalogQueries.forHsqldb()).read(database, connection);
+        }
+        finally {
+            connection.close();
+        }
+        return database;
+    }
+
+    @Test
+    public void testParallelMatchesSerial() throws Exception {
+        // HSQLDB can't read its catalog on several connections at once, so
+        // the batches take turns here, each still on its own connection
+        CatalogQueries queries = CatalogQueries.forHsqldb();
+        queries.setConcurrentSafe(true);
+        CatalogReader serialised = new CatalogReader(queries) {
+            @Override
+            public synchronized void read(Database database, Connection connection, List<String> schemaNames)
+                    throws SQLException {
+                super.read(database, connection, schemaNames);
+            }
+        };
+        ParallelCatalogReader reader = new ParallelCatalogReader(serialised, dataSource);
+        reader.setParallelism(4);
+        reader.setBatchSize(3);
+        reader.setMeasureBaseline(true);
+        Database database = new Database();
+        CatalogReadStatistics statistics = reader.read(database);
+
+        Assert.assertEquals(statistics.getSchemas(), 31);
+        Assert.assertEquals(statistics.getBatches(), 11);
+        Assert.assertEquals(statistics.getParallelism(), 4);
+        Assert.assertTrue(statistics.getConcurrency() > 0);
+        Assert.assertTrue(statistics.getBaselineMillis() >= 0);
+        Assert.assertTrue(statistics.getSpeedup() > 0);
+        Assert.assertTrue(dataSource.connections.get() <= 4);
+        Assert.assertEquals(database.getSchema("tenant17").getTable("table3").getColumnCount(), 3);
+        Assert.assertEquals(database, readSerially());
+    }
+
+    @Test
+    public void testNotConcurrentSafe() throws Exception {
+        ParallelCatalogReader reader = new ParallelCatalogReader(new CatalogReader(CatalogQueries.forHsqldb()), dataSource);
+        reader.setParallelism(4);
+        reader.setBatchSize(3);
+        Database database = new Database();
+        CatalogReadStatistics statistics = reader.read(database);
+
+        Assert.assertEquals(statistics.getParallelism(), 1);
+        Assert.assertTrue(Double.isNaN(statistics.getSpeedup()));
+        Assert.assertEquals(dataSource.connections.get(), 1);
+        Assert.assertEquals(database.getSchemas().size(), 31);
+        Assert.assertEquals(database, readSerially());
+    }
+
+    @Test
+    public void testSingleConnection() throws Exception {
+        ParallelCatalogReader reader = new ParallelCatalogReader(new CatalogReader(CatalogQueries.forHsqldb()), dataSource);
+        reader.setParallelism(1);
+        Database database = new Database();
+        CatalogReadStatistics statistics = reader.read(database);
+        Assert.assertEquals(statistics.getParallelism(), 1);
+        Assert.assertEquals(dataSource.connections.get(), 1);
+        Assert.assertEquals(database, readSerially());
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2011 graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.grahamcox.mdb.ddl;
+
+import java.util.Locale;
+
+/**
+ * Timings of a DDL generation, used to report how much faster rendering the
+ * tables in parallel was than rendering them one after another
+ * @author graham
+ */
+public class DdlGenerationStatistics {
+    /** The number of tables rendered */
+    private final int tables;
+    /** The number of threads used */
+    private final int threads;
+    /** The time the whole generation took, in nanoseconds */
+    private final long elapsedNanos;
+    /** The total time spent rendering the tables, in nanoseconds */
+    private final long renderNanos;
+
+    /**
+     * Create the statistics
+     * @param tables the number of tables rendered
+     * @param threads the number of threads used
+     * @param elapsedNanos the time the whole generation took, in nanoseconds
+     * @param renderNanos the total time spent rendering the tables, in nanoseconds
+     */
+    public DdlGenerationStatistics(int tables, int threads, long elapsedNanos, long renderNanos) {
+        this.tables = tables;
+        this.threads = threads;
+        this.elapsedNanos = elapsedNanos;
+        this.renderNanos = renderNanos;
+    }
+
+    /**
+     * Get the number of tables rendered
+     * @return the number of tables
+     */
+    public int getTables() {
+        return tables;
+    }
+
+    /**
+     * Get the number of threads used
+     * @return the number of threads
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Get the time the whole generation took
+     * @return the time, in milliseconds
+     */
+    public long getElapsedMillis() {
+        return elapsedNanos / 1000000L;
+    }
+
+    /**
+     * Get the total time spent rendering the tables, summed over every thread
+     * @return the time, in milliseconds
+     */
+    public long getRenderMillis() {
+        return renderNanos / 1000000L;
+    }
+
+    /**
+     * Get the number of tables generated per second
+     * @return the throughput
+     */
+    public double getTablesPerSecond() {
+        return elapsedNanos == 0 ? 0.0 : tables * 1000000000.0 / elapsedNanos;
+    }
+
+    /**
+     * Get the average number of threads that were busy rendering - the
+     * total time spent rendering the tables divided by the time the whole
+     * generation took. This is not a speedup, as a table takes longer to
+     * render when the threads are competing for the processors and memory
+     * @return the average number of busy threads
+     */
+    public double getConcurrency() {
+        return elapsedNanos == 0 ? 1.0 : (double) renderNanos / elapsedNanos;
+    }
+
+    /**
+     * Generate a string for the object
+     * @return the string
+     */
+    @Override
+    public String toString() {
+        return "Generated " + tables + " tables over " + threads + " threads in " + getElapsedMillis() + "ms, "
+                + getRenderMillis() + "ms of work, " + String.format(Locale.ENGLISH, "%.0f", getTablesPerSecond())
+                + " tables/s, concurrency " + String.format(Locale.ENGLISH, "%.2f", getConcurrency());
+    }
+}
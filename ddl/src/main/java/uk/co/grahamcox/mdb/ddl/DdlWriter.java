@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2011 graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.grahamcox.mdb.ddl;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Buffered output for generated DDL. Text is copied into a single character
+ * buffer that is reused for the whole script and drained to the underlying
+ * Writer or channel whenever it fills up, so identifiers, literals and
+ * numbers are written out without building a String for each statement.
+ * The underlying Writer or channel is not closed by this class
+ * @author graham
+ */
+public class DdlWriter {
+    /** The default size of the buffer, in characters */
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    /** The buffer that text is collected in */
+    private final CharBuffer buffer;
+    /** The writer to drain the buffer to, or null if writing to a channel */
+    private final Writer writer;
+    /** The channel to drain the buffer to, or null if writing to a writer */
+    private final WritableByteChannel channel;
+    /** The encoder to use when writing to a channel */
+    private final CharsetEncoder encoder;
+    /** The buffer of encoded bytes to write to the channel */
+    private final ByteBuffer bytes;
+    /** Scratch space for formatting numbers */
+    private final char[] digits = new char[11];
+
+    /**
+     * Create the DDL writer to write to a Writer
+     * @param writer the writer
+     */
+    public DdlWriter(Writer writer) {
+        this(writer, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Create the DDL writer to write to a Writer
+     * @param writer the writer
+     * @param bufferSize the size of the buffer, in characters
+     */
+    public DdlWriter(Writer writer, int bufferSize) {
+        this.buffer = CharBuffer.allocate(bufferSize);
+        this.writer = writer;
+        this.channel = null;
+        this.encoder = null;
+        this.bytes = null;
+    }
+
+    /**
+     * Create the DDL writer to write to a channel
+     * @param channel the channel
+     * @param charset the character set to encode the text in
+     */
+    public DdlWriter(WritableByteChannel channel, Charset charset) {
+        this(channel, charset, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Create the DDL writer to write to a channel
+     * @param channel the channel
+     * @param charset the character set to encode the text in
+     * @param bufferSize the size of the buffer, in characters
+     */
+    public DdlWriter(WritableByteChannel channel, Charset charset, int bufferSize) {
+        this.buffer = CharBuffer.allocate(bufferSize);
+        this.writer = null;
+        this.channel = channel;
+        this.encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.bytes = ByteBuffer.allocate((int) Math.ceil(bufferSize * encoder.maxBytesPerChar()));
+    }
+
+    /**
+     * Write a single character
+     * @param c the character
+     * @return this, for chaining
+     * @throws IOException if an error occurs draining the buffer
+     */
+    public DdlWriter append(char c) throws IOException {
+        if (!buffer.hasRemaining()) {
+            drain();
+        }
+        buffer.put(c);
+        return this;
+    }
+
+    /**
+     * Write some text as it is
+     * @param text the text
+     * @return this, for chaining
+     * @throws IOException if an error occurs draining the buffer
+     */
+    public DdlWriter append(String text) throws IOException {
+        int length = text.length();
+        int offset = 0;
+        while (offset < length) {
+            if (!buffer.hasRemaining()) {
+                drain();
+            }
+            int count = Math.min(buffer.remaining(), length - offset);
+            buffer.put(text, offset, offset + count);
+            offset += count;
+        }
+        return this;
+    }
+
+    /**
+     * Write a number
+     * @param value the number
+     * @return this, for chaining
+     * @throws IOException if an error occurs draining the buffer
+     */
+    public DdlWriter append(int value) throws IOException {
+        if (value == Integer.MIN_VALUE) {
+            return append(Integer.toString(value));
+        }
+        if (value < 0) {
+            append('-');
+            value = -value;
+        }
+        int start = digits.length;
+        do {
+            digits[--start] = (char) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        for (int i = start; i < digits.length; ++i) {
+            append(digits[i]);
+        }
+        return this;
+    }
+
+    /**
+     * Write a quoted identifier
+     * @param name the identifier
+     * @return this, for chaining
+     * @throws IOException if an error occurs draining the buffer
+     */
+    public DdlWriter appendIdentifier(String name) throws IOException {
+        return appendQuoted(name, '"');
+    }
+
+    /**
+     * Write a quoted string literal
+     * @param value the value of the literal
+     * @return this, for chaining
+     * @throws IOException if an error occurs draining the buffer
+     */
+    public DdlWriter appendLiteral(String value) throws IOException {
+        return appendQuoted(value, '\'');
+    }
+
+    /**
+     * Write some text in quotes, doubling up any quotes inside it
+     * @param text the text
+     * @param quote the quote character
+     * @return this, for chaining
+     * @throws IOException if an error occurs draining the buffer
+     */
+    private DdlWriter appendQuoted(String text, char quote) throws IOException {
+        append(quote);
+        int length = text.length();
+        for (int i = 0; i < length; ++i) {
+            char c = text.charAt(i);
+            if (c == quote) {
+                append(quote);
+            }
+            append(c);
+        }
+        return append(quote);
+    }
+
+    /**
+     * Write everything in the buffer to the underlying Writer or channel,
+     * and flush the Writer
+     * @throws IOException if an error occurs writing the buffer
+     */
+    public void flush() throws IOException {
+        drain();
+        if (writer != null) {
+            writer.flush();
+        }
+    }
+
+    /**
+     * Write everything in the buffer to the underlying Writer or channel.
+     * Anything the encoder can't consume yet, such as the first half of a
+     * surrogate pair, is kept at the start of the buffer
+     * @throws IOException if an error occurs writing the buffer
+     */
+    private void drain() throws IOException {
+        buffer.flip();
+        if (writer != null) {
+            writer.write(buffer.array(), buffer.arrayOffset(), buffer.limit());
+            buffer.position(buffer.limit());
+        }
+        else {
+            CoderResult result;
+            do {
+                result = encoder.encode(buffer, bytes, false);
+                writeBytes();
+            } while (result.isOverflow());
+        }
+        buffer.compact();
+    }
+
+    /**
+     * Write all of the encoded bytes to the channel
+     * @throws IOException if an error occurs writing to the channel
+     */
+    private void writeBytes() throws IOException {
+        bytes.flip();
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+        bytes.clear();
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2011 graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.grahamcox.mdb.ddl;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import uk.co.grahamcox.mdb.schema.Database;
+import uk.co.grahamcox.mdb.schema.Schema;
+import uk.co.grahamcox.mdb.schema.Table;
+
+/**
+ * Generate the DDL for a Database with the tables rendered on a pool of
+ * threads. Each table is rendered into its own buffer, and the buffers are
+ * written out in exactly the order that {@link PostgresDdlGenerator} would
+ * write them - schema, then table, then column declaration order - so the
+ * script is the same whatever the number of threads. Only a limited number
+ * of tables are rendered ahead of the one being written out, so memory use
+ * doesn't grow with the size of the database
+ * @author graham
+ */
+public class ParallelDdlGenerator {
+    /** The logger to use */
+    private final Log LOG = LogFactory.getLog(ParallelDdlGenerator.class);
+    /** The size of the buffer each table is rendered into */
+    private static final int TABLE_BUFFER_SIZE = 1024;
+    /** The generator to render each table with */
+    private final PostgresDdlGenerator generator;
+    /** The number of threads to render with */
+    private int threads = Runtime.getRuntime().availableProcessors();
+    /** The most tables to have rendered, or being rendered, ahead of the output */
+    private int maxPending = 256;
+
+    /**
+     * A table that has been rendered
+     */
+    private static class RenderedTable {
+        /** The DDL for the table */
+        private final String ddl;
+        /** The time taken to render it, in nanoseconds */
+        private final long nanos;
+
+        /**
+         * Create the rendered table
+         * @param ddl the DDL for the table
+         * @param nanos the time taken to render it, in nanoseconds
+         */
+        public RenderedTable(String ddl, long nanos) {
+            this.ddl = ddl;
+            this.nanos = nanos;
+        }
+    }
+
+    /**
+     * Create the parallel DDL generator
+     * @param generator the generator to render each table with
+     */
+    public ParallelDdlGenerator(PostgresDdlGenerator generator) {
+        this.generator = generator;
+    }
+
+    /**
+     * Get the number of threads to render with
+     * @return the number of threads
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Set the number of threads to render with
+     * @param threads the number of threads
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Get the most tables to have rendered ahead of the output
+     * @return the maximum number of pending tables
+     */
+    public int getMaxPending() {
+        return maxPending;
+    }
+
+    /**
+     * Set the most tables to have rendered ahead of the output
+     * @param maxPending the maximum number of pending tables
+     */
+    public void setMaxPending(int maxPending) {
+        this.maxPending = maxPending;
+    }
+
+    /**
+     * Generate the DDL for every schema in the database
+     * @param database the database
+     * @param out the writer to write the DDL to
+     * @return the timings of the generation
+     * @throws IOException if an error occurs writing the DDL
+     */
+    public DdlGenerationStatistics generate(Database database, DdlWriter out) throws IOException {
+        long start = System.nanoTime();
+        List<Schema> schemas = PostgresDdlGenerator.sortedSchemas(database);
+        List<Table> tables = new ArrayList<Table>();
+        List<String> tableSchemas = new ArrayList<String>();
+        for (Schema schema : schemas) {
+            for (Table table : PostgresDdlGenerator.sortedTables(schema)) {
+                tables.add(table);
+                tableSchemas.add(schema.getName());
+            }
+        }
+
+        int poolSize = Math.max(1, Math.min(threads, tables.size()));
+        long renderNanos;
+        if (poolSize == 1) {
+            generator.generate(database, out);
+            renderNanos = System.nanoTime() - start;
+        }
+        else {
+            renderNanos = generate(schemas, tables, tableSchemas, poolSize, out);
+        }
+
+        DdlGenerationStatistics statistics = new DdlGenerationStatistics(tables.size(), poolSize,
+                System.nanoTime() - start, renderNanos);
+        LOG.debug(statistics);
+        return statistics;
+    }
+
+    /**
+     * Render the tables on a pool of threads, writing them out in order
+     * @param schemas the schemas, in output order
+     * @param tables the tables of all of the schemas, in output order
+     * @param tableSchemas the name of the schema of each table
+     * @param poolSize the number of threads to render with
+     * @param out the writer to write the DDL to
+     * @return the total time spent rendering the tables, in nanoseconds
+     * @throws IOException if an error occurs writing the DDL
+     */
+    private long generate(List<Schema> schemas, List<Table> tables, List<String> tableSchemas, int poolSize,
+            DdlWriter out) throws IOException {
+        LinkedList<Future<RenderedTable>> pending = new LinkedList<Future<RenderedTable>>();
+        int window = Math.max(poolSize, maxPending);
+        int submitted = 0;
+        long renderNanos = 0;
+        ExecutorService executor = Executors.newFixedThreadPool(poolSize);
+        try {
+            int written = 0;
+            for (Schema schema : schemas) {
+                generator.generateSchema(schema, out);
+                int tableCount = schema.getTables().size();
+                for (int i = 0; i < tableCount; ++i) {
+                    while (submitted < tables.size() && submitted - written < window) {
+                        pending.add(executor.submit(render(tableSchemas.get(submitted), tables.get(submitted))));
+                        ++submitted;
+                    }
+                    RenderedTable rendered = pending.removeFirst().get();
+                    out.append(rendered.ddl);
+                    renderNanos += rendered.nanos;
+                    ++written;
+                }
+            }
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while generating DDL", ex);
+        }
+        catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new IOException("Failed to generate DDL", ex.getCause());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+        return renderNanos;
+    }
+
+    /**
+     * Create the task to render a single table into its own buffer
+     * @param schemaName the name of the schema the table is in
+     * @param table the table
+     * @return the task
+     */
+    private Callable<RenderedTable> render(final String schemaName, final Table table) {
+        return new Callable<RenderedTable>() {
+            @Override
+            public RenderedTable call() throws IOException {
+                long start = System.nanoTime();
+                StringWriter buffer = new StringWriter(TABLE_BUFFER_SIZE);
+                DdlWriter tableOut = new DdlWriter(buffer, TABLE_BUFFER_SIZE);
+                generator.generate(schemaName, table, tableOut);
+                tableOut.flush();
+                return new RenderedTable(buffer.toString(), System.nanoTime() - start);
+            }
+        };
+    }
+}
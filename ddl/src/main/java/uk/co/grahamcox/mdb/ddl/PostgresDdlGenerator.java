@@ -0,0 +1,327 @@
+/*
+ * Copyright (C) 2011 graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.grahamcox.mdb.ddl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import uk.co.grahamcox.mdb.schema.Column;
+import uk.co.grahamcox.mdb.schema.DataType;
+import uk.co.grahamcox.mdb.schema.Database;
+import uk.co.grahamcox.mdb.schema.Schema;
+import uk.co.grahamcox.mdb.schema.Table;
+import uk.co.grahamcox.mdb.schema.datatype.BooleanDataType;
+import uk.co.grahamcox.mdb.schema.datatype.NumberDataType;
+import uk.co.grahamcox.mdb.schema.datatype.StringDataType;
+import uk.co.grahamcox.mdb.schema.datatype.TimestampDataType;
+
+/**
+ * Generate the PostgreSQL DDL to create a Database from scratch. Schemas and
+ * tables are written in name order and columns in declaration order, so the
+ * same model always produces the same script. Everything is streamed
+ * straight into a {@link DdlWriter}
+ * @author graham
+ */
+public class PostgresDdlGenerator {
+    /** Comparator to order schemas by name */
+    private static final Comparator<Schema> SCHEMA_ORDER = new Comparator<Schema>() {
+        @Override
+        public int compare(Schema o1, Schema o2) {
+            return o1.getName().compareTo(o2.getName());
+        }
+    };
+    /** Comparator to order tables by name */
+    private static final Comparator<Table> TABLE_ORDER = new Comparator<Table>() {
+        @Override
+        public int compare(Table o1, Table o2) {
+            return o1.getName().compareTo(o2.getName());
+        }
+    };
+
+    /** The indent to use for the columns of a table */
+    private static final String INDENT = "    ";
+
+    /**
+     * Generate the DDL for every schema in the database
+     * @param database the database
+     * @param out the writer to write the DDL to
+     * @throws IOException if an error occurs writing the DDL
+     */
+    public void generate(Database database, DdlWriter out) throws IOException {
+        for (Schema schema : sortedSchemas(database)) {
+            generate(schema, out);
+        }
+    }
+
+    /**
+     * Generate the DDL for a schema and every table in it
+     * @param schema the schema
+     * @param out the writer to write the DDL to
+     * @throws IOException if an error occurs writing the DDL
+     */
+    public void generate(Schema schema, DdlWriter out) throws IOException {
+        generateSchema(schema, out);
+        for (Table table : sortedTables(schema)) {
+            generate(schema.getName(), table, out);
+        }
+    }
+
+    /**
+     * Generate the DDL to create a schema, without any of its tables
+     * @param schema the schema
+     * @param out the writer to write the DDL to
+     * @throws IOException if an error occurs writing the DDL
+     */
+    public void generateSchema(Schema schema, DdlWriter out) throws IOException {
+        writeCreateSchema(schema, out);
+        out.append(";\n");
+        if (schema.getComment() != null) {
+            writeSchemaComment(schema.getName(), schema.getComment(), out);
+            out.append(";\n");
+        }
+        out.append('\n');
+    }
+
+    /**
+     * Generate the DDL to create a table, including its primary key and the
+     * comments on it and its columns
+     * @param schemaName the name of the schema the table is in
+     * @param table the table
+     * @param out the writer to write the DDL to
+     * @throws IOException if an error occurs writing the DDL
+     */
+    public void generate(String schemaName, Table table, DdlWriter out) throws IOException {
+        writeCreateTable(schemaName, table, out);
+        out.append(";\n");
+        if (table.getComment() != null) {
+            writeTableComment(schemaName, table.getName(), table.getComment(), out);
+            out.append(";\n");
+        }
+        int columnCount = table.getColumnCount();
+        for (int i = 0; i < columnCount; ++i) {
+            Column column = table.getColumn(i);
+            if (column.getComment() != null) {
+                writeColumnComment(schemaName, table.getName(), column.getName(), column.getComment(), out);
+                out.append(";\n");
+            }
+        }
+        out.append('\n');
+    }
+
+    /**
+     * Write a CREATE SCHEMA statement, without the terminating semicolon
+     * @param schema the schema
+     * @param out the writer to write the DDL to
+     * @throws IOException if an error occurs writing the DDL
+     */
+    public void writeCreateSchema(Schema schema, DdlWriter out) throws IOException {
+        out.append("CREATE SCHEMA ").appendIdentifier(schema.getName());
+    }
+
+    /**
+     * Write a CREATE TABLE statement, including the primary key, without
+     * the terminating semicolon
+     * @param schemaName the name of the schema the table is in
+     * @param table the table
+     * @param out the writer to write the DDL to
+     * @throws IOException if an error occurs writing the DDL
+     */
+    public void writeCreateTable(String schemaName, Table table, DdlWriter out) throws IOException {
+        out.append("CREATE TABLE ");
+        writeTableName(schemaName, table.getName(), out);
+        out.append(" (");
+        int columnCount = table.getColumnCount();
+        for (int i = 0; i < columnCount; ++i) {
+            out.append(i == 0 ? "\n" : ",\n").append(INDENT);
+            writeColumn(table.getColumn(i), out);
+        }
+        List<Column> keyColumns = table.getKeyColumns();
+        if (!keyColumns.isEmpty()) {
+            out.append(columnCount == 0 ? "\n" : ",\n").append(INDENT).append("PRIMARY KEY (");
+            for (int i = 0; i < keyColumns.size(); ++i) {
+                if (i > 0) {
+                    out.append(", ");
+                }
+                out.appendIdentifier(keyColumns.get(i).getName());
+            }
+            out.append(')');
+        }
+        out.append("\n)");
+    }
+
+    /**
+     * Write a COMMENT ON SCHEMA statement, without the terminating semicolon
+     * @param schemaName the name of the schema
+     * @param comment the comment, or null to remove it
+     * @param out the writer to write the DDL to
+     * @throws IOException if an error occurs writing the DDL
+     */
+    public void writeSchemaComment(String schemaName, String comment, DdlWriter out) throws IOException {
+        out.append("COMMENT ON SCHEMA ").appendIdentifier(schemaName);
+        writeCommentText(comment, out);
+    }
+
+    /**
+     * Write a COMMENT ON TABLE statement, without the terminating semicolon
+     * @param schemaName the name of the schema the table is in
+     * @param tableName the name of the table
+     * @param comment the comment, or null to remove it
+     * @param out the writer to write the DDL to
+     * @throws IOException if an error occurs writing the DDL
+     */
+    public void writeTableComment(String schemaName, String tableName, String comment, DdlWriter out)
+            throws IOException {
+        out.append("COMMENT ON TABLE ");
+        writeTableName(schemaName, tableName, out);
+        writeCommentText(comment, out);
+    }
+
+    /**
+     * Write a COMMENT ON COLUMN statement, without the terminating semicolon
+     * @param schemaName the name of the schema the table is in
+     * @param tableName the name of the table
+     * @param columnName the name of the column
+     * @param comment the comment, or null to remove it
+     * @param out the writer to write the DDL to
+     * @throws IOException if an error occurs writing the DDL
+     */
+    public void writeColumnComment(String schemaName, String tableName, String columnName, String comment,
+            DdlWriter out) throws IOException {
+        out.append("COMMENT ON COLUMN ");
+        writeTableName(schemaName, tableName, out);
+        out.append('.').appendIdentifier(columnName);
+        writeCommentText(comment, out);
+    }
+
+    /**
+     * Write the text of a comment, or NULL if there isn't one
+     * @param comment the comment
+     * @param out the writer to write the DDL to
+     * @throws IOException if an error occurs writing the DDL
+     */
+    private void writeCommentText(String comment, DdlWriter out) throws IOException {
+        out.append(" IS ");
+        if (comment == null) {
+            out.append("NULL");
+        }
+        else {
+            out.appendLiteral(comment);
+        }
+    }
+
+    /**
+     * Write the definition of a single column
+     * @param column the column
+     * @param out the writer to write the DDL to
+     * @throws IOException if an error occurs writing the DDL
+     */
+    public void writeColumn(Column column, DdlWriter out) throws IOException {
+        out.appendIdentifier(column.getName()).append(' ');
+        writeDataType(column.getName(), column.getDataType(), out);
+        if (!column.isNullable()) {
+            out.append(" NOT NULL");
+        }
+        if (column.getDefaultValue() != null) {
+            out.append(" DEFAULT ").append(column.getDefaultValue());
+        }
+    }
+
+    /**
+     * Write the PostgreSQL name of a data type
+     * @param columnName the name of the column the data type is for, for
+     * error messages
+     * @param dataType the data type
+     * @param out the writer to write the DDL to
+     * @throws IOException if an error occurs writing the DDL
+     * @throws IllegalArgumentException if the data type is missing or not
+     * supported
+     */
+    public void writeDataType(String columnName, DataType dataType, DdlWriter out) throws IOException {
+        if (dataType instanceof BooleanDataType) {
+            out.append("boolean");
+        }
+        else if (dataType instanceof NumberDataType) {
+            NumberDataType number = (NumberDataType) dataType;
+            out.append("numeric(").append(number.getPrecision());
+            if (number.getScale() != 0) {
+                out.append(", ").append(number.getScale());
+            }
+            out.append(')');
+        }
+        else if (dataType instanceof StringDataType) {
+            StringDataType string = (StringDataType) dataType;
+            if (string.getSize() == null) {
+                out.append("text");
+            }
+            else {
+                out.append(string.isVariableSize() ? "varchar(" : "char(").append(string.getSize()).append(')');
+            }
+        }
+        else if (dataType instanceof TimestampDataType) {
+            TimestampDataType timestamp = (TimestampDataType) dataType;
+            if (timestamp.getType() == TimestampDataType.Type.DATE) {
+                out.append("date");
+            }
+            else {
+                out.append(timestamp.getType() == TimestampDataType.Type.TIME ? "time(" : "timestamp(")
+                        .append(timestamp.getPrecision())
+                        .append(timestamp.isWithTimezone() ? ") with time zone" : ") without time zone");
+            }
+        }
+        else if (dataType == null) {
+            throw new IllegalArgumentException("Column " + columnName + " has no data type");
+        }
+        else {
+            throw new IllegalArgumentException("Unsupported data type for column " + columnName + ": " + dataType);
+        }
+    }
+
+    /**
+     * Write the schema qualified name of a table
+     * @param schemaName the name of the schema
+     * @param tableName the name of the table
+     * @param out the writer to write the DDL to
+     * @throws IOException if an error occurs writing the DDL
+     */
+    public void writeTableName(String schemaName, String tableName, DdlWriter out) throws IOException {
+        out.appendIdentifier(schemaName).append('.').appendIdentifier(tableName);
+    }
+
+    /**
+     * Get the schemas of a database in the order they are generated in
+     * @param database the database
+     * @return the schemas, in name order
+     */
+    public static List<Schema> sortedSchemas(Database database) {
+        List<Schema> schemas = new ArrayList<Schema>(database.getSchemas());
+        Collections.sort(schemas, SCHEMA_ORDER);
+        return schemas;
+    }
+
+    /**
+     * Get the tables of a schema in the order they are generated in
+     * @param schema the schema
+     * @return the tables, in name order
+     */
+    public static List<Table> sortedTables(Schema schema) {
+        List<Table> tables = new ArrayList<Table>(schema.getTables());
+        Collections.sort(tables, TABLE_ORDER);
+        return tables;
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2011 graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.grahamcox.mdb.ddl;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import uk.co.grahamcox.mdb.schema.Database;
+
+/**
+ * Measure the throughput of the parallel DDL generator with different
+ * numbers of threads. Run by hand rather than as part of the tests, with the
+ * number of tables to generate as the optional argument. The speedup of
+ * each number of threads is measured against the single thread run
+ * @author graham
+ */
+public class DdlGenerationBenchmark {
+    /** The number of times to generate the script with each number of threads */
+    private static final int ROUNDS = 5;
+    /** The logger to use */
+    private final Log LOG = LogFactory.getLog(DdlGenerationBenchmark.class);
+
+    /**
+     * Writer that throws away everything written to it
+     */
+    private static class NullWriter extends Writer {
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Run the benchmark
+     * @param args the number of tables to generate
+     * @throws IOException never
+     */
+    public static void main(String[] args) throws IOException {
+        new DdlGenerationBenchmark().run(args.length > 0 ? Integer.parseInt(args[0]) : 10000);
+    }
+
+    /**
+     * Run the benchmark
+     * @param tables the number of tables to generate
+     * @throws IOException never
+     */
+    public void run(int tables) throws IOException {
+        Database database = TestParallelDdlGenerator.database(10, tables / 10, 20);
+        database.freeze();
+        int maxThreads = Math.max(2, Runtime.getRuntime().availableProcessors());
+        DdlGenerationStatistics single = null;
+        for (int threads = 1; threads <= maxThreads; threads = threads == maxThreads ? threads + 1
+                : Math.min(threads * 2, maxThreads)) {
+            ParallelDdlGenerator generator = new ParallelDdlGenerator(new PostgresDdlGenerator());
+            generator.setThreads(threads);
+            DdlGenerationStatistics best = null;
+            for (int round = 0; round < ROUNDS; ++round) {
+                DdlWriter out = new DdlWriter(new NullWriter());
+                DdlGenerationStatistics statistics = generator.generate(database, out);
+                out.flush();
+                if (best == null || statistics.getTablesPerSecond() > best.getTablesPerSecond()) {
+                    best = statistics;
+                }
+            }
+            if (single == null) {
+                single = best;
+            }
+            LOG.info(best + ", speedup " + String.format(Locale.ENGLISH, "%.2f",
+                    best.getTablesPerSecond() / single.getTablesPerSecond()));
+        }
+    }
+}
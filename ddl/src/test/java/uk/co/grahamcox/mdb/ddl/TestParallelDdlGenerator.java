@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2011 graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.grahamcox.mdb.ddl;
+
+import java.io.StringWriter;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import uk.co.grahamcox.mdb.schema.Column;
+import uk.co.grahamcox.mdb.schema.Database;
+import uk.co.grahamcox.mdb.schema.Schema;
+import uk.co.grahamcox.mdb.schema.Table;
+import uk.co.grahamcox.mdb.schema.datatype.DataTypeRegistry;
+
+/**
+ *
+ * @author graham
+ */
+public class TestParallelDdlGenerator {
+    static Database database(int schemas, int tables, int columns) {
+        DataTypeRegistry registry = DataTypeRegistry.getInstance();
+        Database database = new Database();
+        for (int s = 0; s < schemas; ++s) {
+            Schema schema = new Schema("schema" + s);
+            for (int t = 0; t < tables; ++t) {
+                Table table = new Table("table" + t);
+                table.setComment("Table " + t + " of schema " + s);
+                Column id = new Column("id");
+                id.setDataType(registry.getNumber(19, 0));
+                id.setNullable(false);
+                table.addKeyColumn(id);
+                for (int c = columns - 1; c > 0; --c) {
+                    Column column = new Column("column" + c);
+                    column.setDataType(c % 2 == 0 ? registry.getString(c * 10, true) : registry.getNumber(10, c % 5));
+                    column.setComment("Column " + c);
+                    table.addColumn(column);
+                }
+                schema.addTable(table);
+            }
+            database.addSchema(schema);
+        }
+        return database;
+    }
+
+    private String generate(Database database, int threads, int maxPending) throws Exception {
+        StringWriter writer = new StringWriter();
+        DdlWriter out = new DdlWriter(writer);
+        ParallelDdlGenerator generator = new ParallelDdlGenerator(new PostgresDdlGenerator());
+        generator.setThreads(threads);
+        generator.setMaxPending(maxPending);
+        DdlGenerationStatistics statistics = generator.generate(database, out);
+        out.flush();
+        Assert.assertEquals(statistics.getTables(), 3 * 40);
+        return writer.toString();
+    }
+
+    @Test
+    public void testSameAsSequential() throws Exception {
+        Database database = database(3, 40, 6);
+        StringWriter writer = new StringWriter();
+        DdlWriter out = new DdlWriter(writer);
+        new PostgresDdlGenerator().generate(database, out);
+        out.flush();
+        String expected = writer.toString();
+
+        Assert.assertEquals(generate(database, 1, 256), expected);
+        Assert.assertEquals(generate(database, 4, 256), expected);
+        Assert.assertEquals(generate(database, 8, 1), expected);
+    }
+
+    @Test
+    public void testColumnOrder() throws Exception {
+        String ddl = generate(database(3, 40, 6), 4, 16);
+        int table = ddl.indexOf("CREATE TABLE \"schema1\".\"table10\"");
+        Assert.assertTrue(table > ddl.indexOf("CREATE TABLE \"schema1\".\"table1\""));
+        Assert.assertTrue(table > ddl.indexOf("CREATE TABLE \"schema0\".\"table9\""));
+        Assert.assertTrue(ddl.indexOf("\"column5\"", table) < ddl.indexOf("\"column1\"", table));
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2011 graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.grahamcox.mdb.ddl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import uk.co.grahamcox.mdb.schema.Column;
+import uk.co.grahamcox.mdb.schema.Database;
+import uk.co.grahamcox.mdb.schema.Schema;
+import uk.co.grahamcox.mdb.schema.Table;
+import uk.co.grahamcox.mdb.schema.datatype.DataTypeRegistry;
+
+/**
+ *
+ * @author graham
+ */
+public class TestPostgresDdlGenerator {
+    private Database database() {
+        DataTypeRegistry registry = DataTypeRegistry.getInstance();
+        Column id = new Column("id");
+        id.setDataType(registry.getNumber(19, 0));
+        id.setNullable(false);
+        Column name = new Column("name");
+        name.setDataType(registry.getString(100, true));
+        name.setComment("The user's name");
+        Column balance = new Column("balance");
+        balance.setDataType(registry.getNumber(10, 2));
+        balance.setDefaultValue("0");
+        Column created = new Column("created");
+        created.setDataType(registry.getTimestamp());
+        Column active = new Column("active");
+        active.setDataType(registry.getBoolean());
+
+        Table user = new Table("user");
+        user.setComment("Users");
+        user.addKeyColumn(id);
+        user.addColumn(name);
+        user.addColumn(balance);
+        user.addColumn(created);
+        user.addColumn(active);
+
+        Column code = new Column("code");
+        code.setDataType(registry.getString(2, false));
+        Table country = new Table("country");
+        country.addKeyColumn(code);
+
+        Schema schema = new Schema("users");
+        schema.setComment("User \"data\"");
+        schema.addTable(user);
+        schema.addTable(country);
+        Database database = new Database();
+        database.addSchema(schema);
+        return database;
+    }
+
+    private String generate(Database database, int bufferSize) throws Exception {
+        StringWriter writer = new StringWriter();
+        DdlWriter out = new DdlWriter(writer, bufferSize);
+        new PostgresDdlGenerator().generate(database, out);
+        out.flush();
+        return writer.toString();
+    }
+
+    @Test
+    public void testGenerate() throws Exception {
+        Assert.assertEquals(generate(database(), DdlWriter.DEFAULT_BUFFER_SIZE),
+                "CREATE SCHEMA \"users\";\n"
+                + "COMMENT ON SCHEMA \"users\" IS 'User \"data\"';\n"
+                + "\n"
+                + "CREATE TABLE \"users\".\"country\" (\n"
+                + "    \"code\" char(2),\n"
+                + "    PRIMARY KEY (\"code\")\n"
+                + ");\n"
+                + "\n"
+                + "CREATE TABLE \"users\".\"user\" (\n"
+                + "    \"id\" numeric(19) NOT NULL,\n"
+                + "    \"name\" varchar(100),\n"
+                + "    \"balance\" numeric(10, 2) DEFAULT 0,\n"
+                + "    \"created\" timestamp(6) with time zone,\n"
+                + "    \"active\" boolean,\n"
+                + "    PRIMARY KEY (\"id\")\n"
+                + ");\n"
+                + "COMMENT ON TABLE \"users\".\"user\" IS 'Users';\n"
+                + "COMMENT ON COLUMN \"users\".\"user\".\"name\" IS 'The user''s name';\n"
+                + "\n");
+    }
+
+    @Test
+    public void testDataTypes() throws Exception {
+        DataTypeRegistry registry = DataTypeRegistry.getInstance();
+        PostgresDdlGenerator generator = new PostgresDdlGenerator();
+        String[][] expected = {
+            {"text", "text"},
+            {"date", "date"},
+            {"time(3) without time zone", "time(3) without time zone"},
+            {"timestamp(0) without time zone", "timestamp(0) without time zone"},
+            {"numeric", "numeric(38)"},
+            {"char", "char(1)"}
+        };
+        for (String[] entry : expected) {
+            StringWriter writer = new StringWriter();
+            DdlWriter out = new DdlWriter(writer);
+            generator.writeDataType("column", registry.parse(entry[0]), out);
+            out.flush();
+            Assert.assertEquals(writer.toString(), entry[1]);
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testMissingDataType() throws Exception {
+        new PostgresDdlGenerator().writeColumn(new Column("column"), new DdlWriter(new StringWriter()));
+    }
+
+    @Test
+    public void testSmallBuffer() throws Exception {
+        Assert.assertEquals(generate(database(), 7), generate(database(), DdlWriter.DEFAULT_BUFFER_SIZE));
+    }
+
+    @Test
+    public void testChannel() throws Exception {
+        Database database = database();
+        database.getSchema("users").getTable("user").setComment("Utilisateurs \u00e9t\u00e9 \ud83d\ude00");
+        Charset utf8 = Charset.forName("UTF-8");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DdlWriter out = new DdlWriter(Channels.newChannel(bytes), utf8, 5);
+        new PostgresDdlGenerator().generate(database, out);
+        out.flush();
+
+        Assert.assertEquals(new String(bytes.toByteArray(), utf8), generate(database, DdlWriter.DEFAULT_BUFFER_SIZE));
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright (C) 2011 graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package uk.co.grahamcox.mdb.diff;
+
+import javax.validation.constraints.NotNull;
+
+/**
+ * A single change needed to turn one Database into another.
+ * Changes are ordered by schema, then table, then column, then the type of
+ * change, so a sorted list of changes is always in the same order
+ * @author graham
+ */
+public class Change implements Comparable<Change> {
+    /**
+     * Enumeration of the types of change
+     */
+    public enum Type {
+        /** A schema needs creating. The new value is the Schema */
+        ADD_SCHEMA,
+        /** The comment on a schema has changed. The values are the comments */
+        ALTER_SCHEMA_COMMENT,
+        /** A table needs creating. The new value is the Table */
+        ADD_TABLE,
+        /** The comment on a table has changed. The values are the comments */
+        ALTER_TABLE_COMMENT,
+        /** A column needs adding. The new value is the Column, and the ordinal is its position in the table */
+        ADD_COLUMN,
+        /** The data type of a column has changed. The values are the DataTypes */
+        ALTER_COLUMN_TYPE,
+        /** Whether a column is nullable has changed. The values are Booleans */
+        ALTER_COLUMN_NULLABLE,
+        /** The default value of a column has changed. The values are the defaults */
+        ALTER_COLUMN_DEFAULT,
+        /** The comment on a column has changed. The values are the comments */
+        ALTER_COLUMN_COMMENT,
+        /** A column needs dropping. The old value is the Column */
+        DROP_COLUMN,
+        /** The key columns of a table have changed. The values are Sets of column names, in declaration order */
+        ALTER_TABLE_KEY,
+        /** A table needs dropping. The old value is the Table */
+        DROP_TABLE,
+        /** A schema needs dropping. The old value is the Schema */
+        DROP_SCHEMA
+    }
+
+    /** The type of change */
+    @NotNull
+    private final Type type;
+    /** The name of the schema changed */
+    @NotNull
+    private final String schemaName;
+    /** The name of the table changed, if the change is to a table or column */
+    private final String tableName;
+    /** The name of the column changed, if the change is to a column */
+    private final String columnName;
+    /** The value before the change */
+    private final Object oldValue;
+    /** The value after the change */
+    private final Object newValue;
+    /** The position of the column in the target table, or -1 if it isn't relevant */
+    private final int ordinal;
+
+    /**
+     * Create the change
+     * @param type the type of change
+     * @param schemaName the name of the schema changed
+     * @param tableName the name of the table changed, or null
+     * @param columnName the name of the column changed, or null
+     * @param oldValue the value before the change
+     * @param newValue the value after the change
+     */
+    public Change(Type type, String schemaName, String tableName, String columnName, Object oldValue, Object newValue) {
+        this(type, schemaName, tableName, columnName, oldValue, newValue, -1);
+    }
+
+    /**
+     * Create the change to a column at a known position in the target table
+     * @param type the type of change
+     * @param schemaName the name of the schema changed
+     * @param tableName the name of the table changed
+     * @param columnName the name of the column changed
+     * @param oldValue the value before the change
+     * @param newValue the value after the change
+     * @param ordinal the position of the column in the target table
+     */
+    public Change(Type type, String schemaName, String tableName, String columnName, Object oldValue, Object newValue,
+            int ordinal) {
+        this.type = type;
+        this.schemaName = schemaName;
+        this.tableName = tableName;
+        this.columnName = columnName;
+        this.oldValue = oldValue;
+        this.newValue = newValue;
+        this.ordinal = ordinal;
+    }
+
+    /**
+     * Get the type of change
+     * @return the type
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Get the name of the schema changed
+     * @return the schema name
+     */
+    public String getSchemaName() {
+        return schemaName;
+    }
+
+    /**
+     * Get the name of the table changed
+     * @return the table name, or null if the change is to a schema
+     */
+    public String getTableName() {
+        return tableName;
+    }
+
+    /**
+     * Get the name of the column changed
+     * @return the column name, or null if the change is to a schema or table
+     */
+    public String getColumnName() {
+        return columnName;
+    }
+
+    /**
+     * Get the value before the change
+     * @return the old value
+     */
+    public Object getOldValue() {
+        return oldValue;
+    }
+
+    /**
+     * Get the value after the change
+     * @return the new value
+     */
+    public Object getNewValue() {
+        return newValue;
+    }
+
+    /**
+     * Get the position of the column in the target table. This is only
+     * known for columns being added, so that they can be added in the order
+     * they are declared rather than in name order. It is not part of the
+     * ordering or equality of changes
+     * @return the ordinal, or -1 if it isn't known
+     */
+    public int getOrdinal() {
+        return ordinal;
+    }
+
+    /**
+     * Compare to another change for ordering
+     * @param other the change to compare to
+     * @return the ordering
+     */
+    @Override
+    public int compareTo(Change other) {
+        int result = compare(schemaName, other.schemaName);
+        if (result == 0) {
+            result = compare(tableName, other.tableName);
+        }
+        if (result == 0) {
+            result = compare(columnName, other.columnName);
+        }
+        if (result == 0) {
+            result = type.compareTo(other.type);
+        }
+        return result;
+    }
+
+    /**
+     * Compare two names, with null sorting first
+     * @param a the first name
+     * @param b the second name
+     * @return the ordering
+     */
+    private static int compare(String a, String b) {
+        if (a == null) {
+            return b == null ? 0 : -1;
+        }
+        else if (b == null) {
+            return 1;
+        }
+        return a.compareTo(b);
+    }
+
+    /**
+     * Compare to another object for equality
+     * @param obj the object to compare to
+     * @return True if equal. False if not
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == null) {
+            return false;
+        }
+        if (getClass() != obj.getClass()) {
+            return false;
+        }
+        final Change other = (Change) obj;
+        if (this.type != other.type) {
+            return false;
+        }
+        if (compare(this.schemaName, other.schemaName) != 0 || compare(this.tableName, other.tableName) != 0
+                || compare(this.columnName, other.columnName) != 0) {
+            return false;
+        }
+        if (this.oldValue != other.oldValue && (this.oldValue == null || !this.oldValue.equals(other.oldValue))) {
+            return false;
+        }
+        if (this.newValue != other.newValue && (this.newValue == null || !this.newValue.equals(other.newValue))) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Generate a hashcode for the object
+     * @return the hashcode
+     */
+    @Override
+    public int hashCode() {
+        int hash = 3;
+        hash = 37 * hash + this.type.hashCode();
+        hash = 37 * hash + (this.schemaName != null ? this.schemaName.hashCode() : 0);
+        hash = 37 * hash + (this.tableName != null ? this.tableName.hashCode() : 0);
+        hash = 37 * hash + (this.columnName != null ? this.columnName.hashCode() : 0);
+        return hash;
+    }
+
+    /**
+     * Generate a string for the object
+     * @return the string
+     */
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder("Change{").append(type).append(' ').append(schemaName);
+        if (tableName != null) {
+            result.append('.').append(tableName);
+        }
+        if (columnName != null) {
+            result.append('.').append(columnName);
+        }
+        if (type.name().startsWith("ALTER")) {
+            result.append(", ").append(oldValue).append(" -> ").append(newValue);
+        }
+        return result.append('}').toString();
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2011 graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package uk.co.grahamcox.mdb.diff;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The set of changes needed to turn one Database into another, in a stable
+ * order
+ * @author graham
+ */
+public class DatabaseDiff {
+    /** The changes, sorted */
+    private final List<Change> changes;
+
+    /**
+     * Create the diff
+     * @param changes the changes, which will be sorted
+     */
+    public DatabaseDiff(List<Change> changes) {
+        this.changes = new ArrayList<Change>(changes);
+        Collections.sort(this.changes);
+    }
+
+    /**
+     * Get all of the changes
+     * @return the changes
+     */
+    public List<Change> getChanges() {
+        return Collections.unmodifiableList(changes);
+    }
+
+    /**
+     * Get the changes of the given type
+     * @param type the type of change
+     * @return the changes
+     */
+    public List<Change> getChanges(Change.Type type) {
+        List<Change> result = new ArrayList<Change>();
+        for (Change change : changes) {
+            if (change.getType() == type) {
+                result.add(change);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Check if there are no changes
+     * @return True if the databases were the same. False if not
+     */
+    public boolean isEmpty() {
+        return changes.isEmpty();
+    }
+
+    /**
+     * Compare to another object for equality
+     * @param obj the object to compare to
+     * @return True if equal. False if not
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == null) {
+            return false;
+        }
+        if (getClass() != obj.getClass()) {
+            return false;
+        }
+        final DatabaseDiff other = (DatabaseDiff) obj;
+        return this.changes.equals(other.changes);
+    }
+
+    /**
+     * Generate a hashcode for the object
+     * @return the hashcode
+     */
+    @Override
+    public int hashCode() {
+        return 59 * 7 + this.changes.hashCode();
+    }
+
+    /**
+     * Generate a string for the object
+     * @return the string
+     */
+    @Override
+    public String toString() {
+        return "DatabaseDiff{" + "changes=" + changes + '}';
+    }
+}
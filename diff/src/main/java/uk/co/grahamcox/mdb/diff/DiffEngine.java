@@ -0,0 +1,370 @@
+/*
+ * Copyright (C) 2011 graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package uk.co.grahamcox.mdb.diff;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import uk.co.grahamcox.mdb.schema.Column;
+import uk.co.grahamcox.mdb.schema.Database;
+import uk.co.grahamcox.mdb.schema.DefaultValueNormaliser;
+import uk.co.grahamcox.mdb.schema.Schema;
+import uk.co.grahamcox.mdb.schema.Table;
+
+/**
+ * Work out the changes needed to turn the current Database into the target
+ * Database.
+ * Every schema, table and column is visited at most once, looking up its
+ * counterpart by name, so the time taken is linear in the size of the model.
+ * Schemas and tables whose fingerprints match are skipped without looking
+ * inside them. Column defaults are compared once normalised by a
+ * {@link DefaultValueNormaliser}, so that the form the catalog reports a
+ * default in matches the form it is written in the model.
+ * Large models can be split up by schema and by batches of tables and
+ * compared on a pool of threads. The changes are always sorted afterwards, so
+ * the result is the same whichever way the work was done.
+ * @author graham
+ */
+public class DiffEngine {
+    /** The number of threads to compare with. 1 compares on the calling thread */
+    private int threads = 1;
+    /** The number of tables a model needs before it is compared in parallel */
+    private int parallelThreshold = 1000;
+    /** The number of tables compared by each task when comparing in parallel */
+    private int batchSize = 100;
+    /** The normaliser to compare column defaults with */
+    private final DefaultValueNormaliser defaults = new DefaultValueNormaliser();
+
+    /**
+     * Get the number of threads to compare with
+     * @return the number of threads
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Set the number of threads to compare with
+     * @param threads the number of threads. 1 compares on the calling thread
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Get the number of tables a model needs before it is compared in parallel
+     * @return the number of tables
+     */
+    public int getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    /**
+     * Set the number of tables a model needs before it is compared in
+     * parallel. Smaller models are compared on the calling thread, as the cost
+     * of handing the work to other threads would outweigh the gain
+     * @param parallelThreshold the number of tables
+     */
+    public void setParallelThreshold(int parallelThreshold) {
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    /**
+     * Get the number of tables compared by each task when comparing in parallel
+     * @return the number of tables
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Set the number of tables compared by each task when comparing in parallel
+     * @param batchSize the number of tables
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Work out the changes needed to turn the current database into the target
+     * @param current the database as it is
+     * @param target the database as it should be
+     * @return the changes
+     */
+    public DatabaseDiff diff(Database current, Database target) {
+        if (threads > 1 && countTables(target) >= parallelThreshold) {
+            return diffParallel(current, target);
+        }
+        List<Change> changes = new ArrayList<Change>();
+        if (current.getFingerprint().equals(target.getFingerprint())) {
+            return new DatabaseDiff(changes);
+        }
+        for (Schema targetSchema : target.getSchemas()) {
+            diffSchema(current.getSchema(targetSchema.getName()), targetSchema, changes);
+        }
+        for (Schema currentSchema : current.getSchemas()) {
+            if (target.getSchema(currentSchema.getName()) == null) {
+                diffSchema(currentSchema, null, changes);
+            }
+        }
+        return new DatabaseDiff(changes);
+    }
+
+    /**
+     * Work out the changes needed to turn the current schema into the target
+     * @param current the schema as it is, or null if it doesn't exist
+     * @param target the schema as it should be, or null if it should be dropped
+     * @param changes the list to add the changes to
+     */
+    public void diffSchema(Schema current, Schema target, List<Change> changes) {
+        if (target == null) {
+            changes.add(new Change(Change.Type.DROP_SCHEMA, current.getName(), null, null, current, null));
+            return;
+        }
+        if (current == null) {
+            changes.add(new Change(Change.Type.ADD_SCHEMA, target.getName(), null, null, null, target));
+            for (Table table : target.getTables()) {
+                diffTable(target.getName(), null, table, changes);
+            }
+            return;
+        }
+        if (current.getFingerprint().equals(target.getFingerprint())) {
+            return;
+        }
+
+        diffSchemaOnly(current, target, changes);
+        for (Table targetTable : target.getTables()) {
+            diffTable(target.getName(), current.getTable(targetTable.getName()), targetTable, changes);
+        }
+    }
+
+    /**
+     * Work out the changes to a schema that both exists and should exist,
+     * apart from those to the tables that should exist in it. That is, the
+     * comment and the tables that need dropping
+     * @param current the schema as it is
+     * @param target the schema as it should be
+     * @param changes the list to add the changes to
+     */
+    private void diffSchemaOnly(Schema current, Schema target, List<Change> changes) {
+        String schemaName = target.getName();
+        if (!same(current.getComment(), target.getComment())) {
+            changes.add(new Change(Change.Type.ALTER_SCHEMA_COMMENT, schemaName, null, null,
+                    current.getComment(), target.getComment()));
+        }
+        for (Table currentTable : current.getTables()) {
+            if (target.getTable(currentTable.getName()) == null) {
+                diffTable(schemaName, currentTable, null, changes);
+            }
+        }
+    }
+
+    /**
+     * Work out the changes needed to turn the current database into the
+     * target, splitting the work into tasks by schema and batches of tables
+     * and running them on a pool of threads.
+     * The fingerprints of schemas that exist in both are not checked here,
+     * as that would calculate every table fingerprint on this thread. Instead
+     * each task checks the fingerprints of its own tables
+     * @param current the database as it is
+     * @param target the database as it should be
+     * @return the changes
+     */
+    private DatabaseDiff diffParallel(final Database current, final Database target) {
+        List<Change> changes = new ArrayList<Change>();
+        List<Callable<List<Change>>> tasks = new ArrayList<Callable<List<Change>>>();
+        for (final Schema targetSchema : target.getSchemas()) {
+            final Schema currentSchema = current.getSchema(targetSchema.getName());
+            if (currentSchema == null) {
+                tasks.add(new Callable<List<Change>>() {
+                    @Override
+                    public List<Change> call() {
+                        List<Change> result = new ArrayList<Change>();
+                        diffSchema(null, targetSchema, result);
+                        return result;
+                    }
+                });
+            }
+            else {
+                diffSchemaOnly(currentSchema, targetSchema, changes);
+                List<Table> tables = new ArrayList<Table>(targetSchema.getTables());
+                for (int start = 0; start < tables.size(); start += batchSize) {
+                    final List<Table> batch = tables.subList(start, Math.min(start + batchSize, tables.size()));
+                    tasks.add(new Callable<List<Change>>() {
+                        @Override
+                        public List<Change> call() {
+                            List<Change> result = new ArrayList<Change>();
+                            for (Table targetTable : batch) {
+                                diffTable(targetSchema.getName(), currentSchema.getTable(targetTable.getName()),
+                                        targetTable, result);
+                            }
+                            return result;
+                        }
+                    });
+                }
+            }
+        }
+        for (Schema currentSchema : current.getSchemas()) {
+            if (target.getSchema(currentSchema.getName()) == null) {
+                diffSchema(currentSchema, null, changes);
+            }
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (Future<List<Change>> future : executor.invokeAll(tasks)) {
+                changes.addAll(future.get());
+            }
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while comparing databases", ex);
+        }
+        catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new IllegalStateException("Failed to compare databases", ex.getCause());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+        return new DatabaseDiff(changes);
+    }
+
+    /**
+     * Count the tables in the database
+     * @param database the database
+     * @return the number of tables
+     */
+    private int countTables(Database database) {
+        int count = 0;
+        for (Schema schema : database.getSchemas()) {
+            count += schema.getTables().size();
+        }
+        return count;
+    }
+
+    /**
+     * Work out the changes needed to turn the current table into the target
+     * @param schemaName the name of the schema the table is in
+     * @param current the table as it is, or null if it doesn't exist
+     * @param target the table as it should be, or null if it should be dropped
+     * @param changes the list to add the changes to
+     */
+    public void diffTable(String schemaName, Table current, Table target, List<Change> changes) {
+        if (target == null) {
+            changes.add(new Change(Change.Type.DROP_TABLE, schemaName, current.getName(), null, current, null));
+            return;
+        }
+        if (current == null) {
+            changes.add(new Change(Change.Type.ADD_TABLE, schemaName, target.getName(), null, null, target));
+            return;
+        }
+        if (current.getFingerprint().equals(target.getFingerprint())) {
+            return;
+        }
+
+        String tableName = target.getName();
+        if (!same(current.getComment(), target.getComment())) {
+            changes.add(new Change(Change.Type.ALTER_TABLE_COMMENT, schemaName, tableName, null,
+                    current.getComment(), target.getComment()));
+        }
+        Set<String> currentKey = columnNames(current.getKeyColumns());
+        Set<String> targetKey = columnNames(target.getKeyColumns());
+        if (!currentKey.equals(targetKey)) {
+            changes.add(new Change(Change.Type.ALTER_TABLE_KEY, schemaName, tableName, null, currentKey, targetKey));
+        }
+
+        for (Column targetColumn : target.getAllColumns()) {
+            Column currentColumn = current.getColumn(targetColumn.getName());
+            if (currentColumn == null) {
+                changes.add(new Change(Change.Type.ADD_COLUMN, schemaName, tableName, targetColumn.getName(),
+                        null, targetColumn, target.getOrdinal(targetColumn.getName())));
+            }
+            else if (!currentColumn.getFingerprint().equals(targetColumn.getFingerprint())) {
+                diffColumn(schemaName, tableName, currentColumn, targetColumn, changes);
+            }
+        }
+        for (Column currentColumn : current.getAllColumns()) {
+            if (target.getColumn(currentColumn.getName()) == null) {
+                changes.add(new Change(Change.Type.DROP_COLUMN, schemaName, tableName, currentColumn.getName(),
+                        currentColumn, null));
+            }
+        }
+    }
+
+    /**
+     * Work out the changes needed to turn the current column into the target
+     * @param schemaName the name of the schema the column is in
+     * @param tableName the name of the table the column is in
+     * @param current the column as it is
+     * @param target the column as it should be
+     * @param changes the list to add the changes to
+     */
+    private void diffColumn(String schemaName, String tableName, Column current, Column target, List<Change> changes) {
+        String columnName = target.getName();
+        // Data types are shared instances from the registry, so the same type is the same object
+        if (current.getDataType() != target.getDataType()) {
+            changes.add(new Change(Change.Type.ALTER_COLUMN_TYPE, schemaName, tableName, columnName,
+                    current.getDataType(), target.getDataType()));
+        }
+        if (current.isNullable() != target.isNullable()) {
+            changes.add(new Change(Change.Type.ALTER_COLUMN_NULLABLE, schemaName, tableName, columnName,
+                    current.isNullable(), target.isNullable()));
+        }
+        // The model and the catalog can write the same default differently
+        if (!same(defaults.normalise(current.getDefaultValue()), defaults.normalise(target.getDefaultValue()))) {
+            changes.add(new Change(Change.Type.ALTER_COLUMN_DEFAULT, schemaName, tableName, columnName,
+                    current.getDefaultValue(), target.getDefaultValue()));
+        }
+        if (!same(current.getComment(), target.getComment())) {
+            changes.add(new Change(Change.Type.ALTER_COLUMN_COMMENT, schemaName, tableName, columnName,
+                    current.getComment(), target.getComment()));
+        }
+    }
+
+    /**
+     * Get the names of the given columns
+     * @param columns the columns
+     * @return the names, in the order of the columns
+     */
+    private Set<String> columnNames(List<Column> columns) {
+        Set<String> names = new LinkedHashSet<String>();
+        for (Column column : columns) {
+            names.add(column.getName());
+        }
+        return names;
+    }
+
+    /**
+     * Check if two values are the same, either of which may be null
+     * @param a the first value
+     * @param b the second value
+     * @return True if they are the same. False if not
+     */
+    private boolean same(Object a, Object b) {
+        return (a == null) ? (b == null) : a.equals(b);
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2011 graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package uk.co.grahamcox.mdb.diff;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import uk.co.grahamcox.mdb.schema.Column;
+import uk.co.grahamcox.mdb.schema.Database;
+import uk.co.grahamcox.mdb.schema.Schema;
+import uk.co.grahamcox.mdb.schema.Table;
+import uk.co.grahamcox.mdb.schema.datatype.DataTypeRegistry;
+import uk.co.grahamcox.mdb.schema.datatype.StringDataType;
+
+/**
+ *
+ * @author graham
+ */
+public class TestDiffEngine {
+    private final DiffEngine engine = new DiffEngine();
+
+    private Database database(int schemas, int tables, int columns) {
+        Database database = new Database();
+        for (int s = 0; s < schemas; ++s) {
+            Schema schema = new Schema("schema" + s);
+            for (int t = 0; t < tables; ++t) {
+                Table table = new Table("table" + t);
+                Column id = new Column("id");
+                id.setDataType(DataTypeRegistry.getInstance().getNumber());
+                id.setNullable(false);
+                table.addKeyColumn(id);
+                for (int c = 1; c < columns; ++c) {
+                    Column column = new Column("column" + c);
+                    column.setDataType(DataTypeRegistry.getInstance().getString());
+                    table.addColumn(column);
+                }
+                schema.addTable(table);
+            }
+            database.addSchema(schema);
+        }
+        return database;
+    }
+
+    private Table table(Database database, int schema, int table) {
+        return database.getSchema("schema" + schema).getTable("table" + table);
+    }
+
+    @Test
+    public void testIdentical() {
+        Assert.assertTrue(engine.diff(database(3, 5, 4), database(3, 5, 4)).isEmpty());
+    }
+
+    @Test
+    public void testSchemasAndTables() {
+        Database current = database(3, 3, 2);
+        Database target = database(3, 3, 2);
+        target.removeSchema("schema0");
+        target.addSchema(new Schema("extra"));
+        target.getSchema("schema1").removeTable("table2");
+        target.getSchema("schema2").addTable(new Table("new"));
+        target.getSchema("schema2").setComment("Comment");
+
+        List<Change> changes = engine.diff(current, target).getChanges();
+        Assert.assertEquals(changes, Arrays.asList(
+                new Change(Change.Type.ADD_SCHEMA, "extra", null, null, null, target.getSchema("extra")),
+                new Change(Change.Type.DROP_SCHEMA, "schema0", null, null, current.getSchema("schema0"), null),
+                new Change(Change.Type.DROP_TABLE, "schema1", "table2", null, table(current, 1, 2), null),
+                new Change(Change.Type.ALTER_SCHEMA_COMMENT, "schema2", null, null, null, "Comment"),
+                new Change(Change.Type.ADD_TABLE, "schema2", "new", null, null, target.getSchema("schema2").getTable("new"))));
+    }
+
+    @Test
+    public void testColumns() {
+        Database current = database(1, 2, 4);
+        Database target = database(1, 2, 4);
+        Table table = table(target, 0, 1);
+        table.getColumn("column1").setNullable(false);
+        table.getColumn("column1").setDefaultValue("'x'");
+        StringDataType varchar = DataTypeRegistry.getInstance().getString(100, true);
+        table.getColumn("column2").setDataType(varchar);
+        table.getColumn("column3").setComment("Column 3");
+        table.addKeyColumn(new Column("column4"));
+        table.setComment("Table 1");
+
+        List<Change> changes = engine.diff(current, target).getChanges();
+        Assert.assertEquals(changes.size(), 7);
+        Assert.assertEquals(changes.get(0), new Change(Change.Type.ALTER_TABLE_COMMENT, "schema0", "table1", null, null, "Table 1"));
+        Assert.assertEquals(changes.get(1), new Change(Change.Type.ALTER_TABLE_KEY, "schema0", "table1", null,
+                Collections.singleton("id"), new HashSet<String>(Arrays.asList("id", "column4"))));
+        Assert.assertEquals(changes.get(2), new Change(Change.Type.ALTER_COLUMN_NULLABLE, "schema0", "table1", "column1", true, false));
+        Assert.assertEquals(changes.get(3), new Change(Change.Type.ALTER_COLUMN_DEFAULT, "schema0", "table1", "column1", null, "'x'"));
+        Assert.assertEquals(changes.get(4), new Change(Change.Type.ALTER_COLUMN_TYPE, "schema0", "table1", "column2", DataTypeRegistry.getInstance().getString(), varchar));
+        Assert.assertEquals(changes.get(5), new Change(Change.Type.ALTER_COLUMN_COMMENT, "schema0", "table1", "column3", null, "Column 3"));
+        Assert.assertEquals(changes.get(6).getType(), Change.Type.ADD_COLUMN);
+
+        Assert.assertEquals(engine.diff(target, current).getChanges(Change.Type.DROP_COLUMN).size(), 1);
+    }
+
+    @Test
+    public void testEquivalentDefaults() {
+        Database current = database(1, 1, 4);
+        Database target = database(1, 1, 4);
+        table(current, 0, 0).getColumn("column1").setDefaultValue("'2020-01-01'");
+        table(target, 0, 0).getColumn("column1").setDefaultValue("'2020-01-01'::date");
+        table(current, 0, 0).getColumn("column2").setDefaultValue("0");
+        table(target, 0, 0).getColumn("column2").setDefaultValue("(0)");
+        table(target, 0, 0).getColumn("column3").setDefaultValue("NULL");
+        Assert.assertTrue(engine.diff(current, target).isEmpty());
+
+        table(current, 0, 0).getColumn("column1").setDefaultValue("now()");
+        table(target, 0, 0).getColumn("column1").setDefaultValue("now()::date");
+        Assert.assertEquals(engine.diff(current, target).getChanges(Change.Type.ALTER_COLUMN_DEFAULT).size(), 1);
+    }
+
+    @Test(timeOut=10000)
+    public void testLargeModel() {
+        Database current = database(50, 100, 10);
+        Database target = database(50, 100, 10);
+        table(target, 17, 42).getColumn("column5").setNullable(false);
+
+        DatabaseDiff diff = engine.diff(current, target);
+        Assert.assertEquals(diff.getChanges().size(), 1);
+        Assert.assertEquals(diff.getChanges().get(0).getColumnName(), "column5");
+    }
+
+    @Test
+    public void testParallelMatchesSequential() {
+        Database current = database(20, 50, 5);
+        Database target = database(20, 50, 5);
+        target.removeSchema("schema3");
+        target.addSchema(new Schema("extra"));
+        for (int s = 0; s < 20; s += 2) {
+            if (s != 3) {
+                table(target, s, s).getColumn("column1").setNullable(false);
+                target.getSchema("schema" + s).removeTable("table" + (s + 1));
+                table(target, s, 40).addColumn(new Column("added"));
+            }
+        }
+
+        DiffEngine parallel = new DiffEngine();
+        parallel.setThreads(4);
+        parallel.setParallelThreshold(10);
+        parallel.setBatchSize(7);
+        DatabaseDiff expected = engine.diff(current, target);
+        Assert.assertEquals(expected.getChanges().size(), 32);
+        Assert.assertEquals(parallel.diff(current, target), expected);
+        Assert.assertEquals(parallel.diff(target, current), engine.diff(target, current));
+    }
+}
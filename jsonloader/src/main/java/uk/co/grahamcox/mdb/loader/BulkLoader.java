@@ -0,0 +1,295 @@
+/*
+ * Copyright (C) 2011 graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package uk.co.grahamcox.mdb.loader;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import uk.co.grahamcox.mdb.schema.Database;
+import uk.co.grahamcox.mdb.schema.NameDictionary;
+import uk.co.grahamcox.mdb.schema.Schema;
+import uk.co.grahamcox.mdb.schema.Table;
+
+/**
+ * Load a set of files into a single Database object. Each file is parsed on a
+ * pool of threads into its own Database, and the results are then merged into
+ * the target in file path order so that the outcome never depends on which
+ * thread finished first.
+ * The merge follows the same rules as loading the files one after the other -
+ * schemas are only created once, the first comment on a schema wins and
+ * defining the same table twice is an error.
+ * @author graham
+ */
+public class BulkLoader {
+    /** The logger to use */
+    private final Log LOG = LogFactory.getLog(BulkLoader.class);
+    /** The loader to parse each file with */
+    private final Loader loader;
+    /** The number of files to parse at once */
+    private int threads = Runtime.getRuntime().availableProcessors();
+    /** The filter to select files from directories with. Null accepts every file */
+    private FileFilter fileFilter = null;
+    /** The dictionary to intern the names in every parsed file through */
+    private NameDictionary names = new NameDictionary();
+
+    /**
+     * Create the bulk loader
+     * @param loader the loader to parse each file with
+     */
+    public BulkLoader(Loader loader) {
+        this.loader = loader;
+    }
+
+    /**
+     * Get the number of files to parse at once
+     * @return the number of threads
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Set the number of files to parse at once
+     * @param threads the number of threads
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Get the filter used to select files from directories
+     * @return the filter
+     */
+    public FileFilter getFileFilter() {
+        return fileFilter;
+    }
+
+    /**
+     * Set the filter used to select files from directories
+     * @param fileFilter the filter. Null accepts every file
+     */
+    public void setFileFilter(FileFilter fileFilter) {
+        this.fileFilter = fileFilter;
+    }
+
+    /**
+     * Get the dictionary that the names in every parsed file are interned
+     * through
+     * @return the name dictionary
+     */
+    public NameDictionary getNames() {
+        return names;
+    }
+
+    /**
+     * Set the dictionary that the names in every parsed file are interned
+     * through, for example to share the dictionary of the Database being
+     * loaded into
+     * @param names the name dictionary
+     */
+    public void setNames(NameDictionary names) {
+        this.names = names;
+    }
+
+    /**
+     * Load all of the given files and directories into the database
+     * @param database the database object to load into
+     * @param sources the files and directories to load
+     * @throws IOException if a read error occurs
+     * @throws LoadException if an error occurs loading the configuration
+     */
+    public void load(Database database, Collection<File> sources) throws IOException, LoadException {
+        List<File> files = listFiles(sources);
+        List<Database> fragments = loadFragments(files);
+        for (int i = 0; i < files.size(); ++i) {
+            LOG.debug("Merging file: " + files.get(i));
+            merge(database, fragments.get(i));
+        }
+    }
+
+    /**
+     * Expand the given files and directories into the ordered list of files to
+     * load. Directories are searched recursively using the file filter
+     * @param sources the files and directories
+     * @return the files, sorted by path
+     * @throws IOException if a directory can not be read
+     */
+    public List<File> listFiles(Collection<File> sources) throws IOException {
+        SortedSet<File> files = new TreeSet<File>();
+        for (File source : sources) {
+            addFiles(source.getAbsoluteFile(), files, true);
+        }
+        return new ArrayList<File>(files);
+    }
+
+    /**
+     * Parse each of the given files into its own Database
+     * @param files the files to parse
+     * @return the parsed databases, in the same order as the files
+     * @throws IOException if a read error occurs
+     * @throws LoadException if an error occurs loading the configuration. If
+     * several files fail then the error from the first of them is thrown
+     */
+    public List<Database> loadFragments(List<File> files) throws IOException, LoadException {
+        List<Database> result = new ArrayList<Database>(files.size());
+        if (threads <= 1 || files.size() <= 1) {
+            for (File file : files) {
+                result.add(loadFile(file));
+            }
+            return result;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, files.size()));
+        try {
+            List<Future<Database>> futures = new ArrayList<Future<Database>>(files.size());
+            for (final File file : files) {
+                futures.add(executor.submit(new Callable<Database>() {
+                    @Override
+                    public Database call() throws IOException, LoadException {
+                        return loadFile(file);
+                    }
+                }));
+            }
+            for (int i = 0; i < futures.size(); ++i) {
+                result.add(getResult(futures.get(i), files.get(i)));
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+        return result;
+    }
+
+    /**
+     * Merge a separately loaded Database into the target
+     * @param target the database to merge into
+     * @param fragment the database to merge from
+     * @throws LoadException if a table is defined in both
+     */
+    public void merge(Database target, Database fragment) throws LoadException {
+        for (Schema fragmentSchema : fragment.getSchemas()) {
+            Schema schema = target.getSchema(fragmentSchema.getName());
+            if (schema == null) {
+                LOG.debug("Creating schema: " + fragmentSchema.getName());
+                schema = new Schema(fragmentSchema.getName());
+                target.addSchema(schema);
+            }
+            if (schema.getComment() == null && fragmentSchema.getComment() != null) {
+                schema.setComment(fragmentSchema.getComment());
+            }
+            for (Table table : fragmentSchema.getTables()) {
+                if (schema.getTable(table.getName()) != null) {
+                    throw new LoadException("Duplicate definition of table " + table.getName() + " in schema " + schema.getName());
+                }
+                schema.adoptTable(table);
+            }
+        }
+    }
+
+    /**
+     * Parse a single file into a new Database
+     * @param file the file to parse
+     * @return the database
+     * @throws IOException if a read error occurs
+     * @throws LoadException if an error occurs loading the configuration
+     */
+    protected Database loadFile(File file) throws IOException, LoadException {
+        LOG.debug("Loading file: " + file);
+        Database database = new Database(names);
+        InputStream input = new BufferedInputStream(new FileInputStream(file));
+        try {
+            loader.load(database, input);
+        }
+        catch (LoadException ex) {
+            throw new LoadException("Failed to load " + file + ": " + ex.getMessage(), ex);
+        }
+        finally {
+            input.close();
+        }
+        return database;
+    }
+
+    /**
+     * Wait for the result of parsing a file, unwrapping any failure
+     * @param future the future to wait for
+     * @param file the file being parsed
+     * @return the database
+     * @throws IOException if a read error occurred
+     * @throws LoadException if an error occurred loading the configuration
+     */
+    private Database getResult(Future<Database> future, File file) throws IOException, LoadException {
+        try {
+            return future.get();
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new LoadException("Interrupted while loading " + file, ex);
+        }
+        catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            else if (cause instanceof LoadException) {
+                throw (LoadException) cause;
+            }
+            else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new LoadException("Failed to load " + file, cause);
+        }
+    }
+
+    /**
+     * Add the given file, or the files within the given directory, to the set
+     * @param file the file or directory
+     * @param files the set to add to
+     * @param explicit whether the file was named directly, in which case the
+     * file filter is not applied to it
+     * @throws IOException if a directory can not be read
+     */
+    private void addFiles(File file, SortedSet<File> files, boolean explicit) throws IOException {
+        if (file.isDirectory()) {
+            File[] children = file.listFiles();
+            if (children == null) {
+                throw new IOException("Unable to list directory " + file);
+            }
+            for (File child : children) {
+                addFiles(child, files, false);
+            }
+        }
+        else if (explicit || fileFilter == null || fileFilter.accept(file)) {
+            files.add(file);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2011 graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package uk.co.grahamcox.mdb.loader;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Calculate content hashes of source files, so that it's possible to tell
+ * whether a file has changed since it was last loaded
+ * @author graham
+ */
+public class FileDigester {
+    /** The digest algorithm to use */
+    private static final String ALGORITHM = "MD5";
+    /** The characters to use when converting the digest to hex */
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    /** The buffer to read files through */
+    private final byte[] buffer = new byte[8192];
+
+    /**
+     * Calculate the content hash of the given file
+     * @param file the file
+     * @return the hash, as a hex string
+     * @throws IOException if a read error occurs
+     */
+    public String digest(File file) throws IOException {
+        MessageDigest digest = newDigest();
+        InputStream input = new FileInputStream(file);
+        try {
+            int read;
+            while ((read = input.read(buffer)) >= 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        finally {
+            input.close();
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Calculate the content hashes of all of the given files
+     * @param files the files
+     * @return the map of file path to content hash, in the same order as the files
+     * @throws IOException if a read error occurs
+     */
+    public Map<String, String> digest(List<File> files) throws IOException {
+        Map<String, String> result = new LinkedHashMap<String, String>();
+        for (File file : files) {
+            result.put(file.getPath(), digest(file));
+        }
+        return result;
+    }
+
+    /**
+     * Create a new MessageDigest
+     * @return the digest
+     */
+    private MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        }
+        catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("Digest algorithm " + ALGORITHM + " is not available", ex);
+        }
+    }
+
+    /**
+     * Convert the given bytes to a hex string
+     * @param bytes the bytes
+     * @return the hex string
+     */
+    private String toHex(byte[] bytes) {
+        char[] result = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; ++i) {
+            result[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+            result[i * 2 + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(result);
+    }
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright (C) 2011 graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package uk.co.grahamcox.mdb.loader;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import uk.co.grahamcox.mdb.schema.Database;
+import uk.co.grahamcox.mdb.schema.Schema;
+import uk.co.grahamcox.mdb.schema.Table;
+
+/**
+ * Keep a Database loaded from a set of source files up to date as the files
+ * change. The content hash of each file is remembered along with the part of
+ * the model that was loaded from it, so that a reload only parses the files
+ * that have changed and splices their tables into the existing Database.
+ * Files that are no longer present have their tables removed.
+ * @author graham
+ */
+public class IncrementalLoader {
+    /** The logger to use */
+    private final Log LOG = LogFactory.getLog(IncrementalLoader.class);
+    /** The loader to parse the source files with */
+    private final BulkLoader bulkLoader;
+    /** The digester to hash the source files with */
+    private final FileDigester digester = new FileDigester();
+    /** The database being maintained */
+    private final Database database;
+    /** The state of each source file that has been loaded, keyed by path */
+    private SortedMap<String, SourceFile> sourceFiles = new TreeMap<String, SourceFile>();
+
+    /**
+     * The state of a single source file
+     */
+    private static class SourceFile {
+        /** The content hash of the file */
+        private final String hash;
+        /** The length of the file when it was hashed */
+        private final long length;
+        /** The modification time of the file when it was hashed */
+        private final long lastModified;
+        /** The part of the model loaded from the file */
+        private final Database fragment;
+
+        /**
+         * Create the source file state
+         * @param hash the content hash of the file
+         * @param length the length of the file
+         * @param lastModified the modification time of the file
+         * @param fragment the part of the model loaded from the file
+         */
+        public SourceFile(String hash, long length, long lastModified, Database fragment) {
+            this.hash = hash;
+            this.length = length;
+            this.lastModified = lastModified;
+            this.fragment = fragment;
+        }
+    }
+
+    /**
+     * Create the incremental loader
+     * @param bulkLoader the loader to parse the source files with
+     */
+    public IncrementalLoader(BulkLoader bulkLoader) {
+        this.bulkLoader = bulkLoader;
+        this.database = new Database(bulkLoader.getNames());
+    }
+
+    /**
+     * Get the database being maintained
+     * @return the database
+     */
+    public Database getDatabase() {
+        return database;
+    }
+
+    /**
+     * Bring the database up to date with the given files and directories.
+     * If any of the changed files can't be loaded then the database is left
+     * as it was
+     * @param sources the files and directories to load
+     * @return the number of files that were parsed or removed
+     * @throws IOException if a read error occurs
+     * @throws LoadException if an error occurs loading the configuration
+     */
+    public int reload(Collection<File> sources) throws IOException, LoadException {
+        List<File> files = bulkLoader.listFiles(sources);
+
+        List<File> changedFiles = new ArrayList<File>();
+        List<String> changedHashes = new ArrayList<String>();
+        Set<String> removedPaths = new HashSet<String>(sourceFiles.keySet());
+        for (File file : files) {
+            removedPaths.remove(file.getPath());
+            SourceFile previous = sourceFiles.get(file.getPath());
+            if (previous != null && previous.length == file.length() && previous.lastModified == file.lastModified()) {
+                continue;
+            }
+            String hash = digester.digest(file);
+            if (previous == null || !previous.hash.equals(hash)) {
+                changedFiles.add(file);
+                changedHashes.add(hash);
+            }
+            else {
+                sourceFiles.put(file.getPath(), new SourceFile(hash, file.length(), file.lastModified(), previous.fragment));
+            }
+        }
+        if (changedFiles.isEmpty() && removedPaths.isEmpty()) {
+            LOG.debug("No source files have changed");
+            return 0;
+        }
+
+        LOG.debug("Reloading " + changedFiles.size() + " changed files and removing " + removedPaths.size());
+        List<Database> fragments = bulkLoader.loadFragments(changedFiles);
+
+        List<Database> outgoing = new ArrayList<Database>();
+        SortedMap<String, SourceFile> newSourceFiles = new TreeMap<String, SourceFile>(sourceFiles);
+        for (String path : removedPaths) {
+            outgoing.add(newSourceFiles.remove(path).fragment);
+        }
+        for (int i = 0; i < changedFiles.size(); ++i) {
+            File file = changedFiles.get(i);
+            SourceFile previous = newSourceFiles.put(file.getPath(),
+                    new SourceFile(changedHashes.get(i), file.length(), file.lastModified(), fragments.get(i)));
+            if (previous != null) {
+                outgoing.add(previous.fragment);
+            }
+        }
+
+        Set<String> affectedSchemas = checkSplice(outgoing, fragments);
+        splice(outgoing, fragments);
+        for (String schemaName : affectedSchemas) {
+            updateSchema(schemaName, newSourceFiles);
+        }
+        sourceFiles = newSourceFiles;
+        return changedFiles.size() + removedPaths.size();
+    }
+
+    /**
+     * Check that the incoming fragments can be spliced into the database once
+     * the outgoing fragments have been removed, without changing anything
+     * @param outgoing the fragments being removed
+     * @param incoming the fragments being added
+     * @return the names of all of the schemas touched by the splice
+     * @throws LoadException if a table would be defined twice
+     */
+    private Set<String> checkSplice(List<Database> outgoing, List<Database> incoming) throws LoadException {
+        Set<String> affectedSchemas = new HashSet<String>();
+        Map<String, Set<String>> removedTables = new HashMap<String, Set<String>>();
+        for (Database fragment : outgoing) {
+            for (Schema schema : fragment.getSchemas()) {
+                affectedSchemas.add(schema.getName());
+                tableNames(removedTables, schema.getName()).addAll(tableNames(schema));
+            }
+        }
+
+        Map<String, Set<String>> addedTables = new HashMap<String, Set<String>>();
+        for (Database fragment : incoming) {
+            for (Schema schema : fragment.getSchemas()) {
+                affectedSchemas.add(schema.getName());
+                Schema existing = database.getSchema(schema.getName());
+                Set<String> removed = tableNames(removedTables, schema.getName());
+                Set<String> added = tableNames(addedTables, schema.getName());
+                for (Table table : schema.getTables()) {
+                    boolean existsAlready = existing != null && existing.getTable(table.getName()) != null
+                            && !removed.contains(table.getName());
+                    if (existsAlready || !added.add(table.getName())) {
+                        throw new LoadException("Duplicate definition of table " + table.getName() + " in schema " + schema.getName());
+                    }
+                }
+            }
+        }
+        return affectedSchemas;
+    }
+
+    /**
+     * Remove the tables of the outgoing fragments from the database and add
+     * the tables of the incoming ones
+     * @param outgoing the fragments being removed
+     * @param incoming the fragments being added
+     */
+    private void splice(List<Database> outgoing, List<Database> incoming) {
+        for (Database fragment : outgoing) {
+            for (Schema fragmentSchema : fragment.getSchemas()) {
+                Schema schema = database.getSchema(fragmentSchema.getName());
+                if (schema == null) {
+                    continue;
+                }
+                for (Table table : fragmentSchema.getTables()) {
+                    schema.removeTable(table.getName());
+                }
+            }
+        }
+        for (Database fragment : incoming) {
+            for (Schema fragmentSchema : fragment.getSchemas()) {
+                Schema schema = database.getSchema(fragmentSchema.getName());
+                if (schema == null) {
+                    LOG.debug("Creating schema: " + fragmentSchema.getName());
+                    schema = new Schema(fragmentSchema.getName());
+                    database.addSchema(schema);
+                }
+                for (Table table : fragmentSchema.getTables()) {
+                    schema.adoptTable(table);
+                }
+            }
+        }
+    }
+
+    /**
+     * Recalculate the comment on a schema touched by a splice, taking the
+     * first comment from the source files in path order, and remove the schema
+     * if no source file defines it any more
+     * @param schemaName the name of the schema
+     * @param files the source files
+     */
+    private void updateSchema(String schemaName, SortedMap<String, SourceFile> files) {
+        boolean defined = false;
+        String comment = null;
+        for (SourceFile file : files.values()) {
+            Schema fragmentSchema = file.fragment.getSchema(schemaName);
+            if (fragmentSchema != null) {
+                defined = true;
+                if (fragmentSchema.getComment() != null) {
+                    comment = fragmentSchema.getComment();
+                    break;
+                }
+            }
+        }
+
+        if (defined) {
+            database.getSchema(schemaName).setComment(comment);
+        }
+        else {
+            LOG.debug("Removing schema: " + schemaName);
+            database.removeSchema(schemaName);
+        }
+    }
+
+    /**
+     * Get the set of table names for the given schema from the map, creating
+     * it if necessary
+     * @param tables the map of schema name to table names
+     * @param schemaName the name of the schema
+     * @return the set of table names
+     */
+    private Set<String> tableNames(Map<String, Set<String>> tables, String schemaName) {
+        Set<String> names = tables.get(schemaName);
+        if (names == null) {
+            names = new HashSet<String>();
+            tables.put(schemaName, names);
+        }
+        return names;
+    }
+
+    /**
+     * Get the names of the tables in the given schema
+     * @param schema the schema
+     * @return the table names
+     */
+    private Set<String> tableNames(Schema schema) {
+        Set<String> names = new HashSet<String>();
+        for (Table table : schema.getTables()) {
+            names.add(table.getName());
+        }
+        return names;
+    }
+}
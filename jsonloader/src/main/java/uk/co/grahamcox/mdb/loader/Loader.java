@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2011 graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package uk.co.grahamcox.mdb.loader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import uk.co.grahamcox.mdb.schema.Database;
+
+/**
+ * Interface describing something that can load a configuration stream into
+ * the Database object
+ * @author graham
+ */
+public interface Loader {
+    /**
+     * Load the configuration from the given stream
+     * @param database the database object to load into
+     * @param input the stream to load from
+     * @throws IOException if a read error occurs
+     * @throws LoadException if an error occurs loading the configuration
+     */
+    void load(Database database, InputStream input) throws IOException, LoadException;
+}
@@ -32,20 +32,20 @@ import net.sf.json.JSONSerializer;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import uk.co.grahamcox.mdb.loader.LoadException;
+import uk.co.grahamcox.mdb.loader.Loader;
 import uk.co.grahamcox.mdb.schema.Column;
 import uk.co.grahamcox.mdb.schema.DataType;
 import uk.co.grahamcox.mdb.schema.Database;
+import uk.co.grahamcox.mdb.schema.NameDictionary;
 import uk.co.grahamcox.mdb.schema.Schema;
 import uk.co.grahamcox.mdb.schema.Table;
-import uk.co.grahamcox.mdb.schema.datatype.BooleanDataType;
-import uk.co.grahamcox.mdb.schema.datatype.NumberDataType;
-import uk.co.grahamcox.mdb.schema.datatype.StringDataType;
+import uk.co.grahamcox.mdb.schema.datatype.DataTypeRegistry;
 
 /**
  * Load a given JSON File into the Database object
  * @author graham
  */
-public class JsonLoader {
+public class JsonLoader implements Loader {
     /** The logger to use */
     private final Log LOG = LogFactory.getLog(JsonLoader.class);
     /**
@@ -55,6 +55,7 @@ public class JsonLoader {
      * @throws IOException if a read error occurs
      * @throws LoadException if an error occurs loading the configuration
      */
+    @Override
     public void load(final Database database, final InputStream input) 
             throws IOException, LoadException {
         BufferedReader reader = new BufferedReader(new InputStreamReader(input));
@@ -94,7 +95,7 @@ public class JsonLoader {
             LOG.debug("Loading schemas");
             Iterator<String> keysIter = schemas.keys();
             while (keysIter.hasNext()) {
-                String schemaName = keysIter.next();
+                String schemaName = database.getNames().intern(keysIter.next());
                 JSONObject schemaObject = schemas.getJSONObject(schemaName);
                 
                 Schema schema = database.getSchema(schemaName);
@@ -114,14 +115,14 @@ public class JsonLoader {
                 if (schemaObject.has("tables")) {
                     Iterator<String> tablesIter = schemaObject.getJSONObject("tables").keys();
                     while (tablesIter.hasNext()) {
-                        String tableName = tablesIter.next();
+                        String tableName = database.getNames().intern(tablesIter.next());
                         if (schema.getTable(tableName) != null) {
                             throw new LoadException("Duplicate definition of table " + tableName + " in schema " + schema.getName());
                         }
                         LOG.debug("Adding table: " + tableName);
 
                         JSONObject tableObject = schemaObject.getJSONObject("tables").getJSONObject(tableName);
-                        Table table = parseJsonTable(tableName, tableObject);
+                        Table table = parseJsonTable(tableName, tableObject, database.getNames());
                         schema.addTable(table);
                     }
                 }
@@ -133,10 +134,11 @@ public class JsonLoader {
      * Parse the part of the JSON that represents a table in a schema
      * @param tableName the name of the table
      * @param object the JSONObject representing the table
+     * @param names the dictionary to intern the column names through
      * @return the parsed table
      * @throws LoadException if an error occurs
      */
-    private Table parseJsonTable(String tableName, JSONObject object) throws LoadException {
+    private Table parseJsonTable(String tableName, JSONObject object, NameDictionary names) throws LoadException {
         Table table = new Table(tableName);
         
         if (object.has("comment")) {
@@ -148,7 +150,7 @@ public class JsonLoader {
             JSONArray keys = object.getJSONArray("key");
             Iterator<String> keyIter = keys.iterator();
             while (keyIter.hasNext()) {
-                String keyName = keyIter.next();
+                String keyName = names.intern(keyIter.next());
                 LOG.debug("Found key name: " + keyName);
                 keyNames.add(keyName);
             }
@@ -157,7 +159,7 @@ public class JsonLoader {
         if (object.has("columns")) {
             Iterator<String> columnIter = object.getJSONObject("columns").keys();
             while (columnIter.hasNext()) {
-                String columnName = columnIter.next();
+                String columnName = names.intern(columnIter.next());
                 
                 if (table.getColumn(columnName) != null) {
                     throw new LoadException("Duplicate definition of column " + columnName + " in table " + table.getName());
@@ -199,32 +201,42 @@ public class JsonLoader {
         }
         
         if (object.has("type")) {
-            JSONObject dataTypeObject = object.getJSONObject("type");
-            DataType dataType = parseJsonDataType(dataTypeObject);
-            column.setDataType(dataType);
+            try {
+                column.setDataType(parseJsonDataType(object.get("type")));
+            }
+            catch (IllegalArgumentException ex) {
+                throw new LoadException("Invalid data type for column " + columnName + ": " + ex.getMessage(), ex);
+            }
         }
         
         return column;
     }
     /**
-     * Parse a DataType out of the given JSONObject
-     * @param object the object to parse
-     * @return the DataType object
+     * Parse a DataType out of the given JSON value, which is either a type
+     * specification string such as "varchar(100)" or a JSONObject giving
+     * the name and settings of the type
+     * @param value the value to parse
+     * @return the DataType object, which is the shared instance for the type
+     * @throws IllegalArgumentException if the type is not valid
      */
-    private DataType parseJsonDataType(JSONObject object) {
-        DataType result = null;
-        String typeName = object.getString("name");
-        if ("number".equals(typeName)) {
-            NumberDataType dt = new NumberDataType();
-            result = dt;
+    private DataType parseJsonDataType(Object value) {
+        DataTypeRegistry registry = DataTypeRegistry.getInstance();
+        if (value instanceof String) {
+            return registry.parse((String) value);
+        }
+        if (!(value instanceof JSONObject) || ((JSONObject) value).isNullObject()) {
+            return null;
         }
-        else if ("string".equals(typeName)) {
-            StringDataType dt = new StringDataType();
-            result = dt;
+        JSONObject object = (JSONObject) value;
+        Integer size = null;
+        if (object.has("size")) {
+            size = object.getInt("size");
         }
-        else if ("boolean".equals(typeName)) {
-            result = new BooleanDataType();
+        else if (object.has("precision")) {
+            size = object.getInt("precision");
         }
-        return result;
+        Integer scale = object.has("scale") ? Integer.valueOf(object.getInt("scale")) : null;
+        Boolean timezone = object.has("timezone") ? Boolean.valueOf(object.getBoolean("timezone")) : null;
+        return registry.get(object.optString("name", null), size, scale, timezone);
     }
 }
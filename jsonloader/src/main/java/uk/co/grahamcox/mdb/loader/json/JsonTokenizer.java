@@ -0,0 +1,643 @@
+/*
+ * Copyright (C) 2011 graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package uk.co.grahamcox.mdb.loader.json;
+
+import java.io.IOException;
+import java.io.Reader;
+import uk.co.grahamcox.mdb.loader.LoadException;
+
+/**
+ * Pull tokenizer for JSON text. The input is read through a fixed size buffer
+ * and only the text of the current token is ever held in memory, so the
+ * memory used is independent of the size of the document.
+ * The same relaxed syntax that json-lib accepts is supported - object keys
+ * may be left unquoted, strings may be single quoted and comments are skipped.
+ * @author graham
+ */
+public class JsonTokenizer {
+    /**
+     * Enumeration of the tokens that can be returned
+     */
+    public enum Token {
+        /** The start of an object */
+        BEGIN_OBJECT,
+        /** The end of an object */
+        END_OBJECT,
+        /** The start of an array */
+        BEGIN_ARRAY,
+        /** The end of an array */
+        END_ARRAY,
+        /** The name of an entry in an object */
+        NAME,
+        /** A string value */
+        STRING,
+        /** A numeric value */
+        NUMBER,
+        /** A boolean value */
+        BOOLEAN,
+        /** A null value */
+        NULL,
+        /** The end of the document */
+        END_DOCUMENT
+    }
+
+    /** The size of the read buffer */
+    private static final int BUFFER_SIZE = 8192;
+
+    /** Scope of the top level, before the value has been read */
+    private static final int EMPTY_DOCUMENT = 0;
+    /** Scope of the top level, after the value has been read */
+    private static final int NONEMPTY_DOCUMENT = 1;
+    /** Scope of an object with no entries read yet */
+    private static final int EMPTY_OBJECT = 2;
+    /** Scope of an object where a name has been read but not the value */
+    private static final int DANGLING_NAME = 3;
+    /** Scope of an object with at least one entry read */
+    private static final int NONEMPTY_OBJECT = 4;
+    /** Scope of an array with no entries read yet */
+    private static final int EMPTY_ARRAY = 5;
+    /** Scope of an array with at least one entry read */
+    private static final int NONEMPTY_ARRAY = 6;
+
+    /** The reader to read from */
+    private final Reader reader;
+    /** The buffer of characters read but not yet consumed */
+    private final char[] buffer = new char[BUFFER_SIZE];
+    /** The position of the next character in the buffer */
+    private int pos = 0;
+    /** The number of valid characters in the buffer */
+    private int limit = 0;
+    /** The current line number, for error reporting */
+    private int line = 1;
+    /** The position in the buffer at which the current line started */
+    private int lineStart = 0;
+    /** The text of the current token, reused between tokens */
+    private final StringBuilder text = new StringBuilder();
+
+    /** The stack of nested scopes */
+    private int[] stack = new int[32];
+    /** The number of entries in the scope stack */
+    private int depth = 0;
+
+    /** The token that has been peeked but not consumed, or null */
+    private Token peeked = null;
+    /** The text of the peeked token, if it has any */
+    private String peekedText = null;
+
+    /**
+     * Create the tokenizer
+     * @param reader the reader to read from
+     */
+    public JsonTokenizer(Reader reader) {
+        this.reader = reader;
+        stack[depth++] = EMPTY_DOCUMENT;
+    }
+
+    /**
+     * Get the type of the next token without consuming it
+     * @return the next token
+     * @throws IOException if a read error occurs
+     * @throws LoadException if the input is not valid JSON
+     */
+    public Token peek() throws IOException, LoadException {
+        if (peeked != null) {
+            return peeked;
+        }
+        int scope = stack[depth - 1];
+        int c;
+        switch (scope) {
+            case EMPTY_ARRAY:
+                stack[depth - 1] = NONEMPTY_ARRAY;
+                c = nextNonWhitespace();
+                if (c == ']') {
+                    return setPeeked(Token.END_ARRAY, null);
+                }
+                return readValue(c);
+            case NONEMPTY_ARRAY:
+                c = nextNonWhitespace();
+                if (c == ']') {
+                    return setPeeked(Token.END_ARRAY, null);
+                }
+                else if (c != ',') {
+                    throw syntaxError("Expected ',' or ']'", c);
+                }
+                return readValue(nextNonWhitespace());
+            case EMPTY_OBJECT:
+            case NONEMPTY_OBJECT:
+                c = nextNonWhitespace();
+                if (c == '}') {
+                    return setPeeked(Token.END_OBJECT, null);
+                }
+                if (scope == NONEMPTY_OBJECT) {
+                    if (c != ',') {
+                        throw syntaxError("Expected ',' or '}'", c);
+                    }
+                    c = nextNonWhitespace();
+                }
+                stack[depth - 1] = DANGLING_NAME;
+                return readName(c);
+            case DANGLING_NAME:
+                c = nextNonWhitespace();
+                if (c != ':') {
+                    throw syntaxError("Expected ':'", c);
+                }
+                stack[depth - 1] = NONEMPTY_OBJECT;
+                return readValue(nextNonWhitespace());
+            case EMPTY_DOCUMENT:
+                stack[depth - 1] = NONEMPTY_DOCUMENT;
+                return readValue(nextNonWhitespace());
+            default:
+                c = nextNonWhitespace();
+                if (c != -1) {
+                    throw syntaxError("Unexpected content after the end of the document", c);
+                }
+                return setPeeked(Token.END_DOCUMENT, null);
+        }
+    }
+
+    /**
+     * Check if the current object or array has any more entries
+     * @return True if there are more entries. False if not
+     * @throws IOException if a read error occurs
+     * @throws LoadException if the input is not valid JSON
+     */
+    public boolean hasNext() throws IOException, LoadException {
+        Token token = peek();
+        return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+    }
+
+    /**
+     * Consume the start of an object
+     * @throws IOException if a read error occurs
+     * @throws LoadException if the next token is not the start of an object
+     */
+    public void beginObject() throws IOException, LoadException {
+        expect(Token.BEGIN_OBJECT);
+        push(EMPTY_OBJECT);
+    }
+
+    /**
+     * Consume the end of an object
+     * @throws IOException if a read error occurs
+     * @throws LoadException if the next token is not the end of an object
+     */
+    public void endObject() throws IOException, LoadException {
+        expect(Token.END_OBJECT);
+        depth--;
+    }
+
+    /**
+     * Consume the start of an array
+     * @throws IOException if a read error occurs
+     * @throws LoadException if the next token is not the start of an array
+     */
+    public void beginArray() throws IOException, LoadException {
+        expect(Token.BEGIN_ARRAY);
+        push(EMPTY_ARRAY);
+    }
+
+    /**
+     * Consume the end of an array
+     * @throws IOException if a read error occurs
+     * @throws LoadException if the next token is not the end of an array
+     */
+    public void endArray() throws IOException, LoadException {
+        expect(Token.END_ARRAY);
+        depth--;
+    }
+
+    /**
+     * Consume the name of an object entry
+     * @return the name
+     * @throws IOException if a read error occurs
+     * @throws LoadException if the next token is not a name
+     */
+    public String nextName() throws IOException, LoadException {
+        expect(Token.NAME);
+        return peekedText;
+    }
+
+    /**
+     * Consume a value as a string. Numbers and booleans are returned as their
+     * literal text, and null is returned as null
+     * @return the string
+     * @throws IOException if a read error occurs
+     * @throws LoadException if the next token is not a scalar value
+     */
+    public String nextString() throws IOException, LoadException {
+        Token token = peek();
+        if (token == Token.NULL) {
+            peeked = null;
+            return null;
+        }
+        if (token != Token.STRING && token != Token.NUMBER && token != Token.BOOLEAN) {
+            throw new LoadException("Expected a string but found " + token + " at " + location());
+        }
+        peeked = null;
+        return peekedText;
+    }
+
+    /**
+     * Consume a value as a boolean. The strings "true" and "false" are also
+     * accepted
+     * @return the boolean
+     * @throws IOException if a read error occurs
+     * @throws LoadException if the next token is not a boolean
+     */
+    public boolean nextBoolean() throws IOException, LoadException {
+        Token token = peek();
+        if (token == Token.BOOLEAN || token == Token.STRING) {
+            if ("true".equalsIgnoreCase(peekedText)) {
+                peeked = null;
+                return true;
+            }
+            else if ("false".equalsIgnoreCase(peekedText)) {
+                peeked = null;
+                return false;
+            }
+        }
+        throw new LoadException("Expected a boolean but found " + token + " at " + location());
+    }
+
+    /**
+     * Consume a value as an integer. Strings containing an integer are also
+     * accepted
+     * @return the integer
+     * @throws IOException if a read error occurs
+     * @throws LoadException if the next token is not an integer
+     */
+    public int nextInt() throws IOException, LoadException {
+        Token token = peek();
+        if (token == Token.NUMBER || token == Token.STRING) {
+            try {
+                int result = Integer.parseInt(peekedText.trim());
+                peeked = null;
+                return result;
+            }
+            catch (NumberFormatException ex) {
+                throw new LoadException("Expected an integer but found '" + peekedText + "' at " + location(), ex);
+            }
+        }
+        throw new LoadException("Expected an integer but found " + token + " at " + location());
+    }
+
+    /**
+     * Skip over the next value, including all of its nested values if it is
+     * an object or an array
+     * @throws IOException if a read error occurs
+     * @throws LoadException if the input is not valid JSON
+     */
+    public void skipValue() throws IOException, LoadException {
+        int nesting = 0;
+        do {
+            Token token = peek();
+            switch (token) {
+                case BEGIN_OBJECT:
+                    beginObject();
+                    nesting++;
+                    break;
+                case BEGIN_ARRAY:
+                    beginArray();
+                    nesting++;
+                    break;
+                case END_OBJECT:
+                    endObject();
+                    nesting--;
+                    break;
+                case END_ARRAY:
+                    endArray();
+                    nesting--;
+                    break;
+                case END_DOCUMENT:
+                    throw new LoadException("Unexpected end of document at " + location());
+                default:
+                    peeked = null;
+                    break;
+            }
+        } while (nesting > 0);
+    }
+
+    /**
+     * Get a description of the current location in the input, for use in
+     * error messages
+     * @return the location
+     */
+    public String location() {
+        return "line " + line + " column " + (pos - lineStart + 1);
+    }
+
+    /**
+     * Consume the peeked token, which must be of the given type
+     * @param expected the expected type of token
+     * @throws IOException if a read error occurs
+     * @throws LoadException if the next token is of the wrong type
+     */
+    private void expect(Token expected) throws IOException, LoadException {
+        Token token = peek();
+        if (token != expected) {
+            throw new LoadException("Expected " + expected + " but found " + token + " at " + location());
+        }
+        peeked = null;
+    }
+
+    /**
+     * Push a new scope onto the stack
+     * @param scope the scope to push
+     */
+    private void push(int scope) {
+        if (depth == stack.length) {
+            int[] newStack = new int[depth * 2];
+            System.arraycopy(stack, 0, newStack, 0, depth);
+            stack = newStack;
+        }
+        stack[depth++] = scope;
+    }
+
+    /**
+     * Record the peeked token
+     * @param token the token
+     * @param tokenText the text of the token
+     * @return the token
+     */
+    private Token setPeeked(Token token, String tokenText) {
+        peeked = token;
+        peekedText = tokenText;
+        return token;
+    }
+
+    /**
+     * Read the name of an object entry, which may be quoted or unquoted
+     * @param c the first character of the name
+     * @return the token
+     * @throws IOException if a read error occurs
+     * @throws LoadException if the input is not valid JSON
+     */
+    private Token readName(int c) throws IOException, LoadException {
+        if (c == '"' || c == '\'') {
+            return setPeeked(Token.NAME, readQuoted((char) c));
+        }
+        else if (c == -1) {
+            throw syntaxError("Unterminated object", c);
+        }
+        else if (c == '/') {
+            // Not a comment, and the buffer may have been refilled past it so it can't be pushed back
+            throw syntaxError("Expected a name", c);
+        }
+        pos--;
+        String name = readLiteral();
+        if (name.length() == 0) {
+            throw syntaxError("Expected a name", c);
+        }
+        return setPeeked(Token.NAME, name);
+    }
+
+    /**
+     * Read the start of a value
+     * @param c the first character of the value
+     * @return the token
+     * @throws IOException if a read error occurs
+     * @throws LoadException if the input is not valid JSON
+     */
+    private Token readValue(int c) throws IOException, LoadException {
+        switch (c) {
+            case '{':
+                return setPeeked(Token.BEGIN_OBJECT, null);
+            case '[':
+                return setPeeked(Token.BEGIN_ARRAY, null);
+            case '"':
+            case '\'':
+                return setPeeked(Token.STRING, readQuoted((char) c));
+            case -1:
+                throw syntaxError("Unexpected end of document", c);
+            case '/':
+                // Not a comment, and the buffer may have been refilled past it so it can't be pushed back
+                throw syntaxError("Expected a value", c);
+            default:
+                pos--;
+                String literal = readLiteral();
+                if (literal.length() == 0) {
+                    throw syntaxError("Expected a value", c);
+                }
+                if ("true".equals(literal) || "false".equals(literal)) {
+                    return setPeeked(Token.BOOLEAN, literal);
+                }
+                else if ("null".equals(literal)) {
+                    return setPeeked(Token.NULL, literal);
+                }
+                char first = literal.charAt(0);
+                if (first == '-' || (first >= '0' && first <= '9')) {
+                    return setPeeked(Token.NUMBER, literal);
+                }
+                throw new LoadException("Unexpected value '" + literal + "' at " + location());
+        }
+    }
+
+    /**
+     * Read a quoted string, the opening quote having already been consumed
+     * @param quote the quote character that terminates the string
+     * @return the string
+     * @throws IOException if a read error occurs
+     * @throws LoadException if the string is not terminated or has an invalid escape
+     */
+    private String readQuoted(char quote) throws IOException, LoadException {
+        text.setLength(0);
+        while (true) {
+            int c = nextChar();
+            if (c == quote) {
+                return text.toString();
+            }
+            else if (c == -1 || c == '\n') {
+                throw syntaxError("Unterminated string", c);
+            }
+            else if (c == '\\') {
+                c = nextChar();
+                switch (c) {
+                    case 'b':
+                        text.append('\b');
+                        break;
+                    case 't':
+                        text.append('\t');
+                        break;
+                    case 'n':
+                        text.append('\n');
+                        break;
+                    case 'f':
+                        text.append('\f');
+                        break;
+                    case 'r':
+                        text.append('\r');
+                        break;
+                    case 'u':
+                        int value = 0;
+                        for (int i = 0; i < 4; ++i) {
+                            int digit = Character.digit(nextChar(), 16);
+                            if (digit < 0) {
+                                throw new LoadException("Invalid unicode escape at " + location());
+                            }
+                            value = (value << 4) | digit;
+                        }
+                        text.append((char) value);
+                        break;
+                    case -1:
+                        throw syntaxError("Unterminated string", c);
+                    default:
+                        text.append((char) c);
+                        break;
+                }
+            }
+            else {
+                text.append((char) c);
+            }
+        }
+    }
+
+    /**
+     * Read an unquoted literal, stopping at the first character that would
+     * terminate it
+     * @return the literal, which may be empty
+     * @throws IOException if a read error occurs
+     */
+    private String readLiteral() throws IOException {
+        text.setLength(0);
+        while (true) {
+            if (pos == limit && !fill()) {
+                break;
+            }
+            char c = buffer[pos];
+            if (Character.isWhitespace(c) || c == ',' || c == ':' || c == '{' || c == '}'
+                    || c == '[' || c == ']' || c == '"' || c == '\'' || c == '/' || c == '#') {
+                break;
+            }
+            text.append(c);
+            pos++;
+        }
+        return text.toString();
+    }
+
+    /**
+     * Read the next character that is not whitespace or part of a comment
+     * @return the character, or -1 at the end of the input
+     * @throws IOException if a read error occurs
+     * @throws LoadException if a comment is not terminated
+     */
+    private int nextNonWhitespace() throws IOException, LoadException {
+        while (true) {
+            int c = nextChar();
+            if (c == '/') {
+                if (pos == limit && !fill()) {
+                    return c;
+                }
+                if (buffer[pos] == '/') {
+                    skipToEndOfLine();
+                    continue;
+                }
+                else if (buffer[pos] == '*') {
+                    pos++;
+                    skipBlockComment();
+                    continue;
+                }
+                return c;
+            }
+            else if (c == '#') {
+                skipToEndOfLine();
+            }
+            else if (c == -1 || !Character.isWhitespace((char) c)) {
+                return c;
+            }
+        }
+    }
+
+    /**
+     * Skip the rest of the current line
+     * @throws IOException if a read error occurs
+     */
+    private void skipToEndOfLine() throws IOException {
+        int c;
+        do {
+            c = nextChar();
+        } while (c != -1 && c != '\n');
+    }
+
+    /**
+     * Skip the rest of a block comment
+     * @throws IOException if a read error occurs
+     * @throws LoadException if the comment is not terminated
+     */
+    private void skipBlockComment() throws IOException, LoadException {
+        int previous = 0;
+        while (true) {
+            int c = nextChar();
+            if (c == -1) {
+                throw syntaxError("Unterminated comment", c);
+            }
+            if (previous == '*' && c == '/') {
+                return;
+            }
+            previous = c;
+        }
+    }
+
+    /**
+     * Read the next character from the input
+     * @return the character, or -1 at the end of the input
+     * @throws IOException if a read error occurs
+     */
+    private int nextChar() throws IOException {
+        if (pos == limit && !fill()) {
+            return -1;
+        }
+        char c = buffer[pos++];
+        if (c == '\n') {
+            line++;
+            lineStart = pos;
+        }
+        return c;
+    }
+
+    /**
+     * Refill the buffer from the reader. Only called once all of the buffer
+     * has been consumed
+     * @return True if more characters were read. False at the end of the input
+     * @throws IOException if a read error occurs
+     */
+    private boolean fill() throws IOException {
+        lineStart -= limit;
+        pos = 0;
+        limit = 0;
+        int read;
+        do {
+            read = reader.read(buffer, 0, buffer.length);
+        } while (read == 0);
+        if (read < 0) {
+            return false;
+        }
+        limit = read;
+        return true;
+    }
+
+    /**
+     * Build an exception describing a syntax error at the current location
+     * @param message the description of the error
+     * @param c the character that caused the error
+     * @return the exception
+     */
+    private LoadException syntaxError(String message, int c) {
+        String found = (c == -1) ? "end of document" : "'" + (char) c + "'";
+        return new LoadException(message + " but found " + found + " at " + location());
+    }
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright (C) 2011 graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package uk.co.grahamcox.mdb.loader.json;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import uk.co.grahamcox.mdb.loader.LoadException;
+import uk.co.grahamcox.mdb.loader.Loader;
+import uk.co.grahamcox.mdb.schema.Column;
+import uk.co.grahamcox.mdb.schema.DataType;
+import uk.co.grahamcox.mdb.schema.Database;
+import uk.co.grahamcox.mdb.schema.NameDictionary;
+import uk.co.grahamcox.mdb.schema.Schema;
+import uk.co.grahamcox.mdb.schema.Table;
+import uk.co.grahamcox.mdb.schema.datatype.DataTypeRegistry;
+
+/**
+ * Load a given JSON File into the Database object, building the model directly
+ * from the tokens as they are read instead of reading the whole file into a
+ * JSON object tree first. Only a single table is ever buffered at a time, so
+ * the memory used does not grow with the size of the file.
+ * The resulting Database is the same as that produced by {@link JsonLoader}
+ * @author graham
+ */
+public class StreamingJsonLoader implements Loader {
+    /** The logger to use */
+    private final Log LOG = LogFactory.getLog(StreamingJsonLoader.class);
+
+    /**
+     * Load the configuration from the given stream
+     * @param database the database object to load into
+     * @param input the stream to load from
+     * @throws IOException if a read error occurs
+     * @throws LoadException if an error occurs loading the configuration
+     */
+    @Override
+    public void load(final Database database, final InputStream input)
+            throws IOException, LoadException {
+        JsonTokenizer tokenizer = new JsonTokenizer(new InputStreamReader(input));
+        JsonTokenizer.Token token = tokenizer.peek();
+        if (token != JsonTokenizer.Token.BEGIN_OBJECT) {
+            LOG.error("Loaded unexpected type. Should have been a JSONObject but was a " + token);
+            throw new LoadException("Parsed JSON was not of correct form. Should have been a JSONObject but was a " + token);
+        }
+        LOG.debug("Streaming JSON object");
+        parseJson(database, tokenizer);
+        if (tokenizer.peek() != JsonTokenizer.Token.END_DOCUMENT) {
+            throw new LoadException("Unexpected content after the end of the document at " + tokenizer.location());
+        }
+    }
+
+    /**
+     * Parse the outermost JSON object from the file.
+     * @param database the database to load into
+     * @param tokenizer the tokenizer to read from
+     * @throws IOException if a read error occurs
+     * @throws LoadException if an error occurs
+     */
+    private void parseJson(Database database, JsonTokenizer tokenizer) throws IOException, LoadException {
+        tokenizer.beginObject();
+        while (tokenizer.hasNext()) {
+            String name = tokenizer.nextName();
+            if ("schemas".equals(name)) {
+                LOG.debug("Loading schemas");
+                tokenizer.beginObject();
+                while (tokenizer.hasNext()) {
+                    String schemaName = database.getNames().intern(tokenizer.nextName());
+                    parseJsonSchema(database, schemaName, tokenizer);
+                }
+                tokenizer.endObject();
+            }
+            else {
+                tokenizer.skipValue();
+            }
+        }
+        tokenizer.endObject();
+    }
+
+    /**
+     * Parse the part of the JSON that represents a schema in the database
+     * @param database the database to load into
+     * @param schemaName the name of the schema
+     * @param tokenizer the tokenizer to read from
+     * @throws IOException if a read error occurs
+     * @throws LoadException if an error occurs
+     */
+    private void parseJsonSchema(Database database, String schemaName, JsonTokenizer tokenizer)
+            throws IOException, LoadException {
+        Schema schema = database.getSchema(schemaName);
+        if (schema == null) {
+            LOG.debug("Creating schema: " + schemaName);
+            schema = new Schema(schemaName);
+            database.addSchema(schema);
+        }
+
+        tokenizer.beginObject();
+        while (tokenizer.hasNext()) {
+            String name = tokenizer.nextName();
+            if ("comment".equals(name)) {
+                String comment = tokenizer.nextString();
+                if (comment != null && schema.getComment() == null) {
+                    schema.setComment(comment);
+                }
+            }
+            else if ("tables".equals(name)) {
+                tokenizer.beginObject();
+                while (tokenizer.hasNext()) {
+                    String tableName = database.getNames().intern(tokenizer.nextName());
+                    if (schema.getTable(tableName) != null) {
+                        throw new LoadException("Duplicate definition of table " + tableName + " in schema " + schema.getName());
+                    }
+                    LOG.debug("Adding table: " + tableName);
+                    Table table = parseJsonTable(tableName, tokenizer, database.getNames());
+                    schema.addTable(table);
+                }
+                tokenizer.endObject();
+            }
+            else {
+                tokenizer.skipValue();
+            }
+        }
+        tokenizer.endObject();
+    }
+
+    /**
+     * Parse the part of the JSON that represents a table in a schema.
+     * The key may be declared after the columns, so the columns are held
+     * until the end of the table before being added to it
+     * @param tableName the name of the table
+     * @param tokenizer the tokenizer to read from
+     * @param names the dictionary to intern the column names through
+     * @return the parsed table
+     * @throws IOException if a read error occurs
+     * @throws LoadException if an error occurs
+     */
+    private Table parseJsonTable(String tableName, JsonTokenizer tokenizer, NameDictionary names) throws IOException, LoadException {
+        Table table = new Table(tableName);
+        Set<String> keyNames = new HashSet<String>();
+        Map<String, Column> columns = new LinkedHashMap<String, Column>();
+
+        tokenizer.beginObject();
+        while (tokenizer.hasNext()) {
+            String name = tokenizer.nextName();
+            if ("comment".equals(name)) {
+                table.setComment(tokenizer.nextString());
+            }
+            else if ("key".equals(name)) {
+                tokenizer.beginArray();
+                while (tokenizer.hasNext()) {
+                    String keyName = names.intern(tokenizer.nextString());
+                    LOG.debug("Found key name: " + keyName);
+                    keyNames.add(keyName);
+                }
+                tokenizer.endArray();
+            }
+            else if ("columns".equals(name)) {
+                tokenizer.beginObject();
+                while (tokenizer.hasNext()) {
+                    String columnName = names.intern(tokenizer.nextName());
+                    if (columns.containsKey(columnName)) {
+                        throw new LoadException("Duplicate definition of column " + columnName + " in table " + table.getName());
+                    }
+                    LOG.debug("Adding column " + columnName);
+                    columns.put(columnName, parseJsonColumn(columnName, tokenizer));
+                }
+                tokenizer.endObject();
+            }
+            else {
+                tokenizer.skipValue();
+            }
+        }
+        tokenizer.endObject();
+
+        for (Column column : columns.values()) {
+            if (keyNames.contains(column.getName())) {
+                table.addKeyColumn(column);
+            }
+            else {
+                table.addColumn(column);
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Parse the part of the JSON that represents a column in a table
+     * @param columnName the name of the column
+     * @param tokenizer the tokenizer to read from
+     * @return the parsed column
+     * @throws IOException if a read error occurs
+     * @throws LoadException if an error occurs
+     */
+    private Column parseJsonColumn(String columnName, JsonTokenizer tokenizer) throws IOException, LoadException {
+        Column column = new Column(columnName);
+
+        tokenizer.beginObject();
+        while (tokenizer.hasNext()) {
+            String name = tokenizer.nextName();
+            if ("nullable".equals(name)) {
+                column.setNullable(tokenizer.nextBoolean());
+            }
+            else if ("comment".equals(name)) {
+                column.setComment(tokenizer.nextString());
+            }
+            else if ("type".equals(name)) {
+                column.setDataType(parseJsonDataType(columnName, tokenizer));
+            }
+            else {
+                tokenizer.skipValue();
+            }
+        }
+        tokenizer.endObject();
+
+        return column;
+    }
+
+    /**
+     * Parse a DataType out of the JSON, which is either a type specification
+     * string such as "varchar(100)" or an object giving the name and
+     * settings of the type
+     * @param columnName the name of the column the type is for
+     * @param tokenizer the tokenizer to read from
+     * @return the DataType object, which is the shared instance for the type
+     * @throws IOException if a read error occurs
+     * @throws LoadException if an error occurs
+     */
+    private DataType parseJsonDataType(String columnName, JsonTokenizer tokenizer) throws IOException, LoadException {
+        DataTypeRegistry registry = DataTypeRegistry.getInstance();
+        try {
+            JsonTokenizer.Token token = tokenizer.peek();
+            if (token == JsonTokenizer.Token.STRING) {
+                return registry.parse(tokenizer.nextString());
+            }
+            if (token == JsonTokenizer.Token.NULL) {
+                tokenizer.skipValue();
+                return null;
+            }
+
+            String typeName = null;
+            Integer size = null;
+            Integer precision = null;
+            Integer scale = null;
+            Boolean timezone = null;
+            tokenizer.beginObject();
+            while (tokenizer.hasNext()) {
+                String name = tokenizer.nextName();
+                if ("name".equals(name)) {
+                    typeName = tokenizer.nextString();
+                }
+                else if ("size".equals(name)) {
+                    size = tokenizer.nextInt();
+                }
+                else if ("precision".equals(name)) {
+                    precision = tokenizer.nextInt();
+                }
+                else if ("scale".equals(name)) {
+                    scale = tokenizer.nextInt();
+                }
+                else if ("timezone".equals(name)) {
+                    timezone = tokenizer.nextBoolean();
+                }
+                else {
+                    tokenizer.skipValue();
+                }
+            }
+            tokenizer.endObject();
+            return registry.get(typeName, size != null ? size : precision, scale, timezone);
+        }
+        catch (IllegalArgumentException ex) {
+            throw new LoadException("Invalid data type for column " + columnName + ": " + ex.getMessage(), ex);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2011 graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package uk.co.grahamcox.mdb.loader.snapshot;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import uk.co.grahamcox.mdb.schema.Database;
+
+/**
+ * A compiled snapshot of a Database, along with the content hashes of the
+ * source files that it was loaded from.
+ * <p>
+ * The binary layout is:
+ * <pre>
+ * int     magic number
+ * short   format version
+ * int     number of strings, followed by each string as an int byte length and UTF-8 bytes
+ * int     number of sources, followed by each source as the string index of the path and the hash
+ * int     number of schemas, followed by each schema
+ * </pre>
+ * Every identifier, comment and default value is written as an int index into
+ * the string table, with -1 for null.
+ * @author graham
+ */
+public class Snapshot {
+    /** The magic number at the start of every snapshot file */
+    public static final int MAGIC = 0x4d444253;
+    /**
+     * The version of the format written. This must be changed whenever the
+     * layout changes, or the model that the same content loads as changes,
+     * so that snapshots written before are rebuilt rather than reused. 2 keeps
+     * columns in declaration order, 3 has timestamp types and the sizes of
+     * the other types, and 4 keeps the casts in cached catalog defaults that
+     * change their meaning
+     */
+    public static final short VERSION = 4;
+
+    /** The tag for a column with no data type */
+    static final byte TYPE_NONE = 0;
+    /** The tag for a NumberDataType */
+    static final byte TYPE_NUMBER = 1;
+    /** The tag for a StringDataType */
+    static final byte TYPE_STRING = 2;
+    /** The tag for a BooleanDataType */
+    static final byte TYPE_BOOLEAN = 3;
+    /** The tag for a TimestampDataType */
+    static final byte TYPE_TIMESTAMP = 4;
+
+    /** The flag set on a column that is nullable */
+    static final byte FLAG_NULLABLE = 1;
+    /** The flag set on a column that is part of the key */
+    static final byte FLAG_KEY = 2;
+
+    /** The database */
+    private final Database database;
+    /** The content hashes of the source files, keyed by path */
+    private final Map<String, String> sources;
+
+    /**
+     * Create the snapshot
+     * @param database the database
+     * @param sources the content hashes of the source files, keyed by path
+     */
+    public Snapshot(Database database, Map<String, String> sources) {
+        this.database = database;
+        this.sources = new LinkedHashMap<String, String>(sources);
+    }
+
+    /**
+     * Get the database
+     * @return the database
+     */
+    public Database getDatabase() {
+        return database;
+    }
+
+    /**
+     * Get the content hashes of the source files
+     * @return the map of path to content hash
+     */
+    public Map<String, String> getSources() {
+        return Collections.unmodifiableMap(sources);
+    }
+}
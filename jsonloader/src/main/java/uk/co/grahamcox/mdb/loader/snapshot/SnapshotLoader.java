@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2011 graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package uk.co.grahamcox.mdb.loader.snapshot;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import uk.co.grahamcox.mdb.loader.BulkLoader;
+import uk.co.grahamcox.mdb.loader.FileDigester;
+import uk.co.grahamcox.mdb.loader.LoadException;
+import uk.co.grahamcox.mdb.schema.Database;
+
+/**
+ * Load a set of source files, using a previously written snapshot instead of
+ * parsing the files if none of them have changed since the snapshot was
+ * written. If they have changed then the files are parsed and the snapshot
+ * is rewritten for next time
+ * @author graham
+ */
+public class SnapshotLoader {
+    /** The logger to use */
+    private final Log LOG = LogFactory.getLog(SnapshotLoader.class);
+    /** The loader to parse the source files with */
+    private final BulkLoader bulkLoader;
+    /** The snapshot file */
+    private final File snapshotFile;
+
+    /**
+     * Create the snapshot loader
+     * @param bulkLoader the loader to parse the source files with
+     * @param snapshotFile the snapshot file
+     */
+    public SnapshotLoader(BulkLoader bulkLoader, File snapshotFile) {
+        this.bulkLoader = bulkLoader;
+        this.snapshotFile = snapshotFile;
+    }
+
+    /**
+     * Load all of the given files and directories into the database
+     * @param database the database object to load into
+     * @param sources the files and directories to load
+     * @return True if the snapshot was used. False if the sources were parsed
+     * @throws IOException if a read error occurs
+     * @throws LoadException if an error occurs loading the configuration
+     */
+    public boolean load(Database database, Collection<File> sources) throws IOException, LoadException {
+        List<File> files = bulkLoader.listFiles(sources);
+        Map<String, String> hashes = new FileDigester().digest(files);
+
+        Snapshot snapshot = readSnapshot();
+        if (snapshot != null && snapshot.getSources().equals(hashes)) {
+            LOG.debug("Source files unchanged, using snapshot " + snapshotFile);
+            bulkLoader.merge(database, snapshot.getDatabase());
+            return true;
+        }
+
+        LOG.debug("Source files changed, parsing " + files.size() + " files");
+        Database loaded = new Database(bulkLoader.getNames());
+        bulkLoader.load(loaded, files);
+        try {
+            new SnapshotWriter().write(new Snapshot(loaded, hashes), snapshotFile);
+        }
+        catch (IOException ex) {
+            LOG.warn("Failed to write snapshot " + snapshotFile, ex);
+        }
+        bulkLoader.merge(database, loaded);
+        return false;
+    }
+
+    /**
+     * Read the snapshot file, if there is a usable one
+     * @return the snapshot, or null if there isn't one
+     */
+    private Snapshot readSnapshot() {
+        if (!snapshotFile.isFile()) {
+            return null;
+        }
+        try {
+            return new SnapshotReader().read(snapshotFile, bulkLoader.getNames());
+        }
+        catch (IOException ex) {
+            LOG.warn("Failed to read snapshot " + snapshotFile, ex);
+        }
+        catch (LoadException ex) {
+            LOG.warn("Ignoring invalid snapshot " + snapshotFile, ex);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2011 graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package uk.co.grahamcox.mdb.loader.snapshot;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import uk.co.grahamcox.mdb.loader.LoadException;
+import uk.co.grahamcox.mdb.schema.Column;
+import uk.co.grahamcox.mdb.schema.DataType;
+import uk.co.grahamcox.mdb.schema.Database;
+import uk.co.grahamcox.mdb.schema.NameDictionary;
+import uk.co.grahamcox.mdb.schema.Schema;
+import uk.co.grahamcox.mdb.schema.Table;
+import uk.co.grahamcox.mdb.schema.datatype.DataTypeRegistry;
+import uk.co.grahamcox.mdb.schema.datatype.TimestampDataType;
+
+/**
+ * Read a Snapshot back in from a file written by {@link SnapshotWriter}. The
+ * file is memory mapped rather than read through a stream
+ * @author graham
+ */
+public class SnapshotReader {
+    /**
+     * Read the snapshot from the given file
+     * @param file the file to read
+     * @return the snapshot
+     * @throws IOException if a read error occurs
+     * @throws LoadException if the file is not a valid snapshot
+     */
+    public Snapshot read(File file) throws IOException, LoadException {
+        return read(file, new NameDictionary());
+    }
+
+    /**
+     * Read the snapshot from the given file, interning the names of the
+     * schemas, tables and columns through the given dictionary
+     * @param file the file to read
+     * @param names the name dictionary
+     * @return the snapshot
+     * @throws IOException if a read error occurs
+     * @throws LoadException if the file is not a valid snapshot
+     */
+    public Snapshot read(File file, NameDictionary names) throws IOException, LoadException {
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = input.getChannel();
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return read(buffer, names);
+        }
+        catch (BufferUnderflowException ex) {
+            throw new LoadException("Snapshot " + file + " is truncated", ex);
+        }
+        finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Read the snapshot from the given buffer
+     * @param buffer the buffer to read
+     * @param names the name dictionary
+     * @return the snapshot
+     * @throws IOException if the strings can not be decoded
+     * @throws LoadException if the buffer is not a valid snapshot
+     */
+    private Snapshot read(ByteBuffer buffer, NameDictionary names) throws IOException, LoadException {
+        if (buffer.remaining() < 6 || buffer.getInt() != Snapshot.MAGIC) {
+            throw new LoadException("Not a snapshot file");
+        }
+        short version = buffer.getShort();
+        if (version != Snapshot.VERSION) {
+            throw new LoadException("Unsupported snapshot version " + version);
+        }
+
+        String[] strings = readStrings(buffer);
+
+        Map<String, String> sources = new LinkedHashMap<String, String>();
+        int sourceCount = buffer.getInt();
+        for (int i = 0; i < sourceCount; ++i) {
+            String path = string(strings, buffer.getInt());
+            sources.put(path, string(strings, buffer.getInt()));
+        }
+
+        Database database = new Database(names);
+        int schemaCount = buffer.getInt();
+        for (int i = 0; i < schemaCount; ++i) {
+            Schema schema = new Schema(names.intern(string(strings, buffer.getInt())));
+            schema.setComment(string(strings, buffer.getInt()));
+            int tableCount = buffer.getInt();
+            for (int j = 0; j < tableCount; ++j) {
+                schema.addTable(readTable(buffer, strings, names));
+            }
+            database.addSchema(schema);
+        }
+        return new Snapshot(database, sources);
+    }
+
+    /**
+     * Read the string table
+     * @param buffer the buffer to read
+     * @return the strings
+     * @throws IOException if the strings can not be decoded
+     * @throws LoadException if the string table is corrupt
+     */
+    private String[] readStrings(ByteBuffer buffer) throws IOException, LoadException {
+        int count = buffer.getInt();
+        if (count < 0 || count > buffer.remaining()) {
+            throw new LoadException("Corrupt string table in snapshot");
+        }
+        String[] strings = new String[count];
+        byte[] bytes = new byte[256];
+        for (int i = 0; i < count; ++i) {
+            int length = buffer.getInt();
+            if (length < 0 || length > buffer.remaining()) {
+                throw new LoadException("Corrupt string table in snapshot");
+            }
+            if (length > bytes.length) {
+                bytes = new byte[Math.max(length, bytes.length * 2)];
+            }
+            buffer.get(bytes, 0, length);
+            strings[i] = new String(bytes, 0, length, "UTF-8");
+        }
+        return strings;
+    }
+
+    /**
+     * Read a single table
+     * @param buffer the buffer to read
+     * @param strings the string table
+     * @param names the name dictionary
+     * @return the table
+     * @throws LoadException if the table is corrupt
+     */
+    private Table readTable(ByteBuffer buffer, String[] strings, NameDictionary names) throws LoadException {
+        Table table = new Table(names.intern(string(strings, buffer.getInt())));
+        table.setComment(string(strings, buffer.getInt()));
+        int columnCount = buffer.getInt();
+        for (int i = 0; i < columnCount; ++i) {
+            Column column = new Column(names.intern(string(strings, buffer.getInt())));
+            column.setComment(string(strings, buffer.getInt()));
+            column.setDefaultValue(string(strings, buffer.getInt()));
+            byte flags = buffer.get();
+            column.setNullable((flags & Snapshot.FLAG_NULLABLE) != 0);
+            column.setDataType(readDataType(buffer));
+            if ((flags & Snapshot.FLAG_KEY) != 0) {
+                table.addKeyColumn(column);
+            }
+            else {
+                table.addColumn(column);
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Read a data type
+     * @param buffer the buffer to read
+     * @return the data type
+     * @throws LoadException if the data type is not recognised
+     */
+    private DataType readDataType(ByteBuffer buffer) throws LoadException {
+        DataTypeRegistry registry = DataTypeRegistry.getInstance();
+        byte tag = buffer.get();
+        try {
+            switch (tag) {
+                case Snapshot.TYPE_NONE:
+                    return null;
+                case Snapshot.TYPE_NUMBER:
+                    int precision = buffer.getInt();
+                    return registry.getNumber(precision, buffer.getInt());
+                case Snapshot.TYPE_STRING:
+                    int size = buffer.getInt();
+                    return registry.getString(size < 0 ? null : Integer.valueOf(size), buffer.get() != 0);
+                case Snapshot.TYPE_BOOLEAN:
+                    return registry.getBoolean();
+                case Snapshot.TYPE_TIMESTAMP:
+                    TimestampDataType.Type[] types = TimestampDataType.Type.values();
+                    byte type = buffer.get();
+                    if (type < 0 || type >= types.length) {
+                        throw new LoadException("Unknown timestamp type in snapshot: " + type);
+                    }
+                    boolean withTimezone = buffer.get() != 0;
+                    return registry.getTimestamp(types[type], withTimezone, buffer.getInt());
+                default:
+                    throw new LoadException("Unknown data type tag in snapshot: " + tag);
+            }
+        }
+        catch (IllegalArgumentException ex) {
+            throw new LoadException("Invalid data type in snapshot: " + ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Look up a string in the string table
+     * @param strings the string table
+     * @param index the index of the string, or -1 for null
+     * @return the string
+     * @throws LoadException if the index is out of range
+     */
+    private String string(String[] strings, int index) throws LoadException {
+        if (index == -1) {
+            return null;
+        }
+        if (index < 0 || index >= strings.length) {
+            throw new LoadException("Corrupt string reference in snapshot: " + index);
+        }
+        return strings[index];
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2011 graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package uk.co.grahamcox.mdb.loader.snapshot;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import uk.co.grahamcox.mdb.schema.Column;
+import uk.co.grahamcox.mdb.schema.DataType;
+import uk.co.grahamcox.mdb.schema.Schema;
+import uk.co.grahamcox.mdb.schema.Table;
+import uk.co.grahamcox.mdb.schema.datatype.BooleanDataType;
+import uk.co.grahamcox.mdb.schema.datatype.NumberDataType;
+import uk.co.grahamcox.mdb.schema.datatype.StringDataType;
+import uk.co.grahamcox.mdb.schema.datatype.TimestampDataType;
+
+/**
+ * Write a Snapshot out to a file in the compact binary format
+ * @author graham
+ */
+public class SnapshotWriter {
+    /** The strings to write, in index order */
+    private final List<String> strings = new ArrayList<String>();
+    /** The index of each string in the string table */
+    private final Map<String, Integer> stringIndexes = new HashMap<String, Integer>();
+
+    /**
+     * Write the snapshot to the given file. The snapshot is written to a
+     * temporary file first and then renamed, so a reader never sees a partly
+     * written snapshot
+     * @param snapshot the snapshot to write
+     * @param file the file to write to
+     * @throws IOException if a write error occurs
+     */
+    public void write(Snapshot snapshot, File file) throws IOException {
+        strings.clear();
+        stringIndexes.clear();
+        collectStrings(snapshot);
+
+        File temp = new File(file.getPath() + ".tmp");
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+        try {
+            output.writeInt(Snapshot.MAGIC);
+            output.writeShort(Snapshot.VERSION);
+            writeStrings(output);
+            writeSources(output, snapshot.getSources());
+            writeSchemas(output, snapshot);
+        }
+        finally {
+            output.close();
+        }
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Unable to replace snapshot " + file);
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Unable to rename " + temp + " to " + file);
+        }
+    }
+
+    /**
+     * Build the string table from every string in the snapshot
+     * @param snapshot the snapshot
+     */
+    private void collectStrings(Snapshot snapshot) {
+        for (Map.Entry<String, String> source : snapshot.getSources().entrySet()) {
+            addString(source.getKey());
+            addString(source.getValue());
+        }
+        for (Schema schema : snapshot.getDatabase().getSchemas()) {
+            addString(schema.getName());
+            addString(schema.getComment());
+            for (Table table : schema.getTables()) {
+                addString(table.getName());
+                addString(table.getComment());
+                for (Column column : table.getAllColumns()) {
+                    addString(column.getName());
+                    addString(column.getComment());
+                    addString(column.getDefaultValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Add a string to the string table, if it is not already there
+     * @param value the string
+     */
+    private void addString(String value) {
+        if (value != null && !stringIndexes.containsKey(value)) {
+            stringIndexes.put(value, strings.size());
+            strings.add(value);
+        }
+    }
+
+    /**
+     * Get the index of the string in the string table
+     * @param value the string
+     * @return the index, or -1 for null
+     */
+    private int indexOf(String value) {
+        if (value == null) {
+            return -1;
+        }
+        return stringIndexes.get(value);
+    }
+
+    /**
+     * Write the string table
+     * @param output the output to write to
+     * @throws IOException if a write error occurs
+     */
+    private void writeStrings(DataOutputStream output) throws IOException {
+        output.writeInt(strings.size());
+        for (String value : strings) {
+            byte[] bytes = value.getBytes("UTF-8");
+            output.writeInt(bytes.length);
+            output.write(bytes);
+        }
+    }
+
+    /**
+     * Write the source file hashes
+     * @param output the output to write to
+     * @param sources the source file hashes
+     * @throws IOException if a write error occurs
+     */
+    private void writeSources(DataOutputStream output, Map<String, String> sources) throws IOException {
+        output.writeInt(sources.size());
+        for (Map.Entry<String, String> source : sources.entrySet()) {
+            output.writeInt(indexOf(source.getKey()));
+            output.writeInt(indexOf(source.getValue()));
+        }
+    }
+
+    /**
+     * Write the schemas, tables and columns
+     * @param output the output to write to
+     * @param snapshot the snapshot
+     * @throws IOException if a write error occurs
+     */
+    private void writeSchemas(DataOutputStream output, Snapshot snapshot) throws IOException {
+        output.writeInt(snapshot.getDatabase().getSchemas().size());
+        for (Schema schema : snapshot.getDatabase().getSchemas()) {
+            output.writeInt(indexOf(schema.getName()));
+            output.writeInt(indexOf(schema.getComment()));
+            output.writeInt(schema.getTables().size());
+            for (Table table : schema.getTables()) {
+                writeTable(output, table);
+            }
+        }
+    }
+
+    /**
+     * Write a single table
+     * @param output the output to write to
+     * @param table the table
+     * @throws IOException if a write error occurs
+     */
+    private void writeTable(DataOutputStream output, Table table) throws IOException {
+        output.writeInt(indexOf(table.getName()));
+        output.writeInt(indexOf(table.getComment()));
+        output.writeInt(table.getColumnCount());
+        for (int i = 0; i < table.getColumnCount(); ++i) {
+            Column column = table.getColumn(i);
+            int flags = 0;
+            if (column.isNullable()) {
+                flags |= Snapshot.FLAG_NULLABLE;
+            }
+            if (table.isKeyColumn(i)) {
+                flags |= Snapshot.FLAG_KEY;
+            }
+            output.writeInt(indexOf(column.getName()));
+            output.writeInt(indexOf(column.getComment()));
+            output.writeInt(indexOf(column.getDefaultValue()));
+            output.writeByte(flags);
+            writeDataType(output, column.getDataType());
+        }
+    }
+
+    /**
+     * Write a data type
+     * @param output the output to write to
+     * @param dataType the data type
+     * @throws IOException if a write error occurs, or the data type is not supported
+     */
+    private void writeDataType(DataOutputStream output, DataType dataType) throws IOException {
+        if (dataType == null) {
+            output.writeByte(Snapshot.TYPE_NONE);
+        }
+        else if (dataType instanceof NumberDataType) {
+            NumberDataType number = (NumberDataType) dataType;
+            output.writeByte(Snapshot.TYPE_NUMBER);
+            output.writeInt(number.getPrecision());
+            output.writeInt(number.getScale());
+        }
+        else if (dataType instanceof StringDataType) {
+            StringDataType string = (StringDataType) dataType;
+            output.writeByte(Snapshot.TYPE_STRING);
+            output.writeInt(string.getSize() == null ? -1 : string.getSize());
+            output.writeBoolean(string.isVariableSize());
+        }
+        else if (dataType instanceof BooleanDataType) {
+            output.writeByte(Snapshot.TYPE_BOOLEAN);
+        }
+        else if (dataType instanceof TimestampDataType) {
+            TimestampDataType timestamp = (TimestampDataType) dataType;
+            output.writeByte(Snapshot.TYPE_TIMESTAMP);
+            output.writeByte(timestamp.getType().ordinal());
+            output.writeBoolean(timestamp.isWithTimezone());
+            output.writeInt(timestamp.getPrecision());
+        }
+        else {
+            throw new IOException("Unsupported data type in snapshot: " + dataType);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2011 graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package uk.co.grahamcox.mdb.loader.json;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import uk.co.grahamcox.mdb.loader.BulkLoader;
+import uk.co.grahamcox.mdb.loader.LoadException;
+import uk.co.grahamcox.mdb.schema.Database;
+
+/**
+ *
+ * @author graham
+ */
+public class TestBulkLoad {
+    private File directory;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        directory = File.createTempFile("mdb", "bulk");
+        directory.delete();
+        directory.mkdir();
+        directory.deleteOnExit();
+    }
+
+    private void write(String name, String json) throws IOException {
+        File file = new File(directory, name);
+        file.getParentFile().mkdirs();
+        file.getParentFile().deleteOnExit();
+        file.deleteOnExit();
+        OutputStream output = new FileOutputStream(file);
+        try {
+            output.write(json.getBytes("UTF-8"));
+        }
+        finally {
+            output.close();
+        }
+    }
+
+    private String table(String schema, String comment, String table) {
+        return "{\"schemas\": {\"" + schema + "\": {"
+                + (comment == null ? "" : "\"comment\": \"" + comment + "\", ")
+                + "\"tables\": {\"" + table + "\": {\"columns\": {\"id\": {\"type\": {\"name\": \"number\"}}}, \"key\": [\"id\"]}}}}}";
+    }
+
+    private BulkLoader bulkLoader(int threads) {
+        BulkLoader loader = new BulkLoader(new StreamingJsonLoader());
+        loader.setThreads(threads);
+        loader.setFileFilter(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.getName().endsWith(".json");
+            }
+        });
+        return loader;
+    }
+
+    @Test
+    public void testLoadDirectory() throws Exception {
+        for (int i = 0; i < 20; ++i) {
+            write("schema" + (i % 4) + "/table" + i + ".json", table("schema" + (i % 4), null, "table" + i));
+        }
+        write("schema0/README", "Not a model file");
+
+        Database parallel = new Database();
+        bulkLoader(4).load(parallel, Collections.singleton(directory));
+        Database sequential = new Database();
+        bulkLoader(1).load(sequential, Collections.singleton(directory));
+
+        Assert.assertEquals(4, parallel.getSchemas().size());
+        Assert.assertEquals(5, parallel.getSchema("schema2").getTables().size());
+        Assert.assertNotNull(parallel.getSchema("schema3").getTable("table19"));
+        Assert.assertEquals(parallel, sequential);
+    }
+
+    @Test
+    public void testFirstCommentWins() throws Exception {
+        write("b.json", table("users", "Second", "b"));
+        write("a.json", table("users", "First", "a"));
+        write("c.json", table("users", null, "c"));
+
+        Database database = new Database();
+        bulkLoader(3).load(database, Collections.singleton(directory));
+        Assert.assertEquals("First", database.getSchema("users").getComment());
+        Assert.assertEquals(3, database.getSchema("users").getTables().size());
+    }
+
+    @Test(expectedExceptions=LoadException.class)
+    public void testDuplicateTable() throws Exception {
+        write("a.json", table("users", null, "user"));
+        write("b.json", table("users", null, "user"));
+        bulkLoader(2).load(new Database(), Collections.singleton(directory));
+    }
+
+    @Test(expectedExceptions=LoadException.class)
+    public void testInvalidFile() throws Exception {
+        write("a.json", table("users", null, "user"));
+        write("b.json", "{]");
+        bulkLoader(2).load(new Database(), Collections.singleton(directory));
+    }
+}
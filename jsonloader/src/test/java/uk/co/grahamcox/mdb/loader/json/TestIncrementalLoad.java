@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2011 graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package uk.co.grahamcox.mdb.loader.json;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import uk.co.grahamcox.mdb.loader.BulkLoader;
+import uk.co.grahamcox.mdb.loader.IncrementalLoader;
+import uk.co.grahamcox.mdb.loader.LoadException;
+import uk.co.grahamcox.mdb.schema.Database;
+
+/**
+ *
+ * @author graham
+ */
+public class TestIncrementalLoad {
+    private File directory;
+    private IncrementalLoader loader;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        directory = File.createTempFile("mdb", "incremental");
+        directory.delete();
+        directory.mkdir();
+        directory.deleteOnExit();
+        loader = new IncrementalLoader(new BulkLoader(new StreamingJsonLoader()));
+    }
+
+    private File write(String name, String json) throws IOException {
+        File file = new File(directory, name);
+        file.deleteOnExit();
+        OutputStream output = new FileOutputStream(file);
+        try {
+            output.write(json.getBytes("UTF-8"));
+        }
+        finally {
+            output.close();
+        }
+        return file;
+    }
+
+    private String table(String schema, String comment, String table, String column) {
+        return "{\"schemas\": {\"" + schema + "\": {"
+                + (comment == null ? "" : "\"comment\": \"" + comment + "\", ")
+                + "\"tables\": {\"" + table + "\": {\"columns\": {\"" + column + "\": {\"type\": {\"name\": \"number\"}}}}}}}}";
+    }
+
+    private int reload() throws Exception {
+        return loader.reload(Collections.singleton(directory));
+    }
+
+    private Database fullLoad() throws Exception {
+        Database database = new Database();
+        new BulkLoader(new StreamingJsonLoader()).load(database, Collections.singleton(directory));
+        return database;
+    }
+
+    @Test
+    public void testReloadOnlyChanged() throws Exception {
+        write("a.json", table("users", "Users", "user", "id"));
+        write("b.json", table("users", null, "role", "id"));
+        write("c.json", table("utils", null, "setting", "id"));
+        Assert.assertEquals(reload(), 3);
+        Assert.assertEquals(loader.getDatabase(), fullLoad());
+        Assert.assertEquals(reload(), 0);
+
+        write("b.json", table("users", null, "role", "role_id"));
+        Assert.assertEquals(reload(), 1);
+        Assert.assertNotNull(loader.getDatabase().getSchema("users").getTable("role").getColumn("role_id"));
+        Assert.assertNotNull(loader.getDatabase().getSchema("users").getTable("user"));
+        Assert.assertEquals(loader.getDatabase(), fullLoad());
+    }
+
+    @Test
+    public void testRemovedFiles() throws Exception {
+        File a = write("a.json", table("users", "Users", "user", "id"));
+        write("b.json", table("users", "Other users", "role", "id"));
+        File c = write("c.json", table("utils", null, "setting", "id"));
+        reload();
+        Assert.assertEquals(loader.getDatabase().getSchema("users").getComment(), "Users");
+
+        a.delete();
+        c.delete();
+        Assert.assertEquals(reload(), 2);
+        Assert.assertNull(loader.getDatabase().getSchema("utils"));
+        Assert.assertNull(loader.getDatabase().getSchema("users").getTable("user"));
+        Assert.assertEquals(loader.getDatabase().getSchema("users").getComment(), "Other users");
+        Assert.assertEquals(loader.getDatabase(), fullLoad());
+    }
+
+    @Test
+    public void testMovedTable() throws Exception {
+        File a = write("a.json", table("users", null, "user", "id"));
+        reload();
+        a.delete();
+        write("b.json", table("users", null, "user", "id"));
+        Assert.assertEquals(reload(), 2);
+        Assert.assertNotNull(loader.getDatabase().getSchema("users").getTable("user"));
+    }
+
+    @Test
+    public void testDuplicateLeavesDatabaseUnchanged() throws Exception {
+        write("a.json", table("users", null, "user", "id"));
+        reload();
+        write("b.json", table("users", null, "user", "id"));
+        try {
+            reload();
+            Assert.fail("Expected a LoadException");
+        }
+        catch (LoadException ex) {
+            // expected
+        }
+        Assert.assertEquals(loader.getDatabase().getSchema("users").getTables().size(), 1);
+
+        new File(directory, "b.json").delete();
+        Assert.assertEquals(reload(), 0);
+    }
+}
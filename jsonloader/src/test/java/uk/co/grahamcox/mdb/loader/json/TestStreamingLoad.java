@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2011 graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package uk.co.grahamcox.mdb.loader.json;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import org.testng.Assert;
+import org.testng.annotations.BeforeTest;
+import org.testng.annotations.Test;
+import uk.co.grahamcox.mdb.loader.LoadException;
+import uk.co.grahamcox.mdb.schema.Database;
+import uk.co.grahamcox.mdb.schema.Table;
+import uk.co.grahamcox.mdb.schema.datatype.DataTypeRegistry;
+
+/**
+ *
+ * @author graham
+ */
+public class TestStreamingLoad {
+    private StreamingJsonLoader loader;
+
+    @BeforeTest
+    public void setUp() {
+        loader = new StreamingJsonLoader();
+    }
+
+    private Database loadStreaming(InputStream stream) throws Exception {
+        Database database = new Database();
+        loader.load(database, stream);
+        return database;
+    }
+
+    private Database loadTree(InputStream stream) throws Exception {
+        Database database = new Database();
+        new JsonLoader().load(database, stream);
+        return database;
+    }
+
+    @Test
+    public void testSchemasMatchTreeLoader() throws Exception {
+        Database database = loadStreaming(getClass().getResourceAsStream("/schemas.json"));
+        Assert.assertEquals(2, database.getSchemas().size());
+        Assert.assertEquals("This is the Users schema", database.getSchema("users").getComment());
+        Assert.assertNull(database.getSchema("utils").getComment());
+        Assert.assertEquals(database, loadTree(getClass().getResourceAsStream("/schemas.json")));
+    }
+
+    @Test
+    public void testTablesMatchTreeLoader() throws Exception {
+        Database database = loadStreaming(getClass().getResourceAsStream("/tables.json"));
+        Assert.assertEquals(1, database.getSchema("users").getTable("user").getKeyColumns().size());
+        Assert.assertEquals(4, database.getSchema("users").getTable("user").getStandardColumns().size());
+        Assert.assertEquals(database, loadTree(getClass().getResourceAsStream("/tables.json")));
+    }
+
+    @Test
+    public void testNamesInterned() throws Exception {
+        String json = "{schemas: {users: {tables: {"
+                + "user: {columns: {id: {}, name: {}}, key: ['id']},"
+                + "group: {columns: {id: {}, name: {}}, key: ['id']}}}}}";
+        Database database = loadStreaming(new ByteArrayInputStream(json.getBytes("UTF-8")));
+        Assert.assertSame(database.getSchema("users").getTable("user").getColumn("id").getName(),
+                database.getSchema("users").getTable("group").getColumn("id").getName());
+        Assert.assertEquals(database.getNames().findId("name"), database.getNames().getId("name"));
+        Assert.assertEquals(-1, database.getNames().findId("missing"));
+    }
+
+    @Test
+    public void testDataTypesShared() throws Exception {
+        String json = "{schemas: {users: {tables: {user: {columns: {"
+                + "name: {type: {name: 'string', size: 100}},"
+                + "email: {type: 'varchar(100)'},"
+                + "created: {type: {name: 'timestamp', precision: 3, timezone: false}},"
+                + "balance: {type: {name: 'number', precision: 10, scale: 2}}}}}}}}";
+        Database database = loadStreaming(new ByteArrayInputStream(json.getBytes("UTF-8")));
+        Database tree = loadTree(new ByteArrayInputStream(json.getBytes("UTF-8")));
+        Table table = database.getSchema("users").getTable("user");
+        Assert.assertSame(table.getColumn("name").getDataType(), table.getColumn("email").getDataType());
+        Assert.assertSame(table.getColumn("created").getDataType(),
+                DataTypeRegistry.getInstance().parse("timestamp(3) without time zone"));
+        Assert.assertSame(table.getColumn("balance").getDataType(), DataTypeRegistry.getInstance().getNumber(10, 2));
+        Assert.assertEquals(database, tree);
+    }
+
+    @Test(expectedExceptions=LoadException.class)
+    public void testUnknownDataType() throws Exception {
+        loadStreaming(new ByteArrayInputStream("{schemas: {users: {tables: {user: {columns: {id: {type: 'blob'}}}}}}}".getBytes("UTF-8")));
+    }
+
+    @Test
+    public void testGeneratedMatchesTreeLoader() throws Exception {
+        StringBuilder json = new StringBuilder("{\"schemas\": {");
+        for (int s = 0; s < 5; ++s) {
+            json.append(s == 0 ? "" : ",").append("\"schema").append(s).append("\": {\"comment\": \"Schema ")
+                    .append(s).append("\", \"tables\": {");
+            for (int t = 0; t < 50; ++t) {
+                json.append(t == 0 ? "" : ",").append("\"table").append(t).append("\": {\"columns\": {")
+                        .append("\"id\": {\"type\": {\"name\": \"number\"}, \"nullable\": false},")
+                        .append("\"name\": {\"type\": {\"name\": \"string\", \"size\": 100}, \"comment\": \"The \\\"name\\\"\"},")
+                        .append("\"enabled\": {\"type\": {\"name\": \"boolean\"}, \"nullable\": \"true\"}")
+                        .append("}, \"key\": [\"id\"], \"constraints\": [{\"type\": \"check\", \"sql\": \"id > 0\"}]}");
+            }
+            json.append("}}");
+        }
+        json.append("}}");
+        byte[] bytes = json.toString().getBytes("UTF-8");
+
+        Database database = loadStreaming(new ByteArrayInputStream(bytes));
+        Assert.assertEquals(5, database.getSchemas().size());
+        Assert.assertEquals(50, database.getSchema("schema3").getTables().size());
+        Assert.assertEquals("The \"name\"", database.getSchema("schema3").getTable("table7").getColumn("name").getComment());
+        Assert.assertEquals(database, loadTree(new ByteArrayInputStream(bytes)));
+    }
+
+    @Test
+    public void testRelaxedSyntax() throws Exception {
+        String json = "// The users\n{schemas: {users: {comment: 'Users', tables: {user: {\n"
+                + "columns: {id: {type: {name: \"number\"}, nullable: false}}, /* keys */ key: ['id']}}}}}";
+        Database database = loadStreaming(new ByteArrayInputStream(json.getBytes("UTF-8")));
+        Assert.assertEquals("Users", database.getSchema("users").getComment());
+        Assert.assertEquals(1, database.getSchema("users").getTable("user").getKeyColumns().size());
+    }
+
+    @Test(expectedExceptions=LoadException.class)
+    public void testLoadInvalid() throws Exception {
+        loadStreaming(getClass().getResourceAsStream("/invalid.json"));
+    }
+
+    @Test(expectedExceptions=LoadException.class)
+    public void testLoadNotObject() throws Exception {
+        loadStreaming(new ByteArrayInputStream("[]".getBytes("UTF-8")));
+    }
+
+    @Test(expectedExceptions=LoadException.class)
+    public void testLoadTruncated() throws Exception {
+        loadStreaming(new ByteArrayInputStream("{\"schemas\": {\"users\": {".getBytes("UTF-8")));
+    }
+
+    @Test(expectedExceptions=LoadException.class)
+    public void testDuplicateTable() throws Exception {
+        Database database = loadStreaming(getClass().getResourceAsStream("/tables.json"));
+        loader.load(database, getClass().getResourceAsStream("/tables.json"));
+    }
+
+    @Test(expectedExceptions=LoadException.class)
+    public void testBareSlashAtEndOfBuffer() throws Exception {
+        StringBuilder json = new StringBuilder("{");
+        while (json.length() < 8191) {
+            json.append(' ');
+        }
+        json.append("/x: 1}");
+        loadStreaming(new ByteArrayInputStream(json.toString().getBytes("UTF-8")));
+    }
+
+    @Test(expectedExceptions=LoadException.class)
+    public void testBareSlashValue() throws Exception {
+        loadStreaming(new ByteArrayInputStream("{\"schemas\": /}".getBytes("UTF-8")));
+    }
+}
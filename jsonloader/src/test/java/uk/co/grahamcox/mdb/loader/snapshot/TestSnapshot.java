@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2011 graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package uk.co.grahamcox.mdb.loader.snapshot;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import uk.co.grahamcox.mdb.loader.BulkLoader;
+import uk.co.grahamcox.mdb.loader.LoadException;
+import uk.co.grahamcox.mdb.loader.json.StreamingJsonLoader;
+import uk.co.grahamcox.mdb.schema.Database;
+
+/**
+ *
+ * @author graham
+ */
+public class TestSnapshot {
+    private File directory;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        directory = File.createTempFile("mdb", "snapshot");
+        directory.delete();
+        directory.mkdir();
+        directory.deleteOnExit();
+    }
+
+    private File write(String name, InputStream input) throws IOException {
+        File file = new File(directory, name);
+        file.deleteOnExit();
+        OutputStream output = new FileOutputStream(file);
+        try {
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = input.read(buffer)) >= 0) {
+                output.write(buffer, 0, read);
+            }
+        }
+        finally {
+            output.close();
+            input.close();
+        }
+        return file;
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        Database database = new Database();
+        new StreamingJsonLoader().load(database, getClass().getResourceAsStream("/tables.json"));
+        database.getSchema("users").getTable("user").getColumn("enabled").setDefaultValue("false");
+        database.getSchema("users").getTable("user").getColumn("name").setComment("The name");
+
+        File file = new File(directory, "model.snapshot");
+        file.deleteOnExit();
+        new SnapshotWriter().write(new Snapshot(database, Collections.singletonMap("tables.json", "abc")), file);
+        Snapshot snapshot = new SnapshotReader().read(file);
+
+        Assert.assertEquals(snapshot.getDatabase(), database);
+        Assert.assertEquals(snapshot.getSources(), Collections.singletonMap("tables.json", "abc"));
+        Assert.assertEquals(1, snapshot.getDatabase().getSchema("users").getTable("user").getKeyColumns().size());
+    }
+
+    @Test
+    public void testSnapshotUsedWhenUnchanged() throws Exception {
+        File source = write("tables.json", getClass().getResourceAsStream("/tables.json"));
+        File snapshotFile = new File(directory, "model.snapshot");
+        snapshotFile.deleteOnExit();
+        SnapshotLoader loader = new SnapshotLoader(new BulkLoader(new StreamingJsonLoader()), snapshotFile);
+
+        Database first = new Database();
+        Assert.assertFalse(loader.load(first, Collections.singleton(source)));
+        Assert.assertTrue(snapshotFile.isFile());
+
+        Database second = new Database();
+        Assert.assertTrue(loader.load(second, Collections.singleton(source)));
+        Assert.assertEquals(second, first);
+
+        write("tables.json", getClass().getResourceAsStream("/schemas.json"));
+        Database third = new Database();
+        Assert.assertFalse(loader.load(third, Collections.singleton(source)));
+        Assert.assertEquals(2, third.getSchemas().size());
+    }
+
+    @Test
+    public void testOldVersionRebuilt() throws Exception {
+        File source = write("tables.json", getClass().getResourceAsStream("/tables.json"));
+        File snapshotFile = new File(directory, "model.snapshot");
+        snapshotFile.deleteOnExit();
+        SnapshotLoader loader = new SnapshotLoader(new BulkLoader(new StreamingJsonLoader()), snapshotFile);
+        Assert.assertFalse(loader.load(new Database(), Collections.singleton(source)));
+
+        RandomAccessFile file = new RandomAccessFile(snapshotFile, "rw");
+        try {
+            file.seek(4);
+            file.writeShort(Snapshot.VERSION - 1);
+        }
+        finally {
+            file.close();
+        }
+        Assert.assertFalse(loader.load(new Database(), Collections.singleton(source)));
+        Assert.assertTrue(loader.load(new Database(), Collections.singleton(source)));
+    }
+
+    @Test(expectedExceptions=LoadException.class)
+    public void testInvalidSnapshot() throws Exception {
+        File file = write("model.snapshot", getClass().getResourceAsStream("/invalid.json"));
+        new SnapshotReader().read(file);
+    }
+}
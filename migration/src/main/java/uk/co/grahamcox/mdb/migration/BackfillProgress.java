@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2011 graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.grahamcox.mdb.migration;
+
+import java.util.Locale;
+
+/**
+ * Progress of a column backfill. The counts are updated by the thread
+ * doing the backfill and can be read from any other thread while it runs
+ * @author graham
+ */
+public class BackfillProgress {
+    /** The number of rows in the table when the backfill started, or -1 if not counted */
+    private volatile long totalRows = -1;
+    /** The number of rows backfilled so far */
+    private volatile long rows = 0;
+    /** The number of batches run so far */
+    private volatile int batches = 0;
+    /** The time the backfill started, or 0 if it hasn't */
+    private volatile long startMillis = 0;
+    /** The time the backfill finished, or 0 if it hasn't */
+    private volatile long endMillis = 0;
+
+    /**
+     * Get the number of rows in the table when the backfill started
+     * @return the number of rows, or -1 if they weren't counted
+     */
+    public long getTotalRows() {
+        return totalRows;
+    }
+
+    /**
+     * Get the number of rows backfilled so far
+     * @return the number of rows
+     */
+    public long getRows() {
+        return rows;
+    }
+
+    /**
+     * Get the number of batches run so far
+     * @return the number of batches
+     */
+    public int getBatches() {
+        return batches;
+    }
+
+    /**
+     * Check if the backfill has finished
+     * @return True if it has finished. False if not
+     */
+    public boolean isFinished() {
+        return endMillis != 0;
+    }
+
+    /**
+     * Get the time the backfill has taken so far
+     * @return the time, in milliseconds
+     */
+    public long getElapsedMillis() {
+        if (startMillis == 0) {
+            return 0;
+        }
+        return (endMillis == 0 ? System.currentTimeMillis() : endMillis) - startMillis;
+    }
+
+    /**
+     * Get the rate at which rows have been backfilled
+     * @return the rate, in rows per second
+     */
+    public double getRowsPerSecond() {
+        long elapsed = getElapsedMillis();
+        return elapsed == 0 ? 0.0 : rows * 1000.0 / elapsed;
+    }
+
+    /**
+     * Get how far through the table the backfill is
+     * @return the fraction of the rows done, from 0 to 1, or -1 if the rows
+     * weren't counted
+     */
+    public double getFractionDone() {
+        if (totalRows < 0) {
+            return -1.0;
+        }
+        return totalRows == 0 ? 1.0 : Math.min(1.0, (double) rows / totalRows);
+    }
+
+    /**
+     * Record that the backfill has started
+     * @param totalRows the number of rows in the table, or -1 if not counted
+     */
+    void started(long totalRows) {
+        this.totalRows = totalRows;
+        this.rows = 0;
+        this.batches = 0;
+        this.endMillis = 0;
+        this.startMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Record that a batch has been run
+     * @param batchRows the number of rows updated by the batch
+     */
+    void batchDone(long batchRows) {
+        rows += batchRows;
+        ++batches;
+    }
+
+    /**
+     * Record that the backfill has finished
+     */
+    void finished() {
+        endMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Generate a string for the object
+     * @return the string
+     */
+    @Override
+    public String toString() {
+        return "Backfilled " + rows + (totalRows < 0 ? "" : " of " + totalRows) + " rows in " + batches
+                + " batches in " + getElapsedMillis() + "ms, "
+                + String.format(Locale.ENGLISH, "%.0f", getRowsPerSecond()) + " rows/s";
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright (C) 2011 graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.grahamcox.mdb.migration;
+
+/**
+ * How much work the database has to do to apply a change to an existing
+ * table. The values are in increasing order of cost
+ * @author graham
+ */
+public enum ChangeImpact {
+    /** Only the catalog is changed, however big the table is */
+    METADATA,
+    /** Every row of the table is read, to check it or to build an index */
+    SCAN,
+    /** Every row of the table is read and written out to a new copy of it */
+    REWRITE
+}
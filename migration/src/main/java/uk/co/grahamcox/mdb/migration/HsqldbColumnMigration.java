@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2011 graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.grahamcox.mdb.migration;
+
+import java.util.Arrays;
+import java.util.List;
+import uk.co.grahamcox.mdb.schema.Table;
+
+/**
+ * Online column migration for HSQLDB, which renames columns with ALTER
+ * COLUMN, has no table lock modes, validates checks as they are added, and
+ * only runs SQL statements from triggers, each of which handles one event
+ * @author graham
+ */
+public class HsqldbColumnMigration extends OnlineColumnMigration {
+    /**
+     * Create the migration
+     * @param schemaName the name of the schema the table is in
+     * @param table the table as it should be
+     * @param columnName the name of the column
+     * @param expression the SQL expression giving the value of the column
+     * for an existing row
+     * @param replacing True if the column already exists and is being
+     * replaced. False if it is being added
+     * @throws IllegalArgumentException if the column can't be migrated online
+     */
+    public HsqldbColumnMigration(String schemaName, Table table, String columnName, String expression,
+            boolean replacing) {
+        super(schemaName, table, columnName, expression, replacing);
+    }
+
+    /**
+     * Create the migration to change the data type of a column, casting the
+     * existing values to the new type
+     * @param schemaName the name of the schema the table is in
+     * @param table the table as it should be
+     * @param columnName the name of the column
+     * @return the migration
+     */
+    public static HsqldbColumnMigration forTypeChange(String schemaName, Table table, String columnName) {
+        return new HsqldbColumnMigration(schemaName, table, columnName, castExpression(table, columnName), true);
+    }
+
+    /**
+     * Create the migration to add a column, computing its value for the
+     * existing rows
+     * @param schemaName the name of the schema the table is in
+     * @param table the table as it should be
+     * @param columnName the name of the column
+     * @param expression the SQL expression giving the value of the column
+     * for an existing row
+     * @return the migration
+     */
+    public static HsqldbColumnMigration forNewColumn(String schemaName, Table table, String columnName,
+            String expression) {
+        return new HsqldbColumnMigration(schemaName, table, columnName, expression, false);
+    }
+
+    /**
+     * {@inheritDoc}
+     * Each trigger updates the row it fired for after it has been written
+     */
+    @Override
+    protected List<String> createSyncTriggerSql(String schemaName, String tableName, String triggerName,
+            String shadowName, String expression, List<String> updateColumns, List<String> keyColumns) {
+        StringBuilder body = new StringBuilder();
+        body.append(" ON ").append(tableName).append(" REFERENCING NEW ROW AS \"new\" FOR EACH ROW UPDATE ")
+                .append(tableName).append(" SET ").append(shadowName).append(" = ").append(expression);
+        String separator = " WHERE ";
+        for (String key : keyColumns) {
+            body.append(separator).append(key).append(" = \"new\".").append(key);
+            separator = " AND ";
+        }
+        return Arrays.asList(
+                "CREATE TRIGGER " + schemaName + "." + identifier(triggerName) + " AFTER INSERT" + body,
+                "CREATE TRIGGER " + schemaName + "." + identifier(updateTriggerName(triggerName)) + " AFTER UPDATE OF "
+                + join(updateColumns) + body);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected List<String> dropSyncTriggerSql(String schemaName, String tableName, String triggerName) {
+        return Arrays.asList("DROP TRIGGER " + schemaName + "." + identifier(triggerName),
+                "DROP TRIGGER " + schemaName + "." + identifier(updateTriggerName(triggerName)));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected String renameColumnSql(String tableName, String from, String to) {
+        return "ALTER TABLE " + tableName + " ALTER COLUMN " + from + " RENAME TO " + to;
+    }
+
+    /**
+     * {@inheritDoc}
+     * HSQLDB has no lock mode that lets other sessions carry on reading, so
+     * the table isn't locked
+     */
+    @Override
+    protected String lockTableSql(String tableName) {
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     * HSQLDB checks the existing rows as the check is added
+     */
+    @Override
+    protected String addNotNullCheckSql(String tableName, String checkName, String columnName) {
+        return "ALTER TABLE " + tableName + " ADD CONSTRAINT " + checkName + " CHECK (" + columnName
+                + " IS NOT NULL)";
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected String validateCheckSql(String tableName, String checkName) {
+        return null;
+    }
+
+    /**
+     * Get the name of the trigger that handles updates
+     * @param triggerName the name of the trigger that handles inserts
+     * @return the trigger name
+     */
+    private static String updateTriggerName(String triggerName) {
+        return triggerName + "_update";
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2011 graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.grahamcox.mdb.migration;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The estimated cost of a migration plan, with the steps ranked with the one
+ * that locks its table for longest first
+ * @author graham
+ */
+public class MigrationCostReport {
+    /** The costs of the steps, most expensive first */
+    private final List<StepCost> costs;
+
+    /**
+     * Create the report
+     * @param costs the costs of the steps, most expensive first
+     */
+    public MigrationCostReport(List<StepCost> costs) {
+        this.costs = Collections.unmodifiableList(new ArrayList<StepCost>(costs));
+    }
+
+    /**
+     * Get the costs of the steps
+     * @return the costs, most expensive first
+     */
+    public List<StepCost> getCosts() {
+        return costs;
+    }
+
+    /**
+     * Get the costs of the steps with at least the given impact
+     * @param impact the least impact to include
+     * @return the costs, most expensive first
+     */
+    public List<StepCost> getCosts(ChangeImpact impact) {
+        List<StepCost> result = new ArrayList<StepCost>();
+        for (StepCost cost : costs) {
+            if (cost.getImpact().compareTo(impact) >= 0) {
+                result.add(cost);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the estimated number of bytes read and written by the whole plan
+     * @return the number of bytes
+     */
+    public long getTotalIoBytes() {
+        long result = 0;
+        for (StepCost cost : costs) {
+            result += cost.getIoBytes();
+        }
+        return result;
+    }
+
+    /**
+     * Get the estimated total time that tables are locked for by the whole
+     * plan, if the steps are run one after another
+     * @return the time, in milliseconds
+     */
+    public long getTotalLockMillis() {
+        long result = 0;
+        for (StepCost cost : costs) {
+            result += cost.getLockMillis();
+        }
+        return result;
+    }
+
+    /**
+     * Check whether any of the steps has to scan or rewrite a table whose
+     * size isn't known, so that the estimate is too low
+     * @return True if there are unknown sizes. False if not
+     */
+    public boolean hasUnknownSizes() {
+        for (StepCost cost : costs) {
+            if (cost.getSize() == null && cost.getImpact() != ChangeImpact.METADATA) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Write the report as text, one line per step
+     * @param out the writer to write to
+     * @throws IOException if an error occurs
+     */
+    public void write(Writer out) throws IOException {
+        for (StepCost cost : costs) {
+            out.write(cost.toString());
+            out.write('\n');
+        }
+        out.write(toString());
+        out.write('\n');
+    }
+
+    /**
+     * Generate a string for the object
+     * @return the string
+     */
+    @Override
+    public String toString() {
+        return String.format(Locale.ENGLISH, "%d steps, %d scan and %d rewrite, %.1f MB of I/O, %d ms locked%s",
+                costs.size(), getCosts(ChangeImpact.SCAN).size() - getCosts(ChangeImpact.REWRITE).size(),
+                getCosts(ChangeImpact.REWRITE).size(), getTotalIoBytes() / (1024.0 * 1024.0), getTotalLockMillis(),
+                hasUnknownSizes() ? " (some table sizes unknown)" : "");
+    }
+}
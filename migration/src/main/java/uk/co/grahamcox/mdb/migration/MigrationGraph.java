@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2011 graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.grahamcox.mdb.migration;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The dependencies between the steps of a migration plan. A step that works
+ * on a table depends on the creation of its schema, if that is part of the
+ * plan, and the dropping of a schema depends on every other step in that
+ * schema. Steps are identified by their position in the plan. Any steps
+ * that don't depend on each other, directly or indirectly, can be executed
+ * at the same time
+ * @author graham
+ */
+public class MigrationGraph {
+    /** The plan */
+    private final MigrationPlan plan;
+    /** The steps that each step depends on */
+    private final List<List<Integer>> dependencies = new ArrayList<List<Integer>>();
+    /** The steps that depend on each step */
+    private final List<List<Integer>> dependents = new ArrayList<List<Integer>>();
+
+    /**
+     * Build the graph for a plan
+     * @param plan the plan
+     */
+    public MigrationGraph(MigrationPlan plan) {
+        this.plan = plan;
+        List<MigrationStep> steps = plan.getSteps();
+        Map<String, Integer> schemaCreates = new HashMap<String, Integer>();
+        Map<String, List<Integer>> schemaSteps = new HashMap<String, List<Integer>>();
+        for (int i = 0; i < steps.size(); ++i) {
+            dependencies.add(new ArrayList<Integer>());
+            dependents.add(new ArrayList<Integer>());
+            MigrationStep step = steps.get(i);
+            if (step.getType() == MigrationStep.Type.CREATE_SCHEMA) {
+                schemaCreates.put(step.getSchemaName(), i);
+            }
+            else if (step.getType() != MigrationStep.Type.DROP_SCHEMA) {
+                List<Integer> inSchema = schemaSteps.get(step.getSchemaName());
+                if (inSchema == null) {
+                    inSchema = new ArrayList<Integer>();
+                    schemaSteps.put(step.getSchemaName(), inSchema);
+                }
+                inSchema.add(i);
+            }
+        }
+
+        for (int i = 0; i < steps.size(); ++i) {
+            MigrationStep step = steps.get(i);
+            if (step.getType() == MigrationStep.Type.DROP_SCHEMA) {
+                List<Integer> inSchema = schemaSteps.get(step.getSchemaName());
+                if (inSchema != null) {
+                    for (Integer other : inSchema) {
+                        addDependency(i, other);
+                    }
+                }
+            }
+            else if (step.getType() != MigrationStep.Type.CREATE_SCHEMA) {
+                Integer create = schemaCreates.get(step.getSchemaName());
+                if (create != null) {
+                    addDependency(i, create);
+                }
+            }
+        }
+    }
+
+    /**
+     * Record that one step depends on another
+     * @param step the step
+     * @param dependency the step it depends on
+     */
+    private void addDependency(int step, int dependency) {
+        dependencies.get(step).add(dependency);
+        dependents.get(dependency).add(step);
+    }
+
+    /**
+     * Get the plan
+     * @return the plan
+     */
+    public MigrationPlan getPlan() {
+        return plan;
+    }
+
+    /**
+     * Get the number of steps in the graph
+     * @return the number of steps
+     */
+    public int size() {
+        return dependencies.size();
+    }
+
+    /**
+     * Get the step at the given position in the plan
+     * @param step the position of the step
+     * @return the step
+     */
+    public MigrationStep getStep(int step) {
+        return plan.getSteps().get(step);
+    }
+
+    /**
+     * Get the steps that must be executed before the given one
+     * @param step the position of the step
+     * @return the positions of the steps it depends on
+     */
+    public List<Integer> getDependencies(int step) {
+        return Collections.unmodifiableList(dependencies.get(step));
+    }
+
+    /**
+     * Get the steps that can't be executed until the given one has been
+     * @param step the position of the step
+     * @return the positions of the steps that depend on it
+     */
+    public List<Integer> getDependents(int step) {
+        return Collections.unmodifiableList(dependents.get(step));
+    }
+}
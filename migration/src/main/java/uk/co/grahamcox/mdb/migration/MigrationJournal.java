@@ -0,0 +1,563 @@
+/*
+ * Copyright (C) 2011 graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.grahamcox.mdb.migration;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.zip.CRC32;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Append-only journal of a migration in a local file, so that a migration
+ * that dies part way through can be resumed without reading the catalog or
+ * diffing the models again, and without repeating the steps that finished.
+ * The plan is written when the migration starts, followed by a record of
+ * each batch of steps as they complete. The changes of each step aren't
+ * kept, but their {@link ChangeImpact} is, so that a plan read back is still
+ * ordered and budgeted by the {@link MigrationScheduler} as it was at first. Each record carries a checksum, so a
+ * record that was only partly written when the process died is ignored.
+ * <p>
+ * Completions are synced to disk in groups rather than one at a time - once
+ * a number of steps have completed, or once some time has passed since the
+ * last sync - so the journal doesn't add a disk flush to every step. A step
+ * whose completion hadn't been synced yet when the process died is executed
+ * again on resume, so anything that starts work depending on a completion
+ * should call {@link #sync()} first, as the {@link MigrationScheduler} does.
+ * When an existing journal is opened it is checkpointed, rewriting it as the
+ * plan and one record of every completed step. The rewritten journal is
+ * renamed over the old one, and if the process dies while the old one is
+ * being replaced the new one is picked up by {@link #open(File)}
+ * @author graham
+ */
+public class MigrationJournal {
+    /** The logger to use */
+    private final Log LOG = LogFactory.getLog(MigrationJournal.class);
+    /** The magic number at the start of every journal file */
+    public static final int MAGIC = 0x4d44424a;
+    /**
+     * The version of the format written. 2 records the impact of each step
+     */
+    public static final short VERSION = 2;
+    /** The tag for the record holding the plan */
+    private static final byte RECORD_PLAN = 1;
+    /** The tag for a record of completed steps */
+    private static final byte RECORD_COMPLETED = 2;
+    /** The size of the file header */
+    private static final int HEADER_SIZE = 6;
+
+    /** The journal file */
+    private final File file;
+    /** The plan being executed, or null if none has been started */
+    private MigrationPlan plan = null;
+    /** The label given to the plan when it was started */
+    private String label = null;
+    /** The impact of each step of the plan */
+    private ChangeImpact[] impacts = null;
+    /** The steps that have completed */
+    private final BitSet completed = new BitSet();
+    /** The file being appended to, or null if it isn't open */
+    private FileOutputStream output = null;
+    /** The records written since the last sync */
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    /** The number of steps written since the last sync */
+    private int pendingSteps = 0;
+    /** The time of the last sync */
+    private long lastSync = System.currentTimeMillis();
+    /** The number of completed steps after which the journal is synced */
+    private int syncSteps = 32;
+    /** The time after which completed steps are synced, in milliseconds */
+    private long syncMillis = 200;
+
+    /**
+     * Create the journal
+     * @param file the journal file
+     */
+    private MigrationJournal(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Open a journal file, reading the plan and completed steps from it if
+     * it exists. A journal with anything in it is checkpointed
+     * @param file the journal file
+     * @return the journal
+     * @throws IOException if the file can't be read, or isn't a journal
+     */
+    public static MigrationJournal open(File file) throws IOException {
+        File temp = tempFile(file);
+        if (temp.exists()) {
+            if (file.exists()) {
+                // The rewrite didn't get as far as replacing the journal, so the journal is still whole
+                if (!temp.delete()) {
+                    throw new IOException("Unable to delete " + temp);
+                }
+            }
+            else if (!temp.renameTo(file)) {
+                throw new IOException("Unable to rename " + temp + " to " + file);
+            }
+        }
+        MigrationJournal journal = new MigrationJournal(file);
+        if (file.exists()) {
+            journal.read();
+            if (journal.plan != null) {
+                journal.checkpoint();
+            }
+        }
+        return journal;
+    }
+
+    /**
+     * Get the number of completed steps after which the journal is synced
+     * @return the number of steps
+     */
+    public int getSyncSteps() {
+        return syncSteps;
+    }
+
+    /**
+     * Set the number of completed steps after which the journal is synced
+     * @param syncSteps the number of steps
+     */
+    public void setSyncSteps(int syncSteps) {
+        this.syncSteps = syncSteps;
+    }
+
+    /**
+     * Get the time after which completed steps are synced
+     * @return the time, in milliseconds
+     */
+    public long getSyncMillis() {
+        return syncMillis;
+    }
+
+    /**
+     * Set the time after which completed steps are synced
+     * @param syncMillis the time, in milliseconds
+     */
+    public void setSyncMillis(long syncMillis) {
+        this.syncMillis = syncMillis;
+    }
+
+    /**
+     * Get the journal file
+     * @return the file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Get the plan being executed. The steps of a plan read back from the
+     * journal have their statements and impact, but not the changes that
+     * they make
+     * @return the plan, or null if none has been started
+     */
+    public MigrationPlan getPlan() {
+        return plan;
+    }
+
+    /**
+     * Get the label given to the plan when it was started, such as the
+     * fingerprint of the model being migrated to
+     * @return the label, or null if there isn't one
+     */
+    public String getLabel() {
+        return label;
+    }
+
+    /**
+     * Check if a step has completed
+     * @param step the position of the step in the plan
+     * @return True if the step has completed. False if not
+     */
+    public boolean isCompleted(int step) {
+        return completed.get(step);
+    }
+
+    /**
+     * Get the number of steps that have completed
+     * @return the number of steps
+     */
+    public int getCompletedCount() {
+        return completed.cardinality();
+    }
+
+    /**
+     * Check if every step of the plan has completed
+     * @return True if the migration has finished. False if not
+     */
+    public boolean isFinished() {
+        return plan != null && completed.cardinality() == plan.getSteps().size();
+    }
+
+    /**
+     * Start a new plan, replacing anything already in the journal
+     * @param plan the plan
+     * @param label the label to give the plan, or null
+     * @throws IOException if the journal can't be written
+     */
+    public void start(MigrationPlan plan, String label) throws IOException {
+        start(plan, label, new RewriteCostEstimator());
+    }
+
+    /**
+     * Start a new plan, replacing anything already in the journal
+     * @param plan the plan
+     * @param label the label to give the plan, or null
+     * @param estimator the estimator to work out the impact of each step with
+     * @throws IOException if the journal can't be written
+     */
+    public void start(MigrationPlan plan, String label, RewriteCostEstimator estimator) throws IOException {
+        this.plan = plan;
+        this.label = label;
+        impacts = new ChangeImpact[plan.getSteps().size()];
+        for (int i = 0; i < impacts.length; ++i) {
+            impacts[i] = estimator.classify(plan.getSteps().get(i));
+        }
+        completed.clear();
+        rewrite();
+    }
+
+    /**
+     * Record that some steps have completed. The record is only synced to
+     * disk once enough steps have completed, or enough time has passed, since
+     * the last sync
+     * @param steps the positions of the steps in the plan
+     * @throws IOException if the journal can't be written
+     */
+    public void complete(List<Integer> steps) throws IOException {
+        if (plan == null) {
+            throw new IllegalStateException("No plan has been started");
+        }
+        for (int step : steps) {
+            completed.set(step);
+        }
+        writeRecord(new DataOutputStream(pending), RECORD_COMPLETED, completedPayload(steps));
+        pendingSteps += steps.size();
+        if (pendingSteps >= syncSteps || System.currentTimeMillis() - lastSync >= syncMillis) {
+            sync();
+        }
+    }
+
+    /**
+     * Write every completion recorded so far to the journal file and sync
+     * it to disk
+     * @throws IOException if the journal can't be written
+     */
+    public void sync() throws IOException {
+        if (pending.size() > 0) {
+            if (output == null) {
+                output = new FileOutputStream(file, true);
+            }
+            pending.writeTo(output);
+            output.getChannel().force(false);
+            pending.reset();
+        }
+        pendingSteps = 0;
+        lastSync = System.currentTimeMillis();
+    }
+
+    /**
+     * Rewrite the journal as the plan and a single record of all of the
+     * completed steps
+     * @throws IOException if the journal can't be written
+     */
+    public void checkpoint() throws IOException {
+        sync();
+        rewrite();
+    }
+
+    /**
+     * Sync anything not yet written and close the journal file
+     * @throws IOException if the journal can't be written
+     */
+    public void close() throws IOException {
+        try {
+            sync();
+        }
+        finally {
+            if (output != null) {
+                output.close();
+                output = null;
+            }
+        }
+    }
+
+    /**
+     * Write the header, the plan and the completed steps to a temporary file
+     * and rename it over the journal
+     * @throws IOException if the journal can't be written
+     */
+    private void rewrite() throws IOException {
+        if (output != null) {
+            output.close();
+            output = null;
+        }
+        pending.reset();
+        pendingSteps = 0;
+
+        File temp = tempFile(file);
+        FileOutputStream tempOutput = new FileOutputStream(temp);
+        try {
+            DataOutputStream data = new DataOutputStream(tempOutput);
+            data.writeInt(MAGIC);
+            data.writeShort(VERSION);
+            writeRecord(data, RECORD_PLAN, planPayload());
+            List<Integer> steps = new ArrayList<Integer>();
+            for (int step = completed.nextSetBit(0); step >= 0; step = completed.nextSetBit(step + 1)) {
+                steps.add(step);
+            }
+            if (!steps.isEmpty()) {
+                writeRecord(data, RECORD_COMPLETED, completedPayload(steps));
+            }
+            data.flush();
+            tempOutput.getChannel().force(false);
+        }
+        finally {
+            tempOutput.close();
+        }
+        if (!temp.renameTo(file)) {
+            // Some platforms can't rename over an existing file. The temporary
+            // file is complete by now, so open() recovers it if the process dies
+            // before it is renamed
+            if (file.exists() && !file.delete()) {
+                throw new IOException("Unable to replace journal " + file);
+            }
+            if (!temp.renameTo(file)) {
+                throw new IOException("Unable to rename " + temp + " to " + file);
+            }
+        }
+        lastSync = System.currentTimeMillis();
+    }
+
+    /**
+     * Get the temporary file that a journal is rewritten into
+     * @param file the journal file
+     * @return the temporary file
+     */
+    private static File tempFile(File file) {
+        return new File(file.getPath() + ".tmp");
+    }
+
+    /**
+     * Read the plan and the completed steps from the journal file, stopping
+     * at the first record that is incomplete or corrupt
+     * @throws IOException if the file can't be read, or isn't a journal
+     */
+    private void read() throws IOException {
+        byte[] content = new byte[(int) file.length()];
+        FileInputStream input = new FileInputStream(file);
+        try {
+            new DataInputStream(input).readFully(content);
+        }
+        finally {
+            input.close();
+        }
+        if (content.length == 0) {
+            return;
+        }
+        ByteBuffer header = ByteBuffer.wrap(content);
+        if (content.length < HEADER_SIZE || header.getInt() != MAGIC) {
+            throw new IOException("Not a migration journal: " + file);
+        }
+        short version = header.getShort();
+        if (version != VERSION) {
+            throw new IOException("Unsupported migration journal version " + version + ": " + file);
+        }
+
+        DataInputStream data = new DataInputStream(
+                new ByteArrayInputStream(content, HEADER_SIZE, content.length - HEADER_SIZE));
+        int records = 0;
+        try {
+            while (true) {
+                byte type = data.readByte();
+                int length = data.readInt();
+                if (length < 0 || length > data.available()) {
+                    break;
+                }
+                byte[] payload = new byte[length];
+                data.readFully(payload);
+                if (data.readInt() != checksum(type, payload)) {
+                    break;
+                }
+                DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload));
+                if (type == RECORD_PLAN) {
+                    readPlan(record);
+                }
+                else if (type == RECORD_COMPLETED && plan != null) {
+                    int count = record.readInt();
+                    for (int i = 0; i < count; ++i) {
+                        completed.set(record.readInt());
+                    }
+                }
+                else {
+                    break;
+                }
+                ++records;
+            }
+        }
+        catch (EOFException ex) {
+            LOG.debug("End of journal " + file + " after " + records + " records");
+        }
+        LOG.debug("Read journal " + file + ": " + completed.cardinality() + " of "
+                + (plan == null ? 0 : plan.getSteps().size()) + " steps completed");
+    }
+
+    /**
+     * Read the plan record
+     * @param record the content of the record
+     * @throws IOException if the record can't be read
+     */
+    private void readPlan(DataInputStream record) throws IOException {
+        label = readString(record);
+        int stepCount = record.readInt();
+        List<MigrationStep> steps = new ArrayList<MigrationStep>(stepCount);
+        impacts = new ChangeImpact[stepCount];
+        MigrationStep.Type[] types = MigrationStep.Type.values();
+        ChangeImpact[] impactValues = ChangeImpact.values();
+        for (int i = 0; i < stepCount; ++i) {
+            MigrationStep.Type type = types[record.readByte()];
+            impacts[i] = impactValues[record.readByte()];
+            String schemaName = readString(record);
+            String tableName = readString(record);
+            int statementCount = record.readInt();
+            List<String> statements = new ArrayList<String>(statementCount);
+            for (int j = 0; j < statementCount; ++j) {
+                statements.add(readString(record));
+            }
+            steps.add(new MigrationStep(type, schemaName, tableName, statements, impacts[i]));
+        }
+        plan = new MigrationPlan(steps);
+        completed.clear();
+    }
+
+    /**
+     * Build the content of the plan record
+     * @return the content
+     * @throws IOException never, as the record is built in memory
+     */
+    private byte[] planPayload() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream record = new DataOutputStream(bytes);
+        writeString(record, label);
+        record.writeInt(plan.getSteps().size());
+        for (int i = 0; i < plan.getSteps().size(); ++i) {
+            MigrationStep step = plan.getSteps().get(i);
+            record.writeByte(step.getType().ordinal());
+            record.writeByte(impacts[i].ordinal());
+            writeString(record, step.getSchemaName());
+            writeString(record, step.getTableName());
+            record.writeInt(step.getStatements().size());
+            for (String statement : step.getStatements()) {
+                writeString(record, statement);
+            }
+        }
+        record.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Build the content of a record of completed steps
+     * @param steps the positions of the steps
+     * @return the content
+     * @throws IOException never, as the record is built in memory
+     */
+    private byte[] completedPayload(List<Integer> steps) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(4 + 4 * steps.size());
+        DataOutputStream record = new DataOutputStream(bytes);
+        record.writeInt(steps.size());
+        for (int step : steps) {
+            record.writeInt(step);
+        }
+        record.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Write a single record - the type, the length of the content, the
+     * content and a checksum
+     * @param output the stream to write to
+     * @param type the type of record
+     * @param payload the content of the record
+     * @throws IOException if the record can't be written
+     */
+    private void writeRecord(DataOutputStream output, byte type, byte[] payload) throws IOException {
+        output.writeByte(type);
+        output.writeInt(payload.length);
+        output.write(payload);
+        output.writeInt(checksum(type, payload));
+        output.flush();
+    }
+
+    /**
+     * Calculate the checksum of a record
+     * @param type the type of record
+     * @param payload the content of the record
+     * @return the checksum
+     */
+    private int checksum(byte type, byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Write a string, which may be null, as UTF-8
+     * @param output the stream to write to
+     * @param value the string
+     * @throws IOException if the string can't be written
+     */
+    private void writeString(DataOutputStream output, String value) throws IOException {
+        if (value == null) {
+            output.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes("UTF-8");
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    /**
+     * Read a string written by {@link #writeString}
+     * @param input the stream to read from
+     * @return the string, which may be null
+     * @throws IOException if the string can't be read
+     */
+    private String readString(DataInputStream input) throws IOException {
+        int length = input.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+}
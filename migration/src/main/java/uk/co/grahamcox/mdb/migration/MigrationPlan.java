@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2011 graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.grahamcox.mdb.migration;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import uk.co.grahamcox.mdb.ddl.DdlWriter;
+
+/**
+ * The steps needed to migrate a database from one model to another, in the
+ * order they are to be executed
+ * @author graham
+ */
+public class MigrationPlan {
+    /** The steps, in order */
+    private final List<MigrationStep> steps;
+
+    /**
+     * Create the plan
+     * @param steps the steps, in order
+     */
+    public MigrationPlan(List<MigrationStep> steps) {
+        this.steps = Collections.unmodifiableList(new ArrayList<MigrationStep>(steps));
+    }
+
+    /**
+     * Get the steps
+     * @return the steps, in order
+     */
+    public List<MigrationStep> getSteps() {
+        return steps;
+    }
+
+    /**
+     * Get the SQL statements of all of the steps
+     * @return the statements, in order
+     */
+    public List<String> getStatements() {
+        List<String> statements = new ArrayList<String>();
+        for (MigrationStep step : steps) {
+            statements.addAll(step.getStatements());
+        }
+        return statements;
+    }
+
+    /**
+     * Check if there is nothing to do
+     * @return True if there are no steps. False if not
+     */
+    public boolean isEmpty() {
+        return steps.isEmpty();
+    }
+
+    /**
+     * Write the plan out as an SQL script
+     * @param out the writer to write the script to
+     * @throws IOException if an error occurs writing the script
+     */
+    public void write(DdlWriter out) throws IOException {
+        for (MigrationStep step : steps) {
+            for (String statement : step.getStatements()) {
+                out.append(statement).append(";\n");
+            }
+            out.append('\n');
+        }
+    }
+
+    /**
+     * Generate a string for the object
+     * @return the string
+     */
+    @Override
+    public String toString() {
+        return "MigrationPlan{" + "steps=" + steps + '}';
+    }
+}
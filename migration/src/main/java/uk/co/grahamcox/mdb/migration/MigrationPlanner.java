@@ -0,0 +1,465 @@
+/*
+ * Copyright (C) 2011 graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.grahamcox.mdb.migration;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import uk.co.grahamcox.mdb.ddl.DdlWriter;
+import uk.co.grahamcox.mdb.ddl.PostgresDdlGenerator;
+import uk.co.grahamcox.mdb.diff.Change;
+import uk.co.grahamcox.mdb.diff.DatabaseDiff;
+import uk.co.grahamcox.mdb.schema.Column;
+import uk.co.grahamcox.mdb.schema.DataType;
+import uk.co.grahamcox.mdb.schema.Schema;
+import uk.co.grahamcox.mdb.schema.Table;
+
+/**
+ * Turn the diff between two models into the PostgreSQL statements to migrate
+ * a database from one to the other. All of the column and key changes to a
+ * table are made by one ALTER TABLE statement with several actions, so that
+ * each table is locked, and if need be rewritten, only once. The one
+ * exception is dropping an old primary key, as the name of its constraint
+ * has to be looked up in the catalog first. Schemas and
+ * tables are created first, then existing tables altered, then tables and
+ * schemas dropped. If the sizes of the tables are set then the existing
+ * tables are altered cheapest first, so that the small tables are finished
+ * early and the big rewrites come last. Tables and schemas are dropped
+ * only if they exist, so that a drop that is run again when a migration is
+ * resumed doesn't fail
+ * @author graham
+ */
+public class MigrationPlanner {
+    /** The indent to use for the actions of an ALTER TABLE */
+    private static final String INDENT = "    ";
+    /** The generator to write the SQL with */
+    private final PostgresDdlGenerator generator;
+    /** The sizes of the tables, or null to alter the tables in name order */
+    private TableSizes tableSizes = null;
+    /** The estimator to work out the cost of altering each table with */
+    private RewriteCostEstimator estimator = new RewriteCostEstimator();
+
+    /**
+     * Buffer to render a single statement into
+     */
+    private static class StatementBuffer {
+        /** The text of the statement */
+        private final StringWriter text = new StringWriter();
+        /** The writer to render into */
+        private final DdlWriter out = new DdlWriter(text, 1024);
+
+        /**
+         * Get the statement rendered so far, and empty the buffer ready for
+         * the next one
+         * @return the statement
+         * @throws IOException never, as the statement is rendered in memory
+         */
+        public String finish() throws IOException {
+            out.flush();
+            String statement = text.toString();
+            text.getBuffer().setLength(0);
+            return statement;
+        }
+    }
+
+    /**
+     * Create the migration planner
+     * @param generator the generator to write the SQL with
+     */
+    public MigrationPlanner(PostgresDdlGenerator generator) {
+        this.generator = generator;
+    }
+
+    /**
+     * Create the migration planner, with a standard generator
+     */
+    public MigrationPlanner() {
+        this(new PostgresDdlGenerator());
+    }
+
+    /**
+     * Get the sizes of the tables
+     * @return the sizes, or null if the tables are altered in name order
+     */
+    public TableSizes getTableSizes() {
+        return tableSizes;
+    }
+
+    /**
+     * Set the sizes of the tables, so that the cheapest tables are altered
+     * first
+     * @param tableSizes the sizes, or null to alter the tables in name order
+     */
+    public void setTableSizes(TableSizes tableSizes) {
+        this.tableSizes = tableSizes;
+    }
+
+    /**
+     * Get the estimator to work out the cost of altering each table with
+     * @return the estimator
+     */
+    public RewriteCostEstimator getEstimator() {
+        return estimator;
+    }
+
+    /**
+     * Set the estimator to work out the cost of altering each table with
+     * @param estimator the estimator
+     */
+    public void setEstimator(RewriteCostEstimator estimator) {
+        this.estimator = estimator;
+    }
+
+    /**
+     * Work out the steps needed to make the changes in a diff
+     * @param diff the diff
+     * @return the plan
+     */
+    public MigrationPlan plan(DatabaseDiff diff) {
+        List<MigrationStep> creates = new ArrayList<MigrationStep>();
+        List<MigrationStep> alters = new ArrayList<MigrationStep>();
+        List<MigrationStep> drops = new ArrayList<MigrationStep>();
+        List<MigrationStep> schemaDrops = new ArrayList<MigrationStep>();
+        StatementBuffer buffer = new StatementBuffer();
+        try {
+            List<Change> changes = diff.getChanges();
+            int start = 0;
+            while (start < changes.size()) {
+                // The changes are sorted, so all of those for one table come together
+                Change first = changes.get(start);
+                int end = start + 1;
+                while (end < changes.size() && sameTable(first, changes.get(end))) {
+                    ++end;
+                }
+                List<Change> group = changes.subList(start, end);
+                if (first.getTableName() == null) {
+                    planSchema(group, buffer, creates, alters, schemaDrops);
+                }
+                else if (first.getType() == Change.Type.ADD_TABLE) {
+                    creates.add(planCreateTable(first, buffer));
+                }
+                else if (first.getType() == Change.Type.DROP_TABLE) {
+                    drops.add(planDropTable(first, buffer));
+                }
+                else {
+                    alters.add(planAlterTable(group, buffer));
+                }
+                start = end;
+            }
+        }
+        catch (IOException ex) {
+            throw new IllegalStateException("Failed to render migration SQL", ex);
+        }
+
+        if (tableSizes != null) {
+            sortByCost(alters);
+        }
+        List<MigrationStep> steps = new ArrayList<MigrationStep>();
+        steps.addAll(creates);
+        steps.addAll(alters);
+        steps.addAll(drops);
+        steps.addAll(schemaDrops);
+        return new MigrationPlan(steps);
+    }
+
+    /**
+     * Sort steps into order of their estimated I/O, cheapest first. Steps
+     * that cost the same stay in the order they were in
+     * @param steps the steps to sort
+     */
+    private void sortByCost(List<MigrationStep> steps) {
+        final Map<MigrationStep, Long> ioBytes = new IdentityHashMap<MigrationStep, Long>();
+        for (MigrationStep step : steps) {
+            ioBytes.put(step, estimator.estimate(step, tableSizes).getIoBytes());
+        }
+        Collections.sort(steps, new Comparator<MigrationStep>() {
+            @Override
+            public int compare(MigrationStep a, MigrationStep b) {
+                return ioBytes.get(a).compareTo(ioBytes.get(b));
+            }
+        });
+    }
+
+    /**
+     * Plan the changes to a schema itself
+     * @param group the changes to the schema
+     * @param buffer the buffer to render the statements in
+     * @param creates the list to add schema creation steps to
+     * @param alters the list to add schema comment steps to
+     * @param drops the list to add schema drop steps to
+     * @throws IOException never, as the statements are rendered in memory
+     */
+    private void planSchema(List<Change> group, StatementBuffer buffer, List<MigrationStep> creates,
+            List<MigrationStep> alters, List<MigrationStep> drops) throws IOException {
+        for (Change change : group) {
+            String schemaName = change.getSchemaName();
+            List<String> statements = new ArrayList<String>();
+            switch (change.getType()) {
+                case ADD_SCHEMA:
+                    Schema schema = (Schema) change.getNewValue();
+                    generator.writeCreateSchema(schema, buffer.out);
+                    statements.add(buffer.finish());
+                    if (schema.getComment() != null) {
+                        generator.writeSchemaComment(schemaName, schema.getComment(), buffer.out);
+                        statements.add(buffer.finish());
+                    }
+                    creates.add(step(MigrationStep.Type.CREATE_SCHEMA, change, statements));
+                    break;
+                case ALTER_SCHEMA_COMMENT:
+                    generator.writeSchemaComment(schemaName, (String) change.getNewValue(), buffer.out);
+                    statements.add(buffer.finish());
+                    alters.add(step(MigrationStep.Type.ALTER_SCHEMA, change, statements));
+                    break;
+                case DROP_SCHEMA:
+                    buffer.out.append("DROP SCHEMA IF EXISTS ").appendIdentifier(schemaName).append(" CASCADE");
+                    statements.add(buffer.finish());
+                    drops.add(step(MigrationStep.Type.DROP_SCHEMA, change, statements));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unexpected schema change: " + change);
+            }
+        }
+    }
+
+    /**
+     * Plan the creation of a table
+     * @param change the change adding the table
+     * @param buffer the buffer to render the statements in
+     * @return the step
+     * @throws IOException never, as the statements are rendered in memory
+     */
+    private MigrationStep planCreateTable(Change change, StatementBuffer buffer) throws IOException {
+        String schemaName = change.getSchemaName();
+        Table table = (Table) change.getNewValue();
+        List<String> statements = new ArrayList<String>();
+        generator.writeCreateTable(schemaName, table, buffer.out);
+        statements.add(buffer.finish());
+        if (table.getComment() != null) {
+            generator.writeTableComment(schemaName, table.getName(), table.getComment(), buffer.out);
+            statements.add(buffer.finish());
+        }
+        for (Column column : table.getAllColumns()) {
+            if (column.getComment() != null) {
+                generator.writeColumnComment(schemaName, table.getName(), column.getName(), column.getComment(),
+                        buffer.out);
+                statements.add(buffer.finish());
+            }
+        }
+        return step(MigrationStep.Type.CREATE_TABLE, change, statements);
+    }
+
+    /**
+     * Plan the dropping of a table
+     * @param change the change dropping the table
+     * @param buffer the buffer to render the statements in
+     * @return the step
+     * @throws IOException never, as the statements are rendered in memory
+     */
+    private MigrationStep planDropTable(Change change, StatementBuffer buffer) throws IOException {
+        buffer.out.append("DROP TABLE IF EXISTS ");
+        generator.writeTableName(change.getSchemaName(), change.getTableName(), buffer.out);
+        List<String> statements = new ArrayList<String>();
+        statements.add(buffer.finish());
+        return step(MigrationStep.Type.DROP_TABLE, change, statements);
+    }
+
+    /**
+     * Plan the changes to an existing table. All of the column and key
+     * changes go into a single ALTER TABLE, with the new primary key added
+     * last. The old primary key is dropped by a statement of its own before
+     * it. Columns are added in the order they are declared in the target
+     * table. Comments can't be changed by ALTER TABLE, so they follow as
+     * separate statements
+     * @param group the changes to the table
+     * @param buffer the buffer to render the statements in
+     * @return the step
+     * @throws IOException never, as the statements are rendered in memory
+     */
+    private MigrationStep planAlterTable(List<Change> group, StatementBuffer buffer) throws IOException {
+        String schemaName = group.get(0).getSchemaName();
+        String tableName = group.get(0).getTableName();
+        DdlWriter out = buffer.out;
+        List<String> statements = new ArrayList<String>();
+        List<String> comments = new ArrayList<String>();
+        List<Change> additions = new ArrayList<Change>();
+        Change keyChange = null;
+        int actions = 0;
+
+        for (Change change : group) {
+            if (change.getType() == Change.Type.ALTER_TABLE_KEY) {
+                keyChange = change;
+                if (!((Collection<?>) change.getOldValue()).isEmpty()) {
+                    writeDropPrimaryKey(schemaName, tableName, out);
+                    statements.add(buffer.finish());
+                }
+            }
+            else if (change.getType() == Change.Type.ADD_COLUMN) {
+                additions.add(change);
+            }
+        }
+        Collections.sort(additions, new Comparator<Change>() {
+            @Override
+            public int compare(Change a, Change b) {
+                return a.getOrdinal() < b.getOrdinal() ? -1 : (a.getOrdinal() == b.getOrdinal() ? 0 : 1);
+            }
+        });
+
+        out.append("ALTER TABLE ");
+        generator.writeTableName(schemaName, tableName, out);
+        for (Change change : group) {
+            if (change.getType() == Change.Type.DROP_COLUMN) {
+                nextAction(out, actions++).append("DROP COLUMN ").appendIdentifier(change.getColumnName());
+            }
+        }
+        for (Change change : additions) {
+            nextAction(out, actions++).append("ADD COLUMN ");
+            generator.writeColumn((Column) change.getNewValue(), out);
+        }
+        for (Change change : group) {
+            String columnName = change.getColumnName();
+            switch (change.getType()) {
+                case ALTER_COLUMN_TYPE:
+                    nextAction(out, actions++).append("ALTER COLUMN ").appendIdentifier(columnName).append(" TYPE ");
+                    generator.writeDataType(columnName, (DataType) change.getNewValue(), out);
+                    break;
+                case ALTER_COLUMN_DEFAULT:
+                    nextAction(out, actions++).append("ALTER COLUMN ").appendIdentifier(columnName);
+                    if (change.getNewValue() == null) {
+                        out.append(" DROP DEFAULT");
+                    }
+                    else {
+                        out.append(" SET DEFAULT ").append((String) change.getNewValue());
+                    }
+                    break;
+                case ALTER_COLUMN_NULLABLE:
+                    nextAction(out, actions++).append("ALTER COLUMN ").appendIdentifier(columnName)
+                            .append(Boolean.TRUE.equals(change.getNewValue()) ? " DROP NOT NULL" : " SET NOT NULL");
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (keyChange != null && !((Collection<?>) keyChange.getNewValue()).isEmpty()) {
+            nextAction(out, actions++).append("ADD PRIMARY KEY (");
+            boolean firstColumn = true;
+            for (Object column : (Collection<?>) keyChange.getNewValue()) {
+                if (!firstColumn) {
+                    out.append(", ");
+                }
+                out.appendIdentifier((String) column);
+                firstColumn = false;
+            }
+            out.append(')');
+        }
+        String alter = buffer.finish();
+
+        for (Change change : group) {
+            switch (change.getType()) {
+                case ALTER_TABLE_COMMENT:
+                    generator.writeTableComment(schemaName, tableName, (String) change.getNewValue(), out);
+                    comments.add(buffer.finish());
+                    break;
+                case ALTER_COLUMN_COMMENT:
+                    generator.writeColumnComment(schemaName, tableName, change.getColumnName(),
+                            (String) change.getNewValue(), out);
+                    comments.add(buffer.finish());
+                    break;
+                default:
+                    break;
+            }
+        }
+        for (Change change : additions) {
+            Column column = (Column) change.getNewValue();
+            if (column.getComment() != null) {
+                generator.writeColumnComment(schemaName, tableName, column.getName(), column.getComment(), out);
+                comments.add(buffer.finish());
+            }
+        }
+
+        if (actions > 0) {
+            statements.add(alter);
+        }
+        statements.addAll(comments);
+        return new MigrationStep(MigrationStep.Type.ALTER_TABLE, schemaName, tableName, statements, group);
+    }
+
+    /**
+     * Write the statement to drop the primary key of a table. The constraint
+     * is looked up in the catalog rather than assumed to have the default
+     * name, as it may have been named explicitly, and PostgreSQL truncates
+     * default names that would be too long. Nothing is dropped if the table
+     * has no primary key, so the statement can safely be run again
+     * @param schemaName the name of the schema the table is in
+     * @param tableName the name of the table
+     * @param out the writer to write the statement to
+     * @throws IOException never, as the statements are rendered in memory
+     */
+    protected void writeDropPrimaryKey(String schemaName, String tableName, DdlWriter out) throws IOException {
+        StatementBuffer buffer = new StatementBuffer();
+        generator.writeTableName(schemaName, tableName, buffer.out);
+        String name = buffer.finish();
+        out.append("DO $mdb$DECLARE k name; BEGIN\n")
+                .append(INDENT).append("SELECT conname INTO k FROM pg_catalog.pg_constraint WHERE conrelid = ")
+                .appendLiteral(name).append("::regclass AND contype = 'p';\n")
+                .append(INDENT).append("IF k IS NOT NULL THEN EXECUTE ")
+                .appendLiteral("ALTER TABLE " + name + " DROP CONSTRAINT ").append(" || quote_ident(k); END IF;\n")
+                .append("END$mdb$");
+    }
+
+    /**
+     * Start the next action of an ALTER TABLE
+     * @param out the writer to write the action to
+     * @param index the number of actions already written
+     * @return the writer
+     * @throws IOException never, as the statements are rendered in memory
+     */
+    private DdlWriter nextAction(DdlWriter out, int index) throws IOException {
+        return out.append(index == 0 ? "\n" : ",\n").append(INDENT);
+    }
+
+    /**
+     * Create a step for a single change
+     * @param type the type of step
+     * @param change the change
+     * @param statements the statements of the step
+     * @return the step
+     */
+    private MigrationStep step(MigrationStep.Type type, Change change, List<String> statements) {
+        List<Change> changes = new ArrayList<Change>();
+        changes.add(change);
+        return new MigrationStep(type, change.getSchemaName(), change.getTableName(), statements, changes);
+    }
+
+    /**
+     * Check if two changes are to the same table, or both to the same schema
+     * @param a the first change
+     * @param b the second change
+     * @return True if they are to the same table or schema. False if not
+     */
+    private boolean sameTable(Change a, Change b) {
+        if (!a.getSchemaName().equals(b.getSchemaName())) {
+            return false;
+        }
+        return a.getTableName() == null ? b.getTableName() == null : a.getTableName().equals(b.getTableName());
+    }
+}
@@ -0,0 +1,738 @@
+/*
+ * Copyright (C) 2011 graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.grahamcox.mdb.migration;
+
+import java.io.IOException;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import javax.sql.DataSource;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import uk.co.grahamcox.mdb.catalog.AppliedModelStore;
+import uk.co.grahamcox.mdb.schema.Database;
+
+/**
+ * Execute the steps of a migration plan over several connections at once.
+ * A step is started as soon as all of the steps it depends on in the
+ * {@link MigrationGraph} have finished, on whichever connection is free, so
+ * independent schemas and tables are created, altered and dropped
+ * concurrently. No more connections are opened than the parallelism allows.
+ * If a step fails then no more steps are started, the steps already running
+ * are allowed to finish, and the failure is thrown.
+ * <p>
+ * To cut down on round trips, several steps that are ready at the same time
+ * can be sent as one JDBC batch by setting the batch size, and each batch
+ * can be made a transaction of its own. PostgreSQL can roll back all of the
+ * DDL that the planner generates, so a batch that fails leaves none of its
+ * steps applied. A batch that isn't a transaction can fail with some of its
+ * steps applied, and the update counts of the batch are used to work out
+ * which. The statements of a step are never split across batches.
+ * <p>
+ * If a {@link MigrationJournal} is set then each batch is recorded in it as
+ * it completes, and any steps the journal already has as completed are
+ * skipped, so a migration that died part way through can be resumed by
+ * executing the same plan with the same journal. The journal is synced
+ * before any more steps are started, with one sync covering all of the
+ * batches that finished together, so only the steps that were running when
+ * the process died can be executed again on resume
+ * <p>
+ * If the sizes of the tables are set then the steps that are ready are
+ * started cheapest first, as estimated by a {@link RewriteCostEstimator}, so
+ * that small tables are finished early and the big rewrites come last. A
+ * budget can also be set on the total size of the tables being rewritten at
+ * once, to bound the extra disk space and I/O that the rewrites need. A
+ * rewrite that would go over the budget waits, along with the rewrites
+ * behind it, while the steps that don't rewrite a table carry on being
+ * started. A table bigger than the budget is still rewritten, but on its own
+ * <p>
+ * If an {@link AppliedModelStore} is set and the model is given then the
+ * model is recorded once every step has been applied, so that the next run
+ * can tell the database is already up to date without reading its catalog
+ * @author graham
+ */
+public class MigrationScheduler {
+    /** The logger to use */
+    private final Log LOG = LogFactory.getLog(MigrationScheduler.class);
+    /** The source of the connections */
+    private final DataSource dataSource;
+    /** The most steps to execute at once */
+    private int parallelism = 4;
+    /** The most steps to send to the database in one batch */
+    private int batchSize = 1;
+    /** Whether to execute each batch in a transaction of its own */
+    private boolean transactional = false;
+    /** The journal to record completed steps in, or null if there isn't one */
+    private MigrationJournal journal = null;
+    /** The sizes of the tables, or null to execute the steps in plan order */
+    private TableSizes tableSizes = null;
+    /** The estimator to work out the cost of each step with */
+    private RewriteCostEstimator estimator = new RewriteCostEstimator();
+    /** The most bytes of table to rewrite at once */
+    private long rewriteBudgetBytes = Long.MAX_VALUE;
+    /** The store to record the model in once it has been applied, or null if it isn't recorded */
+    private AppliedModelStore appliedModelStore = null;
+
+    /**
+     * Create the migration scheduler
+     * @param dataSource the source of the connections
+     */
+    public MigrationScheduler(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * Get the most steps to execute at once, which is also the most
+     * connections that are opened
+     * @return the parallelism
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Set the most steps to execute at once, which is also the most
+     * connections that are opened
+     * @param parallelism the parallelism
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Get the most steps to send to the database in one batch
+     * @return the batch size
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Set the most steps to send to the database in one batch. A batch size
+     * of 1 executes every statement on its own
+     * @param batchSize the batch size
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Check whether each batch is executed in a transaction of its own
+     * @return True if each batch is a transaction. False if every statement
+     * is committed as it is executed
+     */
+    public boolean isTransactional() {
+        return transactional;
+    }
+
+    /**
+     * Set whether each batch is executed in a transaction of its own. This
+     * should only be used with databases that support transactional DDL
+     * @param transactional True if each batch is a transaction. False if
+     * every statement is committed as it is executed
+     */
+    public void setTransactional(boolean transactional) {
+        this.transactional = transactional;
+    }
+
+    /**
+     * Get the journal that completed steps are recorded in
+     * @return the journal, or null if there isn't one
+     */
+    public MigrationJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * Set the journal to record completed steps in. If it already has a
+     * plan in it then that must be the plan that is executed, and the steps
+     * it has as completed are skipped
+     * @param journal the journal, or null for none
+     */
+    public void setJournal(MigrationJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Get the sizes of the tables
+     * @return the sizes, or null if the steps are executed in plan order
+     */
+    public TableSizes getTableSizes() {
+        return tableSizes;
+    }
+
+    /**
+     * Set the sizes of the tables, so that the cheapest steps are executed
+     * first and the rewrite budget can be applied
+     * @param tableSizes the sizes, or null to execute the steps in plan order
+     */
+    public void setTableSizes(TableSizes tableSizes) {
+        this.tableSizes = tableSizes;
+    }
+
+    /**
+     * Get the estimator to work out the cost of each step with
+     * @return the estimator
+     */
+    public RewriteCostEstimator getEstimator() {
+        return estimator;
+    }
+
+    /**
+     * Set the estimator to work out the cost of each step with
+     * @param estimator the estimator
+     */
+    public void setEstimator(RewriteCostEstimator estimator) {
+        this.estimator = estimator;
+    }
+
+    /**
+     * Get the most bytes of table to rewrite at once
+     * @return the budget, in bytes
+     */
+    public long getRewriteBudgetBytes() {
+        return rewriteBudgetBytes;
+    }
+
+    /**
+     * Set the most bytes of table to rewrite at once. This only has an
+     * effect if the table sizes are set
+     * @param rewriteBudgetBytes the budget, in bytes
+     */
+    public void setRewriteBudgetBytes(long rewriteBudgetBytes) {
+        this.rewriteBudgetBytes = rewriteBudgetBytes;
+    }
+
+    /**
+     * Get the store that the model is recorded in once it has been applied
+     * @return the store, or null if the model isn't recorded
+     */
+    public AppliedModelStore getAppliedModelStore() {
+        return appliedModelStore;
+    }
+
+    /**
+     * Set the store that the model is recorded in once it has been applied,
+     * when the model is given to {@link #execute(MigrationPlan, Database)}
+     * @param appliedModelStore the store, or null if the model isn't recorded
+     */
+    public void setAppliedModelStore(AppliedModelStore appliedModelStore) {
+        this.appliedModelStore = appliedModelStore;
+    }
+
+    /**
+     * Execute all of the steps of a plan
+     * @param plan the plan
+     * @return the number of steps executed
+     * @throws SQLException if a step fails
+     */
+    public int execute(MigrationPlan plan) throws SQLException {
+        return execute(new MigrationGraph(plan));
+    }
+
+    /**
+     * Execute all of the steps of a plan, and then record the model that it
+     * applies in the applied model store, if there is one
+     * @param plan the plan
+     * @param model the model that the plan applies, or null if it isn't recorded
+     * @return the number of steps executed
+     * @throws SQLException if a step fails, or the model can't be recorded
+     */
+    public int execute(MigrationPlan plan, Database model) throws SQLException {
+        return execute(new MigrationGraph(plan), model);
+    }
+
+    /**
+     * Execute all of the steps of a graph
+     * @param graph the graph
+     * @return the number of steps executed
+     * @throws SQLException if a step fails
+     */
+    public int execute(MigrationGraph graph) throws SQLException {
+        return execute(graph, null);
+    }
+
+    /**
+     * Execute all of the steps of a graph, and then record the model that it
+     * applies in the applied model store, if there is one. When each batch
+     * is a transaction, the model is recorded in the same transaction as the
+     * last batch if nothing else is running by then, and otherwise once every
+     * batch has been committed
+     * @param graph the graph
+     * @param model the model that the graph applies, or null if it isn't recorded
+     * @return the number of steps executed
+     * @throws SQLException if a step fails, or the model can't be recorded
+     */
+    public int execute(MigrationGraph graph, Database model) throws SQLException {
+        Database applied = appliedModelStore == null ? null : model;
+        if (graph.size() == 0) {
+            if (applied != null) {
+                Connection connection = dataSource.getConnection();
+                try {
+                    recordModel(connection, applied);
+                }
+                finally {
+                    connection.close();
+                }
+            }
+            return 0;
+        }
+        long start = System.currentTimeMillis();
+        startJournal(graph.getPlan());
+        int threads = Math.max(1, Math.min(parallelism, graph.size()));
+        BlockingQueue<Connection> idle = new LinkedBlockingQueue<Connection>();
+        List<Connection> opened = Collections.synchronizedList(new ArrayList<Connection>());
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CompletionService<List<Integer>> completion = new ExecutorCompletionService<List<Integer>>(executor);
+
+        final long[] ioBytes = new long[graph.size()];
+        long[] rewriteBytes = new long[graph.size()];
+        if (tableSizes != null) {
+            for (int i = 0; i < graph.size(); ++i) {
+                StepCost cost = estimator.estimate(graph.getStep(i), tableSizes);
+                ioBytes[i] = cost.getIoBytes();
+                if (cost.getImpact() == ChangeImpact.REWRITE && cost.getSize() != null) {
+                    rewriteBytes[i] = cost.getSize().getBytes();
+                }
+            }
+        }
+        long rewriting = 0;
+
+        // Steps that cost the same are started in the order they became ready
+        final int[] queued = new int[graph.size()];
+        int queuedCount = 0;
+        int[] waitingFor = new int[graph.size()];
+        PriorityQueue<Integer> ready = new PriorityQueue<Integer>(graph.size(), new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                if (ioBytes[a] != ioBytes[b]) {
+                    return ioBytes[a] < ioBytes[b] ? -1 : 1;
+                }
+                return queued[a] - queued[b];
+            }
+        });
+        int running = 0;
+        int dispatched = 0;
+        boolean recorded = false;
+        int executed = 0;
+        int skipped = 0;
+        int batches = 0;
+        Throwable failure = null;
+        try {
+            for (int i = 0; i < graph.size(); ++i) {
+                waitingFor[i] = graph.getDependencies(i).size();
+            }
+            for (int i = 0; i < graph.size(); ++i) {
+                if (isCompleted(i)) {
+                    ++skipped;
+                    for (int dependent : graph.getDependents(i)) {
+                        --waitingFor[dependent];
+                    }
+                }
+            }
+            for (int i = 0; i < graph.size(); ++i) {
+                if (waitingFor[i] == 0 && !isCompleted(i)) {
+                    queued[i] = queuedCount++;
+                    ready.add(i);
+                }
+            }
+            while (true) {
+                while (failure == null && !ready.isEmpty() && running < threads) {
+                    // Share the ready steps out between the free threads rather than filling one batch
+                    int free = threads - running;
+                    int size = Math.max(1, Math.min(batchSize, (ready.size() + free - 1) / free));
+                    List<Integer> batch = new ArrayList<Integer>();
+                    // Rewrites that would go over the budget wait for a running rewrite to finish, and the
+                    // rewrites behind them wait too so that they aren't overtaken for ever, but other steps go on
+                    List<Integer> deferred = new ArrayList<Integer>();
+                    while (!ready.isEmpty() && batch.size() < size) {
+                        int step = ready.poll();
+                        if (rewriteBytes[step] != 0 && (!deferred.isEmpty() || !withinBudget(rewriting, rewriteBytes[step]))) {
+                            deferred.add(step);
+                            continue;
+                        }
+                        batch.add(step);
+                        rewriting += rewriteBytes[step];
+                    }
+                    ready.addAll(deferred);
+                    if (batch.isEmpty()) {
+                        break;
+                    }
+                    dispatched += batch.size();
+                    Database batchModel = null;
+                    if (transactional && applied != null && running == 0 && skipped + dispatched == graph.size()) {
+                        // This batch finishes the plan with nothing else running, so it records the model too
+                        batchModel = applied;
+                        recorded = true;
+                    }
+                    completion.submit(task(graph, batch, batchModel, idle, opened));
+                    ++running;
+                    ++batches;
+                }
+                if (running == 0) {
+                    break;
+                }
+                // Gather every batch that has finished, so that they share one sync of the journal
+                List<List<Integer>> finished = new ArrayList<List<Integer>>();
+                for (Future<List<Integer>> future = completion.take(); future != null; future = completion.poll()) {
+                    --running;
+                    try {
+                        finished.add(future.get());
+                    }
+                    catch (ExecutionException ex) {
+                        if (failure == null) {
+                            failure = ex.getCause();
+                        }
+                        if (ex.getCause() instanceof PartialBatchException) {
+                            finished.add(((PartialBatchException) ex.getCause()).getCompleted());
+                        }
+                    }
+                }
+                if (journal != null) {
+                    // The completions are on disk before anything that depends on them starts
+                    try {
+                        for (List<Integer> steps : finished) {
+                            journal.complete(steps);
+                        }
+                        journal.sync();
+                    }
+                    catch (IOException ex) {
+                        if (failure == null) {
+                            failure = new SQLException("Failed to write the migration journal", ex);
+                        }
+                        continue;
+                    }
+                }
+                for (List<Integer> steps : finished) {
+                    executed += steps.size();
+                    for (int step : steps) {
+                        rewriting -= rewriteBytes[step];
+                        for (int dependent : graph.getDependents(step)) {
+                            if (--waitingFor[dependent] == 0) {
+                                queued[dependent] = queuedCount++;
+                                ready.add(dependent);
+                            }
+                        }
+                    }
+                }
+            }
+            if (failure == null && applied != null && !recorded) {
+                Connection connection = idle.poll();
+                if (connection == null) {
+                    connection = dataSource.getConnection();
+                    opened.add(connection);
+                }
+                recordModel(connection, applied);
+            }
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while executing the migration", ex);
+        }
+        finally {
+            executor.shutdownNow();
+            closeAll(opened);
+            if (journal != null) {
+                try {
+                    journal.sync();
+                }
+                catch (IOException ex) {
+                    LOG.warn("Failed to sync the migration journal", ex);
+                }
+            }
+        }
+
+        if (failure instanceof SQLException) {
+            throw (SQLException) failure;
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        if (failure != null) {
+            throw new SQLException("Failed to execute the migration", failure);
+        }
+        LOG.info("Executed " + executed + " migration steps, skipping " + skipped + ", in " + batches + " batches over " + opened.size()
+                + " connections in "
+                + (System.currentTimeMillis() - start) + "ms");
+        return executed;
+    }
+
+    /**
+     * Check whether a step can be started without going over the rewrite
+     * budget. A step is always allowed if nothing else is being rewritten,
+     * so that tables bigger than the budget are still rewritten
+     * @param rewriting the bytes of table already being rewritten
+     * @param bytes the bytes of table the step rewrites
+     * @return True if the step can be started. False if not
+     */
+    private boolean withinBudget(long rewriting, long bytes) {
+        return bytes == 0 || rewriting == 0 || rewriting + bytes <= rewriteBudgetBytes;
+    }
+
+    /**
+     * Start the plan in the journal, if there is one and it hasn't already
+     * been started
+     * @param plan the plan being executed
+     * @throws SQLException if the journal can't be written
+     * @throws IllegalArgumentException if the journal is for a different plan
+     */
+    private void startJournal(MigrationPlan plan) throws SQLException {
+        if (journal == null) {
+            return;
+        }
+        if (journal.getPlan() == null) {
+            try {
+                journal.start(plan, null, estimator);
+            }
+            catch (IOException ex) {
+                throw new SQLException("Failed to write the migration journal", ex);
+            }
+        }
+        else if (!journal.getPlan().getStatements().equals(plan.getStatements())) {
+            throw new IllegalArgumentException("Journal " + journal.getFile() + " is for a different plan");
+        }
+    }
+
+    /**
+     * Check if the journal has a step as completed
+     * @param step the position of the step
+     * @return True if the step has completed. False if not, or if there is
+     * no journal
+     */
+    private boolean isCompleted(int step) {
+        return journal != null && journal.isCompleted(step);
+    }
+
+    /**
+     * Create the task to execute a batch of steps
+     * @param graph the graph
+     * @param batch the positions of the steps
+     * @param model the model to record in the same transaction, or null if
+     * it isn't recorded by this batch
+     * @param idle the connections that are not in use
+     * @param opened all of the connections that have been opened
+     * @return the task, which returns the positions of the steps
+     */
+    private Callable<List<Integer>> task(final MigrationGraph graph, final List<Integer> batch, final Database model,
+            final BlockingQueue<Connection> idle, final List<Connection> opened) {
+        return new Callable<List<Integer>>() {
+            @Override
+            public List<Integer> call() throws SQLException {
+                Connection connection = idle.poll();
+                if (connection == null) {
+                    connection = dataSource.getConnection();
+                    opened.add(connection);
+                }
+                try {
+                    List<MigrationStep> steps = new ArrayList<MigrationStep>();
+                    for (int step : batch) {
+                        steps.add(graph.getStep(step));
+                    }
+                    if (model == null) {
+                        executeSteps(connection, steps);
+                    }
+                    else {
+                        executeSteps(connection, steps, model);
+                    }
+                    return batch;
+                }
+                catch (PartialBatchException ex) {
+                    List<Integer> completed = new ArrayList<Integer>();
+                    for (int position : ex.getCompleted()) {
+                        completed.add(batch.get(position));
+                    }
+                    throw new PartialBatchException(ex.getMessage(), ex, completed);
+                }
+                finally {
+                    idle.add(connection);
+                }
+            }
+        };
+    }
+
+    /**
+     * Execute the statements of a batch of steps, in order. Unless batching
+     * or transactions are turned on, each statement is sent on its own
+     * @param connection the connection to execute them on
+     * @param steps the steps
+     * @throws PartialBatchException if a batch that isn't a transaction
+     * fails with some of its steps applied
+     * @throws SQLException if a statement fails
+     */
+    protected void executeSteps(Connection connection, List<MigrationStep> steps) throws SQLException {
+        executeSteps(connection, steps, null);
+    }
+
+    /**
+     * Execute the statements of a batch of steps, in order, and then record
+     * the model that the plan applies. This is used for the last batch of a
+     * plan when each batch is a transaction, so that the model is recorded in
+     * the same transaction
+     * @param connection the connection to execute them on
+     * @param steps the steps
+     * @param model the model to record before the batch is committed, or
+     * null if it isn't recorded
+     * @throws PartialBatchException if a batch that isn't a transaction
+     * fails with some of its steps applied
+     * @throws SQLException if a statement fails, or the model can't be recorded
+     */
+    protected void executeSteps(Connection connection, List<MigrationStep> steps, Database model)
+            throws SQLException {
+        LOG.debug("Executing " + steps);
+        boolean autoCommit = connection.getAutoCommit();
+        if (transactional) {
+            connection.setAutoCommit(false);
+        }
+        Statement statement = connection.createStatement();
+        try {
+            if (batchSize <= 1 && !transactional) {
+                for (MigrationStep step : steps) {
+                    for (String sql : step.getStatements()) {
+                        statement.execute(sql);
+                    }
+                }
+            }
+            else {
+                for (MigrationStep step : steps) {
+                    for (String sql : step.getStatements()) {
+                        statement.addBatch(sql);
+                    }
+                }
+                statement.executeBatch();
+            }
+            if (model != null) {
+                recordModel(connection, model);
+            }
+            if (transactional) {
+                connection.commit();
+            }
+        }
+        catch (BatchUpdateException ex) {
+            if (transactional) {
+                rollback(connection);
+            }
+            else {
+                List<Integer> completed = completedSteps(steps, ex.getUpdateCounts());
+                if (!completed.isEmpty()) {
+                    throw new PartialBatchException("Failed to execute " + steps + ": " + ex.getMessage(), ex,
+                            completed);
+                }
+            }
+            throw new SQLException("Failed to execute " + steps + ": " + ex.getMessage(), ex.getSQLState(),
+                    ex.getErrorCode(), ex);
+        }
+        catch (SQLException ex) {
+            if (transactional) {
+                rollback(connection);
+            }
+            throw new SQLException("Failed to execute " + steps + ": " + ex.getMessage(), ex.getSQLState(),
+                    ex.getErrorCode(), ex);
+        }
+        finally {
+            statement.close();
+            if (transactional) {
+                connection.setAutoCommit(autoCommit);
+            }
+        }
+    }
+
+    /**
+     * Record the model that has been applied in the applied model store. If
+     * the connection is in a transaction then the caller commits it
+     * @param connection the connection to record it on
+     * @param model the model
+     * @throws SQLException if it can't be recorded
+     */
+    private void recordModel(Connection connection, Database model) throws SQLException {
+        appliedModelStore.record(connection, model);
+        LOG.info("Recorded the applied model " + model.getFingerprint());
+    }
+
+    /**
+     * Work out which steps of a failed batch were applied from the update
+     * counts of the batch. Drivers either stop at the failed statement, so
+     * that there are only counts for the statements before it, or carry on
+     * and mark the failed statements. A step was applied if all of its
+     * statements were
+     * @param steps the steps in the batch
+     * @param updateCounts the update counts of the batch
+     * @return the positions of the steps that were applied
+     */
+    private List<Integer> completedSteps(List<MigrationStep> steps, int[] updateCounts) {
+        List<Integer> completed = new ArrayList<Integer>();
+        int statement = 0;
+        for (int i = 0; i < steps.size(); ++i) {
+            boolean applied = true;
+            for (int j = 0; j < steps.get(i).getStatements().size(); ++j, ++statement) {
+                if (updateCounts == null || statement >= updateCounts.length
+                        || updateCounts[statement] == Statement.EXECUTE_FAILED) {
+                    applied = false;
+                }
+            }
+            if (applied) {
+                completed.add(i);
+            }
+        }
+        return completed;
+    }
+
+    /**
+     * Roll back a failed batch, logging rather than throwing any error so
+     * that the original failure is reported
+     * @param connection the connection
+     */
+    private void rollback(Connection connection) {
+        try {
+            connection.rollback();
+        }
+        catch (SQLException ex) {
+            LOG.warn("Failed to roll back batch", ex);
+        }
+    }
+
+    /**
+     * Close all of the connections that were opened
+     * @param opened the connections
+     */
+    private void closeAll(List<Connection> opened) {
+        synchronized (opened) {
+            for (Connection connection : opened) {
+                try {
+                    connection.close();
+                }
+                catch (SQLException ex) {
+                    LOG.warn("Failed to close connection", ex);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2011 graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.grahamcox.mdb.migration;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import javax.validation.constraints.NotNull;
+import uk.co.grahamcox.mdb.diff.Change;
+
+/**
+ * A single step of a migration - the SQL statements that make all of the
+ * changes to one schema or table, along with the changes they make
+ * @author graham
+ */
+public class MigrationStep {
+    /**
+     * Enumeration of the types of step
+     */
+    public enum Type {
+        /** A schema is created */
+        CREATE_SCHEMA,
+        /** The comment on a schema is changed */
+        ALTER_SCHEMA,
+        /** A table is created */
+        CREATE_TABLE,
+        /** The columns, key or comments of a table are changed */
+        ALTER_TABLE,
+        /** A table is dropped */
+        DROP_TABLE,
+        /** A schema is dropped, along with everything in it */
+        DROP_SCHEMA
+    }
+
+    /** The type of step */
+    @NotNull
+    private final Type type;
+    /** The name of the schema changed */
+    @NotNull
+    private final String schemaName;
+    /** The name of the table changed, if the step is for a table */
+    private final String tableName;
+    /** The SQL statements to execute, in order, without terminating semicolons */
+    private final List<String> statements;
+    /** The changes made by the step */
+    private final List<Change> changes;
+    /** The impact recorded for a step whose changes aren't known, or null */
+    private final ChangeImpact impact;
+
+    /**
+     * Create the step
+     * @param type the type of step
+     * @param schemaName the name of the schema changed
+     * @param tableName the name of the table changed, or null
+     * @param statements the SQL statements to execute, in order
+     * @param changes the changes made by the step
+     */
+    public MigrationStep(Type type, String schemaName, String tableName, List<String> statements,
+            List<Change> changes) {
+        this.type = type;
+        this.schemaName = schemaName;
+        this.tableName = tableName;
+        this.statements = Collections.unmodifiableList(new ArrayList<String>(statements));
+        this.changes = Collections.unmodifiableList(new ArrayList<Change>(changes));
+        this.impact = null;
+    }
+
+    /**
+     * Create a step whose changes aren't known, such as one read back from a
+     * {@link MigrationJournal}, with the impact that was worked out from them
+     * @param type the type of step
+     * @param schemaName the name of the schema changed
+     * @param tableName the name of the table changed, or null
+     * @param statements the SQL statements to execute, in order
+     * @param impact the impact of the changes made by the step
+     */
+    public MigrationStep(Type type, String schemaName, String tableName, List<String> statements,
+            ChangeImpact impact) {
+        this.type = type;
+        this.schemaName = schemaName;
+        this.tableName = tableName;
+        this.statements = Collections.unmodifiableList(new ArrayList<String>(statements));
+        this.changes = Collections.emptyList();
+        this.impact = impact;
+    }
+
+    /**
+     * Get the type of step
+     * @return the type
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Get the name of the schema changed
+     * @return the schema name
+     */
+    public String getSchemaName() {
+        return schemaName;
+    }
+
+    /**
+     * Get the name of the table changed
+     * @return the table name, or null if the step is for a schema
+     */
+    public String getTableName() {
+        return tableName;
+    }
+
+    /**
+     * Get the SQL statements to execute, in order, without terminating
+     * semicolons
+     * @return the statements
+     */
+    public List<String> getStatements() {
+        return statements;
+    }
+
+    /**
+     * Get the changes made by the step
+     * @return the changes
+     */
+    public List<Change> getChanges() {
+        return changes;
+    }
+
+    /**
+     * Get the impact recorded for a step whose changes aren't known
+     * @return the impact, or null if it wasn't recorded
+     */
+    public ChangeImpact getImpact() {
+        return impact;
+    }
+
+    /**
+     * Generate a string for the object
+     * @return the string
+     */
+    @Override
+    public String toString() {
+        return "MigrationStep{" + type + ' ' + schemaName + (tableName == null ? "" : "." + tableName)
+                + ", statements=" + statements + '}';
+    }
+}
@@ -0,0 +1,810 @@
+/*
+ * Copyright (C) 2011 graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.grahamcox.mdb.migration;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import uk.co.grahamcox.mdb.ddl.DdlWriter;
+import uk.co.grahamcox.mdb.ddl.PostgresDdlGenerator;
+import uk.co.grahamcox.mdb.schema.Column;
+import uk.co.grahamcox.mdb.schema.Table;
+
+/**
+ * Change a column on a large table without holding a lock on it for the
+ * whole of the data copy. A shadow column of the new type is added, then
+ * filled in from the existing rows in batches ordered by the primary key,
+ * each batch committed on its own with an optional pause between them, and
+ * finally the shadow column is swapped in place of the original in one short
+ * transaction. This is used for type changes that need the data copying, and
+ * for new NOT NULL columns whose values are computed from the existing rows.
+ * <p>
+ * A trigger is added along with the shadow column which keeps it in step with
+ * the rows that are written while the migration runs, computing its value
+ * whenever a row is inserted or the original column updated, so writes carry
+ * on as normal throughout. The trigger is dropped by the swap. Each batch
+ * only fills in rows whose shadow value is still null, so a backfill that
+ * was interrupted can simply be run again, and the swap fills in any rows
+ * written before the trigger was added. A NOT NULL column is
+ * swapped in with an unvalidated check, which is validated and replaced by
+ * the constraint after the lock has been released.
+ * <p>
+ * This is not used by {@link MigrationPlanner}, which still changes column
+ * types in place. It is run on its own for the tables that are too large for
+ * that. The SQL is for PostgreSQL, and {@link HsqldbColumnMigration} has the
+ * HSQLDB version
+ * @author graham
+ */
+public class OnlineColumnMigration {
+    /** The logger to use */
+    private final Log LOG = LogFactory.getLog(OnlineColumnMigration.class);
+    /** The name of the schema the table is in */
+    private final String schemaName;
+    /** The table as it should be, giving the key columns */
+    private final Table table;
+    /** The column as it should be */
+    private final Column column;
+    /** The SQL expression giving the value of the column for an existing row */
+    private final String expression;
+    /** Whether the column already exists and is being replaced */
+    private final boolean replacing;
+    /** The number of rows to backfill in each batch */
+    private int batchSize = 10000;
+    /** The time to pause between batches, in milliseconds */
+    private long throttleMillis = 0;
+    /** Whether to count the rows in the table before backfilling, for the progress */
+    private boolean countRows = true;
+    /** The suffix added to the column name to give the shadow column name */
+    private String shadowSuffix = "_mdb_new";
+    /** The progress of the backfill */
+    private final BackfillProgress progress = new BackfillProgress();
+    /** The key of the last row backfilled, or null if none have been */
+    private Object[] lastKey = null;
+
+    /**
+     * Create the migration
+     * @param schemaName the name of the schema the table is in
+     * @param table the table as it should be
+     * @param columnName the name of the column to migrate
+     * @param expression the SQL expression giving the value of the column
+     * for an existing row
+     * @param replacing True if the column already exists and is being
+     * replaced. False if it is being added
+     * @throws IllegalArgumentException if the column can't be migrated online
+     */
+    public OnlineColumnMigration(String schemaName, Table table, String columnName, String expression,
+            boolean replacing) {
+        this.schemaName = schemaName;
+        this.table = table;
+        this.column = table.getColumn(columnName);
+        this.expression = expression;
+        this.replacing = replacing;
+        if (column == null) {
+            throw new IllegalArgumentException("Table " + table.getName() + " has no column " + columnName);
+        }
+        if (table.isKeyColumn(columnName)) {
+            throw new IllegalArgumentException("Key column " + columnName + " can't be migrated online");
+        }
+        if (table.getKeyColumns().isEmpty()) {
+            throw new IllegalArgumentException("Table " + table.getName() + " has no key to backfill in order of");
+        }
+    }
+
+    /**
+     * Create the migration to change the data type of a column, casting the
+     * existing values to the new type
+     * @param schemaName the name of the schema the table is in
+     * @param table the table as it should be
+     * @param columnName the name of the column
+     * @return the migration
+     */
+    public static OnlineColumnMigration forTypeChange(String schemaName, Table table, String columnName) {
+        return new OnlineColumnMigration(schemaName, table, columnName, castExpression(table, columnName), true);
+    }
+
+    /**
+     * Get the expression that casts the existing values of a column to its
+     * new type
+     * @param table the table as it should be
+     * @param columnName the name of the column
+     * @return the expression
+     * @throws IllegalArgumentException if the table has no such column
+     */
+    static String castExpression(Table table, String columnName) {
+        Column column = table.getColumn(columnName);
+        if (column == null) {
+            throw new IllegalArgumentException("Table " + table.getName() + " has no column " + columnName);
+        }
+        return "CAST(" + identifier(columnName) + " AS " + dataType(column) + ")";
+    }
+
+    /**
+     * Create the migration to add a column, computing its value for the
+     * existing rows
+     * @param schemaName the name of the schema the table is in
+     * @param table the table as it should be
+     * @param columnName the name of the column
+     * @param expression the SQL expression giving the value of the column
+     * for an existing row
+     * @return the migration
+     */
+    public static OnlineColumnMigration forNewColumn(String schemaName, Table table, String columnName,
+            String expression) {
+        return new OnlineColumnMigration(schemaName, table, columnName, expression, false);
+    }
+
+    /**
+     * Get the number of rows to backfill in each batch
+     * @return the batch size
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Set the number of rows to backfill in each batch
+     * @param batchSize the batch size
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Get the time to pause between batches
+     * @return the time, in milliseconds
+     */
+    public long getThrottleMillis() {
+        return throttleMillis;
+    }
+
+    /**
+     * Set the time to pause between batches, to limit the load the backfill
+     * puts on the database
+     * @param throttleMillis the time, in milliseconds
+     */
+    public void setThrottleMillis(long throttleMillis) {
+        this.throttleMillis = throttleMillis;
+    }
+
+    /**
+     * Check whether the rows are counted before backfilling
+     * @return True if the rows are counted. False if not
+     */
+    public boolean isCountRows() {
+        return countRows;
+    }
+
+    /**
+     * Set whether the rows are counted before backfilling, so that the
+     * progress can give the fraction done. Counting a very large table takes
+     * a scan of it
+     * @param countRows True if the rows are counted. False if not
+     */
+    public void setCountRows(boolean countRows) {
+        this.countRows = countRows;
+    }
+
+    /**
+     * Get the suffix added to the column name to give the shadow column name
+     * @return the suffix
+     */
+    public String getShadowSuffix() {
+        return shadowSuffix;
+    }
+
+    /**
+     * Set the suffix added to the column name to give the shadow column name
+     * @param shadowSuffix the suffix
+     */
+    public void setShadowSuffix(String shadowSuffix) {
+        this.shadowSuffix = shadowSuffix;
+    }
+
+    /**
+     * Get the name of the column that is backfilled. When adding a column
+     * this is the column itself, as there is nothing to swap it with
+     * @return the column name
+     */
+    public String getShadowName() {
+        return replacing ? column.getName() + shadowSuffix : column.getName();
+    }
+
+    /**
+     * Get the progress of the backfill
+     * @return the progress
+     */
+    public BackfillProgress getProgress() {
+        return progress;
+    }
+
+    /**
+     * Run the whole migration - add the shadow column, backfill it and swap
+     * it in
+     * @param connection the connection to use
+     * @throws SQLException if an error occurs
+     */
+    public void run(Connection connection) throws SQLException {
+        addShadowColumn(connection);
+        backfill(connection);
+        swap(connection);
+    }
+
+    /**
+     * Add the shadow column, as nullable and with no default so that adding
+     * it doesn't rewrite the table, and the trigger that keeps it in step
+     * with the rows written from then on. Nothing is done for either if it
+     * already exists
+     * @param connection the connection to use
+     * @throws SQLException if an error occurs
+     */
+    public void addShadowColumn(Connection connection) throws SQLException {
+        DatabaseMetaData metaData = connection.getMetaData();
+        ResultSet columns = metaData.getColumns(null, schemaName, table.getName(), getShadowName());
+        boolean exists;
+        try {
+            exists = columns.next();
+        }
+        finally {
+            columns.close();
+        }
+        if (exists) {
+            LOG.info("Shadow column " + getShadowName() + " already exists");
+        }
+        else {
+            execute(connection, "ALTER TABLE " + tableName() + " ADD COLUMN " + identifier(getShadowName()) + " "
+                    + dataType(column));
+        }
+
+        if (hasSyncTrigger(connection)) {
+            LOG.info("Trigger " + triggerName() + " already exists");
+            return;
+        }
+        List<String> updateColumns = new ArrayList<String>();
+        if (replacing) {
+            updateColumns.add(identifier(column.getName()));
+        }
+        else {
+            // The value of a new column is computed from the others, so changing any of them changes it
+            for (Column other : table.getAllColumns()) {
+                if (!other.getName().equals(column.getName())) {
+                    updateColumns.add(identifier(other.getName()));
+                }
+            }
+        }
+        List<String> keyColumns = new ArrayList<String>();
+        for (Column key : table.getKeyColumns()) {
+            keyColumns.add(identifier(key.getName()));
+        }
+        for (String sql : createSyncTriggerSql(identifier(schemaName), tableName(), triggerName(),
+                identifier(getShadowName()), expression, updateColumns, keyColumns)) {
+            execute(connection, sql);
+        }
+        if (!connection.getAutoCommit()) {
+            connection.commit();
+        }
+    }
+
+    /**
+     * Fill in the shadow column from the existing rows, in batches of rows
+     * ordered by the primary key. Each batch is committed before the next
+     * @param connection the connection to use
+     * @throws SQLException if an error occurs
+     */
+    public void backfill(Connection connection) throws SQLException {
+        progress.started(countRows ? countRows(connection) : -1);
+        List<Column> keyColumns = table.getKeyColumns();
+        String keys = keyList(keyColumns);
+        String after = "(" + keys + ") > " + parameters(keyColumns);
+        String upTo = "(" + keys + ") <= " + parameters(keyColumns);
+        String select = "SELECT " + keys + " FROM " + tableName();
+        String update = "UPDATE " + tableName() + " SET " + identifier(getShadowName()) + " = " + expression
+                + " WHERE " + identifier(getShadowName()) + " IS NULL";
+
+        lastKey = null;
+        while (true) {
+            Object[] upper = findBatchEnd(connection, lastKey == null ? select + " ORDER BY " + keys
+                    : select + " WHERE " + after + " ORDER BY " + keys, keyColumns.size());
+            String sql = update + (lastKey == null ? "" : " AND " + after) + (upper == null ? "" : " AND " + upTo);
+            PreparedStatement statement = connection.prepareStatement(sql);
+            int updated;
+            try {
+                int index = bind(statement, 1, lastKey);
+                bind(statement, index, upper);
+                updated = statement.executeUpdate();
+            }
+            finally {
+                statement.close();
+            }
+            if (!connection.getAutoCommit()) {
+                connection.commit();
+            }
+            progress.batchDone(updated);
+            LOG.debug(progress);
+            if (upper == null) {
+                break;
+            }
+            lastKey = upper;
+            throttle();
+        }
+        progress.finished();
+        LOG.info(progress);
+    }
+
+    /**
+     * Swap the shadow column in place of the original column. Rows written
+     * since the backfill passed them are filled in and, if the column is NOT
+     * NULL, checked for null values before anything is locked. Then, in one
+     * short transaction holding the lock, any rows written since are filled in,
+     * the original column is dropped, the shadow renamed, and the default and
+     * an unvalidated NOT NULL check applied. The NOT NULL constraint itself is
+     * applied afterwards, by {@link #applyNotNull(java.sql.Connection)}
+     * @param connection the connection to use
+     * @throws SQLException if an error occurs, in which case nothing is changed
+     * unless it was applying the NOT NULL constraint that failed
+     */
+    public void swap(Connection connection) throws SQLException {
+        boolean autoCommit = connection.getAutoCommit();
+        LOG.debug("Caught up " + catchUp(connection) + " rows written during the backfill");
+        if (!autoCommit) {
+            connection.commit();
+        }
+        if (!column.isNullable() && hasNulls(connection)) {
+            throw new SQLException("Column " + column.getName() + " has null values so can't be made NOT NULL");
+        }
+
+        connection.setAutoCommit(false);
+        try {
+            String lock = lockTableSql(tableName());
+            if (lock != null) {
+                execute(connection, lock);
+            }
+            LOG.debug("Caught up " + catchUp(connection) + " rows written before the lock");
+            for (String sql : dropSyncTriggerSql(identifier(schemaName), tableName(), triggerName())) {
+                execute(connection, sql);
+            }
+
+            String columnName = identifier(column.getName());
+            if (replacing) {
+                execute(connection, "ALTER TABLE " + tableName() + " DROP COLUMN " + columnName);
+                execute(connection, renameColumnSql(tableName(), identifier(getShadowName()), columnName));
+            }
+            if (column.getDefaultValue() != null) {
+                execute(connection, "ALTER TABLE " + tableName() + " ALTER COLUMN " + columnName + " SET DEFAULT "
+                        + column.getDefaultValue());
+            }
+            if (!column.isNullable()) {
+                execute(connection, addNotNullCheckSql(tableName(), identifier(checkName()), columnName));
+            }
+            connection.commit();
+        }
+        catch (SQLException ex) {
+            connection.rollback();
+            throw ex;
+        }
+        finally {
+            connection.setAutoCommit(autoCommit);
+        }
+        if (!column.isNullable()) {
+            applyNotNull(connection);
+        }
+    }
+
+    /**
+     * Make the swapped in column NOT NULL. The check added by the swap is
+     * validated first, which scans the table without stopping other sessions
+     * writing to it, so that setting the column NOT NULL doesn't need to scan
+     * it again while holding the lock. If a row with a null value was written
+     * between the check for them and the swap then this fails, and can be run
+     * again once the row has been fixed
+     * @param connection the connection to use
+     * @throws SQLException if an error occurs
+     */
+    public void applyNotNull(Connection connection) throws SQLException {
+        String check = identifier(checkName());
+        String validate = validateCheckSql(tableName(), check);
+        if (validate != null) {
+            execute(connection, validate);
+            if (!connection.getAutoCommit()) {
+                connection.commit();
+            }
+        }
+        execute(connection, "ALTER TABLE " + tableName() + " ALTER COLUMN " + identifier(column.getName())
+                + " SET NOT NULL");
+        execute(connection, "ALTER TABLE " + tableName() + " DROP CONSTRAINT " + check);
+        if (!connection.getAutoCommit()) {
+            connection.commit();
+        }
+    }
+
+    /**
+     * Get the SQL to add a check that a column isn't null, which new writes
+     * must pass but which doesn't check the existing rows. This is the
+     * PostgreSQL syntax
+     * @param tableName the quoted name of the table
+     * @param checkName the quoted name of the check
+     * @param columnName the quoted name of the column
+     * @return the SQL
+     */
+    protected String addNotNullCheckSql(String tableName, String checkName, String columnName) {
+        return "ALTER TABLE " + tableName + " ADD CONSTRAINT " + checkName + " CHECK (" + columnName
+                + " IS NOT NULL) NOT VALID";
+    }
+
+    /**
+     * Get the SQL to check the existing rows against a check added by
+     * {@link #addNotNullCheckSql(java.lang.String, java.lang.String, java.lang.String)}.
+     * From PostgreSQL 12, setting a column NOT NULL doesn't scan the table if
+     * a validated check already proves it. This is the PostgreSQL syntax
+     * @param tableName the quoted name of the table
+     * @param checkName the quoted name of the check
+     * @return the SQL, or null if adding the check already validated it
+     */
+    protected String validateCheckSql(String tableName, String checkName) {
+        return "ALTER TABLE " + tableName + " VALIDATE CONSTRAINT " + checkName;
+    }
+
+    /**
+     * Get the SQL to add the trigger that sets the shadow column of every row
+     * that is inserted, or that has any of the given columns updated. This is
+     * the PostgreSQL syntax, which computes the value in a trigger function
+     * of the same name before the row is written
+     * @param schemaName the quoted name of the schema
+     * @param tableName the quoted, schema qualified name of the table
+     * @param triggerName the name of the trigger, which isn't quoted so that
+     * others can be named after it
+     * @param shadowName the quoted name of the shadow column
+     * @param expression the SQL expression giving the value of the shadow
+     * column, in terms of the other columns of the row
+     * @param updateColumns the quoted names of the columns that the value
+     * depends on
+     * @param keyColumns the quoted names of the key columns
+     * @return the statements
+     */
+    protected List<String> createSyncTriggerSql(String schemaName, String tableName, String triggerName,
+            String shadowName, String expression, List<String> updateColumns, List<String> keyColumns) {
+        String function = schemaName + "." + identifier(triggerName);
+        return Arrays.asList(
+                "CREATE OR REPLACE FUNCTION " + function + "() RETURNS trigger LANGUAGE plpgsql AS $mdb$BEGIN\n"
+                + "    SELECT " + expression + " INTO NEW." + shadowName + " FROM (SELECT NEW.*) AS t;\n"
+                + "    RETURN NEW;\n"
+                + "END$mdb$",
+                "CREATE TRIGGER " + identifier(triggerName) + " BEFORE INSERT OR UPDATE OF " + join(updateColumns)
+                + " ON " + tableName + " FOR EACH ROW EXECUTE PROCEDURE " + function + "()");
+    }
+
+    /**
+     * Get the SQL to drop the trigger added by
+     * {@link #createSyncTriggerSql(String, String, String, String, String, List, List)}.
+     * This is the PostgreSQL syntax
+     * @param schemaName the quoted name of the schema
+     * @param tableName the quoted, schema qualified name of the table
+     * @param triggerName the name of the trigger, which isn't quoted so that
+     * others can be named after it
+     * @return the statements
+     */
+    protected List<String> dropSyncTriggerSql(String schemaName, String tableName, String triggerName) {
+        return Arrays.asList("DROP TRIGGER " + identifier(triggerName) + " ON " + tableName,
+                "DROP FUNCTION " + schemaName + "." + identifier(triggerName) + "()");
+    }
+
+    /**
+     * Get the SQL to rename a column. This is the PostgreSQL syntax
+     * @param tableName the quoted name of the table
+     * @param from the quoted name of the column
+     * @param to the quoted new name of the column
+     * @return the SQL
+     */
+    protected String renameColumnSql(String tableName, String from, String to) {
+        return "ALTER TABLE " + tableName + " RENAME COLUMN " + from + " TO " + to;
+    }
+
+    /**
+     * Get the SQL to stop other sessions writing to the table for the rest of
+     * the transaction, while still allowing them to read it. This is the
+     * PostgreSQL syntax
+     * @param tableName the quoted name of the table
+     * @return the SQL, or null if the table doesn't need locking
+     */
+    protected String lockTableSql(String tableName) {
+        return "LOCK TABLE " + tableName + " IN SHARE ROW EXCLUSIVE MODE";
+    }
+
+    /**
+     * Fill in the shadow value of every row that has been written since the
+     * backfill passed it. When replacing a column these are the rows with an
+     * original value but no shadow value, wherever their key is. When adding
+     * a column they are the rows with no value
+     * @param connection the connection to use
+     * @return the number of rows filled in
+     * @throws SQLException if an error occurs
+     */
+    private int catchUp(Connection connection) throws SQLException {
+        String sql = "UPDATE " + tableName() + " SET " + identifier(getShadowName()) + " = " + expression
+                + " WHERE " + identifier(getShadowName()) + " IS NULL";
+        if (replacing) {
+            sql += " AND " + identifier(column.getName()) + " IS NOT NULL";
+        }
+        Statement statement = connection.createStatement();
+        try {
+            return statement.executeUpdate(sql);
+        }
+        finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Check whether the trigger keeping the shadow column in step exists
+     * @param connection the connection to use
+     * @return True if it exists. False if not
+     * @throws SQLException if an error occurs
+     */
+    private boolean hasSyncTrigger(Connection connection) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement("SELECT 1 FROM INFORMATION_SCHEMA.TRIGGERS"
+                + " WHERE TRIGGER_SCHEMA = ? AND TRIGGER_NAME = ?");
+        try {
+            statement.setString(1, schemaName);
+            statement.setString(2, triggerName());
+            ResultSet results = statement.executeQuery();
+            try {
+                return results.next();
+            }
+            finally {
+                results.close();
+            }
+        }
+        finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Get the name of the trigger that keeps the shadow column in step
+     * @return the trigger name
+     */
+    private String triggerName() {
+        return table.getName() + "_" + column.getName() + "_mdb_sync";
+    }
+
+    /**
+     * Get the name of the check used while making the column NOT NULL
+     * @return the check name
+     */
+    private String checkName() {
+        return table.getName() + "_" + column.getName() + "_not_null";
+    }
+
+    /**
+     * Find the key of the last row of the next batch. Only that row is
+     * fetched, skipping the rest of the batch in the database
+     * @param connection the connection to use
+     * @param sql the query for the keys of the rows after the last batch, in
+     * key order
+     * @param keyCount the number of key columns
+     * @return the key of the last row, or null if there are no more than a
+     * batch of rows left
+     * @throws SQLException if an error occurs
+     */
+    private Object[] findBatchEnd(Connection connection, String sql, int keyCount) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(sql + " OFFSET " + (batchSize - 1)
+                + " ROWS FETCH NEXT 1 ROWS ONLY");
+        try {
+            bind(statement, 1, lastKey);
+            ResultSet results = statement.executeQuery();
+            try {
+                if (!results.next()) {
+                    return null;
+                }
+                Object[] key = new Object[keyCount];
+                for (int i = 0; i < keyCount; ++i) {
+                    key[i] = results.getObject(i + 1);
+                }
+                return key;
+            }
+            finally {
+                results.close();
+            }
+        }
+        finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Check whether any rows have a null shadow value. This is checked before
+     * anything is locked or dropped, as not every database can roll back DDL
+     * @param connection the connection to use
+     * @return True if there are null values. False if not
+     * @throws SQLException if an error occurs
+     */
+    private boolean hasNulls(Connection connection) throws SQLException {
+        Statement statement = connection.createStatement();
+        try {
+            statement.setMaxRows(1);
+            ResultSet results = statement.executeQuery("SELECT 1 FROM " + tableName() + " WHERE "
+                    + identifier(getShadowName()) + " IS NULL");
+            return results.next();
+        }
+        finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Count the rows in the table
+     * @param connection the connection to use
+     * @return the number of rows
+     * @throws SQLException if an error occurs
+     */
+    private long countRows(Connection connection) throws SQLException {
+        Statement statement = connection.createStatement();
+        try {
+            ResultSet results = statement.executeQuery("SELECT COUNT(*) FROM " + tableName());
+            results.next();
+            return results.getLong(1);
+        }
+        finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Pause between batches
+     * @throws SQLException if interrupted
+     */
+    private void throttle() throws SQLException {
+        if (throttleMillis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(throttleMillis);
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while backfilling " + column.getName(), ex);
+        }
+    }
+
+    /**
+     * Bind a key to the parameters of a statement
+     * @param statement the statement
+     * @param index the index of the first parameter
+     * @param key the key, or null to bind nothing
+     * @return the index of the next parameter
+     * @throws SQLException if an error occurs
+     */
+    private int bind(PreparedStatement statement, int index, Object[] key) throws SQLException {
+        if (key != null) {
+            for (Object value : key) {
+                statement.setObject(index++, value);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Execute a single statement
+     * @param connection the connection to use
+     * @param sql the statement
+     * @throws SQLException if an error occurs
+     */
+    private void execute(Connection connection, String sql) throws SQLException {
+        LOG.debug("Executing " + sql);
+        Statement statement = connection.createStatement();
+        try {
+            statement.execute(sql);
+        }
+        finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Get the quoted, schema qualified name of the table
+     * @return the table name
+     */
+    private String tableName() {
+        return identifier(schemaName) + "." + identifier(table.getName());
+    }
+
+    /**
+     * Join quoted names together, separated by commas
+     * @param names the names
+     * @return the list of names
+     */
+    static String join(List<String> names) {
+        StringBuilder result = new StringBuilder();
+        for (String name : names) {
+            if (result.length() > 0) {
+                result.append(", ");
+            }
+            result.append(name);
+        }
+        return result.toString();
+    }
+
+    /**
+     * Get the quoted names of the key columns, separated by commas
+     * @param keyColumns the key columns
+     * @return the list of names
+     */
+    private static String keyList(List<Column> keyColumns) {
+        StringBuilder result = new StringBuilder();
+        for (Column key : keyColumns) {
+            if (result.length() > 0) {
+                result.append(", ");
+            }
+            result.append(identifier(key.getName()));
+        }
+        return result.toString();
+    }
+
+    /**
+     * Get a row of parameter markers for the key columns. Each is cast to the
+     * type of its column, as not every database can work out the types of
+     * parameters in a row comparison
+     * @param keyColumns the key columns
+     * @return the row, such as (CAST(? AS text), CAST(? AS numeric(10)))
+     */
+    private static String parameters(List<Column> keyColumns) {
+        StringBuilder result = new StringBuilder("(");
+        for (Column key : keyColumns) {
+            if (result.length() > 1) {
+                result.append(", ");
+            }
+            result.append("CAST(? AS ").append(dataType(key)).append(')');
+        }
+        return result.append(')').toString();
+    }
+
+    /**
+     * Quote an identifier
+     * @param name the identifier
+     * @return the quoted identifier
+     */
+    static String identifier(String name) {
+        return "\"" + name.replace("\"", "\"\"") + "\"";
+    }
+
+    /**
+     * Get the SQL name of the data type of a column
+     * @param column the column
+     * @return the data type
+     */
+    private static String dataType(Column column) {
+        StringWriter text = new StringWriter();
+        DdlWriter out = new DdlWriter(text, 64);
+        try {
+            new PostgresDdlGenerator().writeDataType(column.getName(), column.getDataType(), out);
+            out.flush();
+        }
+        catch (IOException ex) {
+            throw new IllegalStateException("Failed to render data type", ex);
+        }
+        return text.toString();
+    }
+}
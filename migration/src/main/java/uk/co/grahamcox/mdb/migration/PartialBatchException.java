@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2011 graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.grahamcox.mdb.migration;
+
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Exception thrown when a batch of steps that isn't a transaction fails part
+ * way through, so that some of its steps have been applied. The completed
+ * steps can then be recorded as such rather than being run again
+ * @author graham
+ */
+public class PartialBatchException extends SQLException {
+    /** The serial version */
+    private static final long serialVersionUID = 1L;
+    /** The positions of the steps that completed */
+    private final List<Integer> completed;
+
+    /**
+     * Create the exception
+     * @param message the message
+     * @param cause the failure of the batch
+     * @param completed the positions of the steps that completed
+     */
+    public PartialBatchException(String message, SQLException cause, List<Integer> completed) {
+        super(message, cause.getSQLState(), cause.getErrorCode(), cause);
+        this.completed = Collections.unmodifiableList(completed);
+    }
+
+    /**
+     * Get the positions of the steps that completed before the batch failed
+     * @return the positions
+     */
+    public List<Integer> getCompleted() {
+        return completed;
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) 2011 graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.grahamcox.mdb.migration;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import uk.co.grahamcox.mdb.diff.Change;
+import uk.co.grahamcox.mdb.schema.Column;
+import uk.co.grahamcox.mdb.schema.DataType;
+import uk.co.grahamcox.mdb.schema.datatype.NumberDataType;
+import uk.co.grahamcox.mdb.schema.datatype.StringDataType;
+import uk.co.grahamcox.mdb.schema.datatype.TimestampDataType;
+
+/**
+ * Dry run analysis of a migration plan, estimating which steps will scan or
+ * rewrite a table and how long each will hold its lock for. Each change is
+ * classified by the work PostgreSQL has to do for it, and the cost of a step
+ * is that of its most expensive change - the changes to a table are made in a
+ * single ALTER TABLE, so several rewrites of one table only rewrite it once.
+ * The estimates are only as good as the table sizes and I/O rates given
+ * @author graham
+ */
+public class RewriteCostEstimator {
+    /** The rate a table is read at, in bytes per second */
+    private long readBytesPerSecond = 100L * 1024 * 1024;
+    /** The rate a table is written at, in bytes per second */
+    private long writeBytesPerSecond = 50L * 1024 * 1024;
+    /** The time a lock is held for to change only the catalog, in milliseconds */
+    private long metadataLockMillis = 5;
+    /** Whether adding a column with a default avoids rewriting the table, as in PostgreSQL 11 onwards */
+    private boolean fastColumnDefaults = true;
+
+    /**
+     * Get the rate a table is read at
+     * @return the rate, in bytes per second
+     */
+    public long getReadBytesPerSecond() {
+        return readBytesPerSecond;
+    }
+
+    /**
+     * Set the rate a table is read at
+     * @param readBytesPerSecond the rate, in bytes per second
+     */
+    public void setReadBytesPerSecond(long readBytesPerSecond) {
+        this.readBytesPerSecond = readBytesPerSecond;
+    }
+
+    /**
+     * Get the rate a table is written at
+     * @return the rate, in bytes per second
+     */
+    public long getWriteBytesPerSecond() {
+        return writeBytesPerSecond;
+    }
+
+    /**
+     * Set the rate a table is written at
+     * @param writeBytesPerSecond the rate, in bytes per second
+     */
+    public void setWriteBytesPerSecond(long writeBytesPerSecond) {
+        this.writeBytesPerSecond = writeBytesPerSecond;
+    }
+
+    /**
+     * Get the time a lock is held for to change only the catalog
+     * @return the time, in milliseconds
+     */
+    public long getMetadataLockMillis() {
+        return metadataLockMillis;
+    }
+
+    /**
+     * Set the time a lock is held for to change only the catalog
+     * @param metadataLockMillis the time, in milliseconds
+     */
+    public void setMetadataLockMillis(long metadataLockMillis) {
+        this.metadataLockMillis = metadataLockMillis;
+    }
+
+    /**
+     * Check whether adding a column with a default avoids rewriting the table
+     * @return True if it does. False if not
+     */
+    public boolean isFastColumnDefaults() {
+        return fastColumnDefaults;
+    }
+
+    /**
+     * Set whether adding a column with a default avoids rewriting the table.
+     * This is the case from PostgreSQL 11 onwards, as long as the default
+     * isn't volatile
+     * @param fastColumnDefaults True if it does. False if not
+     */
+    public void setFastColumnDefaults(boolean fastColumnDefaults) {
+        this.fastColumnDefaults = fastColumnDefaults;
+    }
+
+    /**
+     * Estimate the cost of each step of a migration plan
+     * @param plan the plan
+     * @param sizes the sizes of the tables
+     * @return the report, with the steps that lock their table longest first
+     * and exclusive locks before shared ones
+     */
+    public MigrationCostReport estimate(MigrationPlan plan, TableSizes sizes) {
+        List<StepCost> costs = new ArrayList<StepCost>();
+        for (MigrationStep step : plan.getSteps()) {
+            costs.add(estimate(step, sizes));
+        }
+        Collections.sort(costs, new Comparator<StepCost>() {
+            @Override
+            public int compare(StepCost a, StepCost b) {
+                if (a.getLockMillis() != b.getLockMillis()) {
+                    return a.getLockMillis() > b.getLockMillis() ? -1 : 1;
+                }
+                if (a.getIoBytes() != b.getIoBytes()) {
+                    return a.getIoBytes() > b.getIoBytes() ? -1 : 1;
+                }
+                if (a.isExclusiveLock() != b.isExclusiveLock()) {
+                    return a.isExclusiveLock() ? -1 : 1;
+                }
+                return b.getImpact().compareTo(a.getImpact());
+            }
+        });
+        return new MigrationCostReport(costs);
+    }
+
+    /**
+     * Estimate the cost of a single step
+     * @param step the step
+     * @param sizes the sizes of the tables
+     * @return the cost
+     */
+    public StepCost estimate(MigrationStep step, TableSizes sizes) {
+        ChangeImpact impact = classify(step);
+        TableSize size = step.getTableName() == null ? null : sizes.get(step.getSchemaName(), step.getTableName());
+        long bytes = size == null ? 0 : size.getBytes();
+        long ioBytes = 0;
+        double ioMillis = 0;
+        if (impact == ChangeImpact.SCAN) {
+            ioBytes = bytes;
+            ioMillis = bytes * 1000.0 / readBytesPerSecond;
+        }
+        else if (impact == ChangeImpact.REWRITE) {
+            ioBytes = bytes * 2;
+            ioMillis = bytes * 1000.0 / readBytesPerSecond + bytes * 1000.0 / writeBytesPerSecond;
+        }
+        return new StepCost(step, impact, isExclusive(step), size, ioBytes, metadataLockMillis + Math.round(ioMillis));
+    }
+
+    /**
+     * Classify the work needed to apply a step, which is that of its most
+     * expensive change. A step whose changes aren't known has the impact
+     * recorded with it
+     * @param step the step
+     * @return the impact of the step
+     */
+    public ChangeImpact classify(MigrationStep step) {
+        if (step.getImpact() != null) {
+            return step.getImpact();
+        }
+        ChangeImpact impact = ChangeImpact.METADATA;
+        if (step.getType() == MigrationStep.Type.ALTER_TABLE) {
+            for (Change change : step.getChanges()) {
+                ChangeImpact changeImpact = classify(change);
+                if (changeImpact.compareTo(impact) > 0) {
+                    impact = changeImpact;
+                }
+            }
+        }
+        return impact;
+    }
+
+    /**
+     * Classify the work needed to apply a single change to an existing table
+     * @param change the change
+     * @return the impact of the change
+     */
+    public ChangeImpact classify(Change change) {
+        switch (change.getType()) {
+            case ADD_COLUMN:
+                Column column = (Column) change.getNewValue();
+                if (column.getDefaultValue() != null) {
+                    return fastColumnDefaults ? ChangeImpact.METADATA : ChangeImpact.REWRITE;
+                }
+                return column.isNullable() ? ChangeImpact.METADATA : ChangeImpact.SCAN;
+            case ALTER_COLUMN_TYPE:
+                return classifyType((DataType) change.getOldValue(), (DataType) change.getNewValue());
+            case ALTER_COLUMN_NULLABLE:
+                return Boolean.FALSE.equals(change.getNewValue()) ? ChangeImpact.SCAN : ChangeImpact.METADATA;
+            case ALTER_TABLE_KEY:
+                return ChangeImpact.SCAN;
+            default:
+                return ChangeImpact.METADATA;
+        }
+    }
+
+    /**
+     * Classify a change of data type. Widening a type so that every existing
+     * value is still valid and stored the same way only changes the catalog.
+     * Anything else casts every value, which rewrites the table
+     * @param from the old data type
+     * @param to the new data type
+     * @return the impact of the change
+     */
+    private ChangeImpact classifyType(DataType from, DataType to) {
+        if (from instanceof StringDataType && to instanceof StringDataType) {
+            StringDataType a = (StringDataType) from;
+            StringDataType b = (StringDataType) to;
+            if (!a.isVariableSize() || !b.isVariableSize()) {
+                return ChangeImpact.REWRITE;
+            }
+            if (b.getSize() == null || (a.getSize() != null && b.getSize() >= a.getSize())) {
+                return ChangeImpact.METADATA;
+            }
+        }
+        else if (from instanceof NumberDataType && to instanceof NumberDataType) {
+            NumberDataType a = (NumberDataType) from;
+            NumberDataType b = (NumberDataType) to;
+            if (a.getScale() == b.getScale() && b.getPrecision() >= a.getPrecision()) {
+                return ChangeImpact.METADATA;
+            }
+        }
+        else if (from instanceof TimestampDataType && to instanceof TimestampDataType) {
+            TimestampDataType a = (TimestampDataType) from;
+            TimestampDataType b = (TimestampDataType) to;
+            if (a.getType() == b.getType() && a.isWithTimezone() == b.isWithTimezone()
+                    && b.getPrecision() >= a.getPrecision()) {
+                return ChangeImpact.METADATA;
+            }
+        }
+        return ChangeImpact.REWRITE;
+    }
+
+    /**
+     * Check whether a step takes a lock that blocks all access to an existing
+     * table. Creating objects doesn't lock anything that exists, and comments
+     * only block other changes to the table
+     * @param step the step
+     * @return True if the lock is exclusive. False if not
+     */
+    private boolean isExclusive(MigrationStep step) {
+        switch (step.getType()) {
+            case ALTER_TABLE:
+                for (Change change : step.getChanges()) {
+                    if (change.getType() != Change.Type.ALTER_TABLE_COMMENT
+                            && change.getType() != Change.Type.ALTER_COLUMN_COMMENT) {
+                        return true;
+                    }
+                }
+                return false;
+            case DROP_TABLE:
+            case DROP_SCHEMA:
+                return true;
+            default:
+                return false;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2011 graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.grahamcox.mdb.migration;
+
+import java.util.Locale;
+
+/**
+ * The estimated cost of a single migration step
+ * @author graham
+ */
+public class StepCost {
+    /** The step */
+    private final MigrationStep step;
+    /** The most expensive impact of any of the changes in the step */
+    private final ChangeImpact impact;
+    /** Whether the step holds a lock that blocks all access to the table */
+    private final boolean exclusiveLock;
+    /** The size of the table, or null if it isn't known */
+    private final TableSize size;
+    /** The estimated number of bytes read and written */
+    private final long ioBytes;
+    /** The estimated time the lock is held for, in milliseconds */
+    private final long lockMillis;
+
+    /**
+     * Create the step cost
+     * @param step the step
+     * @param impact the most expensive impact of any of the changes in the step
+     * @param exclusiveLock whether the step holds a lock that blocks all
+     * access to the table
+     * @param size the size of the table, or null if it isn't known
+     * @param ioBytes the estimated number of bytes read and written
+     * @param lockMillis the estimated time the lock is held for, in milliseconds
+     */
+    public StepCost(MigrationStep step, ChangeImpact impact, boolean exclusiveLock, TableSize size, long ioBytes,
+            long lockMillis) {
+        this.step = step;
+        this.impact = impact;
+        this.exclusiveLock = exclusiveLock;
+        this.size = size;
+        this.ioBytes = ioBytes;
+        this.lockMillis = lockMillis;
+    }
+
+    /**
+     * Get the step
+     * @return the step
+     */
+    public MigrationStep getStep() {
+        return step;
+    }
+
+    /**
+     * Get the most expensive impact of any of the changes in the step
+     * @return the impact
+     */
+    public ChangeImpact getImpact() {
+        return impact;
+    }
+
+    /**
+     * Check whether the step holds a lock that blocks all access to the
+     * table, both reads and writes
+     * @return True if the lock is exclusive. False if not
+     */
+    public boolean isExclusiveLock() {
+        return exclusiveLock;
+    }
+
+    /**
+     * Get the size of the table
+     * @return the size, or null if it isn't known
+     */
+    public TableSize getSize() {
+        return size;
+    }
+
+    /**
+     * Get the estimated number of bytes read and written
+     * @return the number of bytes
+     */
+    public long getIoBytes() {
+        return ioBytes;
+    }
+
+    /**
+     * Get the estimated time the lock is held for
+     * @return the time, in milliseconds
+     */
+    public long getLockMillis() {
+        return lockMillis;
+    }
+
+    /**
+     * Generate a string for the object
+     * @return the string
+     */
+    @Override
+    public String toString() {
+        String table = step.getTableName() == null ? step.getSchemaName()
+                : step.getSchemaName() + "." + step.getTableName();
+        return String.format(Locale.ENGLISH, "%-13s %-40s %-8s %-9s %12s %10.1f MB %10d ms", step.getType(), table,
+                impact, exclusiveLock ? "EXCLUSIVE" : "SHARED", size == null ? "unknown" : size.getRows() + " rows",
+                ioBytes / (1024.0 * 1024.0), lockMillis);
+    }
+}
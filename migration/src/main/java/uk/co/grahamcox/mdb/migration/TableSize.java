@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2011 graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.grahamcox.mdb.migration;
+
+/**
+ * The size of a single table, as used to estimate how long changing it will
+ * take
+ * @author graham
+ */
+public class TableSize {
+    /** The name of the schema the table is in */
+    private final String schemaName;
+    /** The name of the table */
+    private final String tableName;
+    /** The number of rows in the table */
+    private final long rows;
+    /** The size of the table on disk, including its indexes, in bytes */
+    private final long bytes;
+
+    /**
+     * Create the table size
+     * @param schemaName the name of the schema the table is in
+     * @param tableName the name of the table
+     * @param rows the number of rows in the table
+     * @param bytes the size of the table on disk, in bytes
+     */
+    public TableSize(String schemaName, String tableName, long rows, long bytes) {
+        this.schemaName = schemaName;
+        this.tableName = tableName;
+        this.rows = rows;
+        this.bytes = bytes;
+    }
+
+    /**
+     * Get the name of the schema the table is in
+     * @return the schema name
+     */
+    public String getSchemaName() {
+        return schemaName;
+    }
+
+    /**
+     * Get the name of the table
+     * @return the table name
+     */
+    public String getTableName() {
+        return tableName;
+    }
+
+    /**
+     * Get the number of rows in the table
+     * @return the number of rows
+     */
+    public long getRows() {
+        return rows;
+    }
+
+    /**
+     * Get the size of the table on disk, including its indexes
+     * @return the size, in bytes
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Generate a string for the object
+     * @return the string
+     */
+    @Override
+    public String toString() {
+        return "TableSize{" + schemaName + "." + tableName + ", rows=" + rows + ", bytes=" + bytes + '}';
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2011 graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.grahamcox.mdb.migration;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The sizes of a set of tables, either read from the statistics in the
+ * database catalog or loaded from a local file. The file has one table per
+ * line, giving the schema name, table name, number of rows and size in bytes
+ * separated by whitespace, so names containing whitespace can't be stored.
+ * Blank lines and lines starting with # are ignored
+ * @author graham
+ */
+public class TableSizes {
+    /** The query to read the table sizes from a PostgreSQL catalog */
+    public static final String POSTGRESQL_QUERY = "SELECT n.nspname, c.relname,"
+            + " CAST(GREATEST(c.reltuples, 0) AS bigint), pg_catalog.pg_total_relation_size(c.oid)"
+            + " FROM pg_catalog.pg_class c JOIN pg_catalog.pg_namespace n ON c.relnamespace = n.oid"
+            + " WHERE c.relkind = 'r'";
+
+    /** The sizes of the tables, keyed by schema name and then table name */
+    private final Map<String, Map<String, TableSize>> sizes = new HashMap<String, Map<String, TableSize>>();
+
+    /**
+     * Add the size of a table, replacing any size it already has
+     * @param size the size of the table
+     */
+    public void put(TableSize size) {
+        Map<String, TableSize> schema = sizes.get(size.getSchemaName());
+        if (schema == null) {
+            schema = new HashMap<String, TableSize>();
+            sizes.put(size.getSchemaName(), schema);
+        }
+        schema.put(size.getTableName(), size);
+    }
+
+    /**
+     * Get the size of a table
+     * @param schemaName the name of the schema the table is in
+     * @param tableName the name of the table
+     * @return the size, or null if it isn't known
+     */
+    public TableSize get(String schemaName, String tableName) {
+        Map<String, TableSize> schema = sizes.get(schemaName);
+        return schema == null ? null : schema.get(tableName);
+    }
+
+    /**
+     * Get the sizes of all of the tables
+     * @return the sizes, in no particular order
+     */
+    public List<TableSize> getAll() {
+        List<TableSize> result = new ArrayList<TableSize>();
+        for (Map<String, TableSize> schema : sizes.values()) {
+            result.addAll(schema.values());
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Read the table sizes from a PostgreSQL catalog. The row counts are the
+     * planner estimates, so are only as recent as the last ANALYZE
+     * @param connection the connection to use
+     * @return the table sizes
+     * @throws SQLException if an error occurs
+     */
+    public static TableSizes read(Connection connection) throws SQLException {
+        return read(connection, POSTGRESQL_QUERY);
+    }
+
+    /**
+     * Read the table sizes using the given query, which must return the
+     * schema name, table name, number of rows and size in bytes of each table
+     * @param connection the connection to use
+     * @param query the query
+     * @return the table sizes
+     * @throws SQLException if an error occurs
+     */
+    public static TableSizes read(Connection connection, String query) throws SQLException {
+        TableSizes result = new TableSizes();
+        Statement statement = connection.createStatement();
+        try {
+            ResultSet results = statement.executeQuery(query);
+            while (results.next()) {
+                result.put(new TableSize(results.getString(1), results.getString(2), results.getLong(3),
+                        results.getLong(4)));
+            }
+        }
+        finally {
+            statement.close();
+        }
+        return result;
+    }
+
+    /**
+     * Load the table sizes from a local file
+     * @param file the file to load
+     * @return the table sizes
+     * @throws IOException if the file can't be read or isn't valid
+     */
+    public static TableSizes load(File file) throws IOException {
+        TableSizes result = new TableSizes();
+        BufferedReader input = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            String line;
+            int lineNumber = 0;
+            while ((line = input.readLine()) != null) {
+                ++lineNumber;
+                line = line.trim();
+                if (line.length() == 0 || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split("\\s+");
+                if (fields.length != 4) {
+                    throw new IOException("Invalid table size on line " + lineNumber + " of " + file);
+                }
+                try {
+                    result.put(new TableSize(fields[0], fields[1], Long.parseLong(fields[2]),
+                            Long.parseLong(fields[3])));
+                }
+                catch (NumberFormatException ex) {
+                    throw new IOException("Invalid table size on line " + lineNumber + " of " + file, ex);
+                }
+            }
+        }
+        finally {
+            input.close();
+        }
+        return result;
+    }
+
+    /**
+     * Save the table sizes to a local file, so that they can be used without
+     * a connection to the database
+     * @param file the file to save to
+     * @throws IOException if the file can't be written
+     */
+    public void save(File file) throws IOException {
+        Writer output = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            output.write("# schema table rows bytes\n");
+            for (TableSize size : getAll()) {
+                output.write(size.getSchemaName() + " " + size.getTableName() + " " + size.getRows() + " "
+                        + size.getBytes() + "\n");
+            }
+        }
+        finally {
+            output.close();
+        }
+    }
+}
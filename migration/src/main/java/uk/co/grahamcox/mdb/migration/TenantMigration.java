@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2011 graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.grahamcox.mdb.migration;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import uk.co.grahamcox.mdb.diff.Change;
+import uk.co.grahamcox.mdb.diff.DatabaseDiff;
+import uk.co.grahamcox.mdb.diff.DiffEngine;
+import uk.co.grahamcox.mdb.schema.Database;
+import uk.co.grahamcox.mdb.schema.Fingerprint;
+import uk.co.grahamcox.mdb.schema.Schema;
+import uk.co.grahamcox.mdb.schema.SchemaTemplate;
+
+/**
+ * Plan the migration of many schemas with the same structure, such as one
+ * schema per tenant, to a {@link SchemaTemplate}. The schemas are grouped by
+ * their current shape, and the diff and plan are only worked out once for
+ * each group, against a stand in for the schema name. The plan is then copied
+ * for each schema in the group with the real name swapped in. The steps for
+ * different schemas don't depend on each other, so executing the result with
+ * a {@link MigrationScheduler} migrates the schemas concurrently.
+ * <p>
+ * Schemas in the database that aren't named in the template are left alone.
+ * The changes of the steps are those of the plan for the group, so refer to
+ * the stand in schema name
+ * @author graham
+ */
+public class TenantMigration {
+    /**
+     * The stand in for the schema name when planning a group. PostgreSQL
+     * allows NUL in neither identifiers nor literals, so this can't clash
+     * with anything else in a statement. The quote in the middle is doubled
+     * when the name is written inside a string literal, which tells the two
+     * places apart
+     */
+    private static final String PLACEHOLDER = "\u0000ten'ant\u0000";
+    /** The quoted stand in, as it appears in the statements */
+    private static final String QUOTED_PLACEHOLDER = quote(PLACEHOLDER);
+    /** The quoted stand in, as it appears inside string literals */
+    private static final String LITERAL_PLACEHOLDER = QUOTED_PLACEHOLDER.replace("'", "''");
+
+    /** The logger to use */
+    private final Log LOG = LogFactory.getLog(TenantMigration.class);
+    /** The planner to plan each group with */
+    private final MigrationPlanner planner;
+    /** The diff engine to diff each group with */
+    private final DiffEngine diffEngine = new DiffEngine();
+
+    /**
+     * Create the tenant migration
+     * @param planner the planner to plan each group with
+     */
+    public TenantMigration(MigrationPlanner planner) {
+        this.planner = planner;
+    }
+
+    /**
+     * Create the tenant migration, with a standard planner
+     */
+    public TenantMigration() {
+        this(new MigrationPlanner());
+    }
+
+    /**
+     * Work out the steps needed to make every schema named in the template
+     * match it
+     * @param template the template
+     * @param current the database as it is
+     * @return the plan, with the steps for each schema together in the order
+     * the schemas were added to the template
+     */
+    public MigrationPlan plan(SchemaTemplate template, Database current) {
+        Schema target = template.instantiate(PLACEHOLDER);
+        Map<Fingerprint, MigrationPlan> plans = new HashMap<Fingerprint, MigrationPlan>();
+        List<MigrationStep> steps = new ArrayList<MigrationStep>();
+        for (String schemaName : template.getSchemaNames()) {
+            Schema schema = current.getSchema(schemaName);
+            Fingerprint shape = SchemaTemplate.shape(schema);
+            MigrationPlan plan = plans.get(shape);
+            if (plan == null) {
+                plan = planShape(schema, target);
+                plans.put(shape, plan);
+            }
+            String quoted = quote(schemaName);
+            for (MigrationStep step : plan.getSteps()) {
+                steps.add(forSchema(step, schemaName, quoted));
+            }
+        }
+        LOG.info("Planned " + template.getSchemaNames().size() + " schemas from " + plans.size() + " distinct shapes");
+        return new MigrationPlan(steps);
+    }
+
+    /**
+     * Plan the changes to turn a schema of one shape into the template
+     * @param current the schema as it is, or null if it doesn't exist
+     * @param target the template, named with the stand in
+     * @return the plan
+     */
+    protected MigrationPlan planShape(Schema current, Schema target) {
+        List<Change> changes = new ArrayList<Change>();
+        diffEngine.diffSchema(current, target, changes);
+        return planner.plan(new DatabaseDiff(changes));
+    }
+
+    /**
+     * Copy a step planned against the stand in for a real schema. Where the
+     * name is inside a string literal, such as a table name cast to regclass,
+     * its quotes are doubled up as well
+     * @param step the step
+     * @param schemaName the name of the schema
+     * @param quoted the quoted name of the schema
+     * @return the step for the schema
+     */
+    private MigrationStep forSchema(MigrationStep step, String schemaName, String quoted) {
+        List<String> statements = new ArrayList<String>(step.getStatements().size());
+        for (String statement : step.getStatements()) {
+            statements.add(statement.replace(LITERAL_PLACEHOLDER, quoted.replace("'", "''"))
+                    .replace(QUOTED_PLACEHOLDER, quoted));
+        }
+        return new MigrationStep(step.getType(), schemaName, step.getTableName(), statements, step.getChanges());
+    }
+
+    /**
+     * Quote an identifier
+     * @param name the identifier
+     * @return the quoted identifier
+     */
+    private static String quote(String name) {
+        return "\"" + name.replace("\"", "\"\"") + "\"";
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2011 graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.grahamcox.mdb.migration;
+
+import uk.co.grahamcox.mdb.schema.Column;
+import uk.co.grahamcox.mdb.schema.Database;
+import uk.co.grahamcox.mdb.schema.Schema;
+import uk.co.grahamcox.mdb.schema.Table;
+import uk.co.grahamcox.mdb.schema.datatype.DataTypeRegistry;
+
+/**
+ * Base class for the tests of planning and costing migrations, with the
+ * models that they share
+ * @author graham
+ */
+abstract class MigrationFixtures {
+    /**
+     * Create a column
+     * @param name the name of the column
+     * @param type the data type, as parsed by the {@link DataTypeRegistry}
+     * @param nullable True if the column is nullable. False if not
+     * @param defaultValue the default value, or null
+     * @return the column
+     */
+    static Column column(String name, String type, boolean nullable, String defaultValue) {
+        Column column = new Column(name);
+        column.setDataType(DataTypeRegistry.getInstance().parse(type));
+        column.setNullable(nullable);
+        column.setDefaultValue(defaultValue);
+        return column;
+    }
+
+    /**
+     * Create a table keyed on a numeric id, with a single value column
+     * @param name the name of the table
+     * @param type the data type of the value column
+     * @param nullable True if the value column is nullable. False if not
+     * @return the table
+     */
+    static Table table(String name, String type, boolean nullable) {
+        Table table = new Table(name);
+        table.addKeyColumn(column("id", "number(10)", false, null));
+        table.addColumn(column("value", type, nullable, null));
+        return table;
+    }
+
+    /**
+     * Create a database with a single schema, called users
+     * @param tables the tables in the schema
+     * @return the database
+     */
+    static Database database(Table... tables) {
+        Schema schema = new Schema("users");
+        for (Table table : tables) {
+            schema.addTable(table);
+        }
+        Database database = new Database();
+        database.addSchema(schema);
+        return database;
+    }
+}
@@ -0,0 +1,338 @@
+/*
+ * Copyright (C) 2011 graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.grahamcox.mdb.migration;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.hsqldb.jdbc.JDBCDataSource;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import uk.co.grahamcox.mdb.diff.DiffEngine;
+import uk.co.grahamcox.mdb.schema.Column;
+import uk.co.grahamcox.mdb.schema.Database;
+import uk.co.grahamcox.mdb.schema.Schema;
+import uk.co.grahamcox.mdb.schema.Table;
+import uk.co.grahamcox.mdb.schema.datatype.DataTypeRegistry;
+
+/**
+ *
+ * @author graham
+ */
+public class TestMigrationJournal {
+    private static final AtomicInteger DATABASES = new AtomicInteger();
+    private JDBCDataSource dataSource;
+    private File file;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        dataSource = new JDBCDataSource();
+        dataSource.setDatabase("jdbc:hsqldb:mem:journal" + DATABASES.incrementAndGet());
+        dataSource.setUser("SA");
+        dataSource.setPassword("");
+        file = File.createTempFile("migration", ".journal");
+        file.delete();
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        file.delete();
+        execute("SHUTDOWN");
+    }
+
+    private void execute(String sql) throws SQLException {
+        Connection connection = dataSource.getConnection();
+        try {
+            connection.createStatement().execute(sql);
+        }
+        finally {
+            connection.close();
+        }
+    }
+
+    private MigrationPlan plan(int schemas, int tables) {
+        Database database = new Database();
+        for (int s = 0; s < schemas; ++s) {
+            Schema schema = new Schema("tenant" + s);
+            for (int t = 0; t < tables; ++t) {
+                Table table = new Table("table" + t);
+                Column id = new Column("id");
+                id.setDataType(DataTypeRegistry.getInstance().getNumber(10, 0));
+                id.setNullable(false);
+                table.addKeyColumn(id);
+                schema.addTable(table);
+            }
+            database.addSchema(schema);
+        }
+        return new MigrationPlanner().plan(new DiffEngine().diff(new Database(), database));
+    }
+
+    @Test
+    public void testReopen() throws Exception {
+        MigrationPlan plan = plan(2, 3);
+        MigrationJournal journal = MigrationJournal.open(file);
+        Assert.assertNull(journal.getPlan());
+        journal.start(plan, "target");
+        journal.complete(Arrays.asList(0, 2));
+        journal.complete(Arrays.asList(3));
+        journal.close();
+
+        MigrationJournal reopened = MigrationJournal.open(file);
+        Assert.assertEquals(reopened.getLabel(), "target");
+        Assert.assertEquals(reopened.getPlan().getStatements(), plan.getStatements());
+        Assert.assertEquals(reopened.getPlan().getSteps().get(1).getType(), plan.getSteps().get(1).getType());
+        Assert.assertEquals(reopened.getCompletedCount(), 3);
+        Assert.assertTrue(reopened.isCompleted(0));
+        Assert.assertFalse(reopened.isCompleted(1));
+        Assert.assertTrue(reopened.isCompleted(3));
+        Assert.assertFalse(reopened.isFinished());
+        reopened.close();
+    }
+
+    @Test
+    public void testGroupSync() throws Exception {
+        MigrationJournal journal = MigrationJournal.open(file);
+        journal.setSyncSteps(3);
+        journal.setSyncMillis(Long.MAX_VALUE);
+        journal.start(plan(1, 4), null);
+        long length = file.length();
+        journal.complete(Arrays.asList(0));
+        journal.complete(Arrays.asList(1));
+        Assert.assertEquals(file.length(), length);
+        journal.complete(Arrays.asList(2));
+        Assert.assertTrue(file.length() > length);
+        journal.close();
+    }
+
+    @Test
+    public void testTornRecord() throws Exception {
+        MigrationJournal journal = MigrationJournal.open(file);
+        journal.start(plan(1, 2), null);
+        journal.complete(Arrays.asList(0));
+        journal.close();
+        FileOutputStream output = new FileOutputStream(file, true);
+        output.write(new byte[] {2, 0, 0, 0, 8, 0, 0});
+        output.close();
+
+        MigrationJournal reopened = MigrationJournal.open(file);
+        Assert.assertEquals(reopened.getCompletedCount(), 1);
+        reopened.complete(Arrays.asList(1));
+        reopened.close();
+        Assert.assertEquals(MigrationJournal.open(file).getCompletedCount(), 2);
+    }
+
+    private Database orders(boolean migrated) {
+        DataTypeRegistry registry = DataTypeRegistry.getInstance();
+        Schema schema = new Schema("tenant0");
+        for (String name : Arrays.asList("orders", "notes")) {
+            Table table = new Table(name);
+            Column id = new Column("id");
+            id.setDataType(registry.getNumber(10, 0));
+            id.setNullable(false);
+            table.addKeyColumn(id);
+            Column amount = new Column("amount");
+            amount.setDataType(migrated && name.equals("orders") ? registry.getNumber(10, 2)
+                    : registry.getString(20, true));
+            table.addColumn(amount);
+            if (migrated && name.equals("notes")) {
+                Column note = new Column("note");
+                note.setDataType(registry.getString(100, true));
+                table.addColumn(note);
+            }
+            schema.addTable(table);
+        }
+        Database database = new Database();
+        database.addSchema(schema);
+        return database;
+    }
+
+    @Test
+    public void testImpactRecorded() throws Exception {
+        MigrationPlan plan = new MigrationPlanner().plan(new DiffEngine().diff(orders(false), orders(true)));
+        RewriteCostEstimator estimator = new RewriteCostEstimator();
+        MigrationJournal journal = MigrationJournal.open(file);
+        journal.start(plan, null, estimator);
+        journal.close();
+
+        MigrationPlan resumed = MigrationJournal.open(file).getPlan();
+        Assert.assertEquals(resumed.getSteps().size(), plan.getSteps().size());
+        boolean rewrite = false;
+        for (int i = 0; i < plan.getSteps().size(); ++i) {
+            MigrationStep step = resumed.getSteps().get(i);
+            Assert.assertTrue(step.getChanges().isEmpty());
+            ChangeImpact impact = estimator.classify(plan.getSteps().get(i));
+            Assert.assertEquals(estimator.classify(step), impact, step.toString());
+            rewrite |= impact == ChangeImpact.REWRITE;
+        }
+        Assert.assertTrue(rewrite);
+    }
+
+    @Test
+    public void testResume() throws Exception {
+        execute("CREATE SCHEMA \"tenant1\"");
+        MigrationPlan plan = plan(3, 2);
+        MigrationScheduler scheduler = new MigrationScheduler(dataSource);
+        scheduler.setParallelism(1);
+        scheduler.setJournal(MigrationJournal.open(file));
+        try {
+            scheduler.execute(plan);
+            Assert.fail("Expected the migration to fail");
+        }
+        catch (SQLException ex) {
+            scheduler.getJournal().close();
+        }
+
+        execute("DROP SCHEMA \"tenant1\"");
+        MigrationJournal journal = MigrationJournal.open(file);
+        Assert.assertEquals(journal.getCompletedCount(), 1);
+        scheduler.setJournal(journal);
+        Assert.assertEquals(scheduler.execute(journal.getPlan()), plan.getSteps().size() - 1);
+        Assert.assertTrue(journal.isFinished());
+        journal.close();
+    }
+
+    @Test
+    public void testBatchResume() throws Exception {
+        execute("CREATE SCHEMA \"tenant1\"");
+        MigrationPlan plan = plan(3, 2);
+        MigrationScheduler scheduler = new MigrationScheduler(dataSource);
+        scheduler.setParallelism(1);
+        scheduler.setBatchSize(10);
+        scheduler.setJournal(MigrationJournal.open(file));
+        try {
+            scheduler.execute(plan);
+            Assert.fail("Expected the migration to fail");
+        }
+        catch (PartialBatchException ex) {
+            scheduler.getJournal().close();
+        }
+
+        // tenant0 was created by the batch before tenant1 failed, so isn't created again
+        execute("DROP SCHEMA \"tenant1\"");
+        MigrationJournal journal = MigrationJournal.open(file);
+        Assert.assertTrue(journal.isCompleted(0));
+        Assert.assertFalse(journal.isCompleted(1));
+        int completed = journal.getCompletedCount();
+        scheduler.setJournal(journal);
+        Assert.assertEquals(scheduler.execute(journal.getPlan()), plan.getSteps().size() - completed);
+        Assert.assertTrue(journal.isFinished());
+        journal.close();
+    }
+
+    @Test
+    public void testCrashResume() throws Exception {
+        final File crashed = File.createTempFile("crashed", ".journal");
+        crashed.deleteOnExit();
+        MigrationPlan plan = plan(3, 2);
+        MigrationJournal journal = MigrationJournal.open(file);
+        journal.setSyncSteps(Integer.MAX_VALUE);
+        journal.setSyncMillis(Long.MAX_VALUE);
+        final AtomicInteger executed = new AtomicInteger();
+        MigrationScheduler scheduler = new MigrationScheduler(dataSource) {
+            @Override
+            protected void executeSteps(Connection connection, List<MigrationStep> steps) throws SQLException {
+                if (executed.getAndIncrement() == 4) {
+                    // Take the journal as it is on disk, as if the process had been killed here
+                    try {
+                        copy(file, crashed);
+                    }
+                    catch (IOException ex) {
+                        throw new SQLException(ex);
+                    }
+                    throw new SQLException("Killed");
+                }
+                super.executeSteps(connection, steps);
+            }
+        };
+        scheduler.setParallelism(1);
+        scheduler.setJournal(journal);
+        try {
+            scheduler.execute(plan);
+            Assert.fail("Expected the migration to fail");
+        }
+        catch (SQLException ex) {
+            journal.close();
+        }
+
+        MigrationJournal reopened = MigrationJournal.open(crashed);
+        Assert.assertEquals(reopened.getCompletedCount(), 4);
+        MigrationScheduler resumed = new MigrationScheduler(dataSource);
+        resumed.setJournal(reopened);
+        Assert.assertEquals(resumed.execute(reopened.getPlan()), plan.getSteps().size() - 4);
+        Assert.assertTrue(reopened.isFinished());
+        reopened.close();
+    }
+
+    @Test
+    public void testInterruptedRewrite() throws Exception {
+        MigrationJournal journal = MigrationJournal.open(file);
+        journal.start(plan(1, 2), null);
+        journal.complete(Arrays.asList(0, 1));
+        journal.close();
+        File temp = new File(file.getPath() + ".tmp");
+
+        // Died while writing the new journal, so the old one is still there
+        FileOutputStream output = new FileOutputStream(temp);
+        output.write(new byte[] {0x4d, 0x44});
+        output.close();
+        Assert.assertEquals(MigrationJournal.open(file).getCompletedCount(), 2);
+        Assert.assertFalse(temp.exists());
+
+        // Died after removing the old journal but before renaming the new one
+        Assert.assertTrue(file.renameTo(temp));
+        MigrationJournal recovered = MigrationJournal.open(file);
+        Assert.assertEquals(recovered.getCompletedCount(), 2);
+        Assert.assertFalse(temp.exists());
+        recovered.close();
+    }
+
+    private static void copy(File from, File to) throws IOException {
+        FileInputStream input = new FileInputStream(from);
+        try {
+            FileOutputStream output = new FileOutputStream(to);
+            try {
+                byte[] buffer = new byte[4096];
+                for (int read = input.read(buffer); read >= 0; read = input.read(buffer)) {
+                    output.write(buffer, 0, read);
+                }
+            }
+            finally {
+                output.close();
+            }
+        }
+        finally {
+            input.close();
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testDifferentPlan() throws Exception {
+        MigrationJournal journal = MigrationJournal.open(file);
+        journal.start(plan(1, 1), null);
+        MigrationScheduler scheduler = new MigrationScheduler(dataSource);
+        scheduler.setJournal(journal);
+        scheduler.execute(plan(2, 1));
+    }
+}
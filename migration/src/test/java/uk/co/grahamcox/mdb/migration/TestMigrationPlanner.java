@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2011 graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.grahamcox.mdb.migration;
+
+import java.util.Arrays;
+import java.util.List;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import uk.co.grahamcox.mdb.diff.DiffEngine;
+import uk.co.grahamcox.mdb.schema.Column;
+import uk.co.grahamcox.mdb.schema.Database;
+import uk.co.grahamcox.mdb.schema.Schema;
+import uk.co.grahamcox.mdb.schema.Table;
+
+/**
+ *
+ * @author graham
+ */
+public class TestMigrationPlanner extends MigrationFixtures {
+    private List<String> plan(Database current, Database target) {
+        return new MigrationPlanner().plan(new DiffEngine().diff(current, target)).getStatements();
+    }
+
+    @Test
+    public void testNoChanges() {
+        Table table = new Table("user");
+        table.addKeyColumn(column("id", "number(10)", false, null));
+        table.freeze();
+        Assert.assertTrue(new MigrationPlanner().plan(new DiffEngine().diff(database(table), database(table))).isEmpty());
+    }
+
+    @Test
+    public void testColumnChangesCoalesced() {
+        Table current = new Table("user");
+        current.addKeyColumn(column("id", "number(10)", false, null));
+        current.addColumn(column("name", "varchar(50)", true, null));
+        current.addColumn(column("age", "number(3)", true, "0"));
+        current.addColumn(column("fax", "varchar(20)", true, null));
+
+        Table target = new Table("user");
+        target.addKeyColumn(column("id", "number(10)", false, null));
+        target.addColumn(column("name", "varchar(100)", false, null));
+        target.addColumn(column("age", "number(3)", true, null));
+        Column email = column("email", "varchar(200)", true, null);
+        email.setComment("Email address");
+        target.addColumn(email);
+
+        Assert.assertEquals(plan(database(current), database(target)), Arrays.asList(
+                "ALTER TABLE \"users\".\"user\"\n"
+                + "    DROP COLUMN \"fax\",\n"
+                + "    ADD COLUMN \"email\" varchar(200),\n"
+                + "    ALTER COLUMN \"age\" DROP DEFAULT,\n"
+                + "    ALTER COLUMN \"name\" TYPE varchar(100),\n"
+                + "    ALTER COLUMN \"name\" SET NOT NULL",
+                "COMMENT ON COLUMN \"users\".\"user\".\"email\" IS 'Email address'"));
+    }
+
+    @Test
+    public void testKeyChange() {
+        Table current = new Table("user");
+        current.addKeyColumn(column("id", "number(10)", false, null));
+        current.addColumn(column("tenant", "number(10)", false, null));
+        current.setComment("Users");
+
+        Table target = new Table("user");
+        target.addKeyColumn(column("tenant", "number(10)", false, null));
+        target.addKeyColumn(column("id", "number(10)", false, null));
+
+        Assert.assertEquals(plan(database(current), database(target)), Arrays.asList(
+                "DO $mdb$DECLARE k name; BEGIN\n"
+                + "    SELECT conname INTO k FROM pg_catalog.pg_constraint"
+                + " WHERE conrelid = '\"users\".\"user\"'::regclass AND contype = 'p';\n"
+                + "    IF k IS NOT NULL THEN EXECUTE 'ALTER TABLE \"users\".\"user\" DROP CONSTRAINT '"
+                + " || quote_ident(k); END IF;\n"
+                + "END$mdb$",
+                "ALTER TABLE \"users\".\"user\"\n"
+                + "    ADD PRIMARY KEY (\"tenant\", \"id\")",
+                "COMMENT ON TABLE \"users\".\"user\" IS NULL"));
+    }
+
+    @Test
+    public void testColumnsAddedInDeclarationOrder() {
+        Table current = new Table("user");
+        current.addKeyColumn(column("id", "number(10)", false, null));
+
+        Table target = new Table("user");
+        target.addKeyColumn(column("id", "number(10)", false, null));
+        target.addColumn(column("surname", "varchar(100)", true, null));
+        target.addColumn(column("forename", "varchar(100)", true, null));
+        Column added = column("age", "number(3)", true, null);
+        added.setComment("Age");
+        target.addColumn(added);
+
+        Assert.assertEquals(plan(database(current), database(target)), Arrays.asList(
+                "ALTER TABLE \"users\".\"user\"\n"
+                + "    ADD COLUMN \"surname\" varchar(100),\n"
+                + "    ADD COLUMN \"forename\" varchar(100),\n"
+                + "    ADD COLUMN \"age\" numeric(3)",
+                "COMMENT ON COLUMN \"users\".\"user\".\"age\" IS 'Age'"));
+    }
+
+    @Test
+    public void testStepOrder() {
+        Table user = new Table("user");
+        user.addKeyColumn(column("id", "number(10)", false, null));
+        Table old = new Table("old");
+        old.addKeyColumn(column("id", "number(10)", false, null));
+        Table changed = new Table("changed");
+        changed.addKeyColumn(column("id", "number(10)", false, null));
+        Table changedTarget = new Table("changed");
+        changedTarget.addKeyColumn(column("id", "number(19)", false, null));
+
+        Database current = database(old, changed);
+        Schema gone = new Schema("gone");
+        current.addSchema(gone);
+        Database target = database(user, changedTarget);
+        Schema added = new Schema("added");
+        added.setComment("New");
+        target.addSchema(added);
+
+        MigrationPlan plan = new MigrationPlanner().plan(new DiffEngine().diff(current, target));
+        Assert.assertEquals(plan.getSteps().size(), 5);
+        Assert.assertEquals(plan.getSteps().get(0).getType(), MigrationStep.Type.CREATE_SCHEMA);
+        Assert.assertEquals(plan.getSteps().get(1).getType(), MigrationStep.Type.CREATE_TABLE);
+        Assert.assertEquals(plan.getSteps().get(2).getType(), MigrationStep.Type.ALTER_TABLE);
+        Assert.assertEquals(plan.getSteps().get(3).getType(), MigrationStep.Type.DROP_TABLE);
+        Assert.assertEquals(plan.getSteps().get(4).getType(), MigrationStep.Type.DROP_SCHEMA);
+        Assert.assertEquals(plan.getStatements(), Arrays.asList(
+                "CREATE SCHEMA \"added\"",
+                "COMMENT ON SCHEMA \"added\" IS 'New'",
+                "CREATE TABLE \"users\".\"user\" (\n    \"id\" numeric(10) NOT NULL,\n    PRIMARY KEY (\"id\")\n)",
+                "ALTER TABLE \"users\".\"changed\"\n    ALTER COLUMN \"id\" TYPE numeric(19)",
+                "DROP TABLE IF EXISTS \"users\".\"old\"",
+                "DROP SCHEMA IF EXISTS \"gone\" CASCADE"));
+    }
+
+    @Test
+    public void testSizeOrdering() {
+        Database current = database(table("big", "number(10, 2)", true), table("medium", "varchar(100)", true),
+                table("small", "number(10, 2)", true));
+        Database target = database(table("big", "number(10, 4)", true), table("medium", "varchar(50)", true),
+                table("small", "number(10, 4)", true));
+        TableSizes sizes = new TableSizes();
+        sizes.put(new TableSize("users", "big", 1000000, 1L << 33));
+        sizes.put(new TableSize("users", "medium", 10000, 1L << 23));
+        sizes.put(new TableSize("users", "small", 100, 1L << 13));
+
+        MigrationPlanner planner = new MigrationPlanner();
+        List<MigrationStep> steps = planner.plan(new DiffEngine().diff(current, target)).getSteps();
+        Assert.assertEquals(steps.get(0).getTableName(), "big");
+
+        planner.setTableSizes(sizes);
+        steps = planner.plan(new DiffEngine().diff(current, target)).getSteps();
+        Assert.assertEquals(steps.get(0).getTableName(), "small");
+        Assert.assertEquals(steps.get(1).getTableName(), "medium");
+        Assert.assertEquals(steps.get(2).getTableName(), "big");
+    }
+}
@@ -0,0 +1,365 @@
+/*
+ * Copyright (C) 2011 graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.grahamcox.mdb.migration;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import org.hsqldb.jdbc.JDBCDataSource;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import uk.co.grahamcox.mdb.catalog.AppliedModelStore;
+import uk.co.grahamcox.mdb.diff.DiffEngine;
+import uk.co.grahamcox.mdb.schema.Column;
+import uk.co.grahamcox.mdb.schema.Database;
+import uk.co.grahamcox.mdb.schema.Schema;
+import uk.co.grahamcox.mdb.schema.Table;
+import uk.co.grahamcox.mdb.schema.datatype.DataTypeRegistry;
+
+/**
+ *
+ * @author graham
+ */
+public class TestMigrationScheduler {
+    private static final AtomicInteger DATABASES = new AtomicInteger();
+    private CountingDataSource dataSource;
+
+    private static class CountingDataSource extends JDBCDataSource {
+        private static final long serialVersionUID = 1L;
+        private final AtomicInteger connections = new AtomicInteger();
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            connections.incrementAndGet();
+            return super.getConnection();
+        }
+
+        public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+            throw new SQLFeatureNotSupportedException();
+        }
+    }
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        dataSource = new CountingDataSource();
+        dataSource.setDatabase("jdbc:hsqldb:mem:scheduler" + DATABASES.incrementAndGet());
+        dataSource.setUser("SA");
+        dataSource.setPassword("");
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        Connection connection = dataSource.getConnection();
+        connection.createStatement().execute("SHUTDOWN");
+        connection.close();
+    }
+
+    private Database database(int schemas, int tables) {
+        DataTypeRegistry registry = DataTypeRegistry.getInstance();
+        Database database = new Database();
+        for (int s = 0; s < schemas; ++s) {
+            Schema schema = new Schema("tenant" + s);
+            for (int t = 0; t < tables; ++t) {
+                Table table = new Table("table" + t);
+                table.setComment("Table " + t);
+                Column id = new Column("id");
+                id.setDataType(registry.getNumber(10, 0));
+                id.setNullable(false);
+                table.addKeyColumn(id);
+                Column name = new Column("name");
+                name.setDataType(registry.getString(100, true));
+                name.setNullable(false);
+                table.addColumn(name);
+                schema.addTable(table);
+            }
+            database.addSchema(schema);
+        }
+        return database;
+    }
+
+    private MigrationPlan plan(Database current, Database target) {
+        return new MigrationPlanner().plan(new DiffEngine().diff(current, target));
+    }
+
+    private int countTables() throws SQLException {
+        Connection connection = dataSource.getConnection();
+        try {
+            ResultSet tables = connection.getMetaData().getTables(null, null, "table%", null);
+            int count = 0;
+            while (tables.next()) {
+                ++count;
+            }
+            return count;
+        }
+        finally {
+            connection.close();
+        }
+    }
+
+    @Test
+    public void testGraph() {
+        Database current = database(2, 1);
+        current.getSchema("tenant1").addTable(new Table("extra"));
+        Database target = database(1, 2);
+        target.addSchema(new Schema("added"));
+        target.getSchema("added").addTable(new Table("new"));
+
+        MigrationGraph graph = new MigrationGraph(plan(current, target));
+        Assert.assertEquals(graph.size(), 4);
+        Assert.assertEquals(graph.getStep(0).getType(), MigrationStep.Type.CREATE_SCHEMA);
+        Assert.assertEquals(graph.getStep(1).getTableName(), "new");
+        Assert.assertEquals(graph.getStep(2).getTableName(), "table1");
+        Assert.assertEquals(graph.getStep(3).getType(), MigrationStep.Type.DROP_SCHEMA);
+
+        Assert.assertEquals(graph.getDependencies(0), Collections.<Integer>emptyList());
+        Assert.assertEquals(graph.getDependencies(1), Arrays.asList(0));
+        Assert.assertEquals(graph.getDependencies(2), Collections.<Integer>emptyList());
+        Assert.assertEquals(graph.getDependencies(3), Collections.<Integer>emptyList());
+        Assert.assertEquals(graph.getDependents(0), Arrays.asList(1));
+    }
+
+    @Test
+    public void testExecute() throws Exception {
+        MigrationPlan plan = plan(new Database(), database(6, 8));
+        MigrationScheduler scheduler = new MigrationScheduler(dataSource);
+        scheduler.setParallelism(4);
+        Assert.assertEquals(scheduler.execute(plan), 6 + 6 * 8);
+        Assert.assertTrue(dataSource.connections.get() <= 4);
+        Assert.assertEquals(countTables(), 6 * 8);
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        Connection connection = dataSource.getConnection();
+        connection.createStatement().execute("CREATE SCHEMA \"tenant2\"");
+        connection.close();
+
+        MigrationScheduler scheduler = new MigrationScheduler(dataSource);
+        scheduler.setParallelism(1);
+        try {
+            scheduler.execute(plan(new Database(), database(3, 2)));
+            Assert.fail("Expected the migration to fail");
+        }
+        catch (SQLException ex) {
+            Assert.assertTrue(ex.getMessage().contains("tenant2"), ex.getMessage());
+        }
+        // The schemas come first in the plan, so nothing else has started by the time tenant2 fails
+        Assert.assertEquals(countTables(), 0);
+    }
+
+    private boolean isUpToDate(Database model) throws SQLException {
+        Connection connection = dataSource.getConnection();
+        try {
+            return new AppliedModelStore().isUpToDate(connection, model);
+        }
+        finally {
+            connection.close();
+        }
+    }
+
+    @Test
+    public void testAppliedModelRecorded() throws Exception {
+        Database target = database(3, 4);
+        MigrationScheduler scheduler = new MigrationScheduler(dataSource);
+        scheduler.setParallelism(4);
+        scheduler.setAppliedModelStore(new AppliedModelStore());
+        Assert.assertFalse(isUpToDate(target));
+        scheduler.execute(plan(new Database(), target), target);
+        Assert.assertTrue(isUpToDate(target));
+    }
+
+    @Test
+    public void testAppliedModelRecordedInLastBatch() throws Exception {
+        Database target = database(3, 4);
+        final List<Database> recordedWith = Collections.synchronizedList(new ArrayList<Database>());
+        MigrationScheduler scheduler = new MigrationScheduler(dataSource) {
+            @Override
+            protected void executeSteps(Connection connection, List<MigrationStep> steps, Database model)
+                    throws SQLException {
+                if (model != null) {
+                    recordedWith.add(model);
+                }
+                super.executeSteps(connection, steps, model);
+            }
+        };
+        scheduler.setParallelism(1);
+        scheduler.setBatchSize(5);
+        scheduler.setTransactional(true);
+        scheduler.setAppliedModelStore(new AppliedModelStore());
+        scheduler.execute(plan(new Database(), target), target);
+        Assert.assertEquals(recordedWith, Collections.singletonList(target));
+        Assert.assertTrue(isUpToDate(target));
+    }
+
+    @Test
+    public void testAppliedModelNotRecordedOnFailure() throws Exception {
+        Connection connection = dataSource.getConnection();
+        connection.createStatement().execute("CREATE SCHEMA \"tenant2\"");
+        connection.close();
+
+        Database target = database(3, 2);
+        MigrationScheduler scheduler = new MigrationScheduler(dataSource);
+        scheduler.setParallelism(1);
+        scheduler.setAppliedModelStore(new AppliedModelStore());
+        try {
+            scheduler.execute(plan(new Database(), target), target);
+            Assert.fail("Expected the migration to fail");
+        }
+        catch (SQLException ex) {
+            // Expected
+        }
+        Assert.assertFalse(isUpToDate(target));
+    }
+
+    @Test
+    public void testBatched() throws Exception {
+        MigrationPlan plan = plan(new Database(), database(6, 8));
+        MigrationScheduler scheduler = new MigrationScheduler(dataSource);
+        scheduler.setParallelism(2);
+        scheduler.setBatchSize(10);
+        scheduler.setTransactional(true);
+        Assert.assertEquals(scheduler.execute(plan), 6 + 6 * 8);
+        Assert.assertEquals(countTables(), 6 * 8);
+    }
+
+    @Test
+    public void testBatchFailure() throws Exception {
+        Connection connection = dataSource.getConnection();
+        connection.createStatement().execute("CREATE SCHEMA \"tenant1\"");
+        connection.close();
+
+        MigrationScheduler scheduler = new MigrationScheduler(dataSource);
+        scheduler.setParallelism(1);
+        scheduler.setBatchSize(10);
+        try {
+            scheduler.execute(plan(new Database(), database(3, 2)));
+            Assert.fail("Expected the migration to fail");
+        }
+        catch (SQLException ex) {
+            Assert.assertTrue(ex.getMessage().contains("tenant1"), ex.getMessage());
+        }
+        Assert.assertEquals(countTables(), 0);
+    }
+
+    @Test
+    public void testRewriteBudget() throws Exception {
+        final long gb = 1024L * 1024 * 1024;
+        Database current = database(1, 5);
+        Database target = database(1, 5);
+        TableSizes sizes = new TableSizes();
+        for (int t = 0; t < 5; ++t) {
+            Column name = new Column("name");
+            name.setDataType(DataTypeRegistry.getInstance().getString(50, true));
+            name.setNullable(false);
+            target.getSchema("tenant0").getTable("table" + t).addColumn(name);
+            sizes.put(new TableSize("tenant0", "table" + t, 1000, (5 - t) * gb));
+        }
+        sizes.put(new TableSize("tenant0", "table0", 1000, 9 * gb));
+
+        final List<String> started = Collections.synchronizedList(new ArrayList<String>());
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicLong rewriting = new AtomicLong();
+        final AtomicLong sharedPeak = new AtomicLong();
+        final TableSizes tableSizes = sizes;
+        MigrationScheduler scheduler = new MigrationScheduler(dataSource) {
+            @Override
+            protected void executeSteps(Connection connection, List<MigrationStep> steps) throws SQLException {
+                long bytes = tableSizes.get("tenant0", steps.get(0).getTableName()).getBytes();
+                started.add(steps.get(0).getTableName());
+                synchronized (sharedPeak) {
+                    long now = rewriting.addAndGet(bytes);
+                    if (running.incrementAndGet() > 1) {
+                        sharedPeak.set(Math.max(sharedPeak.get(), now));
+                    }
+                }
+                try {
+                    Thread.sleep(20);
+                }
+                catch (InterruptedException ex) {
+                    throw new SQLException(ex);
+                }
+                synchronized (sharedPeak) {
+                    rewriting.addAndGet(-bytes);
+                    running.decrementAndGet();
+                }
+            }
+        };
+        scheduler.setParallelism(4);
+        scheduler.setTableSizes(sizes);
+        scheduler.setRewriteBudgetBytes(5 * gb);
+        Assert.assertEquals(scheduler.execute(plan(current, target)), 5);
+
+        // Smallest first, and the table bigger than the budget runs on its own at the end
+        Assert.assertEquals(new HashSet<String>(started.subList(0, 2)), new HashSet<String>(Arrays.asList("table4", "table3")));
+        Assert.assertEquals(started.get(4), "table0");
+        Assert.assertTrue(sharedPeak.get() <= 5 * gb, "Rewrote " + sharedPeak.get() + " bytes at once");
+    }
+
+    @Test
+    public void testBudgetDoesNotBlockOtherSteps() throws Exception {
+        final long gb = 1024L * 1024 * 1024;
+        DataTypeRegistry registry = DataTypeRegistry.getInstance();
+        Database current = database(1, 3);
+        Database target = database(1, 3);
+        for (int t = 0; t < 2; ++t) {
+            Column name = new Column("name");
+            name.setDataType(registry.getString(50, true));
+            name.setNullable(false);
+            target.getSchema("tenant0").getTable("table" + t).addColumn(name);
+        }
+        Column code = new Column("code");
+        code.setDataType(registry.getNumber(10, 0));
+        code.setNullable(false);
+        target.getSchema("tenant0").getTable("table2").addColumn(code);
+        TableSizes sizes = new TableSizes();
+        sizes.put(new TableSize("tenant0", "table0", 1000, 4 * gb));
+        sizes.put(new TableSize("tenant0", "table1", 1000, 3 * gb));
+        sizes.put(new TableSize("tenant0", "table2", 1000, 10 * gb));
+
+        // table1 is rewritten first, table0 doesn't fit in the budget beside it, and the scan of table2 comes last
+        final List<String> finished = Collections.synchronizedList(new ArrayList<String>());
+        MigrationScheduler scheduler = new MigrationScheduler(dataSource) {
+            @Override
+            protected void executeSteps(Connection connection, List<MigrationStep> steps) throws SQLException {
+                String table = steps.get(0).getTableName();
+                try {
+                    Thread.sleep(table.equals("table1") ? 200 : 20);
+                }
+                catch (InterruptedException ex) {
+                    throw new SQLException(ex);
+                }
+                finished.add(table);
+            }
+        };
+        scheduler.setParallelism(4);
+        scheduler.setTableSizes(sizes);
+        scheduler.setRewriteBudgetBytes(5 * gb);
+        Assert.assertEquals(scheduler.execute(plan(current, target)), 3);
+        Assert.assertEquals(finished, Arrays.asList("table2", "table1", "table0"));
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2011 graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.grahamcox.mdb.migration;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.hsqldb.jdbc.JDBCDataSource;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import uk.co.grahamcox.mdb.schema.Column;
+import uk.co.grahamcox.mdb.schema.Table;
+import uk.co.grahamcox.mdb.schema.datatype.DataTypeRegistry;
+
+/**
+ *
+ * @author graham
+ */
+public class TestOnlineColumnMigration {
+    private static final AtomicInteger DATABASES = new AtomicInteger();
+    private Connection connection;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        JDBCDataSource dataSource = new JDBCDataSource();
+        dataSource.setDatabase("jdbc:hsqldb:mem:online" + DATABASES.incrementAndGet());
+        dataSource.setUser("SA");
+        dataSource.setPassword("");
+        connection = dataSource.getConnection();
+        execute("CREATE SCHEMA \"tenant\"");
+        execute("CREATE TABLE \"tenant\".\"orders\" (\"region\" VARCHAR(10) NOT NULL, \"id\" NUMERIC(10) NOT NULL, "
+                + "\"amount\" VARCHAR(20), PRIMARY KEY (\"region\", \"id\"))");
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        execute("SHUTDOWN");
+        connection.close();
+    }
+
+    private void execute(String sql) throws SQLException {
+        connection.createStatement().execute(sql);
+    }
+
+    private void insert(String region, int from, int to) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement("INSERT INTO \"tenant\".\"orders\" (\"region\", \"id\", \"amount\") VALUES (?, ?, ?)");
+        for (int i = from; i < to; ++i) {
+            statement.setString(1, region);
+            statement.setInt(2, i);
+            statement.setString(3, i + ".25");
+            statement.executeUpdate();
+        }
+        statement.close();
+    }
+
+    private Table table(Column column) {
+        DataTypeRegistry registry = DataTypeRegistry.getInstance();
+        Table table = new Table("orders");
+        Column region = new Column("region");
+        region.setDataType(registry.getString(10, true));
+        region.setNullable(false);
+        table.addKeyColumn(region);
+        Column id = new Column("id");
+        id.setDataType(registry.getNumber(10, 0));
+        id.setNullable(false);
+        table.addKeyColumn(id);
+        table.addColumn(column);
+        return table;
+    }
+
+    private Column amount() {
+        Column amount = new Column("amount");
+        amount.setDataType(DataTypeRegistry.getInstance().getNumber(10, 2));
+        amount.setNullable(false);
+        return amount;
+    }
+
+    private ResultSet column(String name) throws SQLException {
+        DatabaseMetaData metaData = connection.getMetaData();
+        ResultSet columns = metaData.getColumns(null, "tenant", "orders", name);
+        return columns.next() ? columns : null;
+    }
+
+    private BigDecimal sum(String column) throws SQLException {
+        ResultSet results = connection.createStatement().executeQuery(
+                "SELECT SUM(\"" + column + "\") FROM \"tenant\".\"orders\"");
+        results.next();
+        return results.getBigDecimal(1);
+    }
+
+    @Test
+    public void testTypeChange() throws Exception {
+        insert("north", 0, 15);
+        insert("south", 0, 10);
+        OnlineColumnMigration migration = new HsqldbColumnMigration("tenant", table(amount()), "amount",
+                "CAST(\"amount\" AS NUMERIC(10, 2))", true);
+        migration.setBatchSize(10);
+        migration.run(connection);
+
+        BackfillProgress progress = migration.getProgress();
+        Assert.assertTrue(progress.isFinished());
+        Assert.assertEquals(progress.getTotalRows(), 25);
+        Assert.assertEquals(progress.getRows(), 25);
+        Assert.assertEquals(progress.getBatches(), 3);
+        Assert.assertEquals(progress.getFractionDone(), 1.0, 0.0001);
+
+        ResultSet amount = column("amount");
+        Assert.assertEquals(amount.getInt("DATA_TYPE"), Types.NUMERIC);
+        Assert.assertNull(column("amount_mdb_new"));
+        try {
+            execute("INSERT INTO \"tenant\".\"orders\" VALUES ('east', 1, NULL)");
+            Assert.fail("The amount should be NOT NULL");
+        }
+        catch (SQLException ex) {
+            // Expected
+        }
+        Assert.assertEquals(sum("amount").compareTo(new BigDecimal("156.25")), 0);
+    }
+
+    @Test
+    public void testNewColumn() throws Exception {
+        insert("north", 0, 20);
+        Column total = new Column("total");
+        total.setDataType(DataTypeRegistry.getInstance().getNumber(10, 0));
+        total.setNullable(false);
+        OnlineColumnMigration migration = new HsqldbColumnMigration("tenant", table(total), "total", "\"id\" * 2", false);
+        migration.setBatchSize(10);
+        migration.setCountRows(false);
+        Assert.assertEquals(migration.getShadowName(), "total");
+        migration.run(connection);
+
+        Assert.assertEquals(migration.getProgress().getTotalRows(), -1);
+        Assert.assertEquals(migration.getProgress().getRows(), 20);
+        Assert.assertEquals(migration.getProgress().getBatches(), 3);
+        Assert.assertEquals(column("total").getInt("NULLABLE"), DatabaseMetaData.columnNoNulls);
+        Assert.assertEquals(sum("total").intValue(), 380);
+    }
+
+    @Test
+    public void testResume() throws Exception {
+        insert("north", 0, 12);
+        OnlineColumnMigration migration = new HsqldbColumnMigration("tenant", table(amount()), "amount",
+                "CAST(\"amount\" AS NUMERIC(10, 2))", true);
+        migration.setBatchSize(5);
+        migration.addShadowColumn(connection);
+        migration.addShadowColumn(connection);
+        migration.backfill(connection);
+        Assert.assertEquals(migration.getProgress().getRows(), 12);
+
+        insert("north", 12, 14);
+        migration.swap(connection);
+        Assert.assertEquals(sum("amount").compareTo(new BigDecimal("94.50")), 0);
+    }
+
+    @Test
+    public void testLowKeyInsert() throws Exception {
+        insert("north", 0, 12);
+        OnlineColumnMigration migration = new HsqldbColumnMigration("tenant", table(amount()), "amount",
+                "CAST(\"amount\" AS NUMERIC(10, 2))", true);
+        migration.setBatchSize(5);
+        migration.addShadowColumn(connection);
+        migration.backfill(connection);
+
+        insert("east", 0, 3);
+        migration.swap(connection);
+        Assert.assertEquals(sum("amount").compareTo(new BigDecimal("72.75")), 0);
+        ResultSet checks = connection.createStatement().executeQuery(
+                "SELECT COUNT(*) FROM INFORMATION_SCHEMA.CHECK_CONSTRAINTS WHERE CONSTRAINT_NAME = 'orders_amount_not_null'");
+        checks.next();
+        Assert.assertEquals(checks.getInt(1), 0);
+    }
+
+    @Test
+    public void testWritesDuringBackfill() throws Exception {
+        insert("north", 0, 12);
+        OnlineColumnMigration migration = HsqldbColumnMigration.forTypeChange("tenant", table(amount()), "amount");
+        migration.setBatchSize(5);
+        migration.addShadowColumn(connection);
+        migration.backfill(connection);
+
+        execute("UPDATE \"tenant\".\"orders\" SET \"amount\" = '100.50' WHERE \"region\" = 'north' AND \"id\" = 3");
+        execute("INSERT INTO \"tenant\".\"orders\" VALUES ('south', 0, '7.25', NULL)");
+        ResultSet shadow = connection.createStatement().executeQuery(
+                "SELECT \"amount_mdb_new\" FROM \"tenant\".\"orders\" WHERE \"region\" = 'south'");
+        shadow.next();
+        Assert.assertEquals(shadow.getBigDecimal(1).compareTo(new BigDecimal("7.25")), 0);
+
+        migration.swap(connection);
+        ResultSet updated = connection.createStatement().executeQuery(
+                "SELECT \"amount\" FROM \"tenant\".\"orders\" WHERE \"region\" = 'north' AND \"id\" = 3");
+        updated.next();
+        Assert.assertEquals(updated.getBigDecimal(1).compareTo(new BigDecimal("100.50")), 0);
+        Assert.assertEquals(sum("amount").compareTo(new BigDecimal("173.50")), 0);
+        ResultSet triggers = connection.createStatement().executeQuery(
+                "SELECT COUNT(*) FROM INFORMATION_SCHEMA.TRIGGERS WHERE TRIGGER_SCHEMA = 'tenant'");
+        triggers.next();
+        Assert.assertEquals(triggers.getInt(1), 0);
+    }
+
+    @Test
+    public void testFailedSwap() throws Exception {
+        insert("north", 0, 5);
+        execute("INSERT INTO \"tenant\".\"orders\" VALUES ('north', 5, NULL)");
+        OnlineColumnMigration migration = new HsqldbColumnMigration("tenant", table(amount()), "amount",
+                "CAST(\"amount\" AS NUMERIC(10, 2))", true);
+        try {
+            migration.run(connection);
+            Assert.fail("NOT NULL can't be applied to a null amount");
+        }
+        catch (SQLException ex) {
+            // Expected
+        }
+        Assert.assertEquals(column("amount").getInt("DATA_TYPE"), Types.VARCHAR);
+        Assert.assertNotNull(column("amount_mdb_new"));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testKeyColumn() {
+        OnlineColumnMigration.forTypeChange("tenant", table(amount()), "id");
+    }
+
+    @Test
+    public void testSyncTriggerSql() {
+        OnlineColumnMigration migration = OnlineColumnMigration.forTypeChange("tenant", table(amount()), "amount");
+        List<String> create = migration.createSyncTriggerSql("\"tenant\"", "\"tenant\".\"orders\"",
+                "orders_amount_mdb_sync", "\"amount_mdb_new\"", "CAST(\"amount\" AS numeric(10, 2))",
+                Arrays.asList("\"amount\""), Arrays.asList("\"region\"", "\"id\""));
+        Assert.assertEquals(create.size(), 2);
+        Assert.assertTrue(create.get(1).startsWith("CREATE TRIGGER \"orders_amount_mdb_sync\" BEFORE INSERT OR UPDATE OF "
+                + "\"amount\" ON \"tenant\".\"orders\""), create.get(1));
+        Assert.assertEquals(migration.dropSyncTriggerSql("\"tenant\"", "\"tenant\".\"orders\"", "orders_amount_mdb_sync"),
+                Arrays.asList("DROP TRIGGER \"orders_amount_mdb_sync\" ON \"tenant\".\"orders\"",
+                "DROP FUNCTION \"tenant\".\"orders_amount_mdb_sync\"()"));
+    }
+
+    @Test
+    public void testForTypeChange() {
+        OnlineColumnMigration migration = OnlineColumnMigration.forTypeChange("tenant", table(amount()), "amount");
+        Assert.assertEquals(migration.getShadowName(), "amount_mdb_new");
+    }
+}
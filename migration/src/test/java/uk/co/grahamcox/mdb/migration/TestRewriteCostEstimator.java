@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2011 graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.grahamcox.mdb.migration;
+
+import java.util.List;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import uk.co.grahamcox.mdb.diff.Change;
+import uk.co.grahamcox.mdb.diff.DiffEngine;
+import uk.co.grahamcox.mdb.schema.Database;
+import uk.co.grahamcox.mdb.schema.datatype.DataTypeRegistry;
+
+/**
+ *
+ * @author graham
+ */
+public class TestRewriteCostEstimator extends MigrationFixtures {
+    private static final long MB = 1024L * 1024;
+    private final DataTypeRegistry registry = DataTypeRegistry.getInstance();
+    private final RewriteCostEstimator estimator = new RewriteCostEstimator();
+
+    private ChangeImpact classifyType(String from, String to) {
+        return estimator.classify(new Change(Change.Type.ALTER_COLUMN_TYPE, "users", "user", "name",
+                registry.parse(from), registry.parse(to)));
+    }
+
+    @Test
+    public void testClassifyStrings() {
+        Assert.assertEquals(classifyType("varchar(50)", "varchar(100)"), ChangeImpact.METADATA);
+        Assert.assertEquals(classifyType("varchar(50)", "text"), ChangeImpact.METADATA);
+        Assert.assertEquals(classifyType("varchar(100)", "varchar(50)"), ChangeImpact.REWRITE);
+        Assert.assertEquals(classifyType("text", "varchar(50)"), ChangeImpact.REWRITE);
+        Assert.assertEquals(classifyType("char(5)", "char(10)"), ChangeImpact.REWRITE);
+        Assert.assertEquals(classifyType("char(5)", "varchar(10)"), ChangeImpact.REWRITE);
+    }
+
+    @Test
+    public void testClassifyNumbers() {
+        Assert.assertEquals(classifyType("number(10, 2)", "number(12, 2)"), ChangeImpact.METADATA);
+        Assert.assertEquals(classifyType("number(12, 2)", "number(10, 2)"), ChangeImpact.REWRITE);
+        Assert.assertEquals(classifyType("number(10, 2)", "number(12, 4)"), ChangeImpact.REWRITE);
+        Assert.assertEquals(classifyType("number(10)", "varchar(20)"), ChangeImpact.REWRITE);
+    }
+
+    @Test
+    public void testClassifyTimestamps() {
+        Assert.assertEquals(classifyType("timestamp(3) with time zone", "timestamp(6) with time zone"),
+                ChangeImpact.METADATA);
+        Assert.assertEquals(classifyType("timestamp(6) with time zone", "timestamp(3) with time zone"),
+                ChangeImpact.REWRITE);
+        Assert.assertEquals(classifyType("timestamp(3) without time zone", "timestamp(3) with time zone"),
+                ChangeImpact.REWRITE);
+    }
+
+    @Test
+    public void testClassifyColumns() {
+        Assert.assertEquals(estimator.classify(new Change(Change.Type.ALTER_COLUMN_NULLABLE, "users", "user", "name",
+                true, false)), ChangeImpact.SCAN);
+        Assert.assertEquals(estimator.classify(new Change(Change.Type.ALTER_COLUMN_NULLABLE, "users", "user", "name",
+                false, true)), ChangeImpact.METADATA);
+        Assert.assertEquals(estimator.classify(new Change(Change.Type.ADD_COLUMN, "users", "user", "name", null,
+                column("name", "text", true, null))), ChangeImpact.METADATA);
+        Assert.assertEquals(estimator.classify(new Change(Change.Type.ADD_COLUMN, "users", "user", "name", null,
+                column("name", "text", false, null))), ChangeImpact.SCAN);
+        Change withDefault = new Change(Change.Type.ADD_COLUMN, "users", "user", "name", null,
+                column("name", "text", false, "'x'"));
+        Assert.assertEquals(estimator.classify(withDefault), ChangeImpact.METADATA);
+        estimator.setFastColumnDefaults(false);
+        Assert.assertEquals(estimator.classify(withDefault), ChangeImpact.REWRITE);
+    }
+
+    @Test
+    public void testEstimate() {
+        Database current = database(table("small", "varchar(50)", true), table("medium", "text", true),
+                table("large", "number(10, 2)", true));
+        Database target = database(table("small", "varchar(100)", true), table("medium", "text", false),
+                table("large", "number(10, 4)", true), table("created", "text", true));
+        MigrationPlan plan = new MigrationPlanner().plan(new DiffEngine().diff(current, target));
+
+        TableSizes sizes = new TableSizes();
+        sizes.put(new TableSize("users", "small", 1000, MB));
+        sizes.put(new TableSize("users", "medium", 100000, 100 * MB));
+        sizes.put(new TableSize("users", "large", 1000000, 1024 * MB));
+        MigrationCostReport report = estimator.estimate(plan, sizes);
+
+        List<StepCost> costs = report.getCosts();
+        Assert.assertEquals(costs.size(), 4);
+        Assert.assertEquals(costs.get(0).getStep().getTableName(), "large");
+        Assert.assertEquals(costs.get(0).getImpact(), ChangeImpact.REWRITE);
+        Assert.assertTrue(costs.get(0).isExclusiveLock());
+        Assert.assertEquals(costs.get(0).getIoBytes(), 2048 * MB);
+        Assert.assertEquals(costs.get(0).getLockMillis(), 30725);
+        Assert.assertEquals(costs.get(1).getStep().getTableName(), "medium");
+        Assert.assertEquals(costs.get(1).getImpact(), ChangeImpact.SCAN);
+        Assert.assertEquals(costs.get(1).getLockMillis(), 1005);
+        Assert.assertEquals(costs.get(2).getStep().getTableName(), "small");
+        Assert.assertEquals(costs.get(2).getImpact(), ChangeImpact.METADATA);
+        Assert.assertEquals(costs.get(2).getIoBytes(), 0);
+        Assert.assertEquals(costs.get(3).getStep().getTableName(), "created");
+        Assert.assertFalse(costs.get(3).isExclusiveLock());
+
+        Assert.assertEquals(report.getCosts(ChangeImpact.SCAN).size(), 2);
+        Assert.assertEquals(report.getTotalIoBytes(), 2148 * MB);
+        Assert.assertFalse(report.hasUnknownSizes());
+        Assert.assertTrue(estimator.estimate(plan, new TableSizes()).hasUnknownSizes());
+    }
+}
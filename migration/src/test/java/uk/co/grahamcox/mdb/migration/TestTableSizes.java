@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2011 graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.grahamcox.mdb.migration;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author graham
+ */
+public class TestTableSizes {
+    private File file;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        file = File.createTempFile("table", ".sizes");
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        file.delete();
+    }
+
+    private void write(String content) throws IOException {
+        FileOutputStream output = new FileOutputStream(file);
+        try {
+            output.write(content.getBytes("UTF-8"));
+        }
+        finally {
+            output.close();
+        }
+    }
+
+    @Test
+    public void testLoad() throws Exception {
+        write("# schema table rows bytes\n\nusers user 1000 65536\n  users\tgroup  10   8192  \n");
+        TableSizes sizes = TableSizes.load(file);
+        Assert.assertEquals(sizes.getAll().size(), 2);
+        Assert.assertEquals(sizes.get("users", "user").getRows(), 1000);
+        Assert.assertEquals(sizes.get("users", "user").getBytes(), 65536);
+        Assert.assertEquals(sizes.get("users", "group").getBytes(), 8192);
+        Assert.assertNull(sizes.get("users", "role"));
+        Assert.assertNull(sizes.get("orders", "user"));
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testLoadInvalid() throws Exception {
+        write("users user 1000 lots\n");
+        TableSizes.load(file);
+    }
+
+    @Test
+    public void testSave() throws Exception {
+        TableSizes sizes = new TableSizes();
+        sizes.put(new TableSize("users", "user", 1000, 65536));
+        sizes.put(new TableSize("orders", "order", 5000000, 1073741824L * 8));
+        sizes.save(file);
+
+        TableSizes loaded = TableSizes.load(file);
+        Assert.assertEquals(loaded.getAll().size(), 2);
+        Assert.assertEquals(loaded.get("orders", "order").getBytes(), 1073741824L * 8);
+        Assert.assertEquals(loaded.get("users", "user").getRows(), 1000);
+    }
+
+    @Test
+    public void testRead() throws Exception {
+        Connection connection = DriverManager.getConnection("jdbc:hsqldb:mem:sizes", "SA", "");
+        try {
+            connection.createStatement().execute("CREATE TABLE stats (s VARCHAR(10), t VARCHAR(10), r BIGINT, b BIGINT)");
+            connection.createStatement().execute("INSERT INTO stats VALUES ('users', 'user', 1000, 65536)");
+            TableSizes sizes = TableSizes.read(connection, "SELECT s, t, r, b FROM stats");
+            Assert.assertEquals(sizes.get("users", "user").getBytes(), 65536);
+            connection.createStatement().execute("SHUTDOWN");
+        }
+        finally {
+            connection.close();
+        }
+    }
+}
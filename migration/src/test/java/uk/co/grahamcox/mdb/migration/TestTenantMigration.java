@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2011 graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.grahamcox.mdb.migration;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.hsqldb.jdbc.JDBCDataSource;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import uk.co.grahamcox.mdb.schema.Column;
+import uk.co.grahamcox.mdb.schema.Database;
+import uk.co.grahamcox.mdb.schema.Schema;
+import uk.co.grahamcox.mdb.schema.SchemaTemplate;
+import uk.co.grahamcox.mdb.schema.Table;
+import uk.co.grahamcox.mdb.schema.datatype.DataTypeRegistry;
+
+/**
+ *
+ * @author graham
+ */
+public class TestTenantMigration {
+    private final DataTypeRegistry registry = DataTypeRegistry.getInstance();
+
+    private Schema schema(String name, int version) {
+        Table table = new Table("user");
+        Column id = new Column("id");
+        id.setDataType(registry.getNumber(10, 0));
+        id.setNullable(false);
+        table.addKeyColumn(id);
+        for (int v = 0; v < version; ++v) {
+            Column column = new Column("field" + v);
+            column.setDataType(registry.getString(100, true));
+            table.addColumn(column);
+        }
+        Schema schema = new Schema(name);
+        schema.addTable(table);
+        return schema;
+    }
+
+    private SchemaTemplate template(int version, int tenants) {
+        SchemaTemplate template = new SchemaTemplate(schema("template", version));
+        for (int t = 0; t < tenants; ++t) {
+            template.addSchemaName("tenant" + t);
+        }
+        return template;
+    }
+
+    @Test
+    public void testDiffOncePerShape() {
+        Database current = new Database();
+        for (int t = 0; t < 30; ++t) {
+            current.addSchema(schema("tenant" + t, t < 20 ? 1 : 2));
+        }
+        current.addSchema(schema("tenant35", 3));
+        current.addSchema(schema("other", 0));
+
+        final AtomicInteger shapes = new AtomicInteger();
+        TenantMigration migration = new TenantMigration() {
+            @Override
+            protected MigrationPlan planShape(Schema current, Schema target) {
+                shapes.incrementAndGet();
+                return super.planShape(current, target);
+            }
+        };
+        MigrationPlan plan = migration.plan(template(3, 40), current);
+
+        // Version 1, version 2, missing and already up to date
+        Assert.assertEquals(shapes.get(), 4);
+        // 20 alter, 10 alter, 9 create schema and table
+        Assert.assertEquals(plan.getSteps().size(), 20 + 10 + 9 * 2);
+        Assert.assertEquals(plan.getSteps().get(0).getSchemaName(), "tenant0");
+        Assert.assertEquals(plan.getSteps().get(0).getStatements().get(0),
+                "ALTER TABLE \"tenant0\".\"user\"\n"
+                + "    ADD COLUMN \"field1\" varchar(100),\n"
+                + "    ADD COLUMN \"field2\" varchar(100)");
+        Assert.assertEquals(plan.getSteps().get(20).getStatements().get(0),
+                "ALTER TABLE \"tenant20\".\"user\"\n"
+                + "    ADD COLUMN \"field2\" varchar(100)");
+        Assert.assertEquals(plan.getSteps().get(30).getStatements().get(0), "CREATE SCHEMA \"tenant30\"");
+        for (MigrationStep step : plan.getSteps()) {
+            Assert.assertFalse(step.getSchemaName().equals("other") || step.getSchemaName().equals("tenant35"));
+            for (String statement : step.getStatements()) {
+                Assert.assertFalse(statement.contains("\u0000"), statement);
+            }
+        }
+    }
+
+    @Test
+    public void testQuoteInSchemaName() {
+        Database current = new Database();
+        current.addSchema(schema("o'brien", 1));
+        Table table = new Table("user");
+        Column id = new Column("id");
+        id.setDataType(registry.getNumber(10, 0));
+        id.setNullable(false);
+        table.addKeyColumn(id);
+        Column field = new Column("field0");
+        field.setDataType(registry.getString(100, true));
+        field.setNullable(false);
+        table.addKeyColumn(field);
+        Schema keyed = new Schema("template");
+        keyed.addTable(table);
+        SchemaTemplate template = new SchemaTemplate(keyed);
+        template.addSchemaName("o'brien");
+
+        MigrationPlan plan = new TenantMigration().plan(template, current);
+        String statements = plan.getSteps().get(0).getStatements().toString();
+        Assert.assertTrue(statements.contains("conrelid = '\"o''brien\".\"user\"'::regclass"), statements);
+        Assert.assertTrue(statements.contains("EXECUTE 'ALTER TABLE \"o''brien\".\"user\" DROP CONSTRAINT '"),
+                statements);
+        Assert.assertTrue(statements.contains("ALTER TABLE \"o'brien\".\"user\""), statements);
+        Assert.assertFalse(statements.contains("\u0000"), statements);
+    }
+
+    @Test
+    public void testExecute() throws Exception {
+        JDBCDataSource dataSource = new JDBCDataSource();
+        dataSource.setDatabase("jdbc:hsqldb:mem:tenants");
+        dataSource.setUser("SA");
+        dataSource.setPassword("");
+
+        MigrationPlan plan = new TenantMigration().plan(template(2, 25), new Database());
+        MigrationScheduler scheduler = new MigrationScheduler(dataSource);
+        scheduler.setParallelism(4);
+        Assert.assertEquals(scheduler.execute(plan), 50);
+
+        Connection connection = dataSource.getConnection();
+        try {
+            ResultSet tables = connection.getMetaData().getTables(null, "tenant%", "user", null);
+            int count = 0;
+            while (tables.next()) {
+                ++count;
+            }
+            Assert.assertEquals(count, 25);
+            connection.createStatement().execute("SHUTDOWN");
+        }
+        finally {
+            connection.close();
+        }
+    }
+}
@@ -39,6 +39,13 @@ public class Column {
     /** The default value of the column. Contains a snippet of SQL, so literal String values must contain ' characters */
     private String defaultValue = null;
 
+    /** The table that the column belongs to, which is told when the column changes */
+    private Table owner = null;
+    /** The cached fingerprint of the column, or null if it needs calculating */
+    private Fingerprint fingerprint = null;
+    /** Whether the column has been frozen against further changes */
+    private boolean frozen = false;
+
     /**
      * Create the column
      * @param name the name of the column
@@ -62,7 +69,9 @@ public class Column {
      * @param dataType the data type
      */
     public void setDataType(DataType dataType) {
+        checkNotFrozen();
         this.dataType = dataType;
+        changed();
     }
 
     /**
@@ -78,7 +87,9 @@ public class Column {
      * @param defaultValue the default value
      */
     public void setDefaultValue(String defaultValue) {
+        checkNotFrozen();
         this.defaultValue = defaultValue;
+        changed();
     }
 
     /**
@@ -94,7 +105,9 @@ public class Column {
      * @param nullable True if the column is nullable. False if not
      */
     public void setNullable(boolean nullable) {
+        checkNotFrozen();
         this.nullable = nullable;
+        changed();
     }
 
     /**
@@ -120,7 +133,84 @@ public class Column {
      */
     public void setComment(String comment)
     {
+        checkNotFrozen();
         this.comment = comment;
+        changed();
+    }
+
+    /**
+     * Get the fingerprint of the content of the column. This is calculated
+     * once and then cached until the column is changed
+     * The data type is included by its string form, so any changes made
+     * directly to the data type object are not noticed
+     * @return the fingerprint
+     */
+    public Fingerprint getFingerprint()
+    {
+        Fingerprint result = fingerprint;
+        if (result == null)
+        {
+            result = new FingerprintBuilder("column")
+                    .add(name)
+                    .add(comment)
+                    .add(dataType == null ? null : dataType.getClass().getName() + dataType)
+                    .add(nullable)
+                    .add(defaultValue)
+                    .build();
+            fingerprint = result;
+        }
+        return result;
+    }
+
+    /**
+     * Freeze the column, so that it can no longer be changed
+     */
+    public void freeze()
+    {
+        getFingerprint();
+        frozen = true;
+    }
+
+    /**
+     * Check if the column has been frozen
+     * @return True if the column can no longer be changed. False if not
+     */
+    public boolean isFrozen()
+    {
+        return frozen;
+    }
+
+    /**
+     * Check that the column has not been frozen
+     * @throws IllegalStateException if the column has been frozen
+     */
+    private void checkNotFrozen()
+    {
+        if (frozen)
+        {
+            throw new IllegalStateException("Column " + name + " is frozen");
+        }
+    }
+
+    /**
+     * Set the table that the column belongs to
+     * @param owner the table
+     */
+    void setOwner(Table owner)
+    {
+        this.owner = owner;
+    }
+
+    /**
+     * Discard the cached fingerprint, and that of the table the column is in
+     */
+    private void changed()
+    {
+        fingerprint = null;
+        if (owner != null)
+        {
+            owner.changed();
+        }
     }
 
     /**
@@ -140,6 +230,14 @@ public class Column {
             return false;
         }
         final Column other = (Column) obj;
+        if (this == other)
+        {
+            return true;
+        }
+        if (!this.getFingerprint().equals(other.getFingerprint()))
+        {
+            return false;
+        }
         if ((this.name == null) ? (other.name != null) : !this.name.equals(other.name))
         {
             return false;
@@ -164,19 +262,13 @@ public class Column {
     }
 
     /**
-     * Generate a hashcode for the object
+     * Generate a hashcode for the object, from the fingerprint
      * @return the hashcode
      */
     @Override
     public int hashCode()
     {
-        int hash = 7;
-        hash = 47 * hash + (this.name != null ? this.name.hashCode() : 0);
-        hash = 47 * hash + (this.comment != null ? this.comment.hashCode() : 0);
-        hash = 47 * hash + (this.dataType != null ? this.dataType.hashCode() : 0);
-        hash = 47 * hash + (this.nullable ? 1 : 0);
-        hash = 47 * hash + (this.defaultValue != null ? this.defaultValue.hashCode() : 0);
-        return hash;
+        return getFingerprint().hashCode();
     }
 
     /**
@@ -29,12 +29,47 @@ import java.util.Map;
 public class Database {
     /** The schemas in the database */
     private Map<String, Schema> schemas = new HashMap<String, Schema>();
+    /** The cached fingerprint of the database, or null if it needs calculating */
+    private Fingerprint fingerprint = null;
+    /** Whether the database has been frozen against further changes */
+    private boolean frozen = false;
+    /** The view of the schemas, built once when the database is frozen */
+    private Collection<Schema> frozenSchemas = null;
+    /** The dictionary of the names used in the database */
+    private final NameDictionary names;
+
+    /**
+     * Create the database with its own name dictionary
+     */
+    public Database() {
+        this(new NameDictionary());
+    }
+
+    /**
+     * Create the database sharing the given name dictionary
+     * @param names the name dictionary
+     */
+    public Database(NameDictionary names) {
+        this.names = names;
+    }
+
+    /**
+     * Get the dictionary of the names used in the database. Loaders intern
+     * the names of schemas, tables and columns through this
+     * @return the name dictionary
+     */
+    public NameDictionary getNames() {
+        return names;
+    }
 
     /**
      * Get the schemas in the database
      * @return the schemas
      */
     public Collection<Schema> getSchemas() {
+        if (frozenSchemas != null) {
+            return frozenSchemas;
+        }
         return Collections.unmodifiableCollection(schemas.values());
     }
 
@@ -51,7 +86,100 @@ public class Database {
      * @param schema the table to add
      */
     public void addSchema(Schema schema) {
+        checkNotFrozen();
         schemas.put(schema.getName(), schema);
+        schema.setOwner(this);
+        changed();
+    }
+
+    /**
+     * Remove a schema from the database
+     * @param name the name of the schema to remove
+     * @return the schema that was removed, or null if there was none
+     */
+    public Schema removeSchema(String name) {
+        checkNotFrozen();
+        Schema removed = schemas.remove(name);
+        if (removed != null) {
+            if (removed.getOwner() == this) {
+                removed.setOwner(null);
+            }
+            changed();
+        }
+        return removed;
+    }
+
+    /**
+     * Get the fingerprint of the content of the whole database. This is
+     * calculated once and then cached until anything in the database is changed
+     * @return the fingerprint
+     */
+    public Fingerprint getFingerprint()
+    {
+        Fingerprint result = fingerprint;
+        if (result == null)
+        {
+            FingerprintBuilder builder = new FingerprintBuilder("database");
+            for (Schema s : schemas.values())
+            {
+                builder.addUnordered(s.getFingerprint());
+            }
+            result = builder.build();
+            fingerprint = result;
+        }
+        return result;
+    }
+
+    /**
+     * Freeze the database and everything in it, so that they can no longer be
+     * changed. Once frozen, the collections of schemas, tables and columns are
+     * built once and the same objects returned every time, and the
+     * fingerprints are all calculated so the model is safe to share between
+     * threads. Models that still need changing, such as while loading, should
+     * be left unfrozen
+     */
+    public void freeze()
+    {
+        if (frozen)
+        {
+            return;
+        }
+        for (Schema s : schemas.values())
+        {
+            s.freeze();
+        }
+        frozenSchemas = getSchemas();
+        getFingerprint();
+        frozen = true;
+    }
+
+    /**
+     * Check if the database has been frozen
+     * @return True if the database can no longer be changed. False if not
+     */
+    public boolean isFrozen()
+    {
+        return frozen;
+    }
+
+    /**
+     * Check that the database has not been frozen
+     * @throws IllegalStateException if the database has been frozen
+     */
+    private void checkNotFrozen()
+    {
+        if (frozen)
+        {
+            throw new IllegalStateException("Database is frozen");
+        }
+    }
+
+    /**
+     * Discard the cached fingerprint
+     */
+    void changed()
+    {
+        fingerprint = null;
     }
 
     /**
@@ -71,6 +199,14 @@ public class Database {
             return false;
         }
         final Database other = (Database) obj;
+        if (this == other)
+        {
+            return true;
+        }
+        if (!this.getFingerprint().equals(other.getFingerprint()))
+        {
+            return false;
+        }
         if (this.schemas != other.schemas && (this.schemas == null || !this.schemas.equals(other.schemas)))
         {
             return false;
@@ -79,15 +215,13 @@ public class Database {
     }
 
     /**
-     * Generate a hashcode for the object
+     * Generate a hashcode for the object, from the fingerprint
      * @return the hashcode
      */
     @Override
     public int hashCode()
     {
-        int hash = 5;
-        hash = 71 * hash + (this.schemas != null ? this.schemas.hashCode() : 0);
-        return hash;
+        return getFingerprint().hashCode();
     }
 
     
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2011 graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.grahamcox.mdb.schema;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Put column default values into one form, so that defaults written
+ * differently but meaning the same are seen as the same. PostgreSQL reports
+ * defaults with casts that it added, such as 'x'::character varying or
+ * nextval('user_id_seq'::regclass), and with brackets around them, as in
+ * (-1). Only the casts that don't change the value are removed - a cast of
+ * a literal that is the whole default, as the column type converts it
+ * anyway, and the text and regclass casts added to string literals. Casts
+ * of anything else, such as now()::date, are kept. An explicit NULL default
+ * is the same as no default
+ * @author graham
+ */
+public class DefaultValueNormaliser {
+    /**
+     * The pattern matching a PostgreSQL cast, such as ::character varying,
+     * ::regclass or ::timestamp(3) without time zone. The type is the first
+     * group
+     */
+    private static final String CAST =
+            "::((?:\"[^\"]*\"|[A-Za-z_][A-Za-z0-9_]*)(?:\\.(?:\"[^\"]*\"|[A-Za-z_][A-Za-z0-9_]*))?"
+            + "(?: varying| precision)?)(?:\\(\\d+(?:, ?\\d+)?\\))?(?: with(?:out)? time zone)?(?:\\[\\])*";
+
+    /** The pattern matching a cast at the current position */
+    private static final Pattern CAST_PATTERN = Pattern.compile(CAST);
+
+    /** The pattern matching a default that is nothing but a cast literal, with the literal as the first group */
+    private static final Pattern CAST_LITERAL = Pattern.compile(
+            "('(?:[^']|'')*'|\\(?-?\\d+(?:\\.\\d+)?\\)?|NULL)" + CAST.replace("::(", "::(?:"),
+            Pattern.CASE_INSENSITIVE);
+
+    /** The types that PostgreSQL casts string literals to without changing what they mean */
+    private static final Set<String> LITERAL_TYPES = new HashSet<String>(Arrays.asList(
+            "text", "character varying", "varchar", "bpchar", "regclass"));
+
+    /**
+     * Get a default value in its normal form
+     * @param value the default, or null if there isn't one
+     * @return the default, or null if there isn't one
+     */
+    public String normalise(String value) {
+        if (value == null) {
+            return null;
+        }
+        String result = stripBrackets(value.trim());
+        Matcher literal = CAST_LITERAL.matcher(result);
+        while (literal.matches()) {
+            result = stripBrackets(literal.group(1));
+            literal = CAST_LITERAL.matcher(result);
+        }
+        result = stripBrackets(stripLiteralCasts(result));
+        if (result.length() == 0 || "NULL".equalsIgnoreCase(result)) {
+            return null;
+        }
+        return result;
+    }
+
+    /**
+     * Remove the casts PostgreSQL added to the string literals in a value
+     * @param value the value
+     * @return the value without the casts
+     */
+    private static String stripLiteralCasts(String value) {
+        StringBuilder result = new StringBuilder(value.length());
+        Matcher cast = CAST_PATTERN.matcher(value);
+        int start = 0;
+        while (start < value.length()) {
+            int quote = value.indexOf('\'', start);
+            if (quote < 0) {
+                result.append(value, start, value.length());
+                break;
+            }
+            // A quote inside a literal is doubled, so this finds the real end of it
+            int close = value.indexOf('\'', quote + 1);
+            while (close >= 0 && close + 1 < value.length() && value.charAt(close + 1) == '\'') {
+                close = value.indexOf('\'', close + 2);
+            }
+            int end = close < 0 ? value.length() : close + 1;
+            result.append(value, start, end);
+            start = end;
+            cast.region(end, value.length());
+            if (cast.lookingAt() && LITERAL_TYPES.contains(cast.group(1).toLowerCase(Locale.ENGLISH))) {
+                start = cast.end();
+            }
+        }
+        return result.toString();
+    }
+
+    /**
+     * Remove any brackets around the whole of a value
+     * @param value the value
+     * @return the value without the brackets
+     */
+    private static String stripBrackets(String value) {
+        String result = value.trim();
+        while (result.startsWith("(") && closingBracket(result) == result.length() - 1) {
+            result = result.substring(1, result.length() - 1).trim();
+        }
+        return result;
+    }
+
+    /**
+     * Find the bracket closing the one that a value starts with, ignoring
+     * any in string literals
+     * @param value the value, starting with an opening bracket
+     * @return the position of the closing bracket, or -1 if there isn't one
+     */
+    private static int closingBracket(String value) {
+        int depth = 0;
+        boolean quoted = false;
+        for (int i = 0; i < value.length(); ++i) {
+            char c = value.charAt(i);
+            if (c == '\'') {
+                quoted = !quoted;
+            }
+            else if (!quoted && c == '(') {
+                ++depth;
+            }
+            else if (!quoted && c == ')' && --depth == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
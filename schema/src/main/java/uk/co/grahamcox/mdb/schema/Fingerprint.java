@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2011 graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package uk.co.grahamcox.mdb.schema;
+
+/**
+ * A 128 bit fingerprint of the content of part of the model. Two parts of the
+ * model with the same content always have the same fingerprint, regardless
+ * of the order in which their children were added, and the fingerprint is
+ * stable between runs so it can be stored and compared later
+ * @author graham
+ */
+public final class Fingerprint {
+    /** The top 64 bits of the fingerprint */
+    private final long high;
+    /** The bottom 64 bits of the fingerprint */
+    private final long low;
+
+    /**
+     * Create the fingerprint
+     * @param high the top 64 bits of the fingerprint
+     * @param low the bottom 64 bits of the fingerprint
+     */
+    public Fingerprint(long high, long low) {
+        this.high = high;
+        this.low = low;
+    }
+
+    /**
+     * Parse a fingerprint from the string produced by {@link #toString()}
+     * @param value the string
+     * @return the fingerprint
+     * @throws IllegalArgumentException if the string is not a valid fingerprint
+     */
+    public static Fingerprint parse(String value) {
+        if (value == null || value.length() != 32) {
+            throw new IllegalArgumentException("Invalid fingerprint: " + value);
+        }
+        try {
+            return new Fingerprint(parseHex(value.substring(0, 16)), parseHex(value.substring(16)));
+        }
+        catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Invalid fingerprint: " + value, ex);
+        }
+    }
+
+    /**
+     * Parse 16 hex digits into a long, allowing the top bit to be set
+     * @param value the hex digits
+     * @return the long
+     */
+    private static long parseHex(String value) {
+        return (Long.parseLong(value.substring(0, 8), 16) << 32) | Long.parseLong(value.substring(8), 16);
+    }
+
+    /**
+     * Get the top 64 bits of the fingerprint
+     * @return the top 64 bits
+     */
+    public long getHigh() {
+        return high;
+    }
+
+    /**
+     * Get the bottom 64 bits of the fingerprint
+     * @return the bottom 64 bits
+     */
+    public long getLow() {
+        return low;
+    }
+
+    /**
+     * Compare to another object for equality
+     * @param obj the object to compare to
+     * @return True if equal. False if not
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == null) {
+            return false;
+        }
+        if (getClass() != obj.getClass()) {
+            return false;
+        }
+        final Fingerprint other = (Fingerprint) obj;
+        return this.high == other.high && this.low == other.low;
+    }
+
+    /**
+     * Generate a hashcode for the object
+     * @return the hashcode
+     */
+    @Override
+    public int hashCode() {
+        return (int) (high ^ (high >>> 32) ^ low ^ (low >>> 32));
+    }
+
+    /**
+     * Generate a string for the object, as 32 hex digits
+     * @return the string
+     */
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder(32);
+        appendHex(result, high);
+        appendHex(result, low);
+        return result.toString();
+    }
+
+    /**
+     * Append a long to the builder as 16 hex digits
+     * @param builder the builder to append to
+     * @param value the value to append
+     */
+    private static void appendHex(StringBuilder builder, long value) {
+        String hex = Long.toHexString(value);
+        for (int i = hex.length(); i < 16; ++i) {
+            builder.append('0');
+        }
+        builder.append(hex);
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2011 graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package uk.co.grahamcox.mdb.schema;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Build a Fingerprint from the fields of a node in the model and the
+ * fingerprints of its children. Ordered values are digested in the order they
+ * are added. Unordered children are summed first, so the order in which they
+ * are added makes no difference to the result
+ * @author graham
+ */
+public class FingerprintBuilder {
+    /** The digest algorithm to use */
+    private static final String ALGORITHM = "MD5";
+    /** The digest of the ordered values */
+    private final MessageDigest digest;
+    /** The sum of the top halves of the unordered fingerprints */
+    private long unorderedHigh = 0;
+    /** The sum of the bottom halves of the unordered fingerprints */
+    private long unorderedLow = 0;
+    /** The number of unordered fingerprints */
+    private int unorderedCount = 0;
+
+    /**
+     * Create the builder
+     * @param kind the kind of node being fingerprinted, so that different
+     * kinds of node with the same fields have different fingerprints
+     */
+    public FingerprintBuilder(String kind) {
+        try {
+            digest = MessageDigest.getInstance(ALGORITHM);
+        }
+        catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("Digest algorithm " + ALGORITHM + " is not available", ex);
+        }
+        add(kind);
+    }
+
+    /**
+     * Add a string, which may be null
+     * @param value the string
+     * @return this builder
+     */
+    public FingerprintBuilder add(String value) {
+        if (value == null) {
+            digest.update((byte) 0);
+        }
+        else {
+            try {
+                byte[] bytes = value.getBytes("UTF-8");
+                digest.update((byte) 1);
+                add(bytes.length);
+                digest.update(bytes);
+            }
+            catch (UnsupportedEncodingException ex) {
+                throw new IllegalStateException("UTF-8 is not supported", ex);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Add a boolean
+     * @param value the boolean
+     * @return this builder
+     */
+    public FingerprintBuilder add(boolean value) {
+        digest.update(value ? (byte) 1 : (byte) 0);
+        return this;
+    }
+
+    /**
+     * Add an int
+     * @param value the int
+     * @return this builder
+     */
+    public FingerprintBuilder add(int value) {
+        digest.update((byte) (value >>> 24));
+        digest.update((byte) (value >>> 16));
+        digest.update((byte) (value >>> 8));
+        digest.update((byte) value);
+        return this;
+    }
+
+    /**
+     * Add a long
+     * @param value the long
+     * @return this builder
+     */
+    public FingerprintBuilder add(long value) {
+        add((int) (value >>> 32));
+        add((int) value);
+        return this;
+    }
+
+    /**
+     * Add the fingerprint of a child in order
+     * @param fingerprint the fingerprint
+     * @return this builder
+     */
+    public FingerprintBuilder add(Fingerprint fingerprint) {
+        add(fingerprint.getHigh());
+        add(fingerprint.getLow());
+        return this;
+    }
+
+    /**
+     * Add the fingerprint of a child whose order is not significant
+     * @param fingerprint the fingerprint
+     * @return this builder
+     */
+    public FingerprintBuilder addUnordered(Fingerprint fingerprint) {
+        unorderedHigh += fingerprint.getHigh();
+        unorderedLow += fingerprint.getLow();
+        unorderedCount++;
+        return this;
+    }
+
+    /**
+     * Build the fingerprint
+     * @return the fingerprint
+     */
+    public Fingerprint build() {
+        add(unorderedCount);
+        add(unorderedHigh);
+        add(unorderedLow);
+        byte[] bytes = digest.digest();
+        long high = 0;
+        long low = 0;
+        for (int i = 0; i < 8; ++i) {
+            high = (high << 8) | (bytes[i] & 0xff);
+            low = (low << 8) | (bytes[i + 8] & 0xff);
+        }
+        return new Fingerprint(high, low);
+    }
+}
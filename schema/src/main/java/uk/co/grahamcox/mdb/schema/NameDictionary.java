@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2011 graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.grahamcox.mdb.schema;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Dictionary of the identifiers used across a model. Every distinct name is
+ * held once, so that the thousands of columns called "id" all share the same
+ * String, and each name is given a small int ID that can be used in place of
+ * the name itself. Lookups of names that are already known do not lock, so
+ * the dictionary can be shared between threads loading in parallel
+ * @author graham
+ */
+public class NameDictionary {
+    /** The entries in the dictionary, keyed by name */
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    /** The names in the dictionary, indexed by ID */
+    private final List<String> names = new ArrayList<String>();
+
+    /**
+     * A single name in the dictionary
+     */
+    private static class Entry {
+        /** The canonical instance of the name */
+        private final String name;
+        /** The ID of the name */
+        private final int id;
+
+        /**
+         * Create the entry
+         * @param name the canonical instance of the name
+         * @param id the ID of the name
+         */
+        public Entry(String name, int id) {
+            this.name = name;
+            this.id = id;
+        }
+    }
+
+    /**
+     * Get the canonical instance of the given name, adding it to the
+     * dictionary if it isn't already there
+     * @param name the name
+     * @return the canonical instance, or null if the name is null
+     */
+    public String intern(String name) {
+        if (name == null) {
+            return null;
+        }
+        return entry(name).name;
+    }
+
+    /**
+     * Get the ID of the given name, adding it to the dictionary if it isn't
+     * already there
+     * @param name the name
+     * @return the ID of the name
+     */
+    public int getId(String name) {
+        if (name == null) {
+            throw new IllegalArgumentException("Can not get the ID of a null name");
+        }
+        return entry(name).id;
+    }
+
+    /**
+     * Get the ID of the given name, without adding it to the dictionary
+     * @param name the name
+     * @return the ID of the name, or -1 if it isn't in the dictionary
+     */
+    public int findId(String name) {
+        Entry entry = name == null ? null : entries.get(name);
+        return entry == null ? -1 : entry.id;
+    }
+
+    /**
+     * Get the name with the given ID
+     * @param id the ID
+     * @return the name
+     * @throws IndexOutOfBoundsException if there is no name with that ID
+     */
+    public synchronized String getName(int id) {
+        return names.get(id);
+    }
+
+    /**
+     * Get the number of names in the dictionary
+     * @return the number of names
+     */
+    public synchronized int size() {
+        return names.size();
+    }
+
+    /**
+     * Get the entry for the given name, creating it if necessary
+     * @param name the name
+     * @return the entry
+     */
+    private Entry entry(String name) {
+        Entry entry = entries.get(name);
+        if (entry != null) {
+            return entry;
+        }
+        synchronized (this) {
+            entry = entries.get(name);
+            if (entry == null) {
+                entry = new Entry(name, names.size());
+                names.add(name);
+                entries.put(name, entry);
+            }
+            return entry;
+        }
+    }
+}
@@ -36,6 +36,15 @@ public class Schema {
     /** The tables in the schema */
     private Map<String, Table> tables = new HashMap<String, Table>();
 
+    /** The database that the schema belongs to, which is told when the schema changes */
+    private Database owner = null;
+    /** The cached fingerprint of the schema, or null if it needs calculating */
+    private Fingerprint fingerprint = null;
+    /** Whether the schema has been frozen against further changes */
+    private boolean frozen = false;
+    /** The view of the tables, built once when the schema is frozen */
+    private Collection<Table> frozenTables = null;
+
     /**
      * Create the schema
      * @param name the name of the schema
@@ -61,7 +70,9 @@ public class Schema {
      */
     public void setComment(String comment)
     {
+        checkNotFrozen();
         this.comment = comment;
+        changed();
     }
 
     /**
@@ -78,6 +89,9 @@ public class Schema {
      * @return the tables
      */
     public Collection<Table> getTables() {
+        if (frozenTables != null) {
+            return frozenTables;
+        }
         return Collections.unmodifiableCollection(tables.values());
     }
 
@@ -90,11 +104,144 @@ public class Schema {
         return tables.get(name);
     }
     /**
-     * Add a table to the schema
+     * Add a table to the schema. A frozen table can be added to several
+     * schemas, as it can't change
      * @param table the table to add
+     * @throws IllegalArgumentException if the table is in another schema and
+     * isn't frozen, as only one of the schemas would be told when it changed
      */
     public void addTable(Table table) {
+        checkNotFrozen();
+        if (table.getOwner() != null && table.getOwner() != this && !table.isFrozen()) {
+            throw new IllegalArgumentException("Table " + table.getName() + " is already in schema "
+                    + table.getOwner().getName() + " and isn't frozen");
+        }
+        adoptTable(table);
+    }
+
+    /**
+     * Add a table to the schema, taking it over from any other schema it is
+     * in. That schema is no longer told when the table changes, so this is
+     * only for tables whose other schema just records where they came from,
+     * such as a fragment of the model loaded from one file
+     * @param table the table to add
+     */
+    public void adoptTable(Table table) {
+        checkNotFrozen();
         tables.put(table.getName(), table);
+        table.setOwner(this);
+        changed();
+    }
+
+    /**
+     * Remove a table from the schema
+     * @param name the name of the table to remove
+     * @return the table that was removed, or null if there was none
+     */
+    public Table removeTable(String name) {
+        checkNotFrozen();
+        Table removed = tables.remove(name);
+        if (removed != null) {
+            if (removed.getOwner() == this) {
+                removed.setOwner(null);
+            }
+            changed();
+        }
+        return removed;
+    }
+
+    /**
+     * Get the fingerprint of the content of the schema, including all of its
+     * tables. This is calculated once and then cached until the schema or
+     * anything in it is changed
+     * @return the fingerprint
+     */
+    public Fingerprint getFingerprint()
+    {
+        Fingerprint result = fingerprint;
+        if (result == null)
+        {
+            FingerprintBuilder builder = new FingerprintBuilder("schema")
+                    .add(name)
+                    .add(comment);
+            for (Table t : tables.values())
+            {
+                builder.addUnordered(t.getFingerprint());
+            }
+            result = builder.build();
+            fingerprint = result;
+        }
+        return result;
+    }
+
+    /**
+     * Freeze the schema and everything in it, so that they can no longer be
+     * changed
+     */
+    public void freeze()
+    {
+        if (frozen)
+        {
+            return;
+        }
+        for (Table t : tables.values())
+        {
+            t.freeze();
+        }
+        frozenTables = getTables();
+        getFingerprint();
+        frozen = true;
+    }
+
+    /**
+     * Check if the schema has been frozen
+     * @return True if the schema can no longer be changed. False if not
+     */
+    public boolean isFrozen()
+    {
+        return frozen;
+    }
+
+    /**
+     * Check that the schema has not been frozen
+     * @throws IllegalStateException if the schema has been frozen
+     */
+    private void checkNotFrozen()
+    {
+        if (frozen)
+        {
+            throw new IllegalStateException("Schema " + name + " is frozen");
+        }
+    }
+
+    /**
+     * Set the database that the schema belongs to
+     * @param owner the database
+     */
+    void setOwner(Database owner)
+    {
+        this.owner = owner;
+    }
+
+    /**
+     * Get the database that the schema belongs to
+     * @return the database
+     */
+    Database getOwner()
+    {
+        return owner;
+    }
+
+    /**
+     * Discard the cached fingerprint, and that of the database the schema is in
+     */
+    void changed()
+    {
+        fingerprint = null;
+        if (owner != null)
+        {
+            owner.changed();
+        }
     }
 
     /**
@@ -114,6 +261,14 @@ public class Schema {
             return false;
         }
         final Schema other = (Schema) obj;
+        if (this == other)
+        {
+            return true;
+        }
+        if (!this.getFingerprint().equals(other.getFingerprint()))
+        {
+            return false;
+        }
         if ((this.name == null) ? (other.name != null) : !this.name.equals(other.name))
         {
             return false;
@@ -130,17 +285,13 @@ public class Schema {
     }
 
     /**
-     * Generate a hashcode for the object
+     * Generate a hashcode for the object, from the fingerprint
      * @return the hashcode
      */
     @Override
     public int hashCode()
     {
-        int hash = 5;
-        hash = 71 * hash + (this.name != null ? this.name.hashCode() : 0);
-        hash = 71 * hash + (this.comment != null ? this.comment.hashCode() : 0);
-        hash = 71 * hash + (this.tables != null ? this.tables.hashCode() : 0);
-        return hash;
+        return getFingerprint().hashCode();
     }
 
     /**
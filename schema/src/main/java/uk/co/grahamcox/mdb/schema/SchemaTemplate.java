@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2011 graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.grahamcox.mdb.schema;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * A set of tables shared by many schemas with the same structure, such as
+ * one schema per tenant. The tables are frozen and held once, however many
+ * schemas use them, along with the names of those schemas. The schemas made
+ * from the template all refer to the same Table objects, which is safe as
+ * frozen tables can't change
+ * @author graham
+ */
+public class SchemaTemplate {
+    /** The schema holding the shared tables */
+    private final Schema template;
+    /** The names of the schemas made from the template, in the order they were added */
+    private final Set<String> schemaNames = new LinkedHashSet<String>();
+
+    /**
+     * Create the template. The given schema is frozen, and its name is only
+     * used to identify the template
+     * @param template the schema holding the tables to share
+     */
+    public SchemaTemplate(Schema template) {
+        template.freeze();
+        this.template = template;
+    }
+
+    /**
+     * Get the schema holding the shared tables
+     * @return the schema
+     */
+    public Schema getTemplate() {
+        return template;
+    }
+
+    /**
+     * Get the names of the schemas made from the template
+     * @return the schema names, in the order they were added
+     */
+    public Set<String> getSchemaNames() {
+        return Collections.unmodifiableSet(schemaNames);
+    }
+
+    /**
+     * Add the name of a schema made from the template
+     * @param schemaName the schema name
+     */
+    public void addSchemaName(String schemaName) {
+        schemaNames.add(schemaName);
+    }
+
+    /**
+     * Add the names of several schemas made from the template
+     * @param names the schema names
+     */
+    public void addSchemaNames(Collection<String> names) {
+        schemaNames.addAll(names);
+    }
+
+    /**
+     * Make a schema from the template. The schema is frozen and shares the
+     * tables of the template
+     * @param schemaName the name of the schema
+     * @return the schema
+     */
+    public Schema instantiate(String schemaName) {
+        Schema schema = new Schema(schemaName);
+        schema.setComment(template.getComment());
+        for (Table table : template.getTables()) {
+            schema.addTable(table);
+        }
+        schema.freeze();
+        return schema;
+    }
+
+    /**
+     * Add a schema made from the template to the database for each of the
+     * schema names
+     * @param database the database to add to
+     */
+    public void addTo(Database database) {
+        for (String schemaName : schemaNames) {
+            database.addSchema(instantiate(schemaName));
+        }
+    }
+
+    /**
+     * Get the fingerprint of the shape of a schema - its comment and tables,
+     * but not its name. Two schemas with the same shape need the same changes
+     * to turn them into a template
+     * @param schema the schema, or null if it doesn't exist
+     * @return the fingerprint, or null if the schema doesn't exist
+     */
+    public static Fingerprint shape(Schema schema) {
+        if (schema == null) {
+            return null;
+        }
+        FingerprintBuilder builder = new FingerprintBuilder("shape").add(schema.getComment());
+        for (Table table : schema.getTables()) {
+            builder.addUnordered(table.getFingerprint());
+        }
+        return builder.build();
+    }
+
+    /**
+     * Generate a string for the object
+     * @return the string
+     */
+    @Override
+    public String toString() {
+        return "SchemaTemplate{" + "template=" + template.getName() + ", schemas=" + schemaNames.size() + '}';
+    }
+}
@@ -17,30 +17,52 @@
 
 package uk.co.grahamcox.mdb.schema;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import javax.validation.constraints.NotNull;
-import javax.validation.constraints.Size;
 
 /**
- * Representation of an actual table
+ * Representation of an actual table. The columns are held in the order they
+ * were declared, and can be looked up either by name or by their ordinal
+ * position in the table
  * @author graham
  */
 public class Table {
+    /** The initial capacity of the column array */
+    private static final int INITIAL_COLUMNS = 8;
+
     /** The name of the table */
     @NotNull
     private final String name;
     /** The comment on the table */
     private String comment = null;
-    /** The set of columns that make up the tables key */
-    @Size(min=1)
-    private Set<String> keyColumns = new HashSet<String>();
-    /** The set of columns that make up the rest of the table */
-    private Map<String, Column> columns = new HashMap<String, Column>();
-    
+    /** The columns of the table, in declaration order */
+    private Column[] columns = new Column[INITIAL_COLUMNS];
+    /** The number of entries in the column array that are in use */
+    private int columnCount = 0;
+    /** The ordinal of each column, keyed by column name */
+    private Map<String, Integer> ordinals = new HashMap<String, Integer>();
+    /** The ordinals of the columns that make up the tables key */
+    private BitSet keyColumns = new BitSet();
+
+    /** The schema that the table belongs to, which is told when the table changes */
+    private Schema owner = null;
+    /** The cached fingerprint of the table, or null if it needs calculating */
+    private Fingerprint fingerprint = null;
+    /** Whether the table has been frozen against further changes */
+    private boolean frozen = false;
+    /** The key columns, built once when the table is frozen */
+    private List<Column> frozenKeyColumns = null;
+    /** The standard columns, built once when the table is frozen */
+    private List<Column> frozenStandardColumns = null;
+    /** All of the columns, built once when the table is frozen */
+    private List<Column> frozenAllColumns = null;
+
     /**
      * Create the table
      * @param name the name of the table
@@ -52,56 +74,158 @@ public class Table {
 
 
     /**
-     * Get the key columns
+     * Get the key columns, in declaration order. Once the table is frozen the
+     * same list is returned every time
      * @return the key columns
      */
-    public Set<Column> getKeyColumns() {
-        Set<Column> keys = new HashSet<Column>();
-        for (String k : keyColumns) {
-            keys.add(columns.get(k));
+    public List<Column> getKeyColumns() {
+        if (frozenKeyColumns != null) {
+            return frozenKeyColumns;
         }
-        return Collections.unmodifiableSet(keys);
+        return Collections.unmodifiableList(selectColumns(true));
     }
     /**
-     * Get the standard columns - i.e. those that are not part of the key
+     * Get the standard columns - i.e. those that are not part of the key -
+     * in declaration order. Once the table is frozen the same list is
+     * returned every time
      * @return the standard columns
      */
-    public Set<Column> getStandardColumns() {
-        Set<Column> allColumns = new HashSet<Column>(columns.values());
-        for (String k : keyColumns) {
-            allColumns.remove(columns.get(k));
+    public List<Column> getStandardColumns() {
+        if (frozenStandardColumns != null) {
+            return frozenStandardColumns;
         }
-        return Collections.unmodifiableSet(allColumns);
+        return Collections.unmodifiableList(selectColumns(false));
     }
     /**
-     * Get all of the columns
+     * Get all of the columns, in declaration order. Once the table is frozen
+     * the same list is returned every time
      * @return the columns
      */
-    public Set<Column> getAllColumns() {
-        Set<Column> allColumns = new HashSet<Column>(columns.values());
-        return Collections.unmodifiableSet(allColumns);
+    public List<Column> getAllColumns() {
+        if (frozenAllColumns != null) {
+            return frozenAllColumns;
+        }
+        return Collections.unmodifiableList(new ArrayList<Column>(Arrays.asList(columns).subList(0, columnCount)));
     }
-    
+
+    /**
+     * Get the columns that either are or are not part of the key
+     * @param key True to get the key columns. False to get the others
+     * @return the columns, in declaration order
+     */
+    private List<Column> selectColumns(boolean key) {
+        List<Column> result = new ArrayList<Column>(key ? keyColumns.cardinality() : columnCount - keyColumns.cardinality());
+        for (int i = 0; i < columnCount; ++i) {
+            if (keyColumns.get(i) == key) {
+                result.add(columns[i]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the column with the given name
+     * @param name the name of the column
+     * @return the column, or null if there isn't one
+     */
     public Column getColumn(String name) {
-        return columns.get(name);
+        Integer ordinal = ordinals.get(name);
+        return ordinal == null ? null : columns[ordinal];
+    }
+
+    /**
+     * Get the column at the given ordinal position
+     * @param ordinal the position of the column, starting from 0
+     * @return the column
+     * @throws IndexOutOfBoundsException if there is no column at that position
+     */
+    public Column getColumn(int ordinal) {
+        if (ordinal < 0 || ordinal >= columnCount) {
+            throw new IndexOutOfBoundsException("Table " + name + " has no column " + ordinal);
+        }
+        return columns[ordinal];
+    }
+
+    /**
+     * Get the number of columns in the table
+     * @return the number of columns
+     */
+    public int getColumnCount() {
+        return columnCount;
     }
+
+    /**
+     * Get the ordinal position of the column with the given name
+     * @param name the name of the column
+     * @return the position of the column, or -1 if there isn't one
+     */
+    public int getOrdinal(String name) {
+        Integer ordinal = ordinals.get(name);
+        return ordinal == null ? -1 : ordinal;
+    }
+
+    /**
+     * Check if the column at the given ordinal position is part of the key
+     * @param ordinal the position of the column
+     * @return True if the column is part of the key. False if not
+     */
+    public boolean isKeyColumn(int ordinal) {
+        return ordinal >= 0 && ordinal < columnCount && keyColumns.get(ordinal);
+    }
+
+    /**
+     * Check if the column with the given name is part of the key
+     * @param name the name of the column
+     * @return True if the column is part of the key. False if not
+     */
+    public boolean isKeyColumn(String name) {
+        return isKeyColumn(getOrdinal(name));
+    }
+
     /**
      * Add a column to the table. There must not be any columns with the same name
-     * already registered
+     * already registered. If there is then it is replaced, keeping its position
      * @param c the column to add
      */
     public void addColumn(Column c) {
-        columns.put(c.getName(), c);
+        checkNotFrozen();
+        putColumn(c);
+        changed();
     }
     
     /**
      * Add a key column to the table. There must not be any columns with the same name
-     * already registered
+     * already registered. If there is then it is replaced, keeping its position
      * @param c the column to add
      */
     public void addKeyColumn(Column c) {
-        columns.put(c.getName(), c);
-        keyColumns.add(c.getName());
+        checkNotFrozen();
+        keyColumns.set(putColumn(c));
+        changed();
+    }
+
+    /**
+     * Store a column, either in the position of the existing column with the
+     * same name or at the end of the table
+     * @param c the column to store
+     * @return the position the column was stored in
+     */
+    private int putColumn(Column c) {
+        Integer existing = ordinals.get(c.getName());
+        int ordinal;
+        if (existing != null) {
+            ordinal = existing;
+        }
+        else {
+            if (columnCount == columns.length) {
+                columns = Arrays.copyOf(columns, columnCount * 2);
+            }
+            ordinal = columnCount++;
+            ordinals.put(c.getName(), ordinal);
+        }
+        columns[ordinal] = c;
+        c.setOwner(this);
+        return ordinal;
     }
     
     /**
@@ -127,11 +251,116 @@ public class Table {
      */
     public void setComment(String comment)
     {
+        checkNotFrozen();
         this.comment = comment;
+        changed();
     }
 
     /**
-     * Compare to another object for equality
+     * Get the fingerprint of the content of the table, including all of its
+     * columns. This is calculated once and then cached until the table or one
+     * of its columns is changed
+     * @return the fingerprint
+     */
+    public Fingerprint getFingerprint()
+    {
+        Fingerprint result = fingerprint;
+        if (result == null)
+        {
+            FingerprintBuilder keys = new FingerprintBuilder("keys");
+            for (int k = keyColumns.nextSetBit(0); k >= 0; k = keyColumns.nextSetBit(k + 1))
+            {
+                keys.addUnordered(new FingerprintBuilder("key").add(columns[k].getName()).build());
+            }
+            FingerprintBuilder builder = new FingerprintBuilder("table")
+                    .add(name)
+                    .add(comment)
+                    .add(keys.build());
+            for (int i = 0; i < columnCount; ++i)
+            {
+                builder.addUnordered(columns[i].getFingerprint());
+            }
+            result = builder.build();
+            fingerprint = result;
+        }
+        return result;
+    }
+
+    /**
+     * Freeze the table and all of its columns, so that they can no longer be
+     * changed. The column sets are built once here instead of on every call
+     */
+    public void freeze()
+    {
+        if (frozen)
+        {
+            return;
+        }
+        for (int i = 0; i < columnCount; ++i)
+        {
+            columns[i].freeze();
+        }
+        frozenKeyColumns = getKeyColumns();
+        frozenStandardColumns = getStandardColumns();
+        frozenAllColumns = getAllColumns();
+        getFingerprint();
+        frozen = true;
+    }
+
+    /**
+     * Check if the table has been frozen
+     * @return True if the table can no longer be changed. False if not
+     */
+    public boolean isFrozen()
+    {
+        return frozen;
+    }
+
+    /**
+     * Check that the table has not been frozen
+     * @throws IllegalStateException if the table has been frozen
+     */
+    private void checkNotFrozen()
+    {
+        if (frozen)
+        {
+            throw new IllegalStateException("Table " + name + " is frozen");
+        }
+    }
+
+    /**
+     * Set the schema that the table belongs to
+     * @param owner the schema
+     */
+    void setOwner(Schema owner)
+    {
+        this.owner = owner;
+    }
+
+    /**
+     * Get the schema that the table belongs to
+     * @return the schema
+     */
+    Schema getOwner()
+    {
+        return owner;
+    }
+
+    /**
+     * Discard the cached fingerprint, and that of the schema the table is in
+     */
+    void changed()
+    {
+        fingerprint = null;
+        if (owner != null)
+        {
+            owner.changed();
+        }
+    }
+
+    /**
+     * Compare to another object for equality. The order that the columns
+     * were declared in is not compared, in the same way as the fingerprint
      * @param obj the object to compare to
      * @return True if equal. False if not
      */
@@ -147,6 +376,14 @@ public class Table {
             return false;
         }
         final Table other = (Table) obj;
+        if (this == other)
+        {
+            return true;
+        }
+        if (!this.getFingerprint().equals(other.getFingerprint()))
+        {
+            return false;
+        }
         if ((this.name == null) ? (other.name != null) : !this.name.equals(other.name))
         {
             return false;
@@ -155,30 +392,30 @@ public class Table {
         {
             return false;
         }
-        if (this.keyColumns != other.keyColumns && (this.keyColumns == null || !this.keyColumns.equals(other.keyColumns)))
+        if (this.columnCount != other.columnCount)
         {
             return false;
         }
-        if (this.columns != other.columns && (this.columns == null || !this.columns.equals(other.columns)))
+        for (int i = 0; i < columnCount; ++i)
         {
-            return false;
+            int otherOrdinal = other.getOrdinal(columns[i].getName());
+            if (otherOrdinal < 0 || keyColumns.get(i) != other.keyColumns.get(otherOrdinal)
+                    || !columns[i].equals(other.columns[otherOrdinal]))
+            {
+                return false;
+            }
         }
         return true;
     }
 
     /**
-     * Generate a hashcode for the object
+     * Generate a hashcode for the object, from the fingerprint
      * @return the hashcode
      */
     @Override
     public int hashCode()
     {
-        int hash = 7;
-        hash = 29 * hash + (this.name != null ? this.name.hashCode() : 0);
-        hash = 29 * hash + (this.comment != null ? this.comment.hashCode() : 0);
-        hash = 29 * hash + (this.keyColumns != null ? this.keyColumns.hashCode() : 0);
-        hash = 29 * hash + (this.columns != null ? this.columns.hashCode() : 0);
-        return hash;
+        return getFingerprint().hashCode();
     }
 
     /**
@@ -188,7 +425,7 @@ public class Table {
     @Override
     public String toString()
     {
-        return "Table{" + "name=" + name + "comment=" + comment + "keyColumns=" + keyColumns + "columns=" + columns + '}';
+        return "Table{" + "name=" + name + "comment=" + comment + "keyColumns=" + getKeyColumns() + "columns=" + getAllColumns() + '}';
     }
 
 
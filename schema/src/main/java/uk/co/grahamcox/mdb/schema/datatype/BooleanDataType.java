@@ -20,11 +20,40 @@ package uk.co.grahamcox.mdb.schema.datatype;
 import uk.co.grahamcox.mdb.schema.DataType;
 
 /**
- * Representation of a Boolean data type
+ * Representation of a Boolean data type. There is only ever one instance,
+ * which is obtained from the {@link DataTypeRegistry}
  * @author graham
  */
 public class BooleanDataType implements DataType {
 
+    /**
+     * Create the data type
+     */
+    BooleanDataType() {
+    }
+
+    /**
+     * Compare to another object for equality
+     * @param obj the object to compare to
+     * @return True if equals. False if not
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == null) {
+            return false;
+        }
+        return getClass() == obj.getClass();
+    }
+
+    /**
+     * Generate a hashcode for the object
+     * @return the hashcode
+     */
+    @Override
+    public int hashCode() {
+        return 3;
+    }
+
     /**
      * Generate a string for the object
      * @return the string
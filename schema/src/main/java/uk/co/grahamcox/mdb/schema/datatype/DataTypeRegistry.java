@@ -0,0 +1,274 @@
+/*
+ * Copyright (C) 2011 graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.grahamcox.mdb.schema.datatype;
+
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import uk.co.grahamcox.mdb.schema.DataType;
+
+/**
+ * Registry of the canonical instance of every data type. Data types are
+ * immutable, so every column with the same type shares the one instance and
+ * two types are equal only if they are the same object. Type specifications
+ * such as "varchar(1000)" or "timestamp(3) without time zone" are parsed once
+ * and the result remembered, so parsing the same specification again is a
+ * single map lookup. The registry is safe to use from many threads at once
+ * @author graham
+ */
+public class DataTypeRegistry {
+    /** The largest precision of a number */
+    public static final int MAX_NUMBER_PRECISION = 38;
+    /** The largest precision of a timestamp */
+    public static final int MAX_TIMESTAMP_PRECISION = 6;
+
+    /** The pattern that a type specification must match */
+    private static final Pattern SPEC = Pattern.compile(
+            "([a-z]+(?: [a-z]+)*?)(?: ?\\( ?(\\d+) ?(?:, ?(\\d+) ?)?\\))?(?: (with|without) time zone)?");
+
+    /** The shared registry */
+    private static final DataTypeRegistry INSTANCE = new DataTypeRegistry();
+
+    /** The only Boolean data type */
+    private final BooleanDataType booleanType = new BooleanDataType();
+    /** The canonical instance of each data type, keyed by itself */
+    private final ConcurrentMap<DataType, DataType> canonical = new ConcurrentHashMap<DataType, DataType>();
+    /** The data types that have already been parsed, keyed by specification */
+    private final ConcurrentMap<String, DataType> parsed = new ConcurrentHashMap<String, DataType>();
+
+    /**
+     * Get the shared registry
+     * @return the registry
+     */
+    public static DataTypeRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Create the registry
+     */
+    private DataTypeRegistry() {
+        canonical.put(booleanType, booleanType);
+    }
+
+    /**
+     * Get the Boolean data type
+     * @return the data type
+     */
+    public BooleanDataType getBoolean() {
+        return booleanType;
+    }
+
+    /**
+     * Get the default number data type, NUMERIC(38, 0)
+     * @return the data type
+     */
+    public NumberDataType getNumber() {
+        return getNumber(MAX_NUMBER_PRECISION, 0);
+    }
+
+    /**
+     * Get the number data type with the given precision and scale
+     * @param precision the precision, from 1 to 38
+     * @param scale the scale, from 0 to the precision
+     * @return the data type
+     * @throws IllegalArgumentException if the precision or scale are out of range
+     */
+    public NumberDataType getNumber(int precision, int scale) {
+        if (precision < 1 || precision > MAX_NUMBER_PRECISION) {
+            throw new IllegalArgumentException("Invalid number precision: " + precision);
+        }
+        if (scale < 0 || scale > precision) {
+            throw new IllegalArgumentException("Invalid number scale: " + scale);
+        }
+        return canonical(new NumberDataType(precision, scale));
+    }
+
+    /**
+     * Get the default string data type, TEXT
+     * @return the data type
+     */
+    public StringDataType getString() {
+        return getString(null, true);
+    }
+
+    /**
+     * Get the string data type with the given size
+     * @param size the size of the string, or null for unlimited
+     * @param variableSize True if the string is of Variable size. False if
+     * the string is of Fixed size
+     * @return the data type
+     * @throws IllegalArgumentException if the size is out of range
+     */
+    public StringDataType getString(Integer size, boolean variableSize) {
+        if (size != null && size < 1) {
+            throw new IllegalArgumentException("Invalid string size: " + size);
+        }
+        if (size == null && !variableSize) {
+            throw new IllegalArgumentException("Fixed size strings must have a size");
+        }
+        return canonical(new StringDataType(size, variableSize));
+    }
+
+    /**
+     * Get the default timestamp data type, TIMESTAMP(6) WITH TIME ZONE
+     * @return the data type
+     */
+    public TimestampDataType getTimestamp() {
+        return getTimestamp(TimestampDataType.Type.DATE_AND_TIME, true, MAX_TIMESTAMP_PRECISION);
+    }
+
+    /**
+     * Get the timestamp data type with the given settings. A date has no
+     * time part, so it is always given no timezone and a precision of 0
+     * @param type the type of date/time stored
+     * @param withTimezone True if the value stored includes timezone
+     * @param precision the precision of the value stored, from 0 to 6
+     * @return the data type
+     * @throws IllegalArgumentException if the precision is out of range
+     */
+    public TimestampDataType getTimestamp(TimestampDataType.Type type, boolean withTimezone, int precision) {
+        if (type == null) {
+            throw new IllegalArgumentException("No timestamp type given");
+        }
+        if (precision < 0 || precision > MAX_TIMESTAMP_PRECISION) {
+            throw new IllegalArgumentException("Invalid timestamp precision: " + precision);
+        }
+        if (type == TimestampDataType.Type.DATE) {
+            return canonical(new TimestampDataType(type, false, 0));
+        }
+        return canonical(new TimestampDataType(type, withTimezone, precision));
+    }
+
+    /**
+     * Get the data type for the given type specification. The name is one
+     * of boolean, number, numeric, decimal, string, text, varchar, char,
+     * timestamp, date or time, optionally followed by a size or precision
+     * and scale in brackets and, for times, "with time zone" or "without
+     * time zone". Names are not case sensitive
+     * @param spec the type specification
+     * @return the data type
+     * @throws IllegalArgumentException if the specification is not valid
+     */
+    public DataType parse(String spec) {
+        DataType result = parsed.get(spec);
+        if (result == null) {
+            result = parseSpec(spec);
+            parsed.putIfAbsent(spec, result);
+        }
+        return result;
+    }
+
+    /**
+     * Get the data type with the given name and settings, as if parsing the
+     * equivalent type specification
+     * @param name the name of the type
+     * @param size the size or precision of the type, or null for the default
+     * @param scale the scale of a number, or null for the default
+     * @param withTimezone whether a time has a timezone, or null for the default
+     * @return the data type
+     * @throws IllegalArgumentException if the settings are not valid
+     */
+    public DataType get(String name, Integer size, Integer scale, Boolean withTimezone) {
+        if (name == null) {
+            throw new IllegalArgumentException("No data type name given");
+        }
+        StringBuilder spec = new StringBuilder(name);
+        if (size != null) {
+            spec.append('(').append(size);
+            if (scale != null) {
+                spec.append(',').append(scale);
+            }
+            spec.append(')');
+        }
+        else if (scale != null) {
+            spec.append('(').append(MAX_NUMBER_PRECISION).append(',').append(scale).append(')');
+        }
+        if (withTimezone != null) {
+            spec.append(withTimezone ? " with time zone" : " without time zone");
+        }
+        return parse(spec.toString());
+    }
+
+    /**
+     * Actually parse a type specification
+     * @param spec the type specification
+     * @return the data type
+     * @throws IllegalArgumentException if the specification is not valid
+     */
+    private DataType parseSpec(String spec) {
+        String normalised = spec.trim().toLowerCase(Locale.ENGLISH).replaceAll("\\s+", " ");
+        Matcher matcher = SPEC.matcher(normalised);
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Invalid data type: " + spec);
+        }
+        String name = matcher.group(1);
+        Integer first = matcher.group(2) == null ? null : Integer.valueOf(matcher.group(2));
+        Integer second = matcher.group(3) == null ? null : Integer.valueOf(matcher.group(3));
+        String zone = matcher.group(4);
+        if (zone != null && !("timestamp".equals(name) || "time".equals(name))) {
+            throw new IllegalArgumentException("Only times can have a time zone: " + spec);
+        }
+        if (second != null && !("number".equals(name) || "numeric".equals(name) || "decimal".equals(name))) {
+            throw new IllegalArgumentException("Only numbers can have a scale: " + spec);
+        }
+
+        if ("boolean".equals(name) || "bool".equals(name)) {
+            if (first != null) {
+                throw new IllegalArgumentException("Booleans do not have a size: " + spec);
+            }
+            return getBoolean();
+        }
+        else if ("number".equals(name) || "numeric".equals(name) || "decimal".equals(name)) {
+            return getNumber(first == null ? MAX_NUMBER_PRECISION : first, second == null ? 0 : second);
+        }
+        else if ("string".equals(name) || "text".equals(name) || "varchar".equals(name)
+                || "character varying".equals(name)) {
+            return getString(first, true);
+        }
+        else if ("char".equals(name) || "character".equals(name)) {
+            return getString(first == null ? 1 : first, false);
+        }
+        else if ("timestamp".equals(name) || "time".equals(name)) {
+            TimestampDataType.Type type = "time".equals(name)
+                    ? TimestampDataType.Type.TIME : TimestampDataType.Type.DATE_AND_TIME;
+            return getTimestamp(type, !"without".equals(zone), first == null ? MAX_TIMESTAMP_PRECISION : first);
+        }
+        else if ("date".equals(name)) {
+            if (first != null) {
+                throw new IllegalArgumentException("Dates do not have a precision: " + spec);
+            }
+            return getTimestamp(TimestampDataType.Type.DATE, false, 0);
+        }
+        throw new IllegalArgumentException("Unknown data type: " + spec);
+    }
+
+    /**
+     * Get the canonical instance of the given data type, making it the
+     * canonical one if there isn't one already
+     * @param <T> the class of the data type
+     * @param dataType the data type
+     * @return the canonical instance
+     */
+    @SuppressWarnings("unchecked")
+    private <T extends DataType> T canonical(T dataType) {
+        DataType existing = canonical.putIfAbsent(dataType, dataType);
+        return existing == null ? dataType : (T) existing;
+    }
+}
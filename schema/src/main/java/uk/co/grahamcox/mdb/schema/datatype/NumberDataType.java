@@ -23,33 +23,37 @@ import uk.co.grahamcox.mdb.schema.DataType;
 
 /**
  * Representation of an Exact Numeric data type
- * The default if not changed is NUMERIC(38, 0)
+ * The default is NUMERIC(38, 0). Instances are immutable and are obtained
+ * from the {@link DataTypeRegistry}, which hands out one shared instance
+ * for each precision and scale
  * @author graham
  */
 public class NumberDataType implements DataType {
     /** The precision of the number */
     @Min(1)
     @Max(38)
-    private int precision = 38;
+    private final int precision;
     /** The scale of the number */
     @Min(0)
     @Max(38)
-    private int scale = 0;
+    private final int scale;
 
     /**
-     * Get the precision of the number
-     * @return the precision
+     * Create the data type
+     * @param precision the precision of the number
+     * @param scale the scale of the number
      */
-    public int getPrecision() {
-        return precision;
+    NumberDataType(int precision, int scale) {
+        this.precision = precision;
+        this.scale = scale;
     }
 
     /**
-     * Set the precision of the number
-     * @param precision the precision
+     * Get the precision of the number
+     * @return the precision
      */
-    public void setPrecision(int precision) {
-        this.precision = precision;
+    public int getPrecision() {
+        return precision;
     }
 
     /**
@@ -60,14 +64,6 @@ public class NumberDataType implements DataType {
         return scale;
     }
 
-    /**
-     * Set the scale of the number
-     * @param scale the scale
-     */
-    public void setScale(int scale) {
-        this.scale = scale;
-    }
-
     /**
      * Compare to another object for equality
      * @param obj the object to compare to
@@ -75,6 +71,9 @@ public class NumberDataType implements DataType {
      */
     @Override
     public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
         if (obj == null) {
             return false;
         }
@@ -22,31 +22,35 @@ import javax.validation.constraints.Min;
 
 /**
  * Datatype Implementation for a String data type
- * The default if not changed is TEXT
+ * The default is TEXT. Instances are immutable and are obtained from the
+ * {@link DataTypeRegistry}, which hands out one shared instance for each size
  * @author graham
  */
 public class StringDataType implements DataType {
     /** The size of the string. Null implies unlimited */
     @Min(1)
-    private Integer size = null;
+    private final Integer size;
     
     /** Whether the string is of a fixed or variable size */
-    private boolean variableSize = true;
+    private final boolean variableSize;
 
     /**
-     * Get the size of the string
-     * @return the size of the string
+     * Create the data type
+     * @param size the size of the string, or null for unlimited
+     * @param variableSize True if the string is of Variable size. False if
+     * the string is of Fixed size
      */
-    public Integer getSize() {
-        return size;
+    StringDataType(Integer size, boolean variableSize) {
+        this.size = size;
+        this.variableSize = variableSize;
     }
 
     /**
-     * Set the size of the string
-     * @param size the size of the string
+     * Get the size of the string
+     * @return the size of the string
      */
-    public void setSize(Integer size) {
-        this.size = size;
+    public Integer getSize() {
+        return size;
     }
 
     /**
@@ -58,15 +62,6 @@ public class StringDataType implements DataType {
         return variableSize;
     }
 
-    /**
-     * Set if the string is of a fixed or variable size
-     * @param variableSize True if the string is of Variable size. False if the 
-     * string is of Fixed size
-     */
-    public void setVariableSize(boolean variableSize) {
-        this.variableSize = variableSize;
-    }
-
     /**
      * Compare to another object for equality
      * @param obj the object to compare to
@@ -74,6 +69,9 @@ public class StringDataType implements DataType {
      */
     @Override
     public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
         if (obj == null) {
             return false;
         }
@@ -20,13 +20,16 @@ package uk.co.grahamcox.mdb.schema.datatype;
 import javax.validation.constraints.Max;
 import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
+import uk.co.grahamcox.mdb.schema.DataType;
 
 /**
  * Representation of a Date or Time data type
- * The default if not changed is TIMESTAMP(6) WITH TIME ZONE
+ * The default is TIMESTAMP(6) WITH TIME ZONE. Instances are immutable and are
+ * obtained from the {@link DataTypeRegistry}, which hands out one shared
+ * instance for each combination of settings
  * @author graham
  */
-public class TimestampDataType {
+public class TimestampDataType implements DataType {
     /**
      * Enumeration of the type of date/time stored
      */
@@ -41,30 +44,34 @@ public class TimestampDataType {
     
     /** The type of date/time stored */
     @NotNull
-    private Type type = Type.DATE_AND_TIME;
+    private final Type type;
     
     /** Store the timezone as well, if a time is stored */
-    private boolean withTimezone = true;
+    private final boolean withTimezone;
     
     /** The precision of the value stored */
     @Min(0)
     @Max(6)
-    private int precision = 6;
+    private final int precision;
 
     /**
-     * Get the precision
-     * @return the precision
+     * Create the data type
+     * @param type the type of date/time stored
+     * @param withTimezone True if the value stored includes timezone
+     * @param precision the precision of the value stored
      */
-    public int getPrecision() {
-        return precision;
+    TimestampDataType(Type type, boolean withTimezone, int precision) {
+        this.type = type;
+        this.withTimezone = withTimezone;
+        this.precision = precision;
     }
 
     /**
-     * Set the precision
-     * @param precision the precision 
+     * Get the precision
+     * @return the precision
      */
-    public void setPrecision(int precision) {
-        this.precision = precision;
+    public int getPrecision() {
+        return precision;
     }
 
     /**
@@ -75,14 +82,6 @@ public class TimestampDataType {
         return type;
     }
 
-    /**
-     * Set the type
-     * @param type the type 
-     */
-    public void setType(Type type) {
-        this.type = type;
-    }
-
     /**
      * Check if the value stored includes timezone
      * @return True if the value stored includes timezone. False if not
@@ -91,14 +90,6 @@ public class TimestampDataType {
         return withTimezone;
     }
 
-    /**
-     * Change if the value stored includes timezone
-     * @param withTimezone True if the value stored includes timezone. False if not
-     */
-    public void setWithTimezone(boolean withTimezone) {
-        this.withTimezone = withTimezone;
-    }
-
     /**
      * Compare to another object for equality
      * @param obj the object to compare to
@@ -106,6 +97,9 @@ public class TimestampDataType {
      */
     @Override
     public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
         if (obj == null) {
             return false;
         }
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2011 graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.grahamcox.mdb.schema;
+
+import java.util.List;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author graham
+ */
+public class TestColumnOrder {
+    private Table table(int columns) {
+        Table table = new Table("user");
+        table.addColumn(new Column("c0"));
+        table.addKeyColumn(new Column("id"));
+        for (int i = 1; i < columns; ++i) {
+            table.addColumn(new Column("c" + i));
+        }
+        return table;
+    }
+
+    @Test
+    public void testDeclarationOrder() {
+        Table table = table(20);
+        Assert.assertEquals(table.getColumnCount(), 21);
+        List<Column> all = table.getAllColumns();
+        Assert.assertEquals(all.get(0).getName(), "c0");
+        Assert.assertEquals(all.get(1).getName(), "id");
+        for (int i = 1; i < 20; ++i) {
+            Assert.assertEquals(all.get(i + 1).getName(), "c" + i);
+            Assert.assertEquals(table.getOrdinal("c" + i), i + 1);
+        }
+        Assert.assertEquals(table.getKeyColumns().size(), 1);
+        Assert.assertEquals(table.getKeyColumns().get(0).getName(), "id");
+        Assert.assertEquals(table.getStandardColumns().get(1).getName(), "c1");
+        Assert.assertTrue(table.isKeyColumn("id"));
+        Assert.assertTrue(table.isKeyColumn(1));
+        Assert.assertFalse(table.isKeyColumn("c0"));
+        Assert.assertFalse(table.isKeyColumn("missing"));
+        Assert.assertEquals(table.getOrdinal("missing"), -1);
+        Assert.assertNull(table.getColumn("missing"));
+    }
+
+    @Test
+    public void testReplaceKeepsPosition() {
+        Table table = table(3);
+        Column replacement = new Column("c0");
+        replacement.setNullable(false);
+        table.addKeyColumn(replacement);
+        Assert.assertEquals(table.getColumnCount(), 4);
+        Assert.assertSame(table.getColumn(0), replacement);
+        Assert.assertEquals(table.getKeyColumns().size(), 2);
+    }
+
+    @Test
+    public void testEqualityIgnoresOrder() {
+        Table first = new Table("user");
+        first.addKeyColumn(new Column("id"));
+        first.addColumn(new Column("name"));
+        Table second = new Table("user");
+        second.addColumn(new Column("name"));
+        second.addKeyColumn(new Column("id"));
+        Assert.assertEquals(first, second);
+        Assert.assertEquals(first.getFingerprint(), second.getFingerprint());
+        second.addColumn(new Column("email"));
+        Assert.assertFalse(first.equals(second));
+    }
+
+    @Test(expectedExceptions=IndexOutOfBoundsException.class)
+    public void testBadOrdinal() {
+        table(2).getColumn(3);
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2011 graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.grahamcox.mdb.schema;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import uk.co.grahamcox.mdb.schema.datatype.DataTypeRegistry;
+import uk.co.grahamcox.mdb.schema.datatype.NumberDataType;
+import uk.co.grahamcox.mdb.schema.datatype.StringDataType;
+import uk.co.grahamcox.mdb.schema.datatype.TimestampDataType;
+
+/**
+ *
+ * @author graham
+ */
+public class TestDataTypeRegistry {
+    private final DataTypeRegistry registry = DataTypeRegistry.getInstance();
+
+    @Test
+    public void testCanonical() {
+        Assert.assertSame(registry.parse("varchar(1000)"), registry.getString(1000, true));
+        Assert.assertSame(registry.parse("VARCHAR ( 1000 )"), registry.parse("string(1000)"));
+        Assert.assertSame(registry.parse("numeric(10, 2)"), registry.getNumber(10, 2));
+        Assert.assertSame(registry.parse("number"), registry.getNumber());
+        Assert.assertSame(registry.parse("text"), registry.getString());
+        Assert.assertSame(registry.parse("boolean"), registry.getBoolean());
+        Assert.assertSame(registry.get("number", 10, 2, null), registry.getNumber(10, 2));
+        Assert.assertNotSame(registry.parse("varchar(100)"), registry.parse("char(100)"));
+    }
+
+    @Test
+    public void testParse() {
+        NumberDataType number = (NumberDataType) registry.parse("decimal(12,4)");
+        Assert.assertEquals(number.getPrecision(), 12);
+        Assert.assertEquals(number.getScale(), 4);
+
+        StringDataType string = (StringDataType) registry.parse("character(5)");
+        Assert.assertEquals(string.getSize(), Integer.valueOf(5));
+        Assert.assertFalse(string.isVariableSize());
+        Assert.assertSame(registry.parse("character varying(5)"), registry.getString(5, true));
+
+        TimestampDataType timestamp = (TimestampDataType) registry.parse("timestamp(3) without time zone");
+        Assert.assertEquals(timestamp.getType(), TimestampDataType.Type.DATE_AND_TIME);
+        Assert.assertEquals(timestamp.getPrecision(), 3);
+        Assert.assertFalse(timestamp.isWithTimezone());
+        Assert.assertSame(registry.parse("timestamp"), registry.getTimestamp());
+        Assert.assertSame(registry.parse("time(0) with time zone"),
+                registry.getTimestamp(TimestampDataType.Type.TIME, true, 0));
+        Assert.assertSame(registry.parse("date"), registry.getTimestamp(TimestampDataType.Type.DATE, true, 6));
+    }
+
+    @Test(expectedExceptions=IllegalArgumentException.class)
+    public void testUnknownType() {
+        registry.parse("blob");
+    }
+
+    @Test(expectedExceptions=IllegalArgumentException.class)
+    public void testInvalidScale() {
+        registry.parse("number(5,6)");
+    }
+
+    @Test(expectedExceptions=IllegalArgumentException.class)
+    public void testTimezoneOnNumber() {
+        registry.parse("number with time zone");
+    }
+}
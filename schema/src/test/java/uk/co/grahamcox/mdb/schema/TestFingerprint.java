@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2011 graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package uk.co.grahamcox.mdb.schema;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import uk.co.grahamcox.mdb.schema.datatype.DataTypeRegistry;
+
+/**
+ *
+ * @author graham
+ */
+public class TestFingerprint {
+    private Column column(String name) {
+        Column column = new Column(name);
+        column.setDataType(name.equals("id") ? DataTypeRegistry.getInstance().getNumber() : DataTypeRegistry.getInstance().getString());
+        return column;
+    }
+
+    private Database database(boolean reversed) {
+        Table user = new Table("user");
+        Table role = new Table("role");
+        if (reversed) {
+            user.addColumn(column("name"));
+            user.addKeyColumn(column("id"));
+            role.addKeyColumn(column("id"));
+        }
+        else {
+            user.addKeyColumn(column("id"));
+            user.addColumn(column("name"));
+            role.addKeyColumn(column("id"));
+        }
+        Schema schema = new Schema("users");
+        schema.addTable(reversed ? role : user);
+        schema.addTable(reversed ? user : role);
+        Database database = new Database();
+        database.addSchema(schema);
+        database.addSchema(new Schema("utils"));
+        return database;
+    }
+
+    @Test
+    public void testOrderIndependent() {
+        Assert.assertEquals(database(true).getFingerprint(), database(false).getFingerprint());
+        Assert.assertEquals(database(true), database(false));
+    }
+
+    @Test
+    public void testChangeInvalidatesParents() {
+        Database database = database(false);
+        Fingerprint before = database.getFingerprint();
+        Fingerprint schemaBefore = database.getSchema("users").getFingerprint();
+        Fingerprint roleBefore = database.getSchema("users").getTable("role").getFingerprint();
+
+        database.getSchema("users").getTable("user").getColumn("name").setNullable(false);
+        Assert.assertFalse(database.getFingerprint().equals(before));
+        Assert.assertFalse(database.getSchema("users").getFingerprint().equals(schemaBefore));
+        Assert.assertEquals(database.getSchema("users").getTable("role").getFingerprint(), roleBefore);
+        Assert.assertFalse(database.equals(database(false)));
+
+        database.getSchema("users").getTable("user").getColumn("name").setNullable(true);
+        Assert.assertEquals(database.getFingerprint(), before);
+    }
+
+    @Test
+    public void testKeyColumnsSignificant() {
+        Table keyed = new Table("user");
+        keyed.addKeyColumn(column("id"));
+        Table unkeyed = new Table("user");
+        unkeyed.addColumn(column("id"));
+        Assert.assertFalse(keyed.getFingerprint().equals(unkeyed.getFingerprint()));
+    }
+
+    @Test
+    public void testRemoveInvalidates() {
+        Database database = database(false);
+        Fingerprint before = database.getFingerprint();
+        Table removed = database.getSchema("users").removeTable("role");
+        Assert.assertFalse(database.getFingerprint().equals(before));
+        database.getSchema("users").addTable(removed);
+        Assert.assertEquals(database.getFingerprint(), before);
+    }
+
+    @Test
+    public void testParse() {
+        Fingerprint fingerprint = database(false).getFingerprint();
+        Assert.assertEquals(fingerprint.toString().length(), 32);
+        Assert.assertEquals(Fingerprint.parse(fingerprint.toString()), fingerprint);
+        Assert.assertEquals(Fingerprint.parse("ffffffffffffffff0000000000000001"), new Fingerprint(-1L, 1L));
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2011 graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package uk.co.grahamcox.mdb.schema;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author graham
+ */
+public class TestFreeze {
+    private Database database;
+
+    @BeforeMethod
+    public void setUp() {
+        Table table = new Table("user");
+        table.addKeyColumn(new Column("id"));
+        table.addColumn(new Column("name"));
+        table.addColumn(new Column("email"));
+        Schema schema = new Schema("users");
+        schema.addTable(table);
+        database = new Database();
+        database.addSchema(schema);
+    }
+
+    private Table table() {
+        return database.getSchema("users").getTable("user");
+    }
+
+    @Test
+    public void testViewsReused() {
+        Assert.assertNotSame(table().getAllColumns(), table().getAllColumns());
+        database.freeze();
+        Assert.assertTrue(database.isFrozen());
+        Assert.assertTrue(table().getColumn("id").isFrozen());
+        Assert.assertSame(table().getKeyColumns(), table().getKeyColumns());
+        Assert.assertSame(table().getStandardColumns(), table().getStandardColumns());
+        Assert.assertSame(table().getAllColumns(), table().getAllColumns());
+        Assert.assertSame(database.getSchemas(), database.getSchemas());
+        Assert.assertEquals(table().getKeyColumns().size(), 1);
+        Assert.assertEquals(table().getStandardColumns().size(), 2);
+        Assert.assertEquals(table().getAllColumns().size(), 3);
+    }
+
+    @Test(expectedExceptions=IllegalStateException.class)
+    public void testFrozenColumn() {
+        database.freeze();
+        table().getColumn("name").setNullable(false);
+    }
+
+    @Test(expectedExceptions=IllegalStateException.class)
+    public void testFrozenTable() {
+        database.freeze();
+        table().addColumn(new Column("age"));
+    }
+
+    @Test(expectedExceptions=IllegalStateException.class)
+    public void testFrozenDatabase() {
+        database.freeze();
+        database.addSchema(new Schema("utils"));
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2011 graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.grahamcox.mdb.schema;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author graham
+ */
+public class TestNameDictionary {
+    @Test
+    public void testIntern() {
+        NameDictionary names = new NameDictionary();
+        String id = names.intern(new String("id"));
+        Assert.assertSame(names.intern(new String("id")), id);
+        Assert.assertNull(names.intern(null));
+        Assert.assertEquals(names.size(), 1);
+    }
+
+    @Test
+    public void testIds() {
+        NameDictionary names = new NameDictionary();
+        Assert.assertEquals(names.getId("id"), 0);
+        Assert.assertEquals(names.getId("name"), 1);
+        Assert.assertEquals(names.getId("id"), 0);
+        Assert.assertEquals(names.findId("name"), 1);
+        Assert.assertEquals(names.findId("email"), -1);
+        Assert.assertEquals(names.getName(1), "name");
+        Assert.assertEquals(names.size(), 2);
+    }
+
+    @Test
+    public void testConcurrentInterning() throws Exception {
+        final NameDictionary names = new NameDictionary();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; ++t) {
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 1000; ++i) {
+                        names.intern("column" + i);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(names.size(), 1000);
+        for (int i = 0; i < 1000; ++i) {
+            Assert.assertEquals(names.getName(names.getId("column" + i)), "column" + i);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2011 graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.grahamcox.mdb.schema;
+
+import java.util.Arrays;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author graham
+ */
+public class TestSchemaTemplate {
+    private SchemaTemplate template;
+
+    private Schema schema(String name) {
+        Table table = new Table("user");
+        table.addKeyColumn(new Column("id"));
+        table.addColumn(new Column("name"));
+        Schema schema = new Schema(name);
+        schema.setComment("Tenant");
+        schema.addTable(table);
+        return schema;
+    }
+
+    @BeforeMethod
+    public void setUp() {
+        template = new SchemaTemplate(schema("template"));
+        template.addSchemaNames(Arrays.asList("tenant1", "tenant2"));
+        template.addSchemaName("tenant1");
+    }
+
+    @Test
+    public void testInstantiate() {
+        Assert.assertTrue(template.getTemplate().isFrozen());
+        Schema tenant = template.instantiate("tenant1");
+        Assert.assertEquals(tenant.getName(), "tenant1");
+        Assert.assertEquals(tenant.getComment(), "Tenant");
+        Assert.assertTrue(tenant.isFrozen());
+        Assert.assertSame(tenant.getTable("user"), template.getTemplate().getTable("user"));
+    }
+
+    @Test
+    public void testAddTo() {
+        Database database = new Database();
+        template.addTo(database);
+        Assert.assertEquals(database.getSchemas().size(), 2);
+        Assert.assertSame(database.getSchema("tenant1").getTable("user"), database.getSchema("tenant2").getTable("user"));
+    }
+
+    @Test
+    public void testShape() {
+        Assert.assertEquals(SchemaTemplate.shape(schema("tenant1")), SchemaTemplate.shape(schema("tenant2")));
+        Assert.assertEquals(SchemaTemplate.shape(template.instantiate("tenant3")), SchemaTemplate.shape(schema("tenant4")));
+        Assert.assertFalse(schema("tenant1").getFingerprint().equals(schema("tenant2").getFingerprint()));
+
+        Schema changed = schema("tenant1");
+        changed.getTable("user").addColumn(new Column("email"));
+        Assert.assertFalse(SchemaTemplate.shape(changed).equals(SchemaTemplate.shape(schema("tenant1"))));
+        Assert.assertNull(SchemaTemplate.shape(null));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testSharedTableNotFrozen() {
+        Schema tenant = schema("tenant1");
+        new Schema("tenant2").addTable(tenant.getTable("user"));
+    }
+
+    @Test
+    public void testMovedTable() {
+        Schema tenant = schema("tenant1");
+        Table table = tenant.removeTable("user");
+        Schema other = new Schema("tenant2");
+        other.addTable(table);
+        Fingerprint before = other.getFingerprint();
+        table.addColumn(new Column("email"));
+        Assert.assertFalse(other.getFingerprint().equals(before));
+    }
+}